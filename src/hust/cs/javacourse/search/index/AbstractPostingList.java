@@ -98,4 +98,88 @@ public abstract class AbstractPostingList implements FileSerializable{
      */
     public  abstract void sort();
 
+    /**
+     * <pre>
+     * 返回按docId从小到大遍历的迭代器，PostingList必须已经按docId排序.
+     *      缺省实现通过get访问Posting，advance在剩余的Posting里二分查找;
+     *      子类可以覆盖以利用自己的存储结构
+     * @return ：迭代器，遍历期间PostingList不能被修改
+     * </pre>
+     */
+    public AbstractPostingsIterator iterator() {
+        return new ListPostingsIterator(this);
+    }
+
+    /**
+     * 通过get访问Posting的迭代器
+     */
+    private static class ListPostingsIterator extends AbstractPostingsIterator {
+        private final AbstractPostingList postings;
+        private final int size;
+        private int index = -1;
+        private AbstractPosting current = null;
+
+        ListPostingsIterator(AbstractPostingList postings) {
+            this.postings = postings;
+            this.size = postings.size();
+        }
+
+        @Override
+        public int docId() {
+            if (index < 0) {
+                return -1;
+            }
+            return current == null ? NO_MORE_DOCS : current.getDocId();
+        }
+
+        @Override
+        public int nextDoc() {
+            return moveTo(index + 1);
+        }
+
+        @Override
+        public int advance(int target) {
+            int doc = docId();
+            if (doc >= target) {
+                return doc;
+            }
+            int low = index + 1;
+            int high = size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (postings.get(mid).getDocId() < target) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return moveTo(low);
+        }
+
+        private int moveTo(int i) {
+            index = Math.min(i, size);
+            current = index < size ? postings.get(index) : null;
+            return docId();
+        }
+
+        @Override
+        public int freq() {
+            return current.getFreq();
+        }
+
+        @Override
+        public List<Integer> positions() {
+            return current.getPositions();
+        }
+
+        @Override
+        public AbstractPosting posting() {
+            return current;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
 }
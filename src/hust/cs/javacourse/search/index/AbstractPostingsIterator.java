@@ -0,0 +1,71 @@
+package hust.cs.javacourse.search.index;
+
+import java.util.List;
+
+/**
+ * <pre>
+ * AbstractPostingsIterator是按docId从小到大遍历PostingList的迭代器的抽象父类.
+ *      迭代器开始时位于第一个Posting之前，docId()返回-1；遍历结束后docId()返回NO_MORE_DOCS.
+ *      advance(target)直接跳到第一个docId不小于target的Posting，具体子类可以利用跳表或块摘要跳过整块Posting.
+ *      求两个PostingList的交集时用较短的PostingList驱动，对较长的PostingList调用advance，
+ *      花费的时间大致与较短的PostingList成正比.
+ * </pre>
+ */
+public abstract class AbstractPostingsIterator {
+    /**
+     * 遍历结束时的docId
+     */
+    public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    /**
+     * 当前Posting的docId
+     * @return ：docId；还没有调用nextDoc或advance时返回-1，遍历结束返回NO_MORE_DOCS
+     */
+    public abstract int docId();
+
+    /**
+     * 移到下一个Posting
+     * @return ：下一个Posting的docId；没有了返回NO_MORE_DOCS
+     */
+    public abstract int nextDoc();
+
+    /**
+     * <pre>
+     * 移到第一个docId不小于target的Posting. 当前docId已经不小于target时不移动.
+     *      缺省实现逐个调用nextDoc，子类应该覆盖以跳过不需要的Posting
+     * @param target ：目标docId
+     * @return ：移到的Posting的docId；没有了返回NO_MORE_DOCS
+     * </pre>
+     */
+    public int advance(int target) {
+        int doc = docId();
+        while (doc < target) {
+            doc = nextDoc();
+        }
+        return doc;
+    }
+
+    /**
+     * 当前Posting的freq
+     * @return ：单词在当前文档里出现的次数
+     */
+    public abstract int freq();
+
+    /**
+     * 当前Posting的位置列表
+     * @return ：位置列表，不能修改
+     */
+    public abstract List<Integer> positions();
+
+    /**
+     * 当前Posting
+     * @return ：Posting对象
+     */
+    public abstract AbstractPosting posting();
+
+    /**
+     * PostingList的Posting个数，用于选择由哪个迭代器驱动求交集
+     * @return ：Posting个数
+     */
+    public abstract int size();
+}
@@ -0,0 +1,1020 @@
+package hust.cs.javacourse.search.index.impl;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * <pre>
+ * CompactTermDictionary是封存(不再修改)的索引使用的只读单词字典.
+ *      单词按字典序(String.compareTo)排列，序号(ordinal)从0开始;每个单词对应PostingList的偏移和文档频率df.
+ *      单词每BLOCK_SIZE个一块用前缀压缩(front coding)保存：每个单词只保存与前一个单词相同前缀的长度和剩余的字符，
+ *      块的第一个单词保存全部字符，查找一个单词最多解码一块.
+ *      块里各单词的df和偏移不和单词放在一起，而是在块头按位打包(frame of reference)：df减去块内最小的df，
+ *      偏移减去块的第一个单词的偏移，都用块内最大值需要的位数保存，取df和偏移不需要解码单词.
+ *      精确查找使用最小完美哈希(hash and displace)：单词先哈希到桶，每个桶保存一个位移种子，
+ *      使同一个桶的单词落到互不冲突的槽，n个单词正好占满n个槽，槽里保存单词所在的块号，再在块内顺序比较.
+ *      种子按SEED_BITS位打包，放不下的少数种子另外保存在按桶号排序的溢出表里.
+ *      前缀和范围查找在块的第一个单词上二分查找，再在块内顺序比较.
+ *      与TreeMap相比不为每个单词创建Term、String和树结点，每个单词只占10个字节左右.
+ * 每块的编码(vint表示VByte编码的int)：
+ *      vint    块内最小的df
+ *      byte    df的位数dfBits
+ *      byte    偏移的位数offsetBits
+ *      按位打包(低位在前)，补齐到整字节：块内每个单词的df - 最小的df各dfBits位，
+ *              第二个单词起每个单词的偏移 - 块的第一个单词的偏移各offsetBits位(块的起始偏移单独保存)
+ *      块内每个单词:
+ *          byte    高4位是与前一个单词相同前缀的长度，低4位是剩余的字符个数，等于15时后面再跟一个vint的超出部分
+ *          vint    每个剩余的字符
+ * 版本0的格式每个单词的编码里直接保存vint的df和偏移之差，槽里保存单词序号，读入时按新的格式重新构建.
+ * </pre>
+ */
+public final class CompactTermDictionary {
+    /**
+     * 每块的单词数
+     */
+    public static final int BLOCK_SIZE = 16;
+
+    /**
+     * 最小完美哈希每个桶的平均单词数. 越大桶的种子越少，但构建时越难找到不冲突的种子
+     */
+    private static final int BUCKET_LOAD = 4;
+
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+    /**
+     * 每个种子打包的位数. 种子大于等于SEED_ESCAPE时保存在溢出表里
+     */
+    private static final int SEED_BITS = 12;
+    private static final int SEED_ESCAPE = (1 << SEED_BITS) - 1;
+
+    /**
+     * 单词头里长度的位数上限，等于它时后面跟一个vint的超出部分
+     */
+    private static final int LENGTH_ESCAPE = 15;
+
+    /**
+     * writeTo写出的格式的版本. 版本0(之前保留的8个字节为0)是每个单词直接保存df和偏移之差的格式
+     */
+    private static final int LAYOUT = 1;
+
+    /**
+     * 单词数
+     */
+    private final int size;
+
+    /**
+     * 所有块的编码
+     */
+    private final byte[] data;
+
+    /**
+     * 每块在data里的起始下标
+     */
+    private final int[] blockStarts;
+
+    /**
+     * 每块第一个单词的PostingList偏移
+     */
+    private final long[] blockOffsets;
+
+    /**
+     * 哈希的盐. 构建时有两个单词的哈希值完全冲突才会换盐重建
+     */
+    private final long salt;
+
+    /**
+     * 桶数
+     */
+    private final int buckets;
+
+    /**
+     * 每个桶的位移种子，按SEED_BITS位打包
+     */
+    private final long[] seeds;
+
+    /**
+     * 种子放不下SEED_BITS位的桶号(从小到大)和它们的种子
+     */
+    private final int[] overflowBuckets;
+    private final int[] overflowSeeds;
+
+    /**
+     * 每个槽里的单词所在的块号，按bits位打包
+     */
+    private final long[] slots;
+    private final int bits;
+
+    private CompactTermDictionary(int size, byte[] data, int[] blockStarts, long[] blockOffsets, long salt,
+                                  int buckets, long[] seeds, int[] overflowBuckets, int[] overflowSeeds,
+                                  long[] slots, int bits) {
+        this.size = size;
+        this.data = data;
+        this.blockStarts = blockStarts;
+        this.blockOffsets = blockOffsets;
+        this.salt = salt;
+        this.buckets = buckets;
+        this.seeds = seeds;
+        this.overflowBuckets = overflowBuckets;
+        this.overflowSeeds = overflowSeeds;
+        this.slots = slots;
+        this.bits = bits;
+    }
+
+    /**
+     * 单词数
+     * @return ：单词数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 精确查找单词
+     * @param term ：单词内容
+     * @return ：单词的序号；没有返回-1
+     */
+    public int find(String term) {
+        if (size == 0) {
+            return -1;
+        }
+        long h = hash(term, salt);
+        int block = readPacked(slots, bits, slot(h, seed(bucket(h, buckets)), size));
+        return block < blockStarts.length ? indexOf(block, term) : -1;
+    }
+
+    /**
+     * 第一个不小于指定字符串的单词
+     * @param key ：字符串
+     * @return ：单词的序号；所有单词都比key小时返回size()
+     */
+    public int ceiling(String key) {
+        int low = 0;
+        int high = blockStarts.length - 1;
+        // 找最后一个第一个单词不大于key的块
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (compareFirst(mid, key) <= 0) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (size == 0 || compareFirst(low, key) > 0) {
+            return 0;
+        }
+        int ordinal = low * BLOCK_SIZE;
+        int end = Math.min(size, ordinal + BLOCK_SIZE);
+        Cursor cursor = new Cursor(low);
+        char[] chars = new char[key.length() + 16];
+        for (; ordinal < end; ordinal++) {
+            cursor.header();
+            if (chars.length < cursor.length) {
+                chars = Arrays.copyOf(chars, cursor.length * 2);
+            }
+            for (int i = cursor.shared; i < cursor.length; i++) {
+                chars[i] = cursor.nextChar();
+            }
+            if (compare(chars, cursor.length, key) >= 0) {
+                return ordinal;
+            }
+        }
+        return ordinal;
+    }
+
+    /**
+     * 以指定字符串为前缀的单词的序号范围，这些单词在字典序里是连续的
+     * @param prefix ：前缀
+     * @return ：{第一个序号, 最后一个序号 + 1}；没有这样的单词时两者相等
+     */
+    public int[] prefixRange(String prefix) {
+        int from = ceiling(prefix);
+        // 前缀之后第一个不以它开头的字符串：去掉末尾的Character.MAX_VALUE后把最后一个字符加一
+        int end = prefix.length();
+        while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+            end--;
+        }
+        int to = end == 0 ? size
+                : ceiling(prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1));
+        return new int[]{from, Math.max(from, to)};
+    }
+
+    /**
+     * 按序号从小到大依次解码指定范围内的单词
+     * @param from ：第一个序号
+     * @param to ：最后一个序号 + 1
+     * @return ：单词的迭代器
+     */
+    public Iterator<String> terms(int from, int to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("from " + from + ", to " + to + ", size " + size);
+        }
+        return new TermIterator(from, to);
+    }
+
+    /**
+     * 解码指定序号的单词
+     * @param ordinal ：序号
+     * @return ：单词内容
+     */
+    public String term(int ordinal) {
+        checkOrdinal(ordinal);
+        TermIterator it = new TermIterator(ordinal, ordinal + 1);
+        return it.next();
+    }
+
+    /**
+     * 指定序号的单词的文档频率，直接从块头的打包数组读取
+     * @param ordinal ：序号
+     * @return ：df
+     */
+    public int docFreq(int ordinal) {
+        checkOrdinal(ordinal);
+        long r = readVInt(data, blockStarts[ordinal / BLOCK_SIZE]);
+        int p = (int) (r >>> 32);
+        int dfBits = data[p];
+        return (int) r + (int) readBits(data, p + 2, (long) (ordinal % BLOCK_SIZE) * dfBits, dfBits);
+    }
+
+    /**
+     * 指定序号的单词的PostingList偏移，直接从块头的打包数组读取
+     * @param ordinal ：序号
+     * @return ：偏移
+     */
+    public long postingsOffset(int ordinal) {
+        checkOrdinal(ordinal);
+        int block = ordinal / BLOCK_SIZE;
+        int i = ordinal % BLOCK_SIZE;
+        if (i == 0) {
+            return blockOffsets[block];
+        }
+        int p = skipVInt(data, blockStarts[block]);
+        int dfBits = data[p];
+        int offsetBits = data[p + 1];
+        long bitPos = (long) blockSize(block) * dfBits + (long) (i - 1) * offsetBits;
+        return blockOffsets[block] + readBits(data, p + 2, bitPos, offsetBits);
+    }
+
+    /**
+     * 块数，每块BLOCK_SIZE个单词
+     * @return ：块数
+     */
+    int blockCount() {
+        return blockOffsets.length;
+    }
+
+    /**
+     * 指定块的第一个单词的PostingList偏移，不需要遍历块的编码
+     * @param block ：块序号
+     * @return ：偏移
+     */
+    long blockOffset(int block) {
+        return blockOffsets[block];
+    }
+
+    /**
+     * 指定块里每个单词的PostingList偏移，只读块头，不解码单词
+     * @param block ：块序号
+     * @return ：块里各单词的偏移，按单词顺序
+     */
+    long[] blockPostingsOffsets(int block) {
+        int count = blockSize(block);
+        long[] offsets = new long[count];
+        int p = skipVInt(data, blockStarts[block]);
+        int dfBits = data[p];
+        int offsetBits = data[p + 1];
+        offsets[0] = blockOffsets[block];
+        for (int i = 1; i < count; i++) {
+            long bitPos = (long) count * dfBits + (long) (i - 1) * offsetBits;
+            offsets[i] = blockOffsets[block] + readBits(data, p + 2, bitPos, offsetBits);
+        }
+        return offsets;
+    }
+
+    /**
+     * 字典占用的字节数(不含对象头)，用于估计内存占用
+     * @return ：字节数
+     */
+    public long sizeInBytes() {
+        return data.length + blockStarts.length * 4L + blockOffsets.length * 8L + seeds.length * 8L
+                + overflowBuckets.length * 8L + slots.length * 8L;
+    }
+
+    /**
+     * 写出后占用的字节数
+     * @return ：字节数
+     */
+    int serializedSize() {
+        return 40 + data.length + blockStarts.length * 4 + blockOffsets.length * 8 + seeds.length * 8
+                + overflowBuckets.length * 8 + slots.length * 8;
+    }
+
+    /**
+     * <pre>
+     * 写到缓冲区，格式：
+     *      int 单词数, int 槽的位数, long 盐, int data字节数, int 块数, int 桶数, int slots个数,
+     *      int 格式的版本LAYOUT, int 溢出的种子个数,
+     *      之后依次是data、blockStarts、blockOffsets、打包的种子、溢出的桶号、溢出的种子、slots的内容
+     * @param out ：缓冲区，剩余空间不少于serializedSize()
+     * </pre>
+     */
+    void writeTo(ByteBuffer out) {
+        out.putInt(size).putInt(bits).putLong(salt);
+        out.putInt(data.length).putInt(blockStarts.length).putInt(buckets).putInt(slots.length);
+        out.putInt(LAYOUT).putInt(overflowBuckets.length);
+        out.put(data);
+        for (int start : blockStarts) {
+            out.putInt(start);
+        }
+        for (long offset : blockOffsets) {
+            out.putLong(offset);
+        }
+        for (long word : seeds) {
+            out.putLong(word);
+        }
+        for (int bucket : overflowBuckets) {
+            out.putInt(bucket);
+        }
+        for (int seed : overflowSeeds) {
+            out.putInt(seed);
+        }
+        for (long word : slots) {
+            out.putLong(word);
+        }
+    }
+
+    /**
+     * 从缓冲区的当前位置读入writeTo写出的字典，不需要重新计算最小完美哈希. 版本0的格式读入后重新构建
+     * @param in ：缓冲区，读完后位置移到字典的末尾
+     * @return ：字典
+     */
+    static CompactTermDictionary readFrom(ByteBuffer in) {
+        int size = in.getInt();
+        int bits = in.getInt();
+        long salt = in.getLong();
+        int dataLength = in.getInt();
+        int blocks = in.getInt();
+        int buckets = in.getInt();
+        int words = in.getInt();
+        int layout = in.getInt();
+        int overflow = in.getInt();
+        if (size < 0 || bits < 1 || bits > 32 || dataLength < 0 || blocks != (size + BLOCK_SIZE - 1) / BLOCK_SIZE
+                || buckets < 1 || words < 0) {
+            throw new IllegalStateException("单词字典已损坏");
+        }
+        if (layout == 0 && overflow == 0) {
+            return readLegacy(in, size, dataLength, blocks, buckets, words);
+        }
+        int seedWords = packedWords(buckets, SEED_BITS);
+        if (layout != LAYOUT || overflow < 0 || overflow > buckets || (long) dataLength + blocks * 12L
+                + seedWords * 8L + overflow * 8L + words * 8L > in.remaining()) {
+            throw new IllegalStateException("单词字典已损坏");
+        }
+        byte[] data = new byte[dataLength];
+        in.get(data);
+        int[] blockStarts = new int[blocks];
+        in.asIntBuffer().get(blockStarts);
+        in.position(in.position() + blocks * 4);
+        long[] blockOffsets = new long[blocks];
+        in.asLongBuffer().get(blockOffsets);
+        in.position(in.position() + blocks * 8);
+        long[] seeds = new long[seedWords];
+        in.asLongBuffer().get(seeds);
+        in.position(in.position() + seedWords * 8);
+        int[] overflowBuckets = new int[overflow];
+        in.asIntBuffer().get(overflowBuckets);
+        in.position(in.position() + overflow * 4);
+        int[] overflowSeeds = new int[overflow];
+        in.asIntBuffer().get(overflowSeeds);
+        in.position(in.position() + overflow * 4);
+        long[] slots = new long[words];
+        in.asLongBuffer().get(slots);
+        in.position(in.position() + words * 8);
+        return new CompactTermDictionary(size, data, blockStarts, blockOffsets, salt, buckets, seeds,
+                overflowBuckets, overflowSeeds, slots, bits);
+    }
+
+    /**
+     * <pre>
+     * 读入版本0的格式：每个单词的编码是vint的相同前缀长度、剩余字符个数、每个剩余的字符、df和与前一个单词的偏移之差，
+     *      种子是int数组，槽里保存单词序号. 依次解码每个单词交给Builder，按新的格式重新构建(要重新计算最小完美哈希)
+     * @return ：字典
+     * </pre>
+     */
+    private static CompactTermDictionary readLegacy(ByteBuffer in, int size, int dataLength, int blocks,
+                                                    int buckets, int words) {
+        if ((long) dataLength + blocks * 12L + buckets * 4L + words * 8L > in.remaining()) {
+            throw new IllegalStateException("单词字典已损坏");
+        }
+        byte[] data = new byte[dataLength];
+        in.get(data);
+        in.position(in.position() + blocks * 4);
+        long[] blockOffsets = new long[blocks];
+        in.asLongBuffer().get(blockOffsets);
+        in.position(in.position() + blocks * 8 + buckets * 4 + words * 8);
+        Builder builder = new Builder();
+        char[] chars = new char[32];
+        long offset = 0;
+        int p = 0;
+        try {
+            for (int ordinal = 0; ordinal < size; ordinal++) {
+                long r = readVInt(data, p);
+                int shared = (int) r;
+                r = readVInt(data, (int) (r >>> 32));
+                int length = shared + (int) r;
+                p = (int) (r >>> 32);
+                if (chars.length < length) {
+                    chars = Arrays.copyOf(chars, length * 2);
+                }
+                for (int i = shared; i < length; i++) {
+                    r = readVInt(data, p);
+                    chars[i] = (char) r;
+                    p = (int) (r >>> 32);
+                }
+                r = readVInt(data, p);
+                int docFreq = (int) r;
+                r = readVInt(data, (int) (r >>> 32));
+                p = (int) (r >>> 32);
+                offset = ordinal % BLOCK_SIZE == 0 ? blockOffsets[ordinal / BLOCK_SIZE] : offset + (int) r;
+                builder.add(new String(chars, 0, length), offset, docFreq);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("单词字典已损坏", e);
+        }
+        return builder.build();
+    }
+
+    private void checkOrdinal(int ordinal) {
+        if (ordinal < 0 || ordinal >= size) {
+            throw new IndexOutOfBoundsException("ordinal " + ordinal + ", size " + size);
+        }
+    }
+
+    /**
+     * 块里的单词数
+     */
+    private int blockSize(int block) {
+        return Math.min(BLOCK_SIZE, size - block * BLOCK_SIZE);
+    }
+
+    /**
+     * 块里第一个单词编码的起始下标：跳过块头的最小df、两个位数和打包的df、偏移
+     */
+    private int entriesStart(int block) {
+        int p = skipVInt(data, blockStarts[block]);
+        int count = blockSize(block);
+        return p + 2 + (int) ((count * (long) data[p] + (count - 1) * (long) data[p + 1] + 7) >>> 3);
+    }
+
+    /**
+     * 桶的种子，打包的值是SEED_ESCAPE时从溢出表里查找
+     */
+    private int seed(int bucket) {
+        int seed = readPacked(seeds, SEED_BITS, bucket);
+        return seed == SEED_ESCAPE ? overflowSeeds[Arrays.binarySearch(overflowBuckets, bucket)] : seed;
+    }
+
+    /**
+     * <pre>
+     * 在块内顺序查找等于key的单词，不解码出单词.
+     *      match是当前单词与key的公共前缀长度：下一个单词与前一个单词的相同前缀比match长时，
+     *      它在match处的字符与前一个单词相同，仍然与key不同，match不变;相同前缀等于match时从这里接着比较剩余的字符;
+     *      相同前缀比match短时，这个单词在相同前缀处的字符比前一个单词(也就是key)的大，之后的单词都比key大，结束查找
+     * @return ：单词的序号；块里没有返回-1
+     * </pre>
+     */
+    private int indexOf(int block, String key) {
+        Cursor cursor = new Cursor(block);
+        int match = 0;
+        int end = Math.min(size, (block + 1) * BLOCK_SIZE);
+        for (int ordinal = block * BLOCK_SIZE; ordinal < end; ordinal++) {
+            cursor.header();
+            if (cursor.shared < match) {
+                return -1;
+            }
+            if (cursor.shared == match) {
+                for (int i = match; i < cursor.length; i++) {
+                    char c = cursor.nextChar();
+                    if (match == i && i < key.length() && key.charAt(i) == c) {
+                        match++;
+                    }
+                }
+            } else {
+                cursor.skipChars();
+            }
+            if (match == key.length() && cursor.length == key.length()) {
+                return ordinal;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 比较块的第一个单词和key
+     * @return ：第一个单词小于、等于、大于key时分别返回负数、0、正数
+     */
+    private int compareFirst(int block, String key) {
+        Cursor cursor = new Cursor(block);
+        cursor.header();
+        int n = Math.min(cursor.length, key.length());
+        for (int i = 0; i < n; i++) {
+            int c = cursor.nextChar() - key.charAt(i);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return cursor.length - key.length();
+    }
+
+    private static int compare(char[] chars, int length, String key) {
+        int n = Math.min(length, key.length());
+        for (int i = 0; i < n; i++) {
+            int c = chars[i] - key.charAt(i);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return length - key.length();
+    }
+
+    /**
+     * 读取一个VByte编码的int
+     * @param data ：字节
+     * @param p ：起始下标
+     * @return ：低32位是数值，高32位是下一个下标
+     */
+    private static long readVInt(byte[] data, int p) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = data[p++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return ((long) p << 32) | (value & 0xFFFFFFFFL);
+            }
+        }
+    }
+
+    private static int skipVInt(byte[] data, int p) {
+        while (data[p++] < 0) {
+        }
+        return p;
+    }
+
+    /**
+     * 从字节数组里读取按位打包(低位在前)的一个值
+     * @param data ：字节
+     * @param start ：打包数组的起始下标
+     * @param bitPos ：值在打包数组里的起始位
+     * @param bits ：位数，不超过56
+     * @return ：值
+     */
+    private static long readBits(byte[] data, int start, long bitPos, int bits) {
+        if (bits == 0) {
+            return 0;
+        }
+        int p = start + (int) (bitPos >>> 3);
+        int shift = (int) (bitPos & 7);
+        long value = 0;
+        for (int got = -shift; got < bits; got += 8) {
+            long b = data[p++] & 0xFF;
+            value |= got < 0 ? b >>> -got : b << got;
+        }
+        return value & ((1L << bits) - 1);
+    }
+
+    /**
+     * 按bits位打包的数组需要的long个数，多一个使读取时可以总是读两个long
+     */
+    private static int packedWords(int count, int bits) {
+        return (int) (((long) count * bits + 63) >>> 6) + 1;
+    }
+
+    private static int readPacked(long[] words, int bits, int index) {
+        long bitPos = (long) index * bits;
+        int word = (int) (bitPos >>> 6);
+        int shift = (int) (bitPos & 63);
+        long value = words[word] >>> shift;
+        if (shift + bits > 64) {
+            value |= words[word + 1] << (64 - shift);
+        }
+        return (int) (value & ((1L << bits) - 1));
+    }
+
+    private static void writePacked(long[] words, int bits, int index, int value) {
+        long bitPos = (long) index * bits;
+        int word = (int) (bitPos >>> 6);
+        int shift = (int) (bitPos & 63);
+        words[word] |= (long) value << shift;
+        if (shift + bits > 64) {
+            words[word + 1] |= (long) value >>> (64 - shift);
+        }
+    }
+
+    /**
+     * 单词的64位哈希值：按字符做FNV-1a，再用MurmurHash3的fmix64打散
+     */
+    private static long hash(String term, long salt) {
+        long h = 0xCBF29CE484222325L ^ salt;
+        for (int i = 0; i < term.length(); i++) {
+            h = (h ^ term.charAt(i)) * 0x100000001B3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static int bucket(long h, int buckets) {
+        return reduce((int) (h >>> 32), buckets);
+    }
+
+    private static int slot(long h, int seed, int n) {
+        return reduce((int) mix(h + seed * GOLDEN), n);
+    }
+
+    /**
+     * 把32位哈希值均匀地映射到[0, n)，用乘法代替取模
+     */
+    private static int reduce(int x, int n) {
+        return (int) (((x & 0xFFFFFFFFL) * n) >>> 32);
+    }
+
+    /**
+     * 从块的第一个单词开始顺序读单词的编码
+     */
+    private final class Cursor {
+        /**
+         * 下一个要读的下标
+         */
+        int p;
+
+        /**
+         * 当前单词与前一个单词相同前缀的长度和单词长度
+         */
+        int shared;
+        int length;
+
+        Cursor(int block) {
+            p = entriesStart(block);
+        }
+
+        /**
+         * 读下一个单词的头，p移到剩余的字符
+         */
+        void header() {
+            int h = data[p++] & 0xFF;
+            shared = h >>> 4;
+            int suffix = h & 0x0F;
+            if (shared == LENGTH_ESCAPE) {
+                long r = readVInt(data, p);
+                shared += (int) r;
+                p = (int) (r >>> 32);
+            }
+            if (suffix == LENGTH_ESCAPE) {
+                long r = readVInt(data, p);
+                suffix += (int) r;
+                p = (int) (r >>> 32);
+            }
+            length = shared + suffix;
+        }
+
+        /**
+         * 读当前单词的下一个剩余的字符
+         */
+        char nextChar() {
+            long r = readVInt(data, p);
+            p = (int) (r >>> 32);
+            return (char) r;
+        }
+
+        /**
+         * 跳过当前单词剩余的字符
+         */
+        void skipChars() {
+            for (int i = shared; i < length; i++) {
+                p = skipVInt(data, p);
+            }
+        }
+    }
+
+    /**
+     * 按序号顺序解码单词，每块只从块头开始解码一次
+     */
+    private final class TermIterator implements Iterator<String> {
+        private final int to;
+        private int ordinal;
+        private Cursor cursor;
+        private char[] chars = new char[32];
+
+        TermIterator(int from, int to) {
+            this.to = to;
+            this.ordinal = from;
+            if (from < to && from % BLOCK_SIZE != 0) {
+                cursor = new Cursor(from / BLOCK_SIZE);
+                // 解码块内from之前的单词，得到from的相同前缀
+                for (int i = from / BLOCK_SIZE * BLOCK_SIZE; i < from; i++) {
+                    decode();
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return ordinal < to;
+        }
+
+        @Override
+        public String next() {
+            if (ordinal >= to) {
+                throw new NoSuchElementException();
+            }
+            if (ordinal % BLOCK_SIZE == 0) {
+                cursor = new Cursor(ordinal / BLOCK_SIZE);
+            }
+            int length = decode();
+            ordinal++;
+            return new String(chars, 0, length);
+        }
+
+        /**
+         * 解码下一个单词到chars
+         * @return ：单词长度
+         */
+        private int decode() {
+            cursor.header();
+            if (chars.length < cursor.length) {
+                chars = Arrays.copyOf(chars, cursor.length * 2);
+            }
+            for (int i = cursor.shared; i < cursor.length; i++) {
+                chars[i] = cursor.nextChar();
+            }
+            return cursor.length;
+        }
+    }
+
+    /**
+     * <pre>
+     * CompactTermDictionary的构建器.
+     *      单词必须按字典序从小到大加入，不能重复;PostingList的偏移不能减小(PostingList按单词顺序存放)
+     * </pre>
+     */
+    public static final class Builder {
+        private final PostingsCodec.ByteSink data = new PostingsCodec.ByteSink(1024);
+
+        /**
+         * 当前块的单词编码、df和偏移，块满时块头和单词编码一起写到data
+         */
+        private final PostingsCodec.ByteSink entries = new PostingsCodec.ByteSink(256);
+        private final int[] blockDocFreqs = new int[BLOCK_SIZE];
+        private final long[] blockPostingsOffsets = new long[BLOCK_SIZE];
+
+        /**
+         * 写打包的值时还没有凑满一个字节的位
+         */
+        private int bitBuffer = 0;
+        private int bitCount = 0;
+
+        private int[] blockStarts = new int[16];
+        private long[] blockOffsets = new long[16];
+        private long[] hashes = new long[256];
+        private int size = 0;
+        private String previous = null;
+        private long previousOffset = 0;
+
+        /**
+         * 加入一个单词
+         * @param term ：单词内容，必须大于之前加入的单词
+         * @param postingsOffset ：PostingList的偏移，不能小于之前加入的单词的偏移
+         * @param docFreq ：文档频率，不能为负数
+         */
+        public void add(String term, long postingsOffset, int docFreq) {
+            if (previous != null && previous.compareTo(term) >= 0) {
+                throw new IllegalArgumentException("单词没有按字典序加入: " + previous + ", " + term);
+            }
+            if (postingsOffset < previousOffset || postingsOffset - previousOffset > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("PostingList的偏移没有按单词顺序: " + term);
+            }
+            if (docFreq < 0) {
+                throw new IllegalArgumentException("df不能为负数: " + term);
+            }
+            int i = size % BLOCK_SIZE;
+            int shared = 0;
+            if (i != 0) {
+                int n = Math.min(previous.length(), term.length());
+                while (shared < n && previous.charAt(shared) == term.charAt(shared)) {
+                    shared++;
+                }
+            }
+            int suffix = term.length() - shared;
+            entries.write(Math.min(shared, LENGTH_ESCAPE) << 4 | Math.min(suffix, LENGTH_ESCAPE));
+            if (shared >= LENGTH_ESCAPE) {
+                entries.writeVInt(shared - LENGTH_ESCAPE);
+            }
+            if (suffix >= LENGTH_ESCAPE) {
+                entries.writeVInt(suffix - LENGTH_ESCAPE);
+            }
+            for (int j = shared; j < term.length(); j++) {
+                entries.writeVInt(term.charAt(j));
+            }
+            blockDocFreqs[i] = docFreq;
+            blockPostingsOffsets[i] = postingsOffset;
+            if (size == hashes.length) {
+                hashes = Arrays.copyOf(hashes, size * 2);
+            }
+            hashes[size] = hash(term, 0);
+            size++;
+            previous = term;
+            previousOffset = postingsOffset;
+            if (size % BLOCK_SIZE == 0) {
+                flushBlock();
+            }
+        }
+
+        /**
+         * 写出当前块：块头(最小df、两个位数、打包的df和偏移)和块内单词的编码
+         */
+        private void flushBlock() {
+            int count = (size - 1) % BLOCK_SIZE + 1;
+            int block = (size - 1) / BLOCK_SIZE;
+            if (block == blockStarts.length) {
+                blockStarts = Arrays.copyOf(blockStarts, block * 2);
+                blockOffsets = Arrays.copyOf(blockOffsets, block * 2);
+            }
+            blockStarts[block] = data.size();
+            long first = blockPostingsOffsets[0];
+            blockOffsets[block] = first;
+            int minDf = Integer.MAX_VALUE;
+            int maxDf = 0;
+            for (int i = 0; i < count; i++) {
+                minDf = Math.min(minDf, blockDocFreqs[i]);
+                maxDf = Math.max(maxDf, blockDocFreqs[i]);
+            }
+            int dfBits = 32 - Integer.numberOfLeadingZeros(maxDf - minDf);
+            int offsetBits = 64 - Long.numberOfLeadingZeros(blockPostingsOffsets[count - 1] - first);
+            data.writeVInt(minDf);
+            data.write(dfBits);
+            data.write(offsetBits);
+            for (int i = 0; i < count; i++) {
+                writeBits(blockDocFreqs[i] - minDf, dfBits);
+            }
+            for (int i = 1; i < count; i++) {
+                writeBits(blockPostingsOffsets[i] - first, offsetBits);
+            }
+            if (bitCount > 0) {
+                data.write(bitBuffer);
+                bitBuffer = 0;
+                bitCount = 0;
+            }
+            data.write(entries.array(), 0, entries.size());
+            entries.reset();
+        }
+
+        /**
+         * 把一个值的低bits位按低位在前的顺序接在已经写出的位后面
+         */
+        private void writeBits(long value, int bits) {
+            for (int i = 0; i < bits; ) {
+                int take = Math.min(8 - bitCount, bits - i);
+                bitBuffer |= (int) ((value >>> i) & ((1 << take) - 1)) << bitCount;
+                bitCount += take;
+                i += take;
+                if (bitCount == 8) {
+                    data.write(bitBuffer);
+                    bitBuffer = 0;
+                    bitCount = 0;
+                }
+            }
+        }
+
+        /**
+         * 构建字典. 之后不能再使用构建器
+         * @return ：字典
+         */
+        public CompactTermDictionary build() {
+            if (size % BLOCK_SIZE != 0) {
+                flushBlock();
+            }
+            int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            int buckets = Math.max(1, (size + BUCKET_LOAD - 1) / BUCKET_LOAD);
+            int bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(Math.max(1, blocks - 1)));
+            long[] slots = new long[packedWords(size, bits)];
+            int[] seeds = new int[buckets];
+            byte[] bytes = data.toByteArray();
+            int[] starts = Arrays.copyOf(blockStarts, blocks);
+            long[] offsets = Arrays.copyOf(blockOffsets, blocks);
+            long salt = 0;
+            while (size > 0 && !place(salt, seeds, slots, bits)) {
+                // 有两个单词的哈希值完全相同，换盐重新计算哈希值
+                salt += GOLDEN;
+                Iterator<String> it = new CompactTermDictionary(size, bytes, starts, offsets, 0, 1,
+                        new long[1], new int[0], new int[0], new long[1], 1).terms(0, size);
+                for (int i = 0; i < size; i++) {
+                    hashes[i] = hash(it.next(), salt);
+                }
+            }
+            // 种子按SEED_BITS位打包，放不下的记到溢出表
+            long[] packed = new long[packedWords(buckets, SEED_BITS)];
+            int overflow = 0;
+            for (int seed : seeds) {
+                if (seed >= SEED_ESCAPE) {
+                    overflow++;
+                }
+            }
+            int[] overflowBuckets = new int[overflow];
+            int[] overflowSeeds = new int[overflow];
+            overflow = 0;
+            for (int b = 0; b < buckets; b++) {
+                if (seeds[b] >= SEED_ESCAPE) {
+                    overflowBuckets[overflow] = b;
+                    overflowSeeds[overflow++] = seeds[b];
+                }
+                writePacked(packed, SEED_BITS, b, Math.min(seeds[b], SEED_ESCAPE));
+            }
+            return new CompactTermDictionary(size, bytes, starts, offsets, salt, buckets, packed,
+                    overflowBuckets, overflowSeeds, slots, bits);
+        }
+
+        /**
+         * <pre>
+         * 为每个桶找位移种子，使所有单词落到互不冲突的槽，槽里记下单词所在的块号.
+         *      单词多的桶先放，此时空槽多容易找到种子;最后放只有一个单词的桶
+         * @return ：找到全部种子返回true；有桶试完种子上限仍然冲突返回false
+         * </pre>
+         */
+        private boolean place(long salt, int[] seeds, long[] slots, int bits) {
+            int buckets = seeds.length;
+            Arrays.fill(slots, 0);
+            // 按桶计数排序单词
+            int[] bucketStarts = new int[buckets + 1];
+            for (int i = 0; i < size; i++) {
+                bucketStarts[bucket(hashes[i], buckets) + 1]++;
+            }
+            int maxLoad = 0;
+            for (int b = 0; b < buckets; b++) {
+                maxLoad = Math.max(maxLoad, bucketStarts[b + 1]);
+                bucketStarts[b + 1] += bucketStarts[b];
+            }
+            int[] members = new int[size];
+            int[] fill = Arrays.copyOf(bucketStarts, buckets);
+            for (int i = 0; i < size; i++) {
+                members[fill[bucket(hashes[i], buckets)]++] = i;
+            }
+            // 按桶的大小从大到小排列桶
+            int[] loadStarts = new int[maxLoad + 2];
+            for (int b = 0; b < buckets; b++) {
+                loadStarts[maxLoad - (bucketStarts[b + 1] - bucketStarts[b]) + 1]++;
+            }
+            for (int i = 0; i <= maxLoad; i++) {
+                loadStarts[i + 1] += loadStarts[i];
+            }
+            int[] order = new int[buckets];
+            for (int b = 0; b < buckets; b++) {
+                order[loadStarts[maxLoad - (bucketStarts[b + 1] - bucketStarts[b])]++] = b;
+            }
+
+            boolean[] taken = new boolean[size];
+            int[] tried = new int[maxLoad];
+            long limit = 64L * size + 1024;
+            for (int b : order) {
+                int from = bucketStarts[b];
+                int n = bucketStarts[b + 1] - from;
+                if (n == 0) {
+                    break;
+                }
+                int seed = 0;
+                while (true) {
+                    int placed = 0;
+                    for (; placed < n; placed++) {
+                        int slot = slot(hashes[members[from + placed]], seed, size);
+                        if (taken[slot]) {
+                            break;
+                        }
+                        taken[slot] = true;
+                        tried[placed] = slot;
+                    }
+                    if (placed == n) {
+                        break;
+                    }
+                    for (int i = 0; i < placed; i++) {
+                        taken[tried[i]] = false;
+                    }
+                    if (++seed > limit) {
+                        return false;
+                    }
+                }
+                seeds[b] = seed;
+                for (int i = 0; i < n; i++) {
+                    writePacked(slots, bits, tried[i], members[from + i] / BLOCK_SIZE);
+                }
+            }
+            return true;
+        }
+    }
+}
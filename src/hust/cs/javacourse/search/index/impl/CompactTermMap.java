@@ -0,0 +1,120 @@
+package hust.cs.javacourse.search.index.impl;
+
+import hust.cs.javacourse.search.index.AbstractPostingList;
+import hust.cs.javacourse.search.index.AbstractTerm;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.IntFunction;
+
+/**
+ * <pre>
+ * CompactTermMap是封存的Index和MappedIndex使用的只读termToPostingListMapping.
+ *      单词保存在CompactTermDictionary里，按单词序号取得PostingList:
+ *      封存的Index里单词的PostingList偏移就是它在postings数组里的下标，MappedIndex则从映射的文件里解码;
+ *      get按单词内容用最小完美哈希查找，遍历时按字典序解码单词，与原来的TreeMap顺序相同.
+ *      put、remove等修改操作抛出UnsupportedOperationException.
+ *      序列化时替换成TreeMap，索引文件的格式不变
+ * </pre>
+ */
+final class CompactTermMap extends AbstractMap<AbstractTerm, AbstractPostingList> implements Serializable {
+    /**
+     * 单词字典
+     */
+    private final transient CompactTermDictionary dictionary;
+
+    /**
+     * 按单词序号取得PostingList
+     */
+    private final transient IntFunction<AbstractPostingList> postings;
+
+    /**
+     * 用已经按字典序排好的映射构建
+     * @param sorted ：单词到PostingList的映射，按单词的字典序遍历
+     */
+    CompactTermMap(Map<AbstractTerm, AbstractPostingList> sorted) {
+        CompactTermDictionary.Builder builder = new CompactTermDictionary.Builder();
+        AbstractPostingList[] lists = new AbstractPostingList[sorted.size()];
+        int ordinal = 0;
+        for (Map.Entry<AbstractTerm, AbstractPostingList> entry : sorted.entrySet()) {
+            builder.add(entry.getKey().getContent(), ordinal, entry.getValue().size());
+            lists[ordinal++] = entry.getValue();
+        }
+        dictionary = builder.build();
+        postings = i -> lists[i];
+    }
+
+    /**
+     * 用已有的单词字典构建
+     * @param dictionary ：单词字典
+     * @param postings ：按单词序号取得PostingList
+     */
+    CompactTermMap(CompactTermDictionary dictionary, IntFunction<AbstractPostingList> postings) {
+        this.dictionary = dictionary;
+        this.postings = postings;
+    }
+
+    /**
+     * 单词字典，用于前缀和范围查找
+     * @return ：单词字典
+     */
+    CompactTermDictionary dictionary() {
+        return dictionary;
+    }
+
+    @Override
+    public AbstractPostingList get(Object key) {
+        if (!(key instanceof AbstractTerm)) {
+            return null;
+        }
+        int ordinal = dictionary.find(((AbstractTerm) key).getContent());
+        return ordinal < 0 ? null : postings.apply(ordinal);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return dictionary.size();
+    }
+
+    @Override
+    public Set<Entry<AbstractTerm, AbstractPostingList>> entrySet() {
+        return new AbstractSet<Entry<AbstractTerm, AbstractPostingList>>() {
+            @Override
+            public Iterator<Entry<AbstractTerm, AbstractPostingList>> iterator() {
+                Iterator<String> terms = dictionary.terms(0, dictionary.size());
+                return new Iterator<Entry<AbstractTerm, AbstractPostingList>>() {
+                    private int ordinal = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return terms.hasNext();
+                    }
+
+                    @Override
+                    public Entry<AbstractTerm, AbstractPostingList> next() {
+                        return new SimpleImmutableEntry<>(new Term(terms.next()), postings.apply(ordinal++));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return dictionary.size();
+            }
+        };
+    }
+
+    private Object writeReplace() {
+        return new TreeMap<>(this);
+    }
+}
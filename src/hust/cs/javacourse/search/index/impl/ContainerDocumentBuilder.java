@@ -0,0 +1,588 @@
+package hust.cs.javacourse.search.index.impl;
+
+import hust.cs.javacourse.search.index.AbstractDocument;
+import hust.cs.javacourse.search.parse.impl.TermTupleScanner;
+import hust.cs.javacourse.search.util.Config;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * <pre>
+ * ContainerDocumentBuilder从一个大文件里依次读出多个文档(记录)的Document构造器.
+ *      支持两种容器格式，按文件后缀名识别:
+ *          JSONL(.jsonl、.ndjson)：每行一个JSON对象，取Config.CONTAINER_JSON_FIELDS指定的字符串字段作为文档内容;
+ *          TREC(.trec、.trectext)：&lt;DOC&gt;和&lt;/DOC&gt;之间为一个文档，去掉&lt;DOCNO&gt;元素和所有标签后作为文档内容.
+ *      容器文件按块顺序读取，同一时间只有一个记录在内存里，内存占用与容器文件大小无关;
+ *      TREC记录缺少&lt;/DOC&gt;时在下一个&lt;DOC&gt;处结束，超过Config.CONTAINER_MAX_RECORD_BYTES时抛出IOException.
+ *      JSONL的字段名在构造时从Config.CONTAINER_JSON_FIELDS解析一次.
+ *      每个记录的docPath是逻辑路径"容器文件路径#记录在文件内的字节偏移"，
+ *      用build(docId, docPath, file)或readContent(docPath)可以按逻辑路径重新读出该记录.
+ *      不是容器格式的文件与DocumentBuilder相同，一个文件一个文档.
+ * </pre>
+ */
+public class ContainerDocumentBuilder extends DocumentBuilder {
+    /**
+     * 逻辑路径里容器文件路径和偏移之间的分隔符
+     */
+    public static final char OFFSET_SEPARATOR = '#';
+
+    /**
+     * 读容器文件的缓冲区大小
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * 容器格式
+     */
+    public enum Format {
+        JSONL, TREC
+    }
+
+    /**
+     * 从JSONL记录里取作文档内容的字段名
+     */
+    private final Set<String> jsonFields;
+
+    /**
+     * 构造函数，JSONL记录取的字段由Config.CONTAINER_JSON_FIELDS指定
+     */
+    public ContainerDocumentBuilder() {
+        this.jsonFields = jsonFields(Config.CONTAINER_JSON_FIELDS);
+    }
+
+    /**
+     * 解析逗号分隔的字段名
+     * @param fields ：逗号分隔的字段名
+     * @return ：字段名集合
+     */
+    private static Set<String> jsonFields(String fields) {
+        return new HashSet<>(Arrays.asList(fields.split(",")));
+    }
+
+    /**
+     * 根据文件后缀名识别容器格式
+     * @param path ：文件路径
+     * @return ：容器格式；不是容器文件返回null
+     */
+    public static Format formatOf(String path) {
+        String lower = path.toLowerCase();
+        if (lower.endsWith(".jsonl") || lower.endsWith(".ndjson")) {
+            return Format.JSONL;
+        }
+        if (lower.endsWith(".trec") || lower.endsWith(".trectext")) {
+            return Format.TREC;
+        }
+        return null;
+    }
+
+    /**
+     * 返回记录的逻辑路径
+     * @param containerPath ：容器文件路径
+     * @param offset ：记录在文件内的字节偏移
+     * @return ：逻辑路径
+     */
+    public static String docPath(String containerPath, long offset) {
+        return containerPath + OFFSET_SEPARATOR + offset;
+    }
+
+    /**
+     * 判断docPath是否为容器里记录的逻辑路径
+     * @param docPath ：文档路径
+     * @return ：是逻辑路径返回true
+     */
+    public static boolean isRecordPath(String docPath) {
+        int i = docPath.lastIndexOf(OFFSET_SEPARATOR);
+        if (i <= 0 || i == docPath.length() - 1 || formatOf(docPath.substring(0, i)) == null) {
+            return false;
+        }
+        for (int j = i + 1; j < docPath.length(); j++) {
+            if (docPath.charAt(j) < '0' || docPath.charAt(j) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 按逻辑路径读出记录的文档内容，JSONL记录取Config.CONTAINER_JSON_FIELDS指定的字段
+     * @param docPath ：逻辑路径
+     * @return ：文档内容；不是逻辑路径或者读取失败返回null
+     */
+    public static String readContent(String docPath) {
+        return readContent(docPath, jsonFields(Config.CONTAINER_JSON_FIELDS));
+    }
+
+    /**
+     * 按逻辑路径读出记录的文档内容
+     * @param docPath ：逻辑路径
+     * @param jsonFields ：JSONL记录取作文档内容的字段名
+     * @return ：文档内容；不是逻辑路径或者读取失败返回null
+     */
+    private static String readContent(String docPath, Set<String> jsonFields) {
+        if (!isRecordPath(docPath)) {
+            return null;
+        }
+        int i = docPath.lastIndexOf(OFFSET_SEPARATOR);
+        String containerPath = docPath.substring(0, i);
+        long offset = Long.parseLong(docPath.substring(i + 1));
+        try (FileInputStream in = new FileInputStream(containerPath)) {
+            in.getChannel().position(offset);
+            RecordReader reader = new RecordReader(in, formatOf(containerPath), offset, jsonFields);
+            return reader.next() ? reader.content() : null;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * <pre>
+     * 由给定的File,构造Document对象.
+     *      docPath是容器里记录的逻辑路径时，从容器文件里读出该记录构造Document
+     * @param docId     : 文档id
+     * @param docPath   : 文档绝对路径或者记录的逻辑路径
+     * @param file      : 文档对应File对象
+     * @param dictionary : 单词字典，为null时不使用
+     * @return          : Document对象
+     * </pre>
+     */
+    @Override
+    public AbstractDocument build(int docId, String docPath, File file, TermDictionary dictionary) {
+        if (!isRecordPath(docPath)) {
+            return super.build(docId, docPath, file, dictionary);
+        }
+        String content = readContent(docPath, jsonFields);
+        return build(docId, docPath, content == null ? "" : content, dictionary);
+    }
+
+    /**
+     * <pre>
+     * 依次读出容器文件里的每个记录，构造Document后交给consumer.
+     *      docId从firstDocId开始按记录顺序连续编号
+     * @param container ：容器文件
+     * @param firstDocId ：第一个记录的docId
+     * @param dictionary ：单词字典，为null时不使用
+     * @param consumer ：接收每个Document
+     * @return ：记录数
+     * </pre>
+     */
+    public int forEachRecord(File container, int firstDocId, TermDictionary dictionary,
+                             Consumer<AbstractDocument> consumer) throws IOException {
+        Format format = formatOf(container.getPath());
+        if (format == null) {
+            throw new IllegalArgumentException("不是容器文件: " + container);
+        }
+        String containerPath = container.getPath();
+        int count = 0;
+        try (InputStream in = new FileInputStream(container)) {
+            RecordReader reader = new RecordReader(in, format, 0, jsonFields);
+            while (reader.next()) {
+                consumer.accept(build(firstDocId + count, docPath(containerPath, reader.offset()),
+                        reader.content(), dictionary));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 由记录的文档内容构造Document对象
+     * @param docId ：文档id
+     * @param docPath ：逻辑路径
+     * @param content ：文档内容
+     * @param dictionary ：单词字典，为null时不使用
+     * @return ：Document对象
+     */
+    private AbstractDocument build(int docId, String docPath, String content, TermDictionary dictionary) {
+        TermTupleScanner scanner = new TermTupleScanner(new BufferedReader(new StringReader(content)));
+        scanner.setTermDictionary(dictionary);
+        return this.build(docId, docPath, filter(scanner));
+    }
+
+    /**
+     * <pre>
+     * 从容器文件里按行顺序读出记录.
+     *      按字节读行并记录每行在文件内的偏移，行内容只在组成记录时才解码为字符串
+     * </pre>
+     */
+    private static final class RecordReader {
+        private static final byte[] DOC_START = "<DOC>".getBytes(StandardCharsets.US_ASCII);
+        private static final byte[] DOC_END = "</DOC>".getBytes(StandardCharsets.US_ASCII);
+
+        private final InputStream in;
+        private final Format format;
+        private final Set<String> jsonFields;
+        private final byte[] buf = new byte[BUFFER_SIZE];
+        private int pos = 0;
+        private int limit = 0;
+
+        /**
+         * 下一次读取的字节在文件内的偏移
+         */
+        private long position;
+
+        /**
+         * 当前行
+         */
+        private byte[] line = new byte[256];
+        private int lineLength;
+        private long lineOffset;
+
+        /**
+         * 当前行是否还没有被处理：缺少&lt;/DOC&gt;的记录结束在下一个&lt;DOC&gt;行，这一行属于下一个记录
+         */
+        private boolean pending = false;
+
+        /**
+         * 当前记录
+         */
+        private ByteArrayOutputStream record = new ByteArrayOutputStream();
+        private long recordOffset;
+        private String content;
+
+        RecordReader(InputStream in, Format format, long position, Set<String> jsonFields) {
+            this.in = in;
+            this.format = format;
+            this.position = position;
+            this.jsonFields = jsonFields;
+        }
+
+        /**
+         * 读下一个记录
+         * @return ：读到返回true；已到文件末尾返回false
+         */
+        boolean next() throws IOException {
+            if (format == Format.JSONL) {
+                while (readLine()) {
+                    if (!isBlank()) {
+                        recordOffset = lineOffset;
+                        content = JsonFields.extract(new String(line, 0, lineLength, StandardCharsets.UTF_8),
+                                jsonFields);
+                        return true;
+                    }
+                }
+                return false;
+            }
+            while (pending || readLine()) {
+                pending = false;
+                if (startsWith(DOC_START)) {
+                    recordOffset = lineOffset;
+                    // 特别长的记录用过的缓冲区不留到下一个记录
+                    if (record.size() > BUFFER_SIZE) {
+                        record = new ByteArrayOutputStream();
+                    } else {
+                        record.reset();
+                    }
+                    record.write(line, 0, lineLength);
+                    record.write('\n');
+                    boolean end = contains(DOC_END);
+                    while (!end && readLine()) {
+                        if (startsWith(DOC_START)) {
+                            pending = true;
+                            break;
+                        }
+                        if (record.size() + lineLength > Config.CONTAINER_MAX_RECORD_BYTES) {
+                            throw new IOException("TREC记录超过" + Config.CONTAINER_MAX_RECORD_BYTES
+                                    + "字节，可能缺少</DOC>: 偏移" + recordOffset);
+                        }
+                        record.write(line, 0, lineLength);
+                        record.write('\n');
+                        end = contains(DOC_END);
+                    }
+                    content = TrecText.extract(new String(record.toByteArray(), StandardCharsets.UTF_8));
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        long offset() {
+            return recordOffset;
+        }
+
+        String content() {
+            return content;
+        }
+
+        /**
+         * 读一行(不含行尾的'\n'和'\r')
+         * @return ：读到返回true；已到文件末尾返回false
+         */
+        private boolean readLine() throws IOException {
+            // 特别长的行用过的缓冲区不留到下一行
+            if (line.length > BUFFER_SIZE) {
+                line = new byte[256];
+            }
+            lineLength = 0;
+            lineOffset = position;
+            boolean any = false;
+            while (true) {
+                if (pos == limit) {
+                    limit = in.read(buf, 0, buf.length);
+                    pos = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        trimCarriageReturn();
+                        return any;
+                    }
+                }
+                any = true;
+                int start = pos;
+                while (pos < limit && buf[pos] != '\n') {
+                    pos++;
+                }
+                append(start, pos - start);
+                position += pos - start;
+                if (pos < limit) {
+                    pos++;
+                    position++;
+                    trimCarriageReturn();
+                    return true;
+                }
+            }
+        }
+
+        private void append(int start, int length) {
+            if (lineLength + length > line.length) {
+                line = Arrays.copyOf(line, Math.max(lineLength + length, line.length * 2));
+            }
+            System.arraycopy(buf, start, line, lineLength, length);
+            lineLength += length;
+        }
+
+        private void trimCarriageReturn() {
+            if (lineLength > 0 && line[lineLength - 1] == '\r') {
+                lineLength--;
+            }
+        }
+
+        private boolean isBlank() {
+            for (int i = 0; i < lineLength; i++) {
+                if (line[i] != ' ' && line[i] != '\t') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 当前行是否包含指定的标签
+         */
+        private boolean contains(byte[] tag) {
+            for (int i = 0; i + tag.length <= lineLength; i++) {
+                int j = 0;
+                while (j < tag.length && line[i + j] == tag[j]) {
+                    j++;
+                }
+                if (j == tag.length) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 当前行去掉开头的空白后是否以指定的标签开头
+         */
+        private boolean startsWith(byte[] tag) {
+            int i = 0;
+            while (i < lineLength && (line[i] == ' ' || line[i] == '\t')) {
+                i++;
+            }
+            if (lineLength - i < tag.length) {
+                return false;
+            }
+            for (int j = 0; j < tag.length; j++) {
+                if (line[i + j] != tag[j]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 从一行JSON对象里取出指定的顶层字符串字段，多个字段之间用换行连接
+     */
+    static final class JsonFields {
+        private final String json;
+        private final Set<String> fields;
+        private final StringBuilder out = new StringBuilder();
+        private int pos = 0;
+
+        private JsonFields(String json, Set<String> fields) {
+            this.json = json;
+            this.fields = fields;
+        }
+
+        /**
+         * 取出文档内容
+         * @param json ：一行JSON对象
+         * @param fields ：取作文档内容的字段名
+         * @return ：文档内容；不是合法的JSON对象时返回已经取出的部分
+         */
+        static String extract(String json, Set<String> fields) {
+            JsonFields parser = new JsonFields(json, fields);
+            try {
+                parser.object(true);
+            } catch (IllegalArgumentException | StringIndexOutOfBoundsException e) {
+                // 格式错误的行只保留已经取出的字段
+            }
+            return parser.out.toString();
+        }
+
+        private void object(boolean top) {
+            expect('{');
+            skipSpace();
+            if (peek() == '}') {
+                pos++;
+                return;
+            }
+            while (true) {
+                skipSpace();
+                String key = string(true);
+                skipSpace();
+                expect(':');
+                skipSpace();
+                if (top && peek() == '"' && fields.contains(key)) {
+                    if (out.length() > 0) {
+                        out.append('\n');
+                    }
+                    out.append(string(true));
+                } else {
+                    value();
+                }
+                skipSpace();
+                char c = json.charAt(pos++);
+                if (c == '}') {
+                    return;
+                }
+                if (c != ',') {
+                    throw new IllegalArgumentException();
+                }
+            }
+        }
+
+        private void value() {
+            char c = peek();
+            if (c == '{') {
+                object(false);
+            } else if (c == '[') {
+                pos++;
+                skipSpace();
+                if (peek() == ']') {
+                    pos++;
+                    return;
+                }
+                while (true) {
+                    skipSpace();
+                    value();
+                    skipSpace();
+                    char d = json.charAt(pos++);
+                    if (d == ']') {
+                        return;
+                    }
+                    if (d != ',') {
+                        throw new IllegalArgumentException();
+                    }
+                }
+            } else if (c == '"') {
+                string(false);
+            } else {
+                // 数字、true、false、null
+                while (pos < json.length() && ",}] \t\r\n".indexOf(json.charAt(pos)) < 0) {
+                    pos++;
+                }
+            }
+        }
+
+        /**
+         * 读一个字符串
+         * @param decode ：是否需要解码后的内容，为false时只跳过
+         * @return ：解码后的内容；decode为false时返回null
+         */
+        private String string(boolean decode) {
+            expect('"');
+            StringBuilder sb = decode ? new StringBuilder() : null;
+            while (true) {
+                char c = json.charAt(pos++);
+                if (c == '"') {
+                    return decode ? sb.toString() : null;
+                }
+                if (c == '\\') {
+                    char e = json.charAt(pos++);
+                    switch (e) {
+                        case 'n': c = '\n'; break;
+                        case 't': c = '\t'; break;
+                        case 'r': c = '\r'; break;
+                        case 'b': c = '\b'; break;
+                        case 'f': c = '\f'; break;
+                        case 'u':
+                            c = (char) Integer.parseInt(json.substring(pos, pos + 4), 16);
+                            pos += 4;
+                            break;
+                        default: c = e; break;
+                    }
+                }
+                if (decode) {
+                    sb.append(c);
+                }
+            }
+        }
+
+        private char peek() {
+            return json.charAt(pos);
+        }
+
+        private void expect(char c) {
+            if (json.charAt(pos++) != c) {
+                throw new IllegalArgumentException();
+            }
+        }
+
+        private void skipSpace() {
+            while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+                pos++;
+            }
+        }
+    }
+
+    /**
+     * 从一个TREC记录里取出文档内容：去掉&lt;DOCNO&gt;元素，其余标签替换为空格
+     */
+    static final class TrecText {
+        private TrecText() {
+        }
+
+        static String extract(String record) {
+            StringBuilder out = new StringBuilder(record.length());
+            int i = 0;
+            while (i < record.length()) {
+                char c = record.charAt(i);
+                if (c != '<') {
+                    out.append(c);
+                    i++;
+                    continue;
+                }
+                int close = record.indexOf('>', i);
+                if (close < 0) {
+                    out.append(record, i, record.length());
+                    break;
+                }
+                if (record.regionMatches(true, i, "<DOCNO>", 0, 7)) {
+                    int end = record.indexOf("</DOCNO>", close);
+                    i = end < 0 ? close + 1 : end + 8;
+                } else {
+                    i = close + 1;
+                }
+                out.append(' ');
+            }
+            return out.toString().trim();
+        }
+    }
+}
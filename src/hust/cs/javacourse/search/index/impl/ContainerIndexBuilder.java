@@ -0,0 +1,65 @@
+package hust.cs.javacourse.search.index.impl;
+
+import hust.cs.javacourse.search.index.AbstractIndex;
+import hust.cs.javacourse.search.index.AbstractIndexBuilder;
+import hust.cs.javacourse.search.util.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * <pre>
+ * ContainerIndexBuilder构建包含容器文件(JSONL、TREC)的目录的索引.
+ *      容器文件里的每个记录是一个文档，由ContainerDocumentBuilder边读边解析，不需要先拆成小文件;
+ *      其它文件一个文件一个文档.
+ *      文件按路径排序，docId按文件顺序、文件内按记录顺序连续分配.
+ * </pre>
+ */
+public class ContainerIndexBuilder extends AbstractIndexBuilder {
+    /**
+     * 容器文件的Document构造器
+     */
+    private final ContainerDocumentBuilder containerBuilder;
+
+    /**
+     * 构造函数
+     * @param docBuilder ：Document构造器
+     */
+    public ContainerIndexBuilder(ContainerDocumentBuilder docBuilder) {
+        super(docBuilder);
+        this.containerBuilder = docBuilder;
+    }
+
+    /**
+     * <pre>
+     * 构建指定目录下的所有文件的倒排索引.
+     * @param rootDirectory ：指定目录
+     * @return ：构建好的索引
+     * </pre>
+     */
+    @Override
+    public AbstractIndex buildIndex(String rootDirectory) {
+        Index index = new Index();
+        List<String> filePaths = FileUtil.list(rootDirectory);
+        filePaths.sort(String::compareTo);
+        TermDictionary dictionary = new TermDictionary();
+        index.beginBulkLoad(dictionary);
+        for (String path : filePaths) {
+            File file = new File(path);
+            if (ContainerDocumentBuilder.formatOf(path) == null) {
+                index.addDocument(containerBuilder.build(docId, path, file, dictionary));
+                docId++;
+                continue;
+            }
+            try {
+                docId += containerBuilder.forEachRecord(file, docId, dictionary, index::addDocument);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        index.commitBulkLoad();
+        return index;
+    }
+}
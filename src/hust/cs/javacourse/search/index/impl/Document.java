@@ -1,9 +1,16 @@
 package hust.cs.javacourse.search.index.impl;
 
 import hust.cs.javacourse.search.index.AbstractDocument;
+import hust.cs.javacourse.search.index.AbstractTerm;
 import hust.cs.javacourse.search.index.AbstractTermTuple;
+import hust.cs.javacourse.search.util.IntArrayList;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * <pre>
@@ -12,9 +19,52 @@ import java.util.List;
  *              文档id.
  *              文档的绝对路径.
  *              文档包含的三元组对象列表，一个三元组对象是抽象类AbstractTermTuple的子类实例
+ *          三元组在内部按单词聚合保存为 单词 -> 位置列表，添加三元组和构建索引都只需要线性时间;
+ *          带有单词id的三元组(见TermDictionary)按单词id聚合，不需要计算单词的哈希值和比较字符串;
+ *          三元组列表只在调用getTuples等方法时才按位置顺序生成.
  * </pre>
  */
 public class Document extends AbstractDocument {
+    /**
+     * 文档里的不同单词，按第一次出现的顺序排列. 下标称为单词在文档里的序号
+     */
+    private final List<AbstractTerm> terms = new ArrayList<>();
+
+    /**
+     * 每个单词的单词id，没有单词id时为-1
+     */
+    private final IntArrayList termIds = new IntArrayList();
+
+    /**
+     * 每个单词出现的位置
+     */
+    private final List<IntArrayList> positions = new ArrayList<>();
+
+    /**
+     * 单词id到序号的开放寻址哈希表，idKeys里存放单词id+1，0表示空位
+     */
+    private int[] idKeys = new int[16];
+    private int[] idSlots = new int[16];
+
+    /**
+     * 单词到序号的映射，只在添加没有单词id的三元组时才创建
+     */
+    private Map<AbstractTerm, Integer> termSlots = null;
+
+    /**
+     * getTermPositions返回的映射，添加三元组后重新生成
+     */
+    private Map<AbstractTerm, IntArrayList> termPositions = null;
+
+    /**
+     * 三元组的个数
+     */
+    private int tupleSize = 0;
+
+    /**
+     * 三元组列表是否需要根据termPositions重新生成
+     */
+    private boolean tuplesDirty = false;
 
     /**
      * 无参构造
@@ -23,7 +73,10 @@ public class Document extends AbstractDocument {
     }
 
     public Document(int docId, String docPath, List<AbstractTermTuple> tuples) {
-        super(docId, docPath, tuples);
+        super(docId, docPath);
+        for (AbstractTermTuple tuple : tuples) {
+            addTuple(tuple);
+        }
     }
 
     /**
@@ -85,9 +138,98 @@ public class Document extends AbstractDocument {
      */
     @Override
     public List<AbstractTermTuple> getTuples() {
+        if (tuplesDirty) {
+            List<AbstractTermTuple> list = new ArrayList<>(tupleSize);
+            for (int slot = 0; slot < terms.size(); slot++) {
+                IntArrayList slotPositions = positions.get(slot);
+                for (int i = 0; i < slotPositions.size(); i++) {
+                    list.add(new TermTuple(terms.get(slot), termIds.get(slot), slotPositions.get(i)));
+                }
+            }
+            list.sort(Comparator.comparingInt(tuple -> tuple.curPos));
+            this.tuples = list;
+            tuplesDirty = false;
+        }
         return this.tuples;
     }
 
+    /**
+     * 返回按单词聚合的三元组，即每个单词在文档里出现的位置列表.
+     * 返回的Map只能读取，不能修改
+     *
+     * @return ：单词 -> 位置列表
+     */
+    public Map<AbstractTerm, IntArrayList> getTermPositions() {
+        if (termPositions == null) {
+            Map<AbstractTerm, IntArrayList> map = new LinkedHashMap<>();
+            for (int slot = 0; slot < terms.size(); slot++) {
+                map.put(terms.get(slot), positions.get(slot));
+            }
+            termPositions = map;
+        }
+        return termPositions;
+    }
+
+    /**
+     * 文档里不同单词的个数
+     *
+     * @return ：单词个数
+     */
+    public int getTermCount() {
+        return terms.size();
+    }
+
+    /**
+     * 返回指定序号的单词
+     *
+     * @param slot ：单词在文档里的序号，按第一次出现的顺序从0开始
+     * @return ：单词
+     */
+    public AbstractTerm getTerm(int slot) {
+        return terms.get(slot);
+    }
+
+    /**
+     * 返回指定序号的单词的单词id
+     *
+     * @param slot ：单词在文档里的序号
+     * @return ：单词id；没有单词id返回-1
+     */
+    public int getTermId(int slot) {
+        return termIds.get(slot);
+    }
+
+    /**
+     * 返回指定序号的单词在文档里出现的位置，只能读取，不能修改
+     *
+     * @param slot ：单词在文档里的序号
+     * @return ：位置列表
+     */
+    public IntArrayList getPositions(int slot) {
+        return positions.get(slot);
+    }
+
+    /**
+     * <pre>
+     * 给没有单词id的单词分配单词字典里的单词id，并换成字典里的Term对象.
+     *      用于在分词线程之外的一个线程里统一查字典，分词时不使用字典
+     * @param dictionary ：单词字典
+     * </pre>
+     */
+    void internTerms(TermDictionary dictionary) {
+        for (int slot = 0; slot < terms.size(); slot++) {
+            if (termIds.get(slot) >= 0) {
+                continue;
+            }
+            int termId = dictionary.intern(terms.get(slot).getContent());
+            terms.set(slot, dictionary.term(termId));
+            termIds.set(slot, termId);
+            putIdSlot(termId, slot);
+        }
+        termPositions = null;
+        tuplesDirty = true;
+    }
+
     /**
      * 向文档对象里添加三元组, 要求不能有内容重复的三元组
      *
@@ -95,9 +237,31 @@ public class Document extends AbstractDocument {
      */
     @Override
     public void addTuple(AbstractTermTuple tuple) {
-        if (!contains(tuple)) {
-            this.tuples.add(tuple);
+        int termId = tuple instanceof TermTuple ? ((TermTuple) tuple).termId : -1;
+        int slot = findSlot(tuple.term, termId);
+        IntArrayList list;
+        if (slot < 0) {
+            slot = terms.size();
+            terms.add(tuple.term);
+            termIds.add(termId);
+            list = new IntArrayList();
+            positions.add(list);
+            if (termId >= 0) {
+                putIdSlot(termId, slot);
+            }
+            if (termSlots != null) {
+                termSlots.put(tuple.term, slot);
+            }
+            termPositions = null;
+        } else {
+            list = positions.get(slot);
+            if (contains(list, tuple.curPos)) {
+                return;
+            }
         }
+        list.add(tuple.curPos);
+        tupleSize++;
+        tuplesDirty = true;
     }
 
     /**
@@ -108,7 +272,92 @@ public class Document extends AbstractDocument {
      */
     @Override
     public boolean contains(AbstractTermTuple tuple) {
-        return this.tuples.contains(tuple);
+        int slot = findSlot(tuple.term, tuple instanceof TermTuple ? ((TermTuple) tuple).termId : -1);
+        return slot >= 0 && contains(positions.get(slot), tuple.curPos);
+    }
+
+    /**
+     * <pre>
+     * 查找单词的序号.
+     *      有单词id时按单词id查找；没有单词id，或者文档里还有没带单词id的三元组时再按单词查找
+     * @param term ：单词
+     * @param termId ：单词id，没有时为-1
+     * @return ：序号；文档里没有该单词返回-1
+     * </pre>
+     */
+    private int findSlot(AbstractTerm term, int termId) {
+        if (termId >= 0) {
+            int mask = idKeys.length - 1;
+            for (int i = mix(termId) & mask; idKeys[i] != 0; i = (i + 1) & mask) {
+                if (idKeys[i] == termId + 1) {
+                    return idSlots[i];
+                }
+            }
+            if (termSlots == null) {
+                return -1;
+            }
+        } else if (termSlots == null) {
+            termSlots = new HashMap<>();
+            for (int slot = 0; slot < terms.size(); slot++) {
+                termSlots.put(terms.get(slot), slot);
+            }
+        }
+        Integer slot = termSlots.get(term);
+        if (slot == null) {
+            return -1;
+        }
+        if (termId >= 0) {
+            putIdSlot(termId, slot);
+        }
+        return slot;
+    }
+
+    /**
+     * 在单词id哈希表里记录单词id对应的序号
+     */
+    private void putIdSlot(int termId, int slot) {
+        if ((terms.size() + 1) * 2 > idKeys.length) {
+            int[] oldKeys = idKeys;
+            int[] oldSlots = idSlots;
+            idKeys = new int[oldKeys.length * 2];
+            idSlots = new int[idKeys.length];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    insertIdSlot(oldKeys[i] - 1, oldSlots[i]);
+                }
+            }
+        }
+        insertIdSlot(termId, slot);
+    }
+
+    private void insertIdSlot(int termId, int slot) {
+        int mask = idKeys.length - 1;
+        int i = mix(termId) & mask;
+        while (idKeys[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        idKeys[i] = termId + 1;
+        idSlots[i] = slot;
+    }
+
+    /**
+     * 打散单词id，连续的单词id不会落在连续的位置上
+     */
+    private static int mix(int termId) {
+        int h = termId * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * 位置列表是否包含指定位置. 三元组通常按位置递增的顺序添加，只需要和最后一个位置比较
+     *
+     * @param positions ：位置列表
+     * @param pos ：位置
+     * @return ：包含返回true，否则返回false
+     */
+    private static boolean contains(IntArrayList positions, int pos) {
+        int last = positions.get(positions.size() - 1);
+        return last == pos || (pos < last && positions.contains(pos));
     }
 
     /**
@@ -119,7 +368,7 @@ public class Document extends AbstractDocument {
      */
     @Override
     public AbstractTermTuple getTuple(int index) {
-        return this.tuples.get(index);
+        return getTuples().get(index);
     }
 
 
@@ -130,7 +379,7 @@ public class Document extends AbstractDocument {
      */
     @Override
     public int getTupleSize() {
-        return this.tuples.size();
+        return tupleSize;
     }
 
     /**
@@ -143,7 +392,7 @@ public class Document extends AbstractDocument {
         return "Document{" +
                 "docId=" + docId +
                 ", docPath='" + docPath + '\'' +
-                ", tuples=" + tuples +
+                ", tuples=" + getTuples() +
                 '}';
     }
 }
\ No newline at end of file
@@ -4,12 +4,15 @@ import hust.cs.javacourse.search.index.AbstractDocument;
 import hust.cs.javacourse.search.index.AbstractDocumentBuilder;
 import hust.cs.javacourse.search.index.AbstractTermTuple;
 import hust.cs.javacourse.search.parse.AbstractTermTupleStream;
-import hust.cs.javacourse.search.parse.impl.LengthTermTupleFilter;
-import hust.cs.javacourse.search.parse.impl.PatternTermTupleFilter;
-import hust.cs.javacourse.search.parse.impl.StopWordTermTupleFilter;
+import hust.cs.javacourse.search.parse.impl.FusedTermTupleFilter;
+import hust.cs.javacourse.search.parse.impl.MappedTermTupleScanner;
+import hust.cs.javacourse.search.parse.impl.StemmingTermTupleFilter;
 import hust.cs.javacourse.search.parse.impl.TermTupleScanner;
+import hust.cs.javacourse.search.util.Config;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 /**
  * <pre>
@@ -56,13 +59,112 @@ public class DocumentBuilder extends AbstractDocumentBuilder {
      */
     @Override
     public AbstractDocument build(int docId, String docPath, File file) {
-        AbstractTermTupleStream stream = null;
+        return build(docId, docPath, file, null);
+    }
+
+    /**
+     * <pre>
+     * 由给定的File,构造Document对象. 分词得到的单词通过单词字典转换为单词id，同一个单词共用一个Term对象
+     * @param docId     : 文档id
+     * @param docPath   : 文档绝对路径
+     * @param file      : 文档对应File对象
+     * @param dictionary : 单词字典，为null时不使用
+     * @return          : Document对象
+     * </pre>
+     */
+    public AbstractDocument build(int docId, String docPath, File file, TermDictionary dictionary) {
+        BufferedReader reader;
         try {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
-            stream = new StopWordTermTupleFilter(new LengthTermTupleFilter(new PatternTermTupleFilter(new TermTupleScanner(reader))));
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
         } catch (FileNotFoundException err) {
             err.printStackTrace();
+            return new Document(docId, docPath);
+        }
+        try {
+            TermTupleScanner scanner = new TermTupleScanner(reader);
+            scanner.setTermDictionary(dictionary);
+            return this.build(docId, docPath, filter(scanner));
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * <pre>
+     * 由已经读入内存的文档内容构造Document对象，例如PipelinedIndexBuilder的读文件阶段读到的内容.
+     *      内容按UTF-8解码，得到的Document与从文件构造的完全相同
+     * @param docId     : 文档id
+     * @param docPath   : 文档绝对路径
+     * @param content   : UTF-8编码的文档内容，从其当前位置读到limit
+     * @param dictionary : 单词字典，为null时不使用
+     * @return          : Document对象
+     * </pre>
+     */
+    public AbstractDocument build(int docId, String docPath, ByteBuffer content, TermDictionary dictionary) {
+        MappedTermTupleScanner scanner = new MappedTermTupleScanner(content);
+        scanner.setTermDictionary(dictionary);
+        return this.build(docId, docPath, filter(scanner));
+    }
+
+    /**
+     * <pre>
+     * 用指定的Document构造器构造Document对象. 构造器是DocumentBuilder时使用单词字典，否则忽略单词字典
+     * @param docBuilder : Document构造器
+     * @param docId     : 文档id
+     * @param docPath   : 文档绝对路径
+     * @param file      : 文档对应File对象
+     * @param dictionary : 单词字典
+     * @return          : Document对象
+     * </pre>
+     */
+    static AbstractDocument build(AbstractDocumentBuilder docBuilder, int docId, String docPath, File file,
+                                  TermDictionary dictionary) {
+        if (docBuilder instanceof DocumentBuilder) {
+            return ((DocumentBuilder) docBuilder).build(docId, docPath, file, dictionary);
+        }
+        return docBuilder.build(docId, docPath, file);
+    }
+
+    /**
+     * <pre>
+     * 用指定的Document构造器构造Document对象，同时把文档内容保存到文档内容文件.
+     *      构造器是DocumentBuilder时文件只读一次，读到的内容同时用于保存和分词
+     * @param docBuilder : Document构造器
+     * @param docId     : 文档id
+     * @param docPath   : 文档绝对路径
+     * @param file      : 文档对应File对象
+     * @param dictionary : 单词字典
+     * @param store     : 文档内容文件；为null时不保存
+     * @return          : Document对象
+     * </pre>
+     */
+    static AbstractDocument build(AbstractDocumentBuilder docBuilder, int docId, String docPath, File file,
+                                  TermDictionary dictionary, DocumentStore.OrderedWriter store) throws IOException {
+        if (store == null) {
+            return build(docBuilder, docId, docPath, file, dictionary);
+        }
+        byte[] content = DocumentStore.readContent(file);
+        store.add(docId, docPath, content);
+        if (docBuilder instanceof DocumentBuilder) {
+            return ((DocumentBuilder) docBuilder).build(docId, docPath, ByteBuffer.wrap(content), dictionary);
+        }
+        return docBuilder.build(docId, docPath, file);
+    }
+
+    /**
+     * 在分词得到的三元组流上加上过滤器. Config.STEMMING打开时，过滤后再还原成词干
+     * @param scanner ：分词得到的三元组流
+     * @return ：过滤后的三元组流
+     */
+    protected AbstractTermTupleStream filter(TermTupleScanner scanner) {
+        AbstractTermTupleStream stream = new FusedTermTupleFilter(scanner);
+        if (Config.STEMMING) {
+            stream = new StemmingTermTupleFilter(stream, scanner.getTermDictionary());
         }
-        return this.build(docId, docPath, stream);
+        return stream;
     }
-}
\ No newline at end of file
+}
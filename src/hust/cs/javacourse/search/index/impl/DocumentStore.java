@@ -0,0 +1,468 @@
+package hust.cs.javacourse.search.index.impl;
+
+import hust.cs.javacourse.search.util.Config;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <pre>
+ * DocumentStore是压缩保存文档内容的文件，查询时命中结果的内容从这里读取，不需要再打开原始文档.
+ *      文档内容按写入顺序拼接成块，块的大小达到Config.DOC_STORE_BLOCK_SIZE后用Deflate压缩写出.
+ *      文件末尾是文档表(docId、所在块、块内的起始位置和长度)和块表(文件内偏移、压缩后长度、原始长度)，
+ *      打开时整个读入内存，读一个文档的内容只需要一次定位读取和一次块解压.
+ *      最近读过的块(解压后)保存在LRU缓存里，缓存的块数由Config.DOC_STORE_CACHE_BLOCKS指定.
+ * 文件格式:
+ *      int     MAGIC
+ *      若干压缩块
+ *      int     文档数n, 之后按docId从小到大n个 (int docId, UTF 文档路径, int 块号, int 块内起始位置, int 长度)
+ *      int     块数m, 之后m个 (long 文件内偏移, int 压缩后长度, int 原始长度)
+ *      long    文档表在文件内的偏移
+ * 保存的内容与FileUtil.read读到的相同：换行统一为'\n'，去掉首尾的空白.
+ * 读取时同时比较文档路径，索引之后被别的方式重建、docId对应了别的文档时不会返回错误的内容.
+ * 增量更新时新文件先原样复制已有文件的压缩块和两个表，再追加新文档的内容(见Writer(File, DocumentStore))，
+ *      已有的内容不重新压缩. 删除和修改前的文档内容保留到重新构建索引为止，不影响读取(读取时比较路径和docId).
+ * 构建索引时通过OrderedWriter写入，它把乱序到达的文档按docId排好序后再交给Writer，多个线程可以同时加入.
+ * </pre>
+ */
+public class DocumentStore implements Closeable {
+    /**
+     * 文件头的魔数
+     */
+    static final int MAGIC = 0x44535452;
+
+    /**
+     * 写缓冲区大小
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+
+    /**
+     * 文档表，按docId从小到大排列
+     */
+    private final int[] docIds;
+    private final String[] docPaths;
+    private final int[] docBlocks;
+    private final int[] docStarts;
+    private final int[] docLengths;
+
+    /**
+     * 块表
+     */
+    private final long[] blockOffsets;
+    private final int[] blockCompressedLengths;
+    private final int[] blockLengths;
+
+    /**
+     * 文档表在文件内的偏移，即压缩块结束的位置
+     */
+    private final long tableOffset;
+
+    /**
+     * 解压后的块的LRU缓存，块号到块内容
+     */
+    private final Map<Integer, byte[]> cache;
+
+    /**
+     * 打开文档内容文件，读入文档表和块表
+     * @param file ：文档内容文件
+     */
+    public DocumentStore(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            ByteBuffer header = read(0, 4);
+            if (size < 12 || header.getInt() != MAGIC) {
+                throw new IOException("不是文档内容文件: " + file);
+            }
+            tableOffset = read(size - 8, 8).getLong();
+            if (tableOffset < 4 || tableOffset > size - 8) {
+                throw new IOException("文档内容文件已损坏: " + file);
+            }
+            DataInputStream table = new DataInputStream(new ByteArrayInputStream(
+                    read(tableOffset, (int) (size - 8 - tableOffset)).array()));
+            int docCount = table.readInt();
+            docIds = new int[docCount];
+            docPaths = new String[docCount];
+            docBlocks = new int[docCount];
+            docStarts = new int[docCount];
+            docLengths = new int[docCount];
+            for (int i = 0; i < docCount; i++) {
+                docIds[i] = table.readInt();
+                docPaths[i] = table.readUTF();
+                docBlocks[i] = table.readInt();
+                docStarts[i] = table.readInt();
+                docLengths[i] = table.readInt();
+            }
+            int blockCount = table.readInt();
+            blockOffsets = new long[blockCount];
+            blockCompressedLengths = new int[blockCount];
+            blockLengths = new int[blockCount];
+            for (int i = 0; i < blockCount; i++) {
+                blockOffsets[i] = table.readLong();
+                blockCompressedLengths[i] = table.readInt();
+                blockLengths[i] = table.readInt();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        int capacity = Math.max(1, Config.DOC_STORE_CACHE_BLOCKS);
+        cache = new LinkedHashMap<Integer, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * 读入文件的全部内容用于保存. 读取失败时打印异常并返回空内容，与FileUtil.read相同
+     * @param file ：文件
+     * @return ：文件内容
+     */
+    static byte[] readContent(File file) {
+        try {
+            return Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new byte[0];
+        }
+    }
+
+    /**
+     * 返回索引文件对应的文档内容文件
+     * @param indexFile ：索引文件
+     * @return ：文档内容文件
+     */
+    public static File storeFile(File indexFile) {
+        return new File(indexFile.getPath() + ".docs");
+    }
+
+    /**
+     * 把文档内容规范成与FileUtil.read读到的相同：换行统一为'\n'，去掉首尾的空白
+     * @param content ：文档的原始内容
+     * @return ：规范后的内容
+     */
+    static String normalize(String content) {
+        return content.replace("\r\n", "\n").replace('\r', '\n').trim();
+    }
+
+    /**
+     * 文档数
+     * @return ：文档数
+     */
+    public int size() {
+        return docIds.length;
+    }
+
+    /**
+     * 返回指定文档的内容
+     * @param docId ：文档id
+     * @param docPath ：文档路径
+     * @return ：文档内容；文档不在本文件里或者保存的路径不同返回null
+     */
+    public String get(int docId, String docPath) throws IOException {
+        int i = Arrays.binarySearch(docIds, docId);
+        if (i < 0 || !docPaths[i].equals(docPath)) {
+            return null;
+        }
+        byte[] block = block(docBlocks[i]);
+        return new String(block, docStarts[i], docLengths[i], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 返回解压后的块，缓存里没有时读取并解压
+     * @param blockNo ：块号
+     * @return ：块内容
+     */
+    private byte[] block(int blockNo) throws IOException {
+        synchronized (cache) {
+            byte[] block = cache.get(blockNo);
+            if (block != null) {
+                return block;
+            }
+        }
+        ByteBuffer compressed = read(blockOffsets[blockNo], blockCompressedLengths[blockNo]);
+        byte[] block = new byte[blockLengths[blockNo]];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed.array(), 0, compressed.limit());
+            int n = 0;
+            while (n < block.length && !inflater.finished()) {
+                n += inflater.inflate(block, n, block.length - n);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("文档内容块已损坏: " + blockNo, e);
+        } finally {
+            inflater.end();
+        }
+        synchronized (cache) {
+            cache.put(blockNo, block);
+        }
+        return block;
+    }
+
+    /**
+     * 从指定位置读取指定长度的内容. 使用定位读取，多个线程可以同时读
+     * @param position ：文件内偏移
+     * @param length ：长度
+     * @return ：读到的内容
+     */
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * 顺序写出文档内容文件. 文档必须按docId从小到大的顺序加入
+     */
+    public static class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final int blockSize;
+        private final ByteArrayOutputStream current = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream docTable = new ByteArrayOutputStream();
+        private final DataOutputStream docs = new DataOutputStream(docTable);
+        private final ByteArrayOutputStream blockTable = new ByteArrayOutputStream();
+        private final DataOutputStream blocks = new DataOutputStream(blockTable);
+        private byte[] compressed = new byte[BUFFER_SIZE];
+        private int docCount = 0;
+        private int blockCount = 0;
+        private int lastDocId = Integer.MIN_VALUE;
+
+        /**
+         * 已经写出的字节数. DataOutputStream.size()是int，超过2GB会溢出
+         */
+        private long position = 0;
+
+        /**
+         * 构造函数，块大小由Config.DOC_STORE_BLOCK_SIZE指定
+         * @param file ：目标文件
+         */
+        public Writer(File file) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+            this.blockSize = Math.max(1, Config.DOC_STORE_BLOCK_SIZE);
+            out.writeInt(MAGIC);
+            position = 4;
+        }
+
+        /**
+         * <pre>
+         * 构造函数，先复制已有文件的全部内容，之后加入的文档追加在后面. 已有的压缩块原样复制，
+         *      在新文件里的偏移不变，不重新压缩. 已有文件里docId不小于nextDocId的文档
+         *      (文件是别的方式构建索引时留下的)不复制，之后加入的docId从nextDocId开始
+         * @param file ：目标文件，不能与已有文件相同
+         * @param previous ：已有的文档内容文件
+         * @param nextDocId ：之后加入的第一个docId
+         * </pre>
+         */
+        public Writer(File file, DocumentStore previous, int nextDocId) throws IOException {
+            this(file);
+            try {
+                for (long p = 4; p < previous.tableOffset; ) {
+                    int n = (int) Math.min(BUFFER_SIZE, previous.tableOffset - p);
+                    ByteBuffer chunk = previous.read(p, n);
+                    out.write(chunk.array(), 0, n);
+                    p += n;
+                }
+                position = previous.tableOffset;
+                // 文档表按docId排好序，只复制docId小于nextDocId的部分
+                int copied = Arrays.binarySearch(previous.docIds, nextDocId);
+                copied = copied < 0 ? -copied - 1 : copied;
+                for (int i = 0; i < copied; i++) {
+                    docs.writeInt(previous.docIds[i]);
+                    docs.writeUTF(previous.docPaths[i]);
+                    docs.writeInt(previous.docBlocks[i]);
+                    docs.writeInt(previous.docStarts[i]);
+                    docs.writeInt(previous.docLengths[i]);
+                }
+                docCount = copied;
+                lastDocId = nextDocId - 1;
+                for (int i = 0; i < previous.blockOffsets.length; i++) {
+                    blocks.writeLong(previous.blockOffsets[i]);
+                    blocks.writeInt(previous.blockCompressedLengths[i]);
+                    blocks.writeInt(previous.blockLengths[i]);
+                }
+                blockCount = previous.blockOffsets.length;
+            } catch (IOException | RuntimeException e) {
+                deflater.end();
+                out.close();
+                throw e;
+            }
+        }
+
+        /**
+         * 加入一个文档的内容
+         * @param docId ：文档id，必须大于之前加入的文档id
+         * @param docPath ：文档路径
+         * @param content ：文档内容
+         */
+        public void add(int docId, String docPath, String content) throws IOException {
+            if (docId <= lastDocId) {
+                throw new IllegalArgumentException("docId必须递增: " + docId);
+            }
+            lastDocId = docId;
+            byte[] bytes = normalize(content).getBytes(StandardCharsets.UTF_8);
+            docs.writeInt(docId);
+            docs.writeUTF(docPath);
+            docs.writeInt(blockCount);
+            docs.writeInt(current.size());
+            docs.writeInt(bytes.length);
+            docCount++;
+            current.write(bytes);
+            if (current.size() >= blockSize) {
+                flushBlock();
+            }
+        }
+
+        /**
+         * 压缩并写出当前块
+         */
+        private void flushBlock() throws IOException {
+            if (current.size() == 0) {
+                return;
+            }
+            byte[] raw = current.toByteArray();
+            deflater.reset();
+            deflater.setInput(raw);
+            deflater.finish();
+            int n = 0;
+            while (!deflater.finished()) {
+                if (n == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                }
+                n += deflater.deflate(compressed, n, compressed.length - n);
+            }
+            blocks.writeLong(position);
+            blocks.writeInt(n);
+            blocks.writeInt(raw.length);
+            out.write(compressed, 0, n);
+            position += n;
+            blockCount++;
+            current.reset();
+        }
+
+        /**
+         * 写出最后一个块、文档表和块表
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                flushBlock();
+                long tableOffset = position;
+                out.writeInt(docCount);
+                docTable.writeTo(out);
+                out.writeInt(blockCount);
+                blockTable.writeTo(out);
+                out.writeLong(tableOffset);
+            } finally {
+                deflater.end();
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * <pre>
+     * 按docId顺序写文档内容的Writer包装，构建索引的各种方式都通过它保存文档内容.
+     *      docId从构造时指定的第一个docId开始连续分配，每个docId必须加入一次(读不到的文件加入空内容).
+     *      加入的docId不是下一个时先缓存起来，等前面的都到了再按顺序交给Writer，
+     *      所以多个线程可以以任意顺序同时加入; 缓存的文档数取决于各线程领取文件和加入之间的差距.
+     *      close时还有没有写出的文档(中间缺少docId)抛出IllegalStateException.
+     * </pre>
+     */
+    static final class OrderedWriter implements Closeable {
+        private final Writer writer;
+
+        /**
+         * 下一个要写出的docId
+         */
+        private int next;
+
+        /**
+         * 已经加入但前面还缺少文档的docId到(路径, 内容)
+         */
+        private final Map<Integer, Object[]> pending = new HashMap<>();
+
+        /**
+         * 构造函数
+         * @param writer ：文档内容文件的Writer，close时一起关闭
+         * @param firstDocId ：第一个文档的docId
+         */
+        OrderedWriter(Writer writer, int firstDocId) {
+            this.writer = writer;
+            this.next = firstDocId;
+        }
+
+        /**
+         * 加入一个文档的内容
+         * @param docId ：文档id
+         * @param docPath ：文档路径
+         * @param content ：UTF-8编码的文档内容
+         */
+        synchronized void add(int docId, String docPath, byte[] content) throws IOException {
+            if (docId < next || pending.containsKey(docId)) {
+                throw new IllegalArgumentException("重复加入docId: " + docId);
+            }
+            if (docId != next) {
+                pending.put(docId, new Object[]{docPath, content});
+                return;
+            }
+            writer.add(docId, docPath, new String(content, StandardCharsets.UTF_8));
+            next++;
+            Object[] doc;
+            while ((doc = pending.remove(next)) != null) {
+                writer.add(next, (String) doc[0], new String((byte[]) doc[1], StandardCharsets.UTF_8));
+                next++;
+            }
+        }
+
+        /**
+         * 读入文件内容并加入. 读取失败时加入空内容
+         * @param docId ：文档id
+         * @param docPath ：文档路径
+         * @param file ：文档对应的文件
+         */
+        void add(int docId, String docPath, File file) throws IOException {
+            add(docId, docPath, readContent(file));
+        }
+
+        /**
+         * 关闭Writer，写出文档表和块表
+         */
+        @Override
+        public synchronized void close() throws IOException {
+            try {
+                if (!pending.isEmpty()) {
+                    throw new IllegalStateException("文档内容缺少docId为" + next + "的文档");
+                }
+            } finally {
+                writer.close();
+            }
+        }
+    }
+}
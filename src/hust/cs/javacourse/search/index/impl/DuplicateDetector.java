@@ -0,0 +1,461 @@
+package hust.cs.javacourse.search.index.impl;
+
+import hust.cs.javacourse.search.index.AbstractDocument;
+import hust.cs.javacourse.search.util.Config;
+import hust.cs.javacourse.search.util.IntArrayList;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <pre>
+ * DuplicateDetector在构建索引时找出近似重复的文档(镜像、不同版本的副本等).
+ *      每个文档由分词得到的单词计算64位SimHash签名：每个单词的64位哈希值按词频加权投票，每一位取多数.
+ *      内容相近的文档签名只有少数几位不同，海明距离不超过Config.DEDUP_MAX_HAMMING的视为近似重复.
+ *      签名分成4段，每段16位，按段建哈希桶(LSH分段):
+ *      海明距离小于4的两个签名至少有一段完全相同，所以只需要比较至少一段相同的候选文档，不需要和所有文档比较.
+ *      先出现(docId较小)的文档是原始文档，之后与它近似重复的文档不加入索引，只记录它对应的原始文档的docId和它自己的路径.
+ *      save把原始文档的签名和近似重复的文档写到与索引文件一起的文件(linksFile)，
+ *      load读回后可以继续检查后加入的文档(IncrementalIndexBuilder、IndexWatcher有这个文件时就继续检测).
+ *      增量更新时文档被修改或删除，用remove删除它的记录; 原始文档被删除时，与它近似重复的文档需要重新加入索引.
+ *      文件格式(DataOutputStream):
+ *          int MAGIC, int 原始文档数, 每个原始文档：long 签名, int docId,
+ *          int 近似重复的文档数, 每个近似重复的文档：int docId, int 原始文档docId, UTF 路径
+ * </pre>
+ */
+public class DuplicateDetector {
+    /**
+     * 签名的段数
+     */
+    private static final int BANDS = 4;
+
+    /**
+     * 每段的位数
+     */
+    private static final int BAND_BITS = 64 / BANDS;
+
+    /**
+     * 文件的魔数
+     */
+    private static final int MAGIC = 0x44555053;
+
+    /**
+     * 判为近似重复的最大海明距离
+     */
+    private final int maxDistance;
+
+    /**
+     * 原始文档的签名和docId，下标相同
+     */
+    private long[] signatures = new long[1024];
+    private final IntArrayList canonicalDocIds = new IntArrayList();
+
+    /**
+     * 已经删除(remove)的原始文档的下标，不再参与比较，也不保存
+     */
+    private final BitSet removed = new BitSet();
+
+    /**
+     * 每段一个哈希桶，段的值到原始文档下标列表的映射
+     */
+    private final List<Map<Integer, IntArrayList>> buckets = new ArrayList<>(BANDS);
+
+    /**
+     * 近似重复的文档docId到原始文档docId的映射
+     */
+    private final Map<Integer, Integer> duplicates = new LinkedHashMap<>();
+
+    /**
+     * 近似重复的文档docId到文档路径的映射. 这些文档不加入索引，索引里没有它们的路径
+     */
+    private final Map<Integer, String> duplicatePaths = new HashMap<>();
+
+    /**
+     * 检查过的最大docId加1. 近似重复的文档不在索引里，增量添加文档时docId要从这里和索引两者中较大的继续编号
+     */
+    private int nextDocId = 0;
+
+    /**
+     * 统计
+     */
+    private int docCount = 0;
+    private long totalPostings = 0;
+    private long skippedPostings = 0;
+    private long skippedPositions = 0;
+    private long nanos = 0;
+
+    /**
+     * 构造函数，最大海明距离由Config.DEDUP_MAX_HAMMING指定
+     */
+    public DuplicateDetector() {
+        this(Config.DEDUP_MAX_HAMMING);
+    }
+
+    /**
+     * 构造函数
+     * @param maxDistance ：判为近似重复的最大海明距离，必须小于签名的段数4
+     */
+    public DuplicateDetector(int maxDistance) {
+        if (maxDistance < 0 || maxDistance >= BANDS) {
+            throw new IllegalArgumentException("最大海明距离必须在0到" + (BANDS - 1) + "之间: " + maxDistance);
+        }
+        this.maxDistance = maxDistance;
+        for (int band = 0; band < BANDS; band++) {
+            buckets.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * <pre>
+     * 检查文档是否与之前检查过的原始文档近似重复.
+     *      不重复的文档成为新的原始文档; 没有任何单词的文档不参与比较.
+     *      文档必须按docId从小到大的顺序检查
+     * @param document ：文档
+     * @return ：近似重复时返回原始文档的docId；不重复返回-1
+     * </pre>
+     */
+    public synchronized int check(AbstractDocument document) {
+        long start = System.nanoTime();
+        Document doc = document instanceof Document ? (Document) document
+                : new Document(document.getDocId(), document.getDocPath(), document.getTuples());
+        docCount++;
+        nextDocId = Math.max(nextDocId, doc.getDocId() + 1);
+        totalPostings += doc.getTermCount();
+        int canonical = -1;
+        if (doc.getTermCount() > 0) {
+            long signature = simHash(doc);
+            canonical = find(signature);
+            if (canonical >= 0) {
+                duplicates.put(doc.getDocId(), canonical);
+                duplicatePaths.put(doc.getDocId(), doc.getDocPath());
+                skippedPostings += doc.getTermCount();
+                for (int slot = 0; slot < doc.getTermCount(); slot++) {
+                    skippedPositions += doc.getPositions(slot).size();
+                }
+            } else {
+                add(signature, doc.getDocId());
+            }
+        }
+        nanos += System.nanoTime() - start;
+        return canonical;
+    }
+
+    /**
+     * 计算文档的SimHash签名
+     * @param doc ：文档
+     * @return ：64位签名
+     */
+    public static long simHash(Document doc) {
+        int[] votes = new int[64];
+        for (int slot = 0; slot < doc.getTermCount(); slot++) {
+            long hash = hash(doc.getTerm(slot).getContent());
+            int weight = doc.getPositions(slot).size();
+            for (int bit = 0; bit < 64; bit++) {
+                votes[bit] += (hash >>> bit & 1) != 0 ? weight : -weight;
+            }
+        }
+        long signature = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (votes[bit] > 0) {
+                signature |= 1L << bit;
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * 单词的64位哈希值：FNV-1a后再做一次混合，让每一位都接近均匀分布
+     * @param content ：单词内容
+     * @return ：哈希值
+     */
+    private static long hash(String content) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < content.length(); i++) {
+            h ^= content.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * 在至少一段相同的原始文档里查找海明距离足够小的
+     * @param signature ：签名
+     * @return ：原始文档的docId；没有返回-1
+     */
+    private int find(long signature) {
+        for (int band = 0; band < BANDS; band++) {
+            IntArrayList candidates = buckets.get(band).get(bandKey(signature, band));
+            if (candidates == null) {
+                continue;
+            }
+            for (int i = 0; i < candidates.size(); i++) {
+                int index = candidates.get(i);
+                if (!removed.get(index) && Long.bitCount(signatures[index] ^ signature) <= maxDistance) {
+                    return canonicalDocIds.get(index);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 加入一个原始文档
+     * @param signature ：签名
+     * @param docId ：文档id
+     */
+    private void add(long signature, int docId) {
+        int index = canonicalDocIds.size();
+        if (index == signatures.length) {
+            long[] grown = new long[index * 2];
+            System.arraycopy(signatures, 0, grown, 0, index);
+            signatures = grown;
+        }
+        signatures[index] = signature;
+        canonicalDocIds.add(docId);
+        for (int band = 0; band < BANDS; band++) {
+            buckets.get(band).computeIfAbsent(bandKey(signature, band), k -> new IntArrayList()).add(index);
+        }
+    }
+
+    private static int bandKey(long signature, int band) {
+        return (int) (signature >>> (band * BAND_BITS)) & ((1 << BAND_BITS) - 1);
+    }
+
+    /**
+     * <pre>
+     * 删除指定路径的文档的记录，用于增量更新时文档被修改或删除，必须在从索引里删除这些文档之前调用.
+     *      是原始文档的不再参与比较; 是近似重复的文档的删除记录.
+     *      原始文档被删除后，与它近似重复的其它文档在索引里没有了内容，也删除它们的记录，
+     *      返回它们的路径，调用者要把它们重新加入索引(重新检查时可能与修改后的原始文档仍然近似重复)
+     * @param docPaths ：被修改或删除的文档路径
+     * @param indexedPaths ：索引里docId到文档路径的映射，用于找出被删除的原始文档
+     * @return ：需要重新加入索引的近似重复文档的路径，按路径排序
+     * </pre>
+     */
+    public synchronized List<String> remove(Collection<String> docPaths, Map<Integer, String> indexedPaths) {
+        Set<String> paths = new HashSet<>(docPaths);
+        Set<Integer> removedDocIds = new HashSet<>();
+        for (Map.Entry<Integer, String> entry : indexedPaths.entrySet()) {
+            if (paths.contains(entry.getValue())) {
+                removedDocIds.add(entry.getKey());
+            }
+        }
+        Set<Integer> removedCanonicals = new HashSet<>();
+        for (int index = 0; index < canonicalDocIds.size(); index++) {
+            if (!removed.get(index) && removedDocIds.contains(canonicalDocIds.get(index))) {
+                removed.set(index);
+                removedCanonicals.add(canonicalDocIds.get(index));
+            }
+        }
+        List<String> orphans = new ArrayList<>();
+        Iterator<Map.Entry<Integer, Integer>> it = duplicates.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, Integer> entry = it.next();
+            String path = duplicatePaths.get(entry.getKey());
+            if (paths.contains(path) || removedCanonicals.contains(entry.getValue())) {
+                if (!paths.contains(path)) {
+                    orphans.add(path);
+                }
+                duplicatePaths.remove(entry.getKey());
+                it.remove();
+            }
+        }
+        orphans.sort(String::compareTo);
+        return orphans;
+    }
+
+    /**
+     * 复制一个检测器，之后两者互不影响. 用于先在副本上检查一批文档，提交成功后再替换原来的检测器
+     * @return ：副本
+     */
+    public synchronized DuplicateDetector copy() {
+        DuplicateDetector copy = new DuplicateDetector(maxDistance);
+        for (int index = 0; index < canonicalDocIds.size(); index++) {
+            if (!removed.get(index)) {
+                copy.add(signatures[index], canonicalDocIds.get(index));
+            }
+        }
+        copy.duplicates.putAll(duplicates);
+        copy.duplicatePaths.putAll(duplicatePaths);
+        copy.nextDocId = nextDocId;
+        copy.docCount = docCount;
+        copy.totalPostings = totalPostings;
+        copy.skippedPostings = skippedPostings;
+        copy.skippedPositions = skippedPositions;
+        copy.nanos = nanos;
+        return copy;
+    }
+
+    /**
+     * 近似重复的文档
+     * @return ：近似重复的文档docId到原始文档docId的映射，按检查顺序排列
+     */
+    public synchronized Map<Integer, Integer> getDuplicates() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(duplicates));
+    }
+
+    /**
+     * 近似重复的文档的路径
+     * @param docId ：近似重复的文档的docId
+     * @return ：文档路径；不是近似重复的文档返回null
+     */
+    public synchronized String getDuplicatePath(int docId) {
+        return duplicatePaths.get(docId);
+    }
+
+    /**
+     * 所有近似重复的文档的路径. 它们不在索引里，但已经处理过，不需要再加入索引
+     * @return ：路径
+     */
+    public synchronized Set<String> getDuplicatePaths() {
+        return new HashSet<>(duplicatePaths.values());
+    }
+
+    /**
+     * 检查过(包括从文件读入)的最大docId加1
+     * @return ：下一个可用的docId；没有检查过文档时返回0
+     */
+    public synchronized int nextDocId() {
+        return nextDocId;
+    }
+
+    /**
+     * 检查过的文档数
+     * @return ：文档数
+     */
+    public synchronized int getDocCount() {
+        return docCount;
+    }
+
+    /**
+     * 近似重复的文档数
+     * @return ：文档数
+     */
+    public synchronized int getDuplicateCount() {
+        return duplicates.size();
+    }
+
+    /**
+     * 检查过的文档的Posting总数(每个文档的不同单词数之和)
+     * @return ：Posting总数
+     */
+    public synchronized long getTotalPostings() {
+        return totalPostings;
+    }
+
+    /**
+     * 因为近似重复而没有加入索引的Posting数
+     * @return ：Posting数
+     */
+    public synchronized long getSkippedPostings() {
+        return skippedPostings;
+    }
+
+    /**
+     * 因为近似重复而没有加入索引的位置数
+     * @return ：位置数
+     */
+    public synchronized long getSkippedPositions() {
+        return skippedPositions;
+    }
+
+    /**
+     * 计算签名和查找近似重复花费的时间
+     * @return ：纳秒数
+     */
+    public synchronized long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * 返回与索引文件一起保存原始文档签名和近似重复文档的文件
+     * @param indexFile ：索引文件
+     * @return ：索引文件名加上.dup
+     */
+    public static File linksFile(File indexFile) {
+        return new File(indexFile.getPath() + ".dup");
+    }
+
+    /**
+     * 把原始文档的签名和近似重复的文档写到文件. 统计数据不保存
+     * @param file ：目标文件，通常为linksFile(索引文件)
+     */
+    public synchronized void save(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(canonicalDocIds.size() - removed.cardinality());
+            for (int index = 0; index < canonicalDocIds.size(); index++) {
+                if (!removed.get(index)) {
+                    out.writeLong(signatures[index]);
+                    out.writeInt(canonicalDocIds.get(index));
+                }
+            }
+            out.writeInt(duplicates.size());
+            for (Map.Entry<Integer, Integer> entry : duplicates.entrySet()) {
+                out.writeInt(entry.getKey());
+                out.writeInt(entry.getValue());
+                out.writeUTF(duplicatePaths.get(entry.getKey()));
+            }
+        }
+    }
+
+    /**
+     * <pre>
+     * 从save写出的文件读入原始文档的签名和近似重复的文档.
+     *      读入后可以继续检查docId更大的文档，统计数据从0开始
+     * @param file ：文件
+     * @param maxDistance ：判为近似重复的最大海明距离
+     * @return ：检测器
+     * </pre>
+     */
+    public static DuplicateDetector load(File file, int maxDistance) throws IOException {
+        DuplicateDetector detector = new DuplicateDetector(maxDistance);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("不是近似重复文档的文件: " + file);
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                long signature = in.readLong();
+                int docId = in.readInt();
+                detector.add(signature, docId);
+                detector.nextDocId = Math.max(detector.nextDocId, docId + 1);
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                int docId = in.readInt();
+                detector.duplicates.put(docId, in.readInt());
+                detector.duplicatePaths.put(docId, in.readUTF());
+                detector.nextDocId = Math.max(detector.nextDocId, docId + 1);
+            }
+        }
+        return detector;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("文档: %d, 近似重复: %d, Posting: %d, 跳过的Posting: %d (%.1f%%), 跳过的位置: %d, 耗时: %.1f ms",
+                docCount, duplicates.size(), totalPostings, skippedPostings,
+                totalPostings == 0 ? 0.0 : 100.0 * skippedPostings / totalPostings, skippedPositions, nanos / 1e6);
+    }
+}
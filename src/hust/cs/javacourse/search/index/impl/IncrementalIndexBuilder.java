@@ -0,0 +1,259 @@
+package hust.cs.javacourse.search.index.impl;
+
+import hust.cs.javacourse.search.index.AbstractDocument;
+import hust.cs.javacourse.search.index.AbstractDocumentBuilder;
+import hust.cs.javacourse.search.index.AbstractIndex;
+import hust.cs.javacourse.search.index.AbstractIndexBuilder;
+import hust.cs.javacourse.search.util.Config;
+import hust.cs.javacourse.search.util.CorpusCrawler;
+import hust.cs.javacourse.search.util.CorpusManifest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <pre>
+ * IncrementalIndexBuilder在已保存的索引上增量添加新文档，不重建整个索引.
+ *      用CorpusCrawler递归遍历文档目录，与上次保存的清单(CorpusManifest，保存在"索引文件名.manifest")比较，
+ *      得到新增、修改和删除的文件，只解析新增和修改的文件，docId接着已有的最大docId编号.
+ *      新文档的索引保存为一个新的增量索引文件(见SegmentedIndex)，查询时与已有的段一起检索;
+ *      修改和删除的文件原来的docId记录为已删除.
+ *      增量索引、已删除的docId和清单通过IndexCommit一起提交，中途崩溃不会让清单和索引不一致.
+ *      索引文件不存在时，新文档的索引直接保存为基础索引.
+ *      还没有清单时(例如索引是IndexBuilder构建的)，已经在索引里并且仍然存在的文件视为没有变化，
+ *      比较时两边的路径都换成规范路径(见diffWithoutManifest); 旧的索引只有顶层目录的文件，子目录里的文件作为新增文件加入.
+ *      索引有近似重复文档的文件(DuplicateDetector.linksFile)时，读入检测器继续检查新文档，近似重复的不加入增量索引，
+ *      检测器随提交一起保存; 没有清单时，检测器记录的近似重复文档也视为已经在索引里.
+ *      索引有文档内容文件(DocumentStore.storeFile)时，复制一份并追加新文档的内容，随提交一起替换原来的文件.
+ * </pre>
+ */
+public class IncrementalIndexBuilder extends AbstractIndexBuilder {
+    /**
+     * 基础索引文件
+     */
+    private final File indexFile;
+
+    /**
+     * 最近一次buildIndex得到的变化
+     */
+    private CorpusManifest.ChangeSet lastChanges;
+
+    /**
+     * 构造函数
+     * @param docBuilder ：Document构造器
+     * @param indexFile ：基础索引文件
+     */
+    public IncrementalIndexBuilder(AbstractDocumentBuilder docBuilder, File indexFile) {
+        super(docBuilder);
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * 返回文档清单文件
+     * @param indexFile ：基础索引文件
+     * @return ：清单文件
+     */
+    public static File manifestFile(File indexFile) {
+        return new File(indexFile.getPath() + ".manifest");
+    }
+
+    /**
+     * <pre>
+     * 把指定目录下新增和修改的文本文件加入索引，保存为新的增量索引文件，并保存已删除的docId和新的清单.
+     * @param rootDirectory ：指定目录
+     * @return ：包含已有各段和新增量的索引
+     * </pre>
+     */
+    @Override
+    public AbstractIndex buildIndex(String rootDirectory) {
+        SegmentedIndex index = new SegmentedIndex();
+        try {
+            // 先完成上一次没做完的提交，基础索引文件可能还没有改名
+            IndexCommit.recover(indexFile);
+            if (indexFile.isFile()) {
+                index.load(indexFile);
+            }
+            File linksFile = DuplicateDetector.linksFile(indexFile);
+            DuplicateDetector detector = linksFile.isFile()
+                    ? DuplicateDetector.load(linksFile, Config.DEDUP_MAX_HAMMING) : null;
+            CorpusManifest manifest = new CorpusManifest();
+            File manifestFile = manifestFile(indexFile);
+            boolean hasManifest = manifestFile.isFile();
+            if (hasManifest) {
+                manifest.load(manifestFile);
+            }
+            List<CorpusCrawler.FileEntry> crawled = new CorpusCrawler().crawl(rootDirectory);
+            CorpusManifest.ChangeSet changes = manifest.update(crawled);
+            if (!hasManifest) {
+                diffWithoutManifest(changes, crawled, index, detector);
+            }
+            lastChanges = changes;
+
+            List<String> stale = new ArrayList<>(changes.modified);
+            stale.addAll(changes.deleted);
+            List<String> docPaths = new ArrayList<>(changes.added);
+            docPaths.addAll(changes.modified);
+            if (detector != null && !stale.isEmpty()) {
+                docPaths.addAll(detector.remove(stale, index.docIdToDocPathMapping));
+            }
+            boolean deleted = !stale.isEmpty() && index.deleteDocuments(stale) > 0;
+
+            docId = nextDocId(index, detector);
+            IndexCommit commit = new IndexCommit(indexFile);
+            Index delta = buildDelta(docBuilder, docPaths, docId, detector, indexFile, commit);
+            docId += docPaths.size();
+            if (!delta.docIdToDocPathMapping.isEmpty()) {
+                delta.save(commit.stage(index.segmentCount() == 0 ? indexFile
+                        : SegmentedIndex.deltaFile(indexFile, index.segmentCount())));
+                index.addSegment(delta);
+            }
+            if (deleted) {
+                index.stageDeletions(commit, indexFile);
+            }
+            if (detector != null) {
+                detector.save(commit.stage(linksFile));
+            }
+            manifest.save(commit.stage(manifestFile));
+            commit.commit(Math.max(0, index.segmentCount() - 1));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return index;
+    }
+
+    /**
+     * <pre>
+     * 还没有清单时，用索引里已有的文档修正清单diff得到的变化. 旧的索引由FileUtil.list构建，路径是规范路径(解析了符号链接)，
+     *      CorpusCrawler的路径是规范的根目录加上相对路径，两边都换成规范路径后比较:
+     *      规范路径相同并且路径字符串也相同的文件视为没有变化; 规范路径相同但字符串不同的文件按CorpusCrawler的路径重新加入，
+     *      原来的文档删除，这样之后清单里记录的路径和索引里的一致; 索引里有而遍历不到的文件视为删除.
+     *      近似重复文档检测器记录的近似重复文档没有加入索引，规范路径相同时也视为已经处理过.
+     * @param changes ：清单diff得到的变化，此时所有遍历到的文件都在新增里
+     * @param crawled ：遍历到的文件
+     * @param index ：已有的索引
+     * @param detector ：近似重复文档检测器；为null时不检测
+     * </pre>
+     */
+    private static void diffWithoutManifest(CorpusManifest.ChangeSet changes, List<CorpusCrawler.FileEntry> crawled,
+                                            SegmentedIndex index, DuplicateDetector detector) {
+        // 规范路径到索引里的路径
+        Map<String, String> indexed = new HashMap<>();
+        for (String docPath : index.docIdToDocPathMapping.values()) {
+            indexed.put(canonicalPath(docPath), docPath);
+        }
+        Set<String> duplicates = new HashSet<>();
+        if (detector != null) {
+            for (String docPath : detector.getDuplicatePaths()) {
+                duplicates.add(canonicalPath(docPath));
+            }
+        }
+        Set<String> unchanged = new HashSet<>();
+        Set<String> present = new HashSet<>();
+        for (CorpusCrawler.FileEntry entry : crawled) {
+            String canonical = canonicalPath(entry.path);
+            present.add(canonical);
+            if (entry.path.equals(indexed.get(canonical)) || duplicates.contains(canonical)) {
+                unchanged.add(entry.path);
+            }
+        }
+        changes.added.removeAll(unchanged);
+        for (Map.Entry<String, String> doc : indexed.entrySet()) {
+            if (!present.contains(doc.getKey()) || !unchanged.contains(doc.getValue())) {
+                changes.deleted.add(doc.getValue());
+            }
+        }
+        changes.deleted.sort(String::compareTo);
+    }
+
+    /**
+     * 返回文件的规范路径；无法取得时返回原路径
+     * @param path ：文件路径
+     * @return ：规范路径
+     */
+    private static String canonicalPath(String path) {
+        try {
+            return new File(path).getCanonicalPath();
+        } catch (IOException e) {
+            return path;
+        }
+    }
+
+    /**
+     * 最近一次buildIndex得到的变化
+     * @return ：变化；还没有调用过buildIndex时返回null
+     */
+    public CorpusManifest.ChangeSet getLastChanges() {
+        return lastChanges;
+    }
+
+    /**
+     * 增量索引的第一个docId：索引和近似重复文档检测器里最大的docId加1，近似重复的文档不在索引里，docId也不重复使用
+     * @param index ：已有的索引
+     * @param detector ：近似重复文档检测器；为null时不检测
+     * @return ：docId
+     */
+    static int nextDocId(SegmentedIndex index, DuplicateDetector detector) {
+        return detector == null ? index.nextDocId() : Math.max(index.nextDocId(), detector.nextDocId());
+    }
+
+    /**
+     * <pre>
+     * 解析指定的文件，构建增量索引. 索引有文档内容文件时，把已有的内容和新文档的内容写到一个新文件，
+     *      登记到提交里替换原来的文件; 没有文档内容文件时不保存内容
+     * @param docBuilder ：Document构造器
+     * @param docPaths ：要解析的文件，会被排序
+     * @param firstDocId ：第一个文件的docId
+     * @param detector ：近似重复文档检测器；为null时不检测
+     * @param indexFile ：基础索引文件
+     * @param commit ：本次更新的提交
+     * @return ：增量索引
+     * </pre>
+     */
+    static Index buildDelta(AbstractDocumentBuilder docBuilder, List<String> docPaths, int firstDocId,
+                            DuplicateDetector detector, File indexFile, IndexCommit commit) throws IOException {
+        File storeFile = DocumentStore.storeFile(indexFile);
+        if (docPaths.isEmpty() || !storeFile.isFile()) {
+            return buildDelta(docBuilder, docPaths, firstDocId, detector, null);
+        }
+        try (DocumentStore previous = new DocumentStore(storeFile);
+             DocumentStore.OrderedWriter store = new DocumentStore.OrderedWriter(
+                     new DocumentStore.Writer(commit.stage(storeFile), previous, firstDocId), firstDocId)) {
+            return buildDelta(docBuilder, docPaths, firstDocId, detector, store);
+        }
+    }
+
+    /**
+     * 解析指定的文件，构建增量索引. 文件按路径排序后依次编号，近似重复的文档仍然占用一个docId
+     * @param docBuilder ：Document构造器
+     * @param docPaths ：要解析的文件，会被排序
+     * @param firstDocId ：第一个文件的docId
+     * @param detector ：近似重复文档检测器，近似重复的文档不加入增量索引；为null时不检测
+     * @param store ：文档内容文件，近似重复的文档也保存内容；为null时不保存
+     * @return ：增量索引
+     */
+    static Index buildDelta(AbstractDocumentBuilder docBuilder, List<String> docPaths, int firstDocId,
+                            DuplicateDetector detector, DocumentStore.OrderedWriter store) throws IOException {
+        docPaths.sort(String::compareTo);
+        Index delta = new Index();
+        TermDictionary dictionary = new TermDictionary();
+        delta.beginBulkLoad(dictionary);
+        int docId = firstDocId;
+        for (String docPath : docPaths) {
+            AbstractDocument document = DocumentBuilder.build(docBuilder, docId, docPath, new File(docPath),
+                    dictionary, store);
+            if (detector == null || detector.check(document) < 0) {
+                delta.addDocument(document);
+            }
+            docId++;
+        }
+        delta.commitBulkLoad();
+        return delta;
+    }
+}
@@ -1,6 +1,8 @@
 package hust.cs.javacourse.search.index.impl;
 
 import hust.cs.javacourse.search.index.*;
+import hust.cs.javacourse.search.util.Config;
+import hust.cs.javacourse.search.util.IntArrayList;
 
 import java.io.*;
 import java.util.*;
@@ -9,6 +11,21 @@ import java.util.*;
  * AbstractIndex的具体实现类
  */
 public class Index extends AbstractIndex {
+    /**
+     * 是否处于批量加载模式. 批量加载模式下addDocument不再每次调用optimize，而是在commitBulkLoad时统一排序一次
+     */
+    private boolean bulkLoading = false;
+
+    /**
+     * 批量加载时使用的单词字典. 带有该字典单词id的文档按单词id查找PostingList，不需要比较字符串
+     */
+    private TermDictionary dictionary = null;
+
+    /**
+     * 批量加载时按单词id保存的PostingList，下标为单词id，commitBulkLoad时才放入termToPostingListMapping
+     */
+    private List<AbstractPostingList> postingsById = null;
+
     public Index() {
     }
     /**
@@ -26,81 +43,325 @@ public class Index extends AbstractIndex {
     }
 
     /**
-     * 添加文档到索引，更新索引内部的HashMap
-     *
+     * <pre>
+     * 添加文档到索引，更新索引内部的HashMap.
+     *      文档的三元组先按单词聚合成位置列表，每个单词只查找一次PostingList并追加一个Posting.
+     *      新单词使用IntPostingList，位置直接复制到int数组
      * @param document ：文档的AbstractDocument子类型表示
+     * </pre>
      */
     @Override
     public void addDocument(AbstractDocument document) {
-        docIdToDocPathMapping.put(document.getDocId(), document.getDocPath());
-        for (AbstractTermTuple termTuple : document.getTuples()) {
-            if (!termToPostingListMapping.containsKey(termTuple.term)) {
-                // 如果不含有键
-                Posting posting = new Posting();
-                posting.setDocId(document.getDocId());
-                posting.setFreq(termTuple.freq);
-                List<Integer> positions = new ArrayList<>();
-                positions.add(termTuple.curPos);
-                posting.setPositions(positions);
-                termToPostingListMapping.put(termTuple.term, new PostingList());
-                termToPostingListMapping.get(termTuple.term).add(posting);
+        checkNotSealed();
+        int docId = document.getDocId();
+        docIdToDocPathMapping.put(docId, document.getDocPath());
+        Document doc = document instanceof Document ? (Document) document
+                : new Document(docId, document.getDocPath(), document.getTuples());
+        for (int slot = 0; slot < doc.getTermCount(); slot++) {
+            IntArrayList positions = doc.getPositions(slot);
+            AbstractPostingList postingList = findPostingList(doc.getTerm(slot), doc.getTermId(slot));
+            if (postingList == null) {
+                postingList = new IntPostingList();
+                putPostingList(doc.getTerm(slot), doc.getTermId(slot), postingList);
+            }
+            if (postingList instanceof IntPostingList) {
+                ((IntPostingList) postingList).add(docId, positions);
+                continue;
+            }
+            AbstractPosting last = postingList.isEmpty() ? null : postingList.get(postingList.size() - 1);
+            if (last != null && last.getDocId() == docId) {
+                // 同一个文档再次加入，把位置追加到已有的Posting
+                for (int i = 0; i < positions.size(); i++) {
+                    last.getPositions().add(positions.get(i));
+                }
+                last.setFreq(last.getFreq() + positions.size());
+            } else {
+                postingList.add(new Posting(docId, positions.size(), positions.toList()));
+            }
+        }
+        if (!bulkLoading) {
+            optimize();
+        }
+    }
+
+    /**
+     * 判断索引里是否已经有文档里指定序号的单词
+     * @param doc ：文档
+     * @param slot ：单词在文档里的序号
+     * @return ：已经有返回true，否则返回false
+     */
+    boolean containsTerm(Document doc, int slot) {
+        return findPostingList(doc.getTerm(slot), doc.getTermId(slot)) != null;
+    }
+
+    /**
+     * 查找单词的PostingList. 单词id来自批量加载使用的单词字典时按单词id查找
+     * @param term ：单词
+     * @param termId ：单词id，没有时为-1
+     * @return ：PostingList；没有返回null
+     */
+    private AbstractPostingList findPostingList(AbstractTerm term, int termId) {
+        if (postingsById != null && dictionary.owns(termId, term)) {
+            return termId < postingsById.size() ? postingsById.get(termId) : null;
+        }
+        return termToPostingListMapping.get(term);
+    }
+
+    /**
+     * 保存单词的PostingList. 单词id来自批量加载使用的单词字典时按单词id保存
+     * @param term ：单词
+     * @param termId ：单词id，没有时为-1
+     * @param postingList ：PostingList
+     */
+    private void putPostingList(AbstractTerm term, int termId, AbstractPostingList postingList) {
+        if (postingsById != null && dictionary.owns(termId, term)) {
+            while (postingsById.size() <= termId) {
+                postingsById.add(null);
+            }
+            postingsById.set(termId, postingList);
+        } else {
+            termToPostingListMapping.put(term, postingList);
+        }
+    }
+
+    /**
+     * 把按单词id保存的PostingList放入termToPostingListMapping，每个单词只在这里做一次字符串哈希
+     */
+    private void flushPostingsById() {
+        if (postingsById == null) {
+            return;
+        }
+        for (int termId = 0; termId < postingsById.size(); termId++) {
+            AbstractPostingList list = postingsById.get(termId);
+            if (list == null) {
+                continue;
+            }
+            AbstractTerm term = dictionary.term(termId);
+            AbstractPostingList existing = termToPostingListMapping.get(term);
+            if (existing == null) {
+                termToPostingListMapping.put(term, list);
             } else {
-                // 如果含有键,先获得已经存储的index,再将目前的curPos加入
-                int index = termToPostingListMapping.get(termTuple.term).indexOf(document.getDocId());
-                if (index == -1) {
-                    // 如果有键，但是没有相应的posting
-                    Posting posting = new Posting();
-                    posting.setDocId(document.getDocId());
-                    posting.setFreq(termTuple.freq);
-                    List<Integer> positions = new ArrayList<>();
-                    positions.add(termTuple.curPos);
-                    posting.setPositions(positions);
-                    termToPostingListMapping.get(termTuple.term).add(posting);
-                } else {
-                    termToPostingListMapping.get(termTuple.term).get(index).getPositions().add(termTuple.curPos);
-                    termToPostingListMapping.get(termTuple.term).get(index).setFreq(
-                            termToPostingListMapping.get(termTuple.term).get(index).getFreq() + 1
-                    );
+                for (int i = 0; i < list.size(); i++) {
+                    existing.add(list.get(i));
                 }
             }
         }
+        postingsById = null;
+        dictionary = null;
+    }
+
+    /**
+     * <pre>
+     * 进入批量加载模式.
+     *      之后调用addDocument只追加Posting，不再对整个索引排序，
+     *      全部文档添加完后必须调用commitBulkLoad
+     * </pre>
+     */
+    public void beginBulkLoad() {
+        checkNotSealed();
+        this.bulkLoading = true;
+    }
+
+    /**
+     * <pre>
+     * 进入使用单词字典的批量加载模式.
+     *      带有该字典单词id的文档按单词id查找PostingList，commitBulkLoad时才把单词放入termToPostingListMapping
+     * @param dictionary ：单词字典
+     * </pre>
+     */
+    public void beginBulkLoad(TermDictionary dictionary) {
+        checkNotSealed();
+        flushPostingsById();
+        this.bulkLoading = true;
+        this.dictionary = dictionary;
+        this.postingsById = new ArrayList<>();
+    }
+
+    /**
+     * <pre>
+     * 结束批量加载模式.
+     *      对整个索引执行一次optimize，去掉IntPostingList未使用的容量，之后的addDocument恢复为每次添加后排序
+     * </pre>
+     */
+    public void commitBulkLoad() {
+        this.bulkLoading = false;
+        flushPostingsById();
         optimize();
+        for (AbstractPostingList list : termToPostingListMapping.values()) {
+            if (list instanceof IntPostingList) {
+                ((IntPostingList) list).trimToSize();
+            }
+        }
+    }
+
+    /**
+     * 是否处于批量加载模式
+     * @return ：处于批量加载模式返回true，否则返回false
+     */
+    public boolean isBulkLoading() {
+        return bulkLoading;
+    }
+
+    /**
+     * <pre>
+     * 封存索引，之后只用于查询和保存.
+     *      termToPostingListMapping换成只读的CompactTermMap：单词前缀压缩保存在CompactTermDictionary里，
+     *      按单词查找使用最小完美哈希，不再为每个单词保存Term、String和TreeMap结点.
+     *      封存后不能再添加文档或合并其他索引，重新load后恢复为可以修改的索引
+     * </pre>
+     */
+    public void seal() {
+        if (isSealed()) {
+            return;
+        }
+        if (bulkLoading) {
+            commitBulkLoad();
+        }
+        flushPostingsById();
+        Map<AbstractTerm, AbstractPostingList> sorted = termToPostingListMapping instanceof SortedMap
+                && ((SortedMap<AbstractTerm, AbstractPostingList>) termToPostingListMapping).comparator() == null
+                ? termToPostingListMapping : new TreeMap<>(termToPostingListMapping);
+        termToPostingListMapping = new CompactTermMap(sorted);
+    }
+
+    /**
+     * 索引是否已经封存
+     * @return ：已经封存返回true，否则返回false
+     */
+    public boolean isSealed() {
+        return termToPostingListMapping instanceof CompactTermMap;
+    }
+
+    /**
+     * 封存的索引不能修改
+     */
+    private void checkNotSealed() {
+        if (isSealed()) {
+            throw new IllegalStateException("索引已经封存，不能再修改");
+        }
+    }
+
+    /**
+     * <pre>
+     * 把另一个索引合并到当前索引.
+     *      每个单词的Posting用PostingList.add(List)一次加入：other里的docId都大于当前索引里已有的docId时
+     *      (例如按文档顺序切分后分别构建的部分索引)直接追加到末尾，否则(例如多个线程交替领取文档构建的部分索引)
+     *      排序后与原来的Posting线性归并，不逐个插入. 合并后仍按docId从小到大有序.
+     *      两个索引使用同一个单词字典批量加载时按单词id合并.
+     *      合并后other不应再被使用
+     * @param other ：要合并进来的索引
+     * </pre>
+     */
+    public void merge(AbstractIndex other) {
+        checkNotSealed();
+        if (other instanceof Index && ((Index) other).postingsById != null) {
+            Index partial = (Index) other;
+            if (postingsById != null && dictionary == partial.dictionary) {
+                mergePostingsById(partial);
+            } else {
+                partial.flushPostingsById();
+            }
+        }
+        docIdToDocPathMapping.putAll(other.docIdToDocPathMapping);
+        for (Map.Entry<AbstractTerm, AbstractPostingList> entry : other.termToPostingListMapping.entrySet()) {
+            AbstractPostingList list = termToPostingListMapping.get(entry.getKey());
+            if (list == null) {
+                termToPostingListMapping.put(entry.getKey(), entry.getValue());
+            } else {
+                addAll(list, entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * 把source的所有Posting一次加入target
+     * @param target ：目标PostingList
+     * @param source ：要加入的PostingList
+     */
+    private static void addAll(AbstractPostingList target, AbstractPostingList source) {
+        List<AbstractPosting> postings = new ArrayList<>(source.size());
+        for (int i = 0; i < source.size(); i++) {
+            postings.add(source.get(i));
+        }
+        target.add(postings);
+    }
+
+    /**
+     * 按单词id合并使用同一个单词字典的部分索引里按单词id保存的PostingList
+     * @param partial ：部分索引
+     */
+    private void mergePostingsById(Index partial) {
+        List<AbstractPostingList> lists = partial.postingsById;
+        for (int termId = 0; termId < lists.size(); termId++) {
+            AbstractPostingList list = lists.get(termId);
+            if (list == null) {
+                continue;
+            }
+            AbstractPostingList target = termId < postingsById.size() ? postingsById.get(termId) : null;
+            if (target == null) {
+                putPostingList(dictionary.term(termId), termId, list);
+            } else {
+                addAll(target, list);
+            }
+        }
+        partial.postingsById = null;
+        partial.dictionary = null;
     }
 
     /**
      * <pre>
      * 从索引文件里加载已经构建好的索引.内部调用FileSerializable接口方法readObject即可
+     *      SpimiIndexBuilder在Config.MAPPED_INDEX_FORMAT为false时生成的PostingRunFile格式的索引文件按文件头识别，直接顺序读入;
+     *      IndexFile格式的索引文件用MappedIndex映射后把全部单词和PostingList读入内存，读入前检查整个文件的CRC32;
+     *      其它文件按Java对象序列化格式读入
      * @param file ：索引文件
      * </pre>
      */
     @Override
     public void load(File file) throws IOException {
-        InputStream inputStream = null;
-        try {
-            inputStream = new FileInputStream(file);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+        if (IndexFile.isIndexFile(file)) {
+            MappedIndex mapped = new MappedIndex();
+            mapped.load(file, true);
+            this.docIdToDocPathMapping = new TreeMap<>(mapped.docIdToDocPathMapping);
+            this.termToPostingListMapping = new TreeMap<>();
+            try {
+                for (Map.Entry<AbstractTerm, AbstractPostingList> entry
+                        : mapped.termToPostingListMapping.entrySet()) {
+                    termToPostingListMapping.put(entry.getKey(),
+                            ((MappedPostingList) entry.getValue()).toIntPostingList());
+                }
+            } catch (IllegalStateException | IndexOutOfBoundsException e) {
+                throw new IOException("索引文件已损坏: " + file, e);
+            }
+            return;
+        }
+        if (file.isFile() && PostingRunFile.isRunFile(file)) {
+            this.docIdToDocPathMapping.clear();
+            this.termToPostingListMapping = new TreeMap<>();
+            PostingRunFile.load(file, this);
+            return;
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            readObject(in);
         }
-        ObjectInputStream objectInputStream = new ObjectInputStream(inputStream);
-        readObject(objectInputStream);
     }
 
     /**
      * <pre>
      * 将在内存里构建好的索引写入到文件. 内部调用FileSerializable接口方法writeObject即可
+     *      Config.MAPPED_INDEX_FORMAT为true时写成可以直接映射的IndexFile格式(见MappedIndex)
      * @param file ：写入的目标索引文件
      * </pre>
      */
     @Override
     public void save(File file) throws IOException {
-        OutputStream out = null;
-        try {
-            out = new FileOutputStream(file);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+        if (Config.MAPPED_INDEX_FORMAT) {
+            IndexFile.write(this, file);
+            return;
+        }
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            writeObject(out);
         }
-        ObjectOutputStream objectOutputStream = new ObjectOutputStream(out);
-        writeObject(objectOutputStream);
     }
 
     /**
@@ -111,7 +372,14 @@ public class Index extends AbstractIndex {
      */
     @Override
     public AbstractPostingList search(AbstractTerm term) {
-        return termToPostingListMapping.get(term);
+        AbstractPostingList list = termToPostingListMapping.get(term);
+        if (list == null && postingsById != null) {
+            int termId = dictionary.find(term.getContent());
+            if (termId >= 0 && termId < postingsById.size()) {
+                list = postingsById.get(termId);
+            }
+        }
+        return list;
     }
 
     /**
@@ -140,8 +408,11 @@ public class Index extends AbstractIndex {
     public void optimize() {
         for (Map.Entry<AbstractTerm, AbstractPostingList> entry : termToPostingListMapping.entrySet()) {
             AbstractPostingList list = entry.getValue();
-            for (int i = 0; i < list.size(); i++) {
-                list.get(i).sort();
+            if (!(list instanceof IntPostingList)) {
+                // IntPostingList.sort同时对每个Posting的位置排序
+                for (int i = 0; i < list.size(); i++) {
+                    list.get(i).sort();
+                }
             }
             list.sort();
         }
@@ -6,29 +6,106 @@ import java.io.*;
 import java.util.*;
 
 public class IndexBuilder extends AbstractIndexBuilder {
+    /**
+     * 文档内容文件；为null时不保存文档内容
+     */
+    private File storeFile = null;
+
+    /**
+     * 近似重复文档检测器；为null时不检测
+     */
+    private DuplicateDetector duplicateDetector = null;
+
+    /**
+     * 构建完成后保存近似重复文档的文件；为null时不保存
+     */
+    private File linksFile = null;
+
     public IndexBuilder(AbstractDocumentBuilder docBuilder) {
         super(docBuilder);
     }
 
+    /**
+     * <pre>
+     * 设置文档内容文件. 设置后buildIndex同时把每个文档的内容压缩保存到该文件(见DocumentStore)，
+     * 查询时命中结果的内容从该文件读取. 通常为DocumentStore.storeFile(索引文件)
+     * @param storeFile ：文档内容文件；为null时不保存文档内容
+     * </pre>
+     */
+    public void setDocumentStore(File storeFile) {
+        this.storeFile = storeFile;
+    }
+
+    /**
+     * <pre>
+     * 设置近似重复文档检测器. 设置后与之前的文档近似重复的文档不加入索引(仍然占用一个docId)，
+     * 它对应的原始文档和节省的Posting数从检测器获得
+     * @param duplicateDetector ：检测器；为null时不检测
+     * </pre>
+     */
+    public void setDuplicateDetector(DuplicateDetector duplicateDetector) {
+        setDuplicateDetector(duplicateDetector, null);
+    }
+
+    /**
+     * <pre>
+     * 设置近似重复文档检测器，buildIndex完成后把检测器的原始文档签名和近似重复的文档保存到指定文件.
+     *      通常为DuplicateDetector.linksFile(索引文件)，与索引一起保存
+     * @param duplicateDetector ：检测器；为null时不检测
+     * @param linksFile ：保存的文件；为null时不保存
+     * </pre>
+     */
+    public void setDuplicateDetector(DuplicateDetector duplicateDetector, File linksFile) {
+        this.duplicateDetector = duplicateDetector;
+        this.linksFile = linksFile;
+    }
+
     /**
      * <pre>
      * 构建指定目录下的所有文本文件的倒排索引.
      * 遍历和解析目录下的每个文本文件, 得到对应的Document对象，再依次加入到索引，并将索引保存到文件.
+     *      构建过程使用一个单词字典(TermDictionary)，文档和索引按单词id聚合，每个不同的单词只创建一个Term.
+     *      设置了文档内容文件时，每个文件只读一次，同时用于分词和保存文档内容.
      * @param rootDirectory ：指定目录
      * @return ：构建好的索引
      * </pre>
      */
     @Override
     public AbstractIndex buildIndex(String rootDirectory) {
-        AbstractIndex index = new Index();
+        Index index = new Index();
         List<String> filePaths = FileUtil.list(rootDirectory);
         filePaths.sort(String::compareTo);
-        for (String docPath : filePaths) {
-            AbstractDocument document = null;
-            document = docBuilder.build(docId, docPath, new File(docPath));
-            index.addDocument(document);
-            docId ++;
+        TermDictionary dictionary = new TermDictionary();
+        index.beginBulkLoad(dictionary);
+        try (DocumentStore.OrderedWriter store = storeFile == null ? null
+                : new DocumentStore.OrderedWriter(new DocumentStore.Writer(storeFile), docId)) {
+            for (String docPath : filePaths) {
+                addDocument(index, DocumentBuilder.build(docBuilder, docId, docPath, new File(docPath), dictionary,
+                        store));
+                docId ++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        index.commitBulkLoad();
+        if (duplicateDetector != null && linksFile != null) {
+            try {
+                duplicateDetector.save(linksFile);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
         }
         return index;
     }
-}
\ No newline at end of file
+
+    /**
+     * 把文档加入索引，设置了近似重复文档检测器时跳过近似重复的文档
+     * @param index ：索引
+     * @param document ：文档
+     */
+    private void addDocument(Index index, AbstractDocument document) {
+        if (duplicateDetector == null || duplicateDetector.check(document) < 0) {
+            index.addDocument(document);
+        }
+    }
+}
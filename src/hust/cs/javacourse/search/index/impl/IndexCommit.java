@@ -0,0 +1,184 @@
+package hust.cs.javacourse.search.index.impl;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <pre>
+ * IndexCommit把一次索引更新要写的多个文件(增量索引、重写的基础索引、已删除docId、清单、文档内容)作为一个整体提交.
+ *      每个文件先写到"目标文件名.pending"，全部写完并刷到磁盘后原子地写出提交文件"索引文件名.commit"，
+ *      其中记录提交后的增量索引个数，以及要把哪些.pending文件改名成目标文件、要删除哪些文件;
+ *      然后逐个改名和删除，最后再写一次不含待办操作的提交文件.
+ *      提交文件写出之前崩溃，.pending文件被忽略，索引保持上一次提交的状态;
+ *      写出之后崩溃，下次加载时(recover)按提交文件把没做完的改名和删除做完.
+ *      编号大于提交文件里增量索引个数的增量索引文件不会被加载.
+ *      提交文件格式(DataOutputStream):
+ *          int MAGIC, int 增量索引个数,
+ *          int 改名个数, 每个改名：UTF .pending文件名, UTF 目标文件名,
+ *          int 删除个数, 每个删除：UTF 文件名
+ *      文件名都是与索引文件在同一目录下的文件名，不含目录.
+ * </pre>
+ */
+final class IndexCommit {
+    /**
+     * 提交文件的魔数
+     */
+    private static final int MAGIC = 0x434D4954;
+
+    /**
+     * 基础索引文件
+     */
+    private final File indexFile;
+
+    /**
+     * 待改名的文件：.pending文件和目标文件
+     */
+    private final List<File[]> renames = new ArrayList<>();
+
+    /**
+     * 待删除的文件
+     */
+    private final List<File> deletes = new ArrayList<>();
+
+    /**
+     * 构造函数
+     * @param indexFile ：基础索引文件
+     */
+    IndexCommit(File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * 返回提交文件
+     * @param indexFile ：基础索引文件
+     * @return ：提交文件
+     */
+    static File commitFile(File indexFile) {
+        return new File(indexFile.getPath() + ".commit");
+    }
+
+    /**
+     * 登记一个要在提交时替换的文件
+     * @param target ：目标文件
+     * @return ：应该写入的.pending文件
+     */
+    File stage(File target) {
+        File pending = new File(target.getPath() + ".pending");
+        renames.add(new File[]{pending, target});
+        return pending;
+    }
+
+    /**
+     * 登记一个要在提交时删除的文件
+     * @param file ：文件
+     */
+    void delete(File file) {
+        deletes.add(file);
+    }
+
+    /**
+     * <pre>
+     * 提交：写出提交文件后完成改名和删除
+     * @param deltaCount ：提交后的增量索引个数
+     * </pre>
+     */
+    void commit(int deltaCount) throws IOException {
+        for (File[] rename : renames) {
+            try (FileChannel channel = FileChannel.open(rename[0].toPath(), StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+        write(indexFile, deltaCount, renames, deletes);
+        apply(renames, deletes);
+        write(indexFile, deltaCount, new ArrayList<>(), new ArrayList<>());
+        renames.clear();
+        deletes.clear();
+    }
+
+    /**
+     * <pre>
+     * 完成上一次提交没做完的改名和删除
+     * @param indexFile ：基础索引文件
+     * @return ：提交的增量索引个数；没有提交文件(例如旧版本保存的索引)时返回-1
+     * </pre>
+     */
+    static int recover(File indexFile) throws IOException {
+        File file = commitFile(indexFile);
+        if (!file.isFile()) {
+            return -1;
+        }
+        File dir = indexFile.getAbsoluteFile().getParentFile();
+        List<File[]> renames = new ArrayList<>();
+        List<File> deletes = new ArrayList<>();
+        int deltaCount;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("不是索引的提交文件: " + file);
+            }
+            deltaCount = in.readInt();
+            for (int i = in.readInt(); i > 0; i--) {
+                renames.add(new File[]{new File(dir, in.readUTF()), new File(dir, in.readUTF())});
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                deletes.add(new File(dir, in.readUTF()));
+            }
+        }
+        if (!renames.isEmpty() || !deletes.isEmpty()) {
+            apply(renames, deletes);
+            write(indexFile, deltaCount, new ArrayList<>(), new ArrayList<>());
+        }
+        return deltaCount;
+    }
+
+    /**
+     * 改名和删除. 已经改过名的.pending文件不存在，跳过
+     */
+    private static void apply(List<File[]> renames, List<File> deletes) throws IOException {
+        for (File[] rename : renames) {
+            if (rename[0].isFile()) {
+                Files.move(rename[0].toPath(), rename[1].toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        for (File file : deletes) {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    /**
+     * 先写到临时文件并刷到磁盘，再原子地替换提交文件
+     */
+    private static void write(File indexFile, int deltaCount, List<File[]> renames, List<File> deletes)
+            throws IOException {
+        File file = commitFile(indexFile);
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(stream)) {
+            out.writeInt(MAGIC);
+            out.writeInt(deltaCount);
+            out.writeInt(renames.size());
+            for (File[] rename : renames) {
+                out.writeUTF(rename[0].getName());
+                out.writeUTF(rename[1].getName());
+            }
+            out.writeInt(deletes.size());
+            for (File delete : deletes) {
+                out.writeUTF(delete.getName());
+            }
+            out.flush();
+            stream.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
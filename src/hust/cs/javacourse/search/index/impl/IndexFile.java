@@ -0,0 +1,711 @@
+package hust.cs.javacourse.search.index.impl;
+
+import hust.cs.javacourse.search.index.AbstractIndex;
+import hust.cs.javacourse.search.index.AbstractPostingList;
+import hust.cs.javacourse.search.index.AbstractTerm;
+import hust.cs.javacourse.search.util.Config;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * <pre>
+ * IndexFile是可以直接内存映射(见MappedIndex)的二进制索引文件格式.
+ *      文件由固定长度的文件头和三个段组成：文档表、PostingList、单词字典.
+ *      文档表和单词字典都可以在映射的缓冲区里直接查找，PostingList按PostingsCodec格式保存，
+ *      查询时只解码用到的单词的PostingList，打开文件不需要反序列化任何对象.
+ * 文件格式(整数都是大端):
+ *      文件头(HEADER_SIZE字节):
+ *          int     MAGIC
+ *          int     VERSION
+ *          int     文档数n
+ *          int     单词数
+ *          文档表、PostingList段、单词字典三个段各一项：long 偏移, long 字节数, int 内容的CRC32, int 保留
+ *          int     分词设置：ANALYZER_RECORDED，以及保存时打开的ANALYZER_IGNORE_CASE、ANALYZER_STEMMING
+ *          int     文件头前面92个字节的CRC32
+ *      文档表：int[n] 从小到大的docId，int[n+1] 每个文档路径在路径区里的起始位置，路径区(UTF-8)
+ *      PostingList段：按单词字典序依次是每个单词的PostingList的PostingsCodec编码
+ *      单词字典：CompactTermDictionary.writeTo的格式，PostingList偏移是相对PostingList段开头的偏移，df是Posting个数
+ * 文档表里路径的起始位置是int，文档表和单词字典都不能超过2GB；PostingList段的大小没有限制，
+ * 映射时按单词的边界分成多个区域(见MappedIndex).
+ * 写文件时先写到同目录下的临时文件，写完后再替换目标文件，已经映射了原文件的检索器不受影响.
+ * 读文件时总是检查文件头和单词字典的CRC32，文档表和PostingList段的CRC32由调用者决定是否检查(检查要读一遍整个段).
+ * 检索词必须与构建索引时同样处理，打开文件时分词设置与当前的Config不同则失败;
+ * 这一项为0(版本1的文件和记录分词设置之前写出的文件)时不检查.
+ * 版本1的文件头只有64个字节，没有CRC32(各段的偏移和字节数紧接在单词数之后)，仍然可以读.
+ * 版本3与版本2只有单词字典的格式不同(df和偏移在块头按位打包，见CompactTermDictionary)，
+ *      版本1、2的单词字典读入时重新构建.
+ * </pre>
+ */
+final class IndexFile {
+    /**
+     * 文件头的魔数，用于和ObjectOutputStream写出的索引文件、PostingRunFile区分
+     */
+    static final int MAGIC = 0x49445846;
+
+    /**
+     * 格式的版本
+     */
+    static final int VERSION = 3;
+
+    /**
+     * 文件头的字节数
+     */
+    static final int HEADER_SIZE = 96;
+
+    /**
+     * 版本1的文件头的字节数
+     */
+    private static final int HEADER_SIZE_V1 = 64;
+
+    /**
+     * 文件头里分词设置的各位：已记录分词设置、忽略大小写(Config.IGNORE_CASE)、还原词干(Config.STEMMING)
+     */
+    static final int ANALYZER_RECORDED = 1;
+    static final int ANALYZER_IGNORE_CASE = 2;
+    static final int ANALYZER_STEMMING = 4;
+
+    /**
+     * 写缓冲区大小
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * 文档数和单词数
+     */
+    final int docCount;
+    final int termCount;
+
+    /**
+     * 各段的偏移和字节数
+     */
+    final long docsOffset;
+    final long docsLength;
+    final long postingsOffset;
+    final long postingsLength;
+    final long dictionaryOffset;
+    final long dictionaryLength;
+
+    /**
+     * 各段的CRC32，版本1的文件没有
+     */
+    private final boolean checksummed;
+    private final int docsCrc;
+    private final int postingsCrc;
+    private final int dictionaryCrc;
+
+    /**
+     * 保存时的分词设置，版本1的文件为0
+     */
+    final int analyzer;
+
+    private IndexFile(ByteBuffer buffer, int version) {
+        this.docCount = buffer.getInt(8);
+        this.termCount = buffer.getInt(12);
+        this.checksummed = version >= 2;
+        int entry = checksummed ? 24 : 16;
+        this.docsOffset = buffer.getLong(16);
+        this.docsLength = buffer.getLong(24);
+        this.postingsOffset = buffer.getLong(16 + entry);
+        this.postingsLength = buffer.getLong(24 + entry);
+        this.dictionaryOffset = buffer.getLong(16 + entry * 2);
+        this.dictionaryLength = buffer.getLong(24 + entry * 2);
+        this.docsCrc = checksummed ? buffer.getInt(32) : 0;
+        this.postingsCrc = checksummed ? buffer.getInt(32 + entry) : 0;
+        this.dictionaryCrc = checksummed ? buffer.getInt(32 + entry * 2) : 0;
+        this.analyzer = checksummed ? buffer.getInt(HEADER_SIZE - 8) : 0;
+    }
+
+    /**
+     * 当前Config的分词设置
+     * @return ：文件头里分词设置一项的值
+     */
+    static int analyzer() {
+        return ANALYZER_RECORDED | (Config.IGNORE_CASE ? ANALYZER_IGNORE_CASE : 0)
+                | (Config.STEMMING ? ANALYZER_STEMMING : 0);
+    }
+
+    /**
+     * 检查文件的分词设置与当前Config相同. 文件没有记录分词设置时不检查
+     * @param file ：文件，用于错误信息
+     */
+    void checkAnalyzer(File file) throws IOException {
+        int current = analyzer();
+        if ((analyzer & ANALYZER_RECORDED) != 0 && analyzer != current) {
+            throw new IOException(String.format("索引文件的分词设置(IGNORE_CASE=%b, STEMMING=%b)"
+                            + "与当前设置(IGNORE_CASE=%b, STEMMING=%b)不同: %s",
+                    (analyzer & ANALYZER_IGNORE_CASE) != 0, (analyzer & ANALYZER_STEMMING) != 0,
+                    Config.IGNORE_CASE, Config.STEMMING, file));
+        }
+    }
+
+    /**
+     * 判断文件是否为IndexFile格式
+     * @param file ：文件
+     * @return ：是返回true，否则返回false
+     */
+    static boolean isIndexFile(File file) throws IOException {
+        if (!file.isFile() || file.length() < HEADER_SIZE_V1) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * 读取并检查文件头
+     * @param buffer ：从文件开头映射或读入的缓冲区，至少包含文件头
+     * @param fileSize ：文件的字节数
+     * @param file ：文件，用于错误信息
+     * @return ：文件头
+     */
+    static IndexFile readHeader(ByteBuffer buffer, long fileSize, File file) throws IOException {
+        if (buffer.limit() < HEADER_SIZE_V1 || buffer.getInt(0) != MAGIC) {
+            throw new IOException("不是IndexFile格式的索引文件: " + file);
+        }
+        int version = buffer.getInt(4);
+        if (version < 1 || version > VERSION) {
+            throw new IOException("不支持的索引文件版本" + version + ": " + file);
+        }
+        int headerSize = version == 1 ? HEADER_SIZE_V1 : HEADER_SIZE;
+        if (version >= 2 && (buffer.limit() < HEADER_SIZE
+                || crc(buffer, 0, HEADER_SIZE - 4) != buffer.getInt(HEADER_SIZE - 4))) {
+            throw new IOException("索引文件头已损坏: " + file);
+        }
+        IndexFile header = new IndexFile(buffer, version);
+        if (header.docCount < 0 || header.termCount < 0
+                || !inside(header.docsOffset, header.docsLength, headerSize, fileSize)
+                || !inside(header.postingsOffset, header.postingsLength, headerSize, fileSize)
+                || !inside(header.dictionaryOffset, header.dictionaryLength, headerSize, fileSize)
+                || header.docsLength < (header.docCount * 2L + 1) * 4
+                || header.docsLength > Integer.MAX_VALUE || header.dictionaryLength > Integer.MAX_VALUE) {
+            throw new IOException("索引文件已损坏: " + file);
+        }
+        return header;
+    }
+
+    private static boolean inside(long offset, long length, int headerSize, long size) {
+        return offset >= headerSize && length >= 0 && offset + length <= size;
+    }
+
+    /**
+     * 检查单词字典的CRC32(打开时本来就要整个读入). 版本1的文件没有CRC32，不检查
+     * @param dictionary ：映射或读入的单词字典段
+     * @param file ：文件，用于错误信息
+     */
+    void verifyDictionary(ByteBuffer dictionary, File file) throws IOException {
+        if (checksummed && crc(dictionary) != dictionaryCrc) {
+            throw new IOException("索引文件校验和不符，文件已损坏: " + file);
+        }
+    }
+
+    /**
+     * 检查文档表和PostingList段的CRC32. 版本1的文件没有CRC32，不检查
+     * @param docs ：映射或读入的文档表段
+     * @param postings ：按顺序映射或读入的PostingList段的各个区域，合起来是整个段
+     * @param file ：文件，用于错误信息
+     */
+    void verifySections(ByteBuffer docs, ByteBuffer[] postings, File file) throws IOException {
+        if (checksummed && (crc(docs) != docsCrc || crc(postings) != postingsCrc)) {
+            throw new IOException("索引文件校验和不符，文件已损坏: " + file);
+        }
+    }
+
+    /**
+     * 计算依次排列的若干缓冲区的全部内容的CRC32，不改变缓冲区的位置
+     */
+    private static int crc(ByteBuffer... buffers) {
+        CRC32 crc = new CRC32();
+        for (ByteBuffer buffer : buffers) {
+            crc.update(buffer.duplicate());
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * 计算缓冲区里一段内容的CRC32
+     */
+    private static int crc(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(offset).limit(offset + length);
+        return crc(slice);
+    }
+
+    /**
+     * 把索引写成IndexFile
+     * @param index ：索引，每个PostingList已经按docId排序
+     * @param file ：目标文件
+     */
+    static void write(AbstractIndex index, File file) throws IOException {
+        try (Writer writer = new Writer(file)) {
+            writer.writeDocs(index.docIdToDocPathMapping instanceof SortedMap
+                    ? index.docIdToDocPathMapping : new TreeMap<>(index.docIdToDocPathMapping));
+            Map<AbstractTerm, AbstractPostingList> terms = index.termToPostingListMapping;
+            if (!(terms instanceof CompactTermMap) && !(terms instanceof SortedMap
+                    && ((SortedMap<AbstractTerm, AbstractPostingList>) terms).comparator() == null)) {
+                terms = new TreeMap<>(terms);
+            }
+            for (Map.Entry<AbstractTerm, AbstractPostingList> entry : terms.entrySet()) {
+                writer.writeTerm(entry.getKey().getContent(), toIntPostingList(entry.getValue()));
+            }
+            writer.commit();
+        }
+    }
+
+    /**
+     * <pre>
+     * 顺序写IndexFile：先写文档表，再按单词字典序逐个写单词的PostingList，最后commit写出单词字典和文件头.
+     *      文档表和PostingList都可以逐项流式写入：startDocs、writeDoc、finishDocs写文档表，
+     *      三部分(docId、路径起始位置、路径)各自在预留好的位置上顺序写，不需要先把整个文档表放进内存;
+     *      startTerm、writePosting、writePosition、finishTerm写一个单词，PostingList每满一块就编码写出.
+     *      只有单词字典(CompactTermDictionary.Builder)留在内存里，SpimiIndexBuilder归并有序段时用它直接写出最终索引.
+     *      内容写到同目录下的临时文件，commit后才替换目标文件；没有commit就close时删除临时文件
+     * </pre>
+     */
+    static final class Writer implements Closeable {
+        private final File file;
+        private final File tmp;
+        private final FileChannel channel;
+        private final Output out;
+        private final CompactTermDictionary.Builder builder = new CompactTermDictionary.Builder();
+        private int docCount = -1;
+        private long docsOffset;
+        private long docsLength;
+        private int docsCrc;
+        private long postingsOffset;
+        private boolean committed = false;
+
+        /**
+         * 正在写的文档表：预计的文档数、已经写入的文档数、最后一个docId、路径区已经写入的字节数，
+         * 以及docId、路径起始位置、路径三部分的输出. 没有在写文档表时docIds为null
+         */
+        private int docsExpected;
+        private int docsWritten;
+        private int lastDocId;
+        private long pathBytes;
+        private Region docIds = null;
+        private Region pathStarts;
+        private Region paths;
+
+        /**
+         * 正在写的单词的PostingList编码，每写完一块就取走写到文件
+         */
+        private final PostingsCodec.ByteSink encoded = new PostingsCodec.ByteSink(1024);
+        private final PostingsCodec.Encoder encoder = new PostingsCodec.Encoder(encoded);
+        private boolean inTerm = false;
+
+        /**
+         * 构造函数，打开临时文件
+         * @param file ：目标文件
+         */
+        Writer(File file) throws IOException {
+            this.file = file;
+            this.tmp = new File(file.getPath() + ".tmp");
+            // 文档表写完后要读回来计算CRC32
+            this.channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.out = new Output(channel, HEADER_SIZE);
+        }
+
+        /**
+         * 写文档表，必须在写单词之前调用一次
+         * @param docs ：按docId从小到大排列的docId到docPath的映射
+         */
+        void writeDocs(Map<Integer, String> docs) throws IOException {
+            startDocs(docs.size());
+            for (Map.Entry<Integer, String> doc : docs.entrySet()) {
+                writeDoc(doc.getKey(), doc.getValue());
+            }
+            finishDocs();
+        }
+
+        /**
+         * 开始写文档表，之后必须按docId从小到大写入count个文档，再调用finishDocs
+         * @param count ：文档数
+         */
+        void startDocs(int count) throws IOException {
+            if (docCount >= 0 || docIds != null) {
+                throw new IllegalStateException("文档表只能写一次");
+            }
+            docsOffset = out.position();
+            docsExpected = count;
+            docsWritten = 0;
+            pathBytes = 0;
+            docIds = new Region(channel, docsOffset);
+            pathStarts = new Region(channel, docsOffset + count * 4L);
+            paths = new Region(channel, docsOffset + count * 8L + 4);
+        }
+
+        /**
+         * 写文档表里的一个文档
+         * @param docId ：文档id，比上一个文档大
+         * @param docPath ：文档路径
+         */
+        void writeDoc(int docId, String docPath) throws IOException {
+            if (docIds == null || docsWritten == docsExpected) {
+                throw new IllegalStateException("写入的文档数与startDocs时给出的不同");
+            }
+            if (docsWritten > 0 && docId <= lastDocId) {
+                throw new IllegalStateException("文档表必须按docId从小到大写入: " + docId);
+            }
+            byte[] path = docPath.getBytes(StandardCharsets.UTF_8);
+            docIds.putInt(docId);
+            pathStarts.putInt((int) pathBytes);
+            paths.put(path);
+            pathBytes += path.length;
+            if (pathBytes > Integer.MAX_VALUE - (docsExpected * 2L + 1) * 4) {
+                throw new IOException("文档表超过2GB，不能写成IndexFile: " + file);
+            }
+            lastDocId = docId;
+            docsWritten++;
+        }
+
+        /**
+         * 结束文档表，计算它的CRC32
+         */
+        void finishDocs() throws IOException {
+            if (docIds == null || docsWritten != docsExpected) {
+                throw new IllegalStateException("写入的文档数与startDocs时给出的不同");
+            }
+            pathStarts.putInt((int) pathBytes);
+            docIds.flush();
+            pathStarts.flush();
+            paths.flush();
+            docIds = null;
+            pathStarts = null;
+            paths = null;
+            docsLength = docsExpected * 8L + 4 + pathBytes;
+            docsCrc = crc(channel, docsOffset, docsLength);
+            out.seek(docsOffset + docsLength);
+            docCount = docsExpected;
+            postingsOffset = out.position();
+        }
+
+        /**
+         * 写一个单词的PostingList，单词必须按字典序从小到大
+         * @param term ：单词
+         * @param list ：PostingList，每个Posting的位置必须已经从小到大排序
+         */
+        void writeTerm(String term, IntPostingList list) throws IOException {
+            int total = 0;
+            for (int i = 0; i < list.size(); i++) {
+                total += list.getPositionCount(i);
+            }
+            startTerm(term, list.size(), total);
+            for (int i = 0; i < list.size(); i++) {
+                int count = list.getPositionCount(i);
+                writePosting(list.getDocId(i), list.getFreq(i), count);
+                for (int j = 0; j < count; j++) {
+                    writePosition(list.getPosition(i, j));
+                }
+            }
+            finishTerm();
+        }
+
+        /**
+         * 开始写一个单词的PostingList，单词必须按字典序从小到大.
+         * 之后依次写入postingCount个Posting(每个Posting之后紧接着写它的位置)，再调用finishTerm
+         * @param term ：单词
+         * @param postingCount ：Posting个数
+         * @param positionCount ：所有Posting的位置总数
+         */
+        void startTerm(String term, int postingCount, int positionCount) throws IOException {
+            if (docCount < 0) {
+                throw new IllegalStateException("写单词之前必须先写文档表");
+            }
+            if (inTerm) {
+                throw new IllegalStateException("上一个单词还没有写完");
+            }
+            builder.add(term, out.position() - postingsOffset, postingCount);
+            encoder.start(postingCount, positionCount);
+            inTerm = true;
+        }
+
+        /**
+         * 写当前单词的下一个Posting，之后必须紧接着写它的count个位置
+         * @param docId ：文档id，比上一个Posting大
+         * @param freq ：出现次数
+         * @param count ：位置个数
+         */
+        void writePosting(int docId, int freq, int count) throws IOException {
+            encoder.add(docId, freq, count);
+            drain();
+        }
+
+        /**
+         * 写当前Posting的下一个位置
+         * @param position ：位置，不小于上一个位置
+         */
+        void writePosition(int position) {
+            encoder.addPosition(position);
+        }
+
+        /**
+         * 结束当前单词
+         */
+        void finishTerm() throws IOException {
+            encoder.finish();
+            drain();
+            inTerm = false;
+        }
+
+        /**
+         * 把已经编码好的内容写到文件
+         */
+        private void drain() throws IOException {
+            if (encoded.size() > 0) {
+                out.put(encoded.array(), 0, encoded.size());
+                encoded.reset();
+            }
+        }
+
+        /**
+         * 写出单词字典和文件头，替换目标文件
+         */
+        void commit() throws IOException {
+            if (docCount < 0) {
+                throw new IllegalStateException("写单词之前必须先写文档表");
+            }
+            if (inTerm) {
+                throw new IllegalStateException("最后一个单词还没有写完");
+            }
+            long postingsLength = out.position() - postingsOffset;
+            int postingsCrc = out.finishSection();
+
+            CompactTermDictionary dictionary = builder.build();
+            long dictionaryOffset = out.position();
+            ByteBuffer encoded = ByteBuffer.allocate(dictionary.serializedSize());
+            dictionary.writeTo(encoded);
+            out.put(encoded.array());
+            long dictionaryLength = out.position() - dictionaryOffset;
+            int dictionaryCrc = out.finishSection();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(docCount).putInt(dictionary.size());
+            header.putLong(docsOffset).putLong(docsLength).putInt(docsCrc).putInt(0);
+            header.putLong(postingsOffset).putLong(postingsLength).putInt(postingsCrc).putInt(0);
+            header.putLong(dictionaryOffset).putLong(dictionaryLength).putInt(dictionaryCrc).putInt(0);
+            header.putInt(analyzer());
+            header.putInt(crc(header, 0, HEADER_SIZE - 4));
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.close();
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        /**
+         * 关闭文件；没有commit时删除临时文件
+         */
+        @Override
+        public void close() throws IOException {
+            channel.close();
+            if (!committed) {
+                Files.deleteIfExists(tmp.toPath());
+            }
+        }
+    }
+
+    /**
+     * 转换成位置已经排序的IntPostingList
+     * @param list ：PostingList
+     * @return ：IntPostingList；本身是IntPostingList时直接返回
+     */
+    private static IntPostingList toIntPostingList(AbstractPostingList list) {
+        IntPostingList result;
+        if (list instanceof IntPostingList) {
+            result = (IntPostingList) list;
+        } else if (list instanceof MappedPostingList) {
+            result = ((MappedPostingList) list).toIntPostingList();
+        } else {
+            result = new IntPostingList();
+            for (int i = 0; i < list.size(); i++) {
+                result.add(list.get(i));
+            }
+        }
+        result.sort();
+        return result;
+    }
+
+    /**
+     * 计算文件里一段内容的CRC32
+     * @param channel ：文件
+     * @param offset ：起始偏移
+     * @param length ：字节数
+     * @return ：CRC32
+     */
+    private static int crc(FileChannel channel, long offset, long length) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long position = offset;
+        long end = offset + length;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("读回索引文件失败: 文件比预期短");
+            }
+            position += read;
+            buffer.flip();
+            crc.update(buffer);
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * 从指定的文件偏移开始顺序写的缓冲输出，不改变FileChannel的当前位置，
+     * 几个Region可以同时往文件的不同部分写
+     */
+    private static final class Region {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private long position;
+
+        /**
+         * @param channel ：文件
+         * @param position ：开始写的文件偏移
+         */
+        Region(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        void putInt(int value) throws IOException {
+            if (buffer.remaining() < 4) {
+                flush();
+            }
+            buffer.putInt(value);
+        }
+
+        void put(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, length);
+                offset += length;
+            }
+        }
+
+        /**
+         * 把缓冲区里的数据写到文件
+         */
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * 通过FileChannel顺序写文件的缓冲输出，同时计算当前段的CRC32
+     */
+    private static final class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final CRC32 crc = new CRC32();
+        private long position;
+
+        /**
+         * @param channel ：文件
+         * @param position ：开始写的文件偏移
+         */
+        Output(FileChannel channel, long position) throws IOException {
+            this.channel = channel;
+            this.position = position;
+            channel.position(position);
+        }
+
+        /**
+         * 已经写入(包括还在缓冲区里)的数据之后的文件偏移
+         * @return ：文件偏移
+         */
+        long position() {
+            return position + buffer.position();
+        }
+
+        void putInt(int value) throws IOException {
+            if (buffer.remaining() < 4) {
+                flush();
+            }
+            buffer.putInt(value);
+        }
+
+        void put(byte[] bytes) throws IOException {
+            put(bytes, 0, bytes.length);
+        }
+
+        void put(byte[] bytes, int offset, int length) throws IOException {
+            if (length > buffer.remaining()) {
+                flush();
+            }
+            if (length > buffer.capacity()) {
+                write(ByteBuffer.wrap(bytes, offset, length));
+            } else {
+                buffer.put(bytes, offset, length);
+            }
+        }
+
+        /**
+         * 把缓冲区里的数据写到文件后，从指定的文件偏移开始新的一段继续写，
+         * 用于跳过不经过Output写入的内容(见Writer.startDocs)
+         * @param position ：文件偏移
+         */
+        void seek(long position) throws IOException {
+            flush();
+            crc.reset();
+            this.position = position;
+            channel.position(position);
+        }
+
+        /**
+         * 结束当前段，把缓冲区里的数据写到文件
+         * @return ：从上一段结束到现在写入的内容的CRC32
+         */
+        int finishSection() throws IOException {
+            flush();
+            int value = (int) crc.getValue();
+            crc.reset();
+            return value;
+        }
+
+        /**
+         * 把缓冲区里的数据写到文件
+         */
+        void flush() throws IOException {
+            buffer.flip();
+            write(buffer);
+            buffer.clear();
+        }
+
+        private void write(ByteBuffer source) throws IOException {
+            crc.update(source.duplicate());
+            while (source.hasRemaining()) {
+                position += channel.write(source);
+            }
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package hust.cs.javacourse.search.index.impl;
+
+import hust.cs.javacourse.search.index.AbstractDocumentBuilder;
+import hust.cs.javacourse.search.util.Config;
+import hust.cs.javacourse.search.util.CorpusCrawler;
+import hust.cs.javacourse.search.util.CorpusManifest;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * <pre>
+ * IndexWatcher用WatchService监视文档目录，近实时地把新增、修改和删除的文档更新到索引.
+ *      启动时先用IncrementalIndexBuilder补上没有运行期间的变化，然后在后台线程里等待文件系统事件:
+ *      第一个事件到达后再收集Config.WATCH_BATCH_MILLIS毫秒内的事件合成一批，
+ *      用CorpusManifest只检查这些路径，把变化的文档建成一个新的增量索引.
+ *      每一批都在当前索引的副本(SegmentedIndex.snapshot)上完成，保存到磁盘后再把副本整体发布给监听者(例如IndexSearcher)，
+ *      所以查询不会被建索引阻塞，也不会看到建了一半的索引.
+ *      一批的增量索引、合并后的段、已删除的docId和清单通过IndexCommit一起提交，中途崩溃后重启看到的是完整的上一批或这一批.
+ *      内存里的清单也在提交成功后才更新; 一批失败时(包括构造器抛出的运行时异常)记录错误，
+ *      这一批的路径保留下来，Config.WATCH_RETRY_MILLIS毫秒后与新的事件一起重试，后台线程不会退出.
+ *      增量索引超过Config.WATCH_MAX_DELTAS个时合并成一个.
+ *      索引有近似重复文档的文件(DuplicateDetector.linksFile)时同样检查每一批的新文档，检测器也在副本上更新，随提交保存.
+ *      事件队列溢出时重新遍历整个目录.
+ * </pre>
+ */
+public class IndexWatcher implements Closeable {
+    /**
+     * Document构造器
+     */
+    private final AbstractDocumentBuilder docBuilder;
+
+    /**
+     * 基础索引文件
+     */
+    private final File indexFile;
+
+    /**
+     * 监视的文档目录
+     */
+    private final Path root;
+
+    /**
+     * 新索引的监听者
+     */
+    private final Consumer<SegmentedIndex> listener;
+
+    /**
+     * WatchKey到所监视目录的映射
+     */
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<>();
+
+    private WatchService watchService;
+    private Thread thread;
+    private CorpusManifest manifest;
+
+    /**
+     * 近似重复文档检测器；索引没有近似重复文档的文件时为null
+     */
+    private DuplicateDetector detector;
+
+    /**
+     * 当前发布的索引
+     */
+    private volatile SegmentedIndex current;
+
+    /**
+     * 构造函数
+     * @param docBuilder ：Document构造器
+     * @param indexFile ：基础索引文件
+     * @param rootDirectory ：监视的文档目录
+     * @param listener ：每次更新完索引后接收新索引的监听者
+     */
+    public IndexWatcher(AbstractDocumentBuilder docBuilder, File indexFile, String rootDirectory,
+                        Consumer<SegmentedIndex> listener) {
+        this.docBuilder = docBuilder;
+        this.indexFile = indexFile;
+        this.listener = listener;
+        try {
+            this.root = new File(rootDirectory).getCanonicalFile().toPath();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * <pre>
+     * 开始监视.
+     *      先注册监视再补上没有运行期间的变化，这样补的过程中发生的变化也不会漏掉;
+     *      返回前已经把补好的索引发布给监听者
+     * </pre>
+     */
+    public void start() throws IOException {
+        watchService = root.getFileSystem().newWatchService();
+        register(root);
+        current = (SegmentedIndex) new IncrementalIndexBuilder(docBuilder, indexFile).buildIndex(root.toString());
+        manifest = new CorpusManifest();
+        manifest.load(IncrementalIndexBuilder.manifestFile(indexFile));
+        File linksFile = DuplicateDetector.linksFile(indexFile);
+        detector = linksFile.isFile() ? DuplicateDetector.load(linksFile, Config.DEDUP_MAX_HAMMING) : null;
+        listener.accept(current);
+        thread = new Thread(this::run, "index-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 当前发布的索引
+     * @return ：当前索引
+     */
+    public SegmentedIndex getIndex() {
+        return current;
+    }
+
+    /**
+     * 停止监视，等待正在处理的一批完成
+     */
+    @Override
+    public void close() throws IOException {
+        if (watchService == null) {
+            return;
+        }
+        watchService.close();
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 后台线程：等待事件，按时间窗口合成一批后更新索引
+     */
+    private void run() {
+        Set<String> changed = new TreeSet<>();
+        boolean overflow = false;
+        try {
+            while (true) {
+                WatchKey key;
+                if (changed.isEmpty() && !overflow) {
+                    key = watchService.take();
+                } else {
+                    // 上一批失败了，等一段时间后重试
+                    key = watchService.poll(Config.WATCH_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if (key != null) {
+                    overflow |= collect(key, changed);
+                }
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Config.WATCH_BATCH_MILLIS);
+                long remaining;
+                while ((remaining = deadline - System.nanoTime()) > 0
+                        && (key = watchService.poll(remaining, TimeUnit.NANOSECONDS)) != null) {
+                    overflow |= collect(key, changed);
+                }
+                try {
+                    apply(overflow ? manifest.diff(new CorpusCrawler().crawl(root.toString()))
+                            : manifest.diff(changed));
+                    changed.clear();
+                    overflow = false;
+                } catch (IOException | RuntimeException e) {
+                    // 清单没有更新，这一批留到下次重试
+                    e.printStackTrace();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // close()被调用，结束线程
+        }
+    }
+
+    /**
+     * 取出一个WatchKey上的所有事件
+     * @param key ：WatchKey
+     * @param changed ：发生变化的路径放入该集合
+     * @return ：事件队列是否溢出
+     */
+    private boolean collect(WatchKey key, Set<String> changed) {
+        Path dir = watchedDirs.get(key);
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW || dir == null) {
+                overflow = true;
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            changed.add(path.toString());
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                try {
+                    register(path);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        if (!key.reset()) {
+            watchedDirs.remove(key);
+        }
+        return overflow;
+    }
+
+    /**
+     * 递归注册监视指定目录及其子目录，不跟随符号链接
+     * @param dir ：目录
+     */
+    private void register(Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+                watchedDirs.put(d.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), d);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * <pre>
+     * 在当前索引的副本上应用一批变化，保存到磁盘后发布.
+     *      清单和近似重复文档检测器也在副本上更新，提交成功后才替换内存里的.
+     *      有文档内容文件时新文档的内容追加到它的副本里，随提交一起替换
+     * @param changes ：清单diff得到的一批变化
+     * </pre>
+     */
+    private void apply(CorpusManifest.ChangeSet changes) throws IOException {
+        if (changes.isEmpty()) {
+            // 只记下修改时间变了但内容没变的文件，下次不用重新计算哈希值
+            manifest.accept(changes);
+            return;
+        }
+        SegmentedIndex next = current.snapshot();
+        DuplicateDetector nextDetector = detector == null ? null : detector.copy();
+        List<String> stale = new ArrayList<>(changes.modified);
+        stale.addAll(changes.deleted);
+        List<String> docPaths = new ArrayList<>(changes.added);
+        docPaths.addAll(changes.modified);
+        if (nextDetector != null && !stale.isEmpty()) {
+            docPaths.addAll(nextDetector.remove(stale, next.docIdToDocPathMapping));
+        }
+        boolean deleted = !stale.isEmpty() && next.deleteDocuments(stale) > 0;
+        IndexCommit commit = new IndexCommit(indexFile);
+        Index delta = IncrementalIndexBuilder.buildDelta(docBuilder, docPaths,
+                IncrementalIndexBuilder.nextDocId(next, nextDetector), nextDetector, indexFile, commit);
+        if (!delta.docIdToDocPathMapping.isEmpty()) {
+            next.addSegment(delta);
+        }
+        if (next.segmentCount() - 1 > Config.WATCH_MAX_DELTAS) {
+            next = mergeDeltas(next, commit);
+            deleted = true;
+        } else if (!delta.docIdToDocPathMapping.isEmpty()) {
+            int n = next.segmentCount() - 1;
+            delta.save(commit.stage(n == 0 ? indexFile : SegmentedIndex.deltaFile(indexFile, n)));
+        }
+        if (deleted) {
+            next.stageDeletions(commit, indexFile);
+        }
+        if (nextDetector != null) {
+            nextDetector.save(commit.stage(DuplicateDetector.linksFile(indexFile)));
+        }
+        CorpusManifest updated = manifest.copy();
+        updated.accept(changes);
+        updated.save(commit.stage(IncrementalIndexBuilder.manifestFile(indexFile)));
+        commit.commit(Math.max(0, next.segmentCount() - 1));
+        manifest = updated;
+        detector = nextDetector;
+        current = next;
+        listener.accept(next);
+    }
+
+    /**
+     * 把所有增量索引合并成一个，登记到提交里：写成第1个增量索引文件并删除其余的增量索引文件.
+     * 基础索引里有已删除的文档时同时重写基础索引文件. 之后需要重新登记已删除的docId
+     * @param index ：索引
+     * @param commit ：提交
+     * @return ：合并增量后的索引
+     */
+    private SegmentedIndex mergeDeltas(SegmentedIndex index, IndexCommit commit) throws IOException {
+        SegmentedIndex merged = index.mergeDeltas();
+        if (merged.baseChanged(index)) {
+            merged.segment(0).save(commit.stage(indexFile));
+        }
+        merged.segment(1).save(commit.stage(SegmentedIndex.deltaFile(indexFile, 1)));
+        for (int n = 2; n < index.segmentCount(); n++) {
+            commit.delete(SegmentedIndex.deltaFile(indexFile, n));
+        }
+        return merged;
+    }
+}
@@ -0,0 +1,618 @@
+package hust.cs.javacourse.search.index.impl;
+
+import hust.cs.javacourse.search.index.AbstractPosting;
+import hust.cs.javacourse.search.index.AbstractPostingList;
+import hust.cs.javacourse.search.index.AbstractPostingsIterator;
+import hust.cs.javacourse.search.util.IntArrayList;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * <pre>
+ * IntPostingList是用int数组保存的PostingList，不为每个Posting和每个位置创建对象.
+ *      docIds和freqs是按下标对应的两个数组，所有Posting的位置按顺序拼接在一个positions数组里，
+ *      第i个Posting的位置是positions[offsets[i], offsets[i+1]).
+ *      Posting始终按docId从小到大排列，docId相同的Posting只保留一个;
+ *      docId比最后一个Posting大时直接追加到末尾，按docId查找使用二分查找.
+ *      get返回的Posting是轻量的视图，位置列表直接读写positions数组，不复制也不装箱全部位置;
+ *      视图在本PostingList被修改之前有效，修改视图的docId和freq不会写回.
+ *      序列化时用PostingsCodec压缩编码，不写出int数组的原始内容.
+ * </pre>
+ */
+public class IntPostingList extends AbstractPostingList implements Externalizable {
+    /**
+     * 数组的初始容量
+     */
+    private static final int INITIAL_CAPACITY = 4;
+
+    /**
+     * Posting个数
+     */
+    private int size = 0;
+
+    /**
+     * 每个Posting的docId和freq，只有前size个元素有效
+     */
+    private int[] docIds = new int[INITIAL_CAPACITY];
+    private int[] freqs = new int[INITIAL_CAPACITY];
+
+    /**
+     * 第i个Posting的位置在positions里的起始下标，offsets[size]是位置总数
+     */
+    private int[] offsets = new int[INITIAL_CAPACITY + 1];
+
+    /**
+     * 所有Posting的位置，只有前offsets[size]个元素有效
+     */
+    private int[] positions = new int[INITIAL_CAPACITY * 2];
+
+    public IntPostingList() {
+        // 不使用父类的list
+        this.list = Collections.emptyList();
+    }
+
+    /**
+     * 用已经填好的数组构造，例如PostingsCodec解码的结果. 数组不复制
+     * @param size ：Posting个数
+     * @param docIds ：docId，从小到大
+     * @param freqs ：freq
+     * @param offsets ：每个Posting的位置的起始下标，至少size+1个
+     * @param positions ：所有Posting的位置
+     */
+    IntPostingList(int size, int[] docIds, int[] freqs, int[] offsets, int[] positions) {
+        this();
+        this.size = size;
+        this.docIds = docIds;
+        this.freqs = freqs;
+        this.offsets = offsets;
+        this.positions = positions;
+    }
+
+    /**
+     * 添加Posting,要求不能有内容重复的posting
+     * @param posting：Posting对象
+     */
+    @Override
+    public void add(AbstractPosting posting) {
+        List<Integer> source = posting.getPositions();
+        int[] copy = new int[source.size()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = source.get(i);
+        }
+        add(posting.getDocId(), posting.getFreq(), copy, copy.length);
+    }
+
+    /**
+     * <pre>
+     * 添加一个文档的位置.
+     *      docId与最后一个Posting相同时(同一个文档再次加入)把位置追加到最后一个Posting，freq加上位置个数;
+     *      否则与add(AbstractPosting)相同，docId重复的Posting不加入
+     * @param docId ：文档id
+     * @param docPositions ：单词在文档里出现的位置
+     * </pre>
+     */
+    public void add(int docId, IntArrayList docPositions) {
+        int count = docPositions.size();
+        if (size > 0 && docIds[size - 1] == docId) {
+            ensurePositionCapacity(offsets[size] + count);
+            for (int i = 0; i < count; i++) {
+                positions[offsets[size] + i] = docPositions.get(i);
+            }
+            offsets[size] += count;
+            freqs[size - 1] += count;
+            return;
+        }
+        int[] copy = new int[count];
+        for (int i = 0; i < count; i++) {
+            copy[i] = docPositions.get(i);
+        }
+        add(docId, count, copy, count);
+    }
+
+    /**
+     * 添加一个Posting，docId比最后一个Posting大时直接追加，否则插入到按docId排序的位置
+     * @param docId ：文档id
+     * @param freq ：出现次数
+     * @param source ：位置
+     * @param count ：位置个数
+     */
+    private void add(int docId, int freq, int[] source, int count) {
+        int index = size;
+        if (size > 0 && docIds[size - 1] >= docId) {
+            index = search(docId);
+            if (index >= 0) {
+                return;
+            }
+            index = -index - 1;
+        }
+        if (size == docIds.length) {
+            // trimToSize后或解码的空列表数组长度为0
+            int capacity = Math.max(INITIAL_CAPACITY, size * 2);
+            docIds = Arrays.copyOf(docIds, capacity);
+            freqs = Arrays.copyOf(freqs, capacity);
+            offsets = Arrays.copyOf(offsets, capacity + 1);
+        }
+        int start = offsets[index];
+        int total = offsets[size];
+        ensurePositionCapacity(total + count);
+        if (index < size) {
+            System.arraycopy(docIds, index, docIds, index + 1, size - index);
+            System.arraycopy(freqs, index, freqs, index + 1, size - index);
+            System.arraycopy(positions, start, positions, start + count, total - start);
+            for (int i = size; i >= index; i--) {
+                offsets[i + 1] = offsets[i] + count;
+            }
+        } else {
+            offsets[size + 1] = total + count;
+        }
+        docIds[index] = docId;
+        freqs[index] = freq;
+        System.arraycopy(source, 0, positions, start, count);
+        size++;
+    }
+
+    /**
+     * 保证positions数组至少能放下指定个数的位置
+     * @param capacity ：位置个数
+     */
+    private void ensurePositionCapacity(int capacity) {
+        if (capacity > positions.length) {
+            positions = Arrays.copyOf(positions, Math.max(capacity, positions.length * 2));
+        }
+    }
+
+    /**
+     * 按docId二分查找
+     * @param docId ：文档id
+     * @return ：找到返回下标；否则返回(-(插入位置) - 1)
+     */
+    private int search(int docId) {
+        return Arrays.binarySearch(docIds, 0, size, docId);
+    }
+
+    /**
+     * 获得PosingList的字符串表示
+     * @return ： PosingList的字符串表示
+     */
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        s.append("PostingList内容为：");
+        for (int i = 0; i < size; i++) {
+            s.append(get(i).toString());
+            s.append("\n");
+        }
+        return s.toString();
+    }
+
+    /**
+     * <pre>
+     * 添加Posting列表,,要求不能有内容重复的posting.
+     *      结果与逐个调用add(AbstractPosting)相同：已有的docId不再加入，列表里重复的docId只加入第一个.
+     *      列表按docId递增并且都比最后一个Posting大时逐个追加;
+     *      否则先把列表按docId稳定排序，再与原来的Posting归并到新的数组，不逐个插入
+     * @param postings：Posting列表
+     * </pre>
+     */
+    @Override
+    public void add(List<AbstractPosting> postings) {
+        int last = size == 0 ? Integer.MIN_VALUE : docIds[size - 1];
+        boolean ascending = true;
+        for (AbstractPosting posting : postings) {
+            if (posting.getDocId() <= last) {
+                ascending = false;
+                break;
+            }
+            last = posting.getDocId();
+        }
+        if (ascending) {
+            for (AbstractPosting posting : postings) {
+                this.add(posting);
+            }
+            return;
+        }
+        List<AbstractPosting> sorted = new ArrayList<>(postings);
+        sorted.sort(Comparator.comparingInt(AbstractPosting::getDocId));
+        IntPostingList merged = new IntPostingList();
+        int i = 0;
+        int j = 0;
+        while (i < size || j < sorted.size()) {
+            if (j == sorted.size() || (i < size && docIds[i] <= sorted.get(j).getDocId())) {
+                int count = offsets[i + 1] - offsets[i];
+                merged.add(docIds[i], freqs[i], Arrays.copyOfRange(positions, offsets[i], offsets[i + 1]), count);
+                i++;
+            } else {
+                // docId与已加入的相同时add不会加入，保留先加入的Posting
+                merged.add(sorted.get(j++));
+            }
+        }
+        this.size = merged.size;
+        this.docIds = merged.docIds;
+        this.freqs = merged.freqs;
+        this.offsets = merged.offsets;
+        this.positions = merged.positions;
+    }
+
+    /**
+     * 返回指定下标位置的Posting
+     * @param index ：下标
+     * @return： 指定下标位置的Posting视图
+     */
+    @Override
+    public AbstractPosting get(int index) {
+        if (index >= size || index < 0) {
+            return null;
+        }
+        return new Posting(docIds[index], freqs[index],
+                new Positions(positions, offsets[index], offsets[index + 1] - offsets[index]));
+    }
+
+    /**
+     * 返回指定下标位置的Posting的docId，不创建视图
+     * @param index ：下标
+     * @return ：文档id
+     */
+    public int getDocId(int index) {
+        return docIds[index];
+    }
+
+    /**
+     * 返回指定下标位置的Posting的freq，不创建视图
+     * @param index ：下标
+     * @return ：出现次数
+     */
+    public int getFreq(int index) {
+        return freqs[index];
+    }
+
+    /**
+     * 返回指定下标位置的Posting的位置个数
+     * @param index ：下标
+     * @return ：位置个数
+     */
+    public int getPositionCount(int index) {
+        return offsets[index + 1] - offsets[index];
+    }
+
+    /**
+     * 返回指定下标位置的Posting的第i个位置，不创建视图也不装箱
+     * @param index ：下标
+     * @param i ：位置序号
+     * @return ：位置
+     */
+    public int getPosition(int index, int i) {
+        return positions[offsets[index] + i];
+    }
+
+    /**
+     * 返回指定Posting对象的下标
+     * @param posting：指定的Posting对象
+     * @return ：如果找到返回对应下标；否则返回-1
+     */
+    @Override
+    public int indexOf(AbstractPosting posting) {
+        return indexOf(posting.getDocId());
+    }
+
+    /**
+     * 返回指定文档id的Posting对象的下标
+     * @param docId ：文档id
+     * @return ：如果找到返回对应下标；否则返回-1
+     */
+    @Override
+    public int indexOf(int docId) {
+        int index = search(docId);
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * 是否包含指定Posting对象
+     * @param posting： 指定的Posting对象
+     * @return : 如果包含返回true，否则返回false
+     */
+    @Override
+    public boolean contains(AbstractPosting posting) {
+        return indexOf(posting.getDocId()) >= 0;
+    }
+
+    /**
+     * 删除指定下标的Posting对象
+     * @param index：指定的下标
+     */
+    @Override
+    public void remove(int index) {
+        if (index >= size || index < 0) {
+            return;
+        }
+        int start = offsets[index];
+        int count = offsets[index + 1] - start;
+        int total = offsets[size];
+        System.arraycopy(docIds, index + 1, docIds, index, size - index - 1);
+        System.arraycopy(freqs, index + 1, freqs, index, size - index - 1);
+        System.arraycopy(positions, start + count, positions, start, total - start - count);
+        for (int i = index; i < size; i++) {
+            offsets[i] = offsets[i + 1] - count;
+        }
+        size--;
+    }
+
+    /**
+     * 删除指定的Posting对象
+     * @param posting ：定的Posting对象
+     */
+    @Override
+    public void remove(AbstractPosting posting) {
+        int index = indexOf(posting.getDocId());
+        if (index >= 0) {
+            remove(index);
+        }
+    }
+
+    /**
+     * 返回PostingList的大小，即包含的Posting的个数
+     * @return ：PostingList的大小
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 清除PostingList
+     */
+    @Override
+    public void clear() {
+        size = 0;
+        offsets[0] = 0;
+    }
+
+    /**
+     * PostingList是否为空
+     * @return 为空返回true;否则返回false
+     */
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * <pre>
+     * Posting已经始终按docId从小到大排列，这里只对每个Posting的位置从小到大排序，
+     * 已经有序的位置不排序. 相当于对每个Posting调用sort后再对PostingList调用sort
+     * </pre>
+     */
+    @Override
+    public void sort() {
+        for (int i = 0; i < size; i++) {
+            int start = offsets[i];
+            int end = offsets[i + 1];
+            for (int j = start + 1; j < end; j++) {
+                if (positions[j - 1] > positions[j]) {
+                    Arrays.sort(positions, start, end);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * <pre>
+     * 返回按docId从小到大遍历的迭代器.
+     *      Posting按PostingsCodec.BLOCK_SIZE个一块，每块最后一个docId作为块摘要，
+     *      advance先按块摘要跳过整块，再在目标块内二分查找
+     * @return ：迭代器，遍历期间PostingList不能被修改
+     * </pre>
+     */
+    @Override
+    public AbstractPostingsIterator iterator() {
+        return new ArrayIterator();
+    }
+
+    /**
+     * 去掉数组末尾未使用的容量，例如构建完索引之后
+     */
+    public void trimToSize() {
+        if (docIds.length != size) {
+            docIds = Arrays.copyOf(docIds, size);
+            freqs = Arrays.copyOf(freqs, size);
+            offsets = Arrays.copyOf(offsets, size + 1);
+        }
+        if (positions.length != offsets[size]) {
+            positions = Arrays.copyOf(positions, offsets[size]);
+        }
+    }
+
+    /**
+     * 序列化：位置排序后用PostingsCodec编码，写出编码的长度和内容
+     * @param out ：输出
+     */
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        sort();
+        byte[] bytes = PostingsCodec.encode(this);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * 反序列化：读入编码后解码
+     * @param in ：输入
+     */
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("PostingList编码的长度错误: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        IntPostingList decoded;
+        try {
+            decoded = PostingsCodec.decode(ByteBuffer.wrap(bytes));
+        } catch (RuntimeException e) {
+            throw new IOException("PostingList编码已损坏", e);
+        }
+        this.size = decoded.size;
+        this.docIds = decoded.docIds;
+        this.freqs = decoded.freqs;
+        this.offsets = decoded.offsets;
+        this.positions = decoded.positions;
+    }
+
+    /**
+     * 写到二进制文件
+     * @param out :输出流对象
+     */
+    @Override
+    public void writeObject(ObjectOutputStream out) {
+        try {
+            out.writeObject(this);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 从二进制文件读
+     * @param in ：输入流对象
+     */
+    @Override
+    public void readObject(ObjectInputStream in) {
+        try {
+            IntPostingList other = (IntPostingList) in.readObject();
+            this.size = other.size;
+            this.docIds = other.docIds;
+            this.freqs = other.freqs;
+            this.offsets = other.offsets;
+            this.positions = other.positions;
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 直接访问数组的迭代器
+     */
+    private class ArrayIterator extends AbstractPostingsIterator {
+        private int index = -1;
+
+        @Override
+        public int docId() {
+            if (index < 0) {
+                return -1;
+            }
+            return index < size ? docIds[index] : NO_MORE_DOCS;
+        }
+
+        @Override
+        public int nextDoc() {
+            if (index < size) {
+                index++;
+            }
+            return docId();
+        }
+
+        @Override
+        public int advance(int target) {
+            int doc = docId();
+            if (doc >= target) {
+                return doc;
+            }
+            int low = index + 1;
+            if (low >= size) {
+                index = size;
+                return NO_MORE_DOCS;
+            }
+            int blockSize = PostingsCodec.BLOCK_SIZE;
+            int last = Math.min(size - 1, (low / blockSize + 1) * blockSize - 1);
+            while (docIds[last] < target) {
+                if (last == size - 1) {
+                    index = size;
+                    return NO_MORE_DOCS;
+                }
+                low = last + 1;
+                last = Math.min(size - 1, last + blockSize);
+            }
+            int found = Arrays.binarySearch(docIds, low, last + 1, target);
+            index = found >= 0 ? found : -found - 1;
+            return docIds[index];
+        }
+
+        @Override
+        public int freq() {
+            return freqs[index];
+        }
+
+        @Override
+        public List<Integer> positions() {
+            return new Positions(positions, offsets[index], offsets[index + 1] - offsets[index]);
+        }
+
+        @Override
+        public AbstractPosting posting() {
+            return get(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * <pre>
+     * 一个Posting的位置列表视图，直接读写positions数组里的一段.
+     *      支持get、set(因此可以用Collections.sort排序)，不支持改变长度.
+     *      序列化时换成独立的ArrayList，不会把整个positions数组写出
+     * </pre>
+     */
+    static class Positions extends AbstractList<Integer> implements RandomAccess, Serializable {
+        private final int[] array;
+        private final int start;
+        private final int length;
+
+        Positions(int[] array, int start, int length) {
+            this.array = array;
+            this.start = start;
+            this.length = length;
+        }
+
+        @Override
+        public Integer get(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + length);
+            }
+            return array[start + index];
+        }
+
+        @Override
+        public Integer set(int index, Integer element) {
+            Integer previous = get(index);
+            array[start + index] = element;
+            return previous;
+        }
+
+        @Override
+        public int size() {
+            return length;
+        }
+
+        private Object writeReplace() {
+            return new ArrayList<>(this);
+        }
+    }
+}
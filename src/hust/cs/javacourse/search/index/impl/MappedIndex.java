@@ -0,0 +1,418 @@
+package hust.cs.javacourse.search.index.impl;
+
+import hust.cs.javacourse.search.index.AbstractDocument;
+import hust.cs.javacourse.search.index.AbstractIndex;
+import hust.cs.javacourse.search.index.AbstractPostingList;
+import hust.cs.javacourse.search.index.AbstractTerm;
+import hust.cs.javacourse.search.util.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * <pre>
+ * MappedIndex是通过FileChannel.map打开IndexFile格式索引文件的只读索引.
+ *      打开时只映射文件、检查文件头(包括记录的分词设置，见IndexFile)、读入单词字典(CompactTermDictionary，每个单词10个字节左右)，
+ *      不反序列化任何Term、PostingList或Posting，打开时间与PostingList的大小无关.
+ *      文档表和单词字典各映射成一个缓冲区; 一个MappedByteBuffer最多2GB，PostingList段按单词的边界
+ *      分成若干个不超过Config.MAPPED_REGION_BYTES的区域分别映射，每个单词的PostingList都在一个区域之内，
+ *      所以索引文件可以超过2GB.
+ *      search在字典里查到单词的PostingList偏移后，找到所在的区域，返回直接读映射的缓冲区的MappedPostingList，
+ *      不解码整个PostingList，遍历和求交集时按块解码、跳过不需要的块;
+ *      getDocName在映射的文档表里二分查找docId.
+ *      docIdToDocPathMapping和termToPostingListMapping是映射文件上的只读视图，遍历时才解码.
+ *      不能添加文档，需要修改时用Index.load把整个索引读入内存.
+ * </pre>
+ */
+public class MappedIndex extends AbstractIndex {
+    /**
+     * 映射的文档表段
+     */
+    private ByteBuffer docs = null;
+
+    /**
+     * 映射的PostingList段的各个区域，以及每个区域的开头相对PostingList段开头的偏移
+     */
+    private ByteBuffer[] regions = null;
+    private long[] regionStarts = null;
+
+    /**
+     * 单词字典
+     */
+    private CompactTermDictionary dictionary = null;
+
+    /**
+     * 文档表：文档数，路径起始位置数组和路径区在文档表段里的偏移. docId数组在文档表段的开头
+     */
+    private int docCount;
+    private int pathStartsStart;
+    private int pathsStart;
+
+    public MappedIndex() {
+    }
+
+    /**
+     * 判断文件是否可以用MappedIndex打开，即是否为Index.save写出的IndexFile格式
+     * @param file ：索引文件
+     * @return ：可以返回true，否则返回false
+     */
+    public static boolean canOpen(File file) throws IOException {
+        return IndexFile.isIndexFile(file);
+    }
+
+    /**
+     * 返回索引的字符串表示
+     * @return 索引的字符串表示
+     */
+    @Override
+    public String toString() {
+        return "Index{\n" +
+                "docIdToDocPath={\n" + this.docIdToDocPathMapping.toString() +
+                "}, \n" +
+                "termToPostingList={\n" + this.termToPostingListMapping.toString() +
+                "}";
+    }
+
+    /**
+     * 只读索引不能添加文档
+     * @param document ：文档的AbstractDocument子类型表示
+     */
+    @Override
+    public void addDocument(AbstractDocument document) {
+        throw new UnsupportedOperationException("MappedIndex是只读的索引");
+    }
+
+    /**
+     * <pre>
+     * 映射IndexFile格式的索引文件. 映射在文件关闭后仍然有效，直到MappedIndex被回收
+     *      Config.VERIFY_INDEX_CHECKSUMS为true时检查整个文件的CRC32，否则只检查文件头和单词字典
+     * @param file ：索引文件
+     * </pre>
+     */
+    @Override
+    public void load(File file) throws IOException {
+        load(file, Config.VERIFY_INDEX_CHECKSUMS);
+    }
+
+    /**
+     * 映射IndexFile格式的索引文件
+     * @param file ：索引文件
+     * @param verifyAll ：是否检查文档表和PostingList段的CRC32
+     */
+    void load(File file, boolean verifyAll) throws IOException {
+        ByteBuffer docsSection;
+        ByteBuffer[] postingRegions;
+        long[] starts;
+        CompactTermDictionary terms;
+        IndexFile header;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            header = IndexFile.readHeader(
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, IndexFile.HEADER_SIZE)), size, file);
+            header.checkAnalyzer(file);
+            ByteBuffer dictionarySection = channel.map(FileChannel.MapMode.READ_ONLY,
+                    header.dictionaryOffset, header.dictionaryLength);
+            header.verifyDictionary(dictionarySection, file);
+            try {
+                terms = CompactTermDictionary.readFrom(dictionarySection);
+            } catch (IllegalStateException | IndexOutOfBoundsException e) {
+                throw new IOException("索引文件已损坏: " + file, e);
+            }
+            docsSection = channel.map(FileChannel.MapMode.READ_ONLY, header.docsOffset, header.docsLength);
+            starts = regionStarts(terms, header.postingsLength, file);
+            postingRegions = new ByteBuffer[starts.length - 1];
+            for (int i = 0; i < postingRegions.length; i++) {
+                postingRegions[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        header.postingsOffset + starts[i], starts[i + 1] - starts[i]);
+            }
+        }
+        if (verifyAll) {
+            header.verifySections(docsSection, postingRegions, file);
+        }
+        this.docs = docsSection;
+        this.regions = postingRegions;
+        this.regionStarts = starts;
+        this.dictionary = terms;
+        this.docCount = header.docCount;
+        this.pathStartsStart = docCount * 4;
+        this.pathsStart = pathStartsStart + (docCount + 1) * 4;
+        this.docIdToDocPathMapping = new DocTable();
+        this.termToPostingListMapping = new CompactTermMap(terms, this::postings);
+    }
+
+    /**
+     * <pre>
+     * 把PostingList段分成若干个不超过Config.MAPPED_REGION_BYTES的区域.
+     *      区域按单词字典的块(每块CompactTermDictionary.BLOCK_SIZE个单词)的边界划分，
+     *      每块第一个单词的偏移直接保存在单词字典里，打开文件时不需要遍历每个单词的编码;
+     *      一块放不进当前区域时从它开始一个新区域. 只有一块本身超过区域大小时才遍历这一块，按块里单词的边界再分，
+     *      一个PostingList本身超过区域大小时单独占一个区域
+     * @param terms ：单词字典
+     * @param postingsLength ：PostingList段的字节数
+     * @param file ：文件，用于错误信息
+     * @return ：各区域开头相对PostingList段开头的偏移，最后一项是段的字节数
+     * </pre>
+     */
+    private static long[] regionStarts(CompactTermDictionary terms, long postingsLength, File file)
+            throws IOException {
+        long maxRegion = Math.max(1, Math.min(Config.MAPPED_REGION_BYTES, Integer.MAX_VALUE));
+        RegionSplitter splitter = new RegionSplitter(maxRegion, postingsLength, file);
+        for (int block = 0; block <= terms.blockCount(); block++) {
+            long end = block < terms.blockCount() ? terms.blockOffset(block) : postingsLength;
+            if (block > 0 && end - splitter.previous > maxRegion) {
+                for (long offset : terms.blockPostingsOffsets(block - 1)) {
+                    splitter.boundary(offset);
+                }
+            }
+            splitter.boundary(end);
+        }
+        return splitter.starts();
+    }
+
+    /**
+     * 按依次递增的边界把PostingList段分成区域
+     */
+    private static final class RegionSplitter {
+        private final long maxRegion;
+        private final long postingsLength;
+        private final File file;
+        private final List<Long> starts = new ArrayList<>();
+        private long regionStart = 0;
+
+        /**
+         * 上一个边界
+         */
+        private long previous = 0;
+
+        RegionSplitter(long maxRegion, long postingsLength, File file) {
+            this.maxRegion = maxRegion;
+            this.postingsLength = postingsLength;
+            this.file = file;
+            starts.add(0L);
+        }
+
+        /**
+         * 加入下一个边界，[previous, end)是不能再分的一段(一块或一个单词的PostingList)
+         * @param end ：边界相对PostingList段开头的偏移
+         */
+        void boundary(long end) throws IOException {
+            if (end < previous || end > postingsLength) {
+                throw new IOException("索引文件已损坏: " + file);
+            }
+            if (end - regionStart > maxRegion && previous > regionStart) {
+                regionStart = previous;
+                starts.add(regionStart);
+            }
+            if (end - regionStart > Integer.MAX_VALUE) {
+                throw new IOException("PostingList超过2GB，不能映射: " + file);
+            }
+            previous = end;
+        }
+
+        /**
+         * @return ：各区域开头的偏移，最后一项是段的字节数
+         */
+        long[] starts() {
+            long[] result = new long[starts.size() + 1];
+            for (int i = 0; i < starts.size(); i++) {
+                result[i] = starts.get(i);
+            }
+            result[starts.size()] = postingsLength;
+            return result;
+        }
+    }
+
+    /**
+     * 把索引写成IndexFile格式的文件
+     * @param file ：写入的目标索引文件
+     */
+    @Override
+    public void save(File file) throws IOException {
+        IndexFile.write(this, file);
+    }
+
+    /**
+     * 返回指定单词的PostingList，从映射的文件里解码
+     * @param term : 指定的单词
+     * @return ：指定单词的PostingList;如果索引字典没有该单词，则返回null
+     */
+    @Override
+    public AbstractPostingList search(AbstractTerm term) {
+        if (dictionary == null) {
+            return null;
+        }
+        int ordinal = dictionary.find(term.getContent());
+        return ordinal < 0 ? null : postings(ordinal);
+    }
+
+    /**
+     * 返回指定序号的单词的PostingList，不解码
+     * @param ordinal ：单词序号
+     * @return ：PostingList
+     */
+    private AbstractPostingList postings(int ordinal) {
+        return new MappedPostingList(postingsBuffer(ordinal));
+    }
+
+    /**
+     * 返回从指定序号的单词的PostingList开始的缓冲区
+     * @param ordinal ：单词序号
+     * @return ：所在区域的缓冲区，位置在PostingList的开头
+     */
+    private ByteBuffer postingsBuffer(int ordinal) {
+        long offset = dictionary.postingsOffset(ordinal);
+        int region = Arrays.binarySearch(regionStarts, 0, regions.length, offset);
+        if (region < 0) {
+            region = -region - 2;
+        }
+        ByteBuffer in = regions[region].duplicate();
+        in.position((int) (offset - regionStarts[region]));
+        return in;
+    }
+
+    /**
+     * 返回索引的字典.字典为索引里所有单词的并集
+     * @return ：索引中Term列表
+     */
+    @Override
+    public Set<AbstractTerm> getDictionary() {
+        return new HashSet<>(termToPostingListMapping.keySet());
+    }
+
+    /**
+     * IndexFile里的PostingList已经排好序，不需要优化
+     */
+    @Override
+    public void optimize() {
+    }
+
+    /**
+     * 根据docId获得对应文档的完全路径名，在映射的文档表里二分查找
+     * @param docId ：文档id
+     * @return : 对应文档的完全路径名；没有返回null
+     */
+    @Override
+    public String getDocName(int docId) {
+        int low = 0;
+        int high = docCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midDocId = docs.getInt(mid * 4);
+            if (midDocId < docId) {
+                low = mid + 1;
+            } else if (midDocId > docId) {
+                high = mid - 1;
+            } else {
+                return path(mid);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 解码文档表里第i个文档的路径
+     * @param i ：文档在文档表里的下标
+     * @return ：文档路径
+     */
+    private String path(int i) {
+        int start = docs.getInt(pathStartsStart + i * 4);
+        int end = docs.getInt(pathStartsStart + i * 4 + 4);
+        byte[] bytes = new byte[end - start];
+        ByteBuffer in = docs.duplicate();
+        in.position(pathsStart + start);
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 写到二进制文件，与Index.writeObject的格式相同
+     * @param out :输出流对象
+     */
+    @Override
+    public void writeObject(ObjectOutputStream out) {
+        try {
+            out.writeObject(new TreeMap<>(this.docIdToDocPathMapping));
+            out.writeObject(this.termToPostingListMapping);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 只读索引只能从IndexFile映射
+     * @param in ：输入流对象
+     */
+    @Override
+    public void readObject(ObjectInputStream in) {
+        throw new UnsupportedOperationException("MappedIndex只能用load映射IndexFile格式的索引文件");
+    }
+
+    /**
+     * 映射的文档表上的只读视图，按docId从小到大遍历
+     */
+    private final class DocTable extends AbstractMap<Integer, String> {
+        @Override
+        public String get(Object key) {
+            return key instanceof Integer ? getDocName((Integer) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public int size() {
+            return docCount;
+        }
+
+        @Override
+        public Set<Entry<Integer, String>> entrySet() {
+            return new AbstractSet<Entry<Integer, String>>() {
+                @Override
+                public Iterator<Entry<Integer, String>> iterator() {
+                    return new Iterator<Entry<Integer, String>>() {
+                        private int i = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return i < docCount;
+                        }
+
+                        @Override
+                        public Entry<Integer, String> next() {
+                            if (i >= docCount) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<Integer, String> entry = new SimpleImmutableEntry<>(
+                                    docs.getInt(i * 4), path(i));
+                            i++;
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return docCount;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package hust.cs.javacourse.search.index.impl;
+
+import hust.cs.javacourse.search.index.AbstractPosting;
+import hust.cs.javacourse.search.index.AbstractPostingList;
+import hust.cs.javacourse.search.index.AbstractPostingsIterator;
+
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <pre>
+ * MappedPostingList是MappedIndex查询结果的只读PostingList，直接读映射的文件里PostingsCodec编码的内容，
+ *      创建时只读Posting个数，不解码任何块.
+ *      iterator按块遍历(见PostingsCodec.BlockReader)：nextDoc解码所在块的docId和freq，
+ *      advance先只读块头，跳过最后一个docId小于目标的整块，只解码落到的块; 位置到第一次访问时才解码.
+ *      求交集时较长的PostingList大部分块都不用解码.
+ *      get、indexOf等按下标访问的方法第一次调用时才把整个PostingList解码成一个IntPostingList.
+ *      add、remove等修改操作抛出UnsupportedOperationException; Posting已经按docId排好序，sort不做任何事.
+ *      序列化时替换成解码出的IntPostingList
+ * </pre>
+ */
+final class MappedPostingList extends AbstractPostingList {
+    /**
+     * 位置在编码开头的缓冲区
+     */
+    private final transient ByteBuffer encoded;
+
+    /**
+     * 位置在第一块块头的缓冲区
+     */
+    private final transient ByteBuffer blocks;
+
+    /**
+     * Posting个数
+     */
+    private final transient int size;
+
+    /**
+     * 按下标访问时解码出的PostingList
+     */
+    private transient IntPostingList copy = null;
+
+    /**
+     * 构造函数
+     * @param in ：缓冲区，位置在PostingList编码的开头. 不改变它的位置
+     */
+    MappedPostingList(ByteBuffer in) {
+        // 不使用父类的list
+        this.list = Collections.emptyList();
+        this.encoded = in.duplicate();
+        ByteBuffer header = in.duplicate();
+        this.size = PostingsCodec.readVInt(header);
+        if (size < 0 || PostingsCodec.readVInt(header) < 0) {
+            throw new IllegalStateException("PostingList编码已损坏");
+        }
+        this.blocks = header;
+    }
+
+    /**
+     * 把整个PostingList解码成IntPostingList
+     * @return ：解码出的PostingList
+     */
+    IntPostingList toIntPostingList() {
+        if (copy == null) {
+            copy = PostingsCodec.decode(encoded.duplicate());
+        }
+        return copy;
+    }
+
+    /**
+     * 获得PosingList的字符串表示，与解码出的IntPostingList相同
+     * @return ： PosingList的字符串表示
+     */
+    @Override
+    public String toString() {
+        return toIntPostingList().toString();
+    }
+
+    @Override
+    public void add(AbstractPosting posting) {
+        throw new UnsupportedOperationException("MappedPostingList是只读的");
+    }
+
+    @Override
+    public void add(List<AbstractPosting> postings) {
+        throw new UnsupportedOperationException("MappedPostingList是只读的");
+    }
+
+    @Override
+    public AbstractPosting get(int index) {
+        return toIntPostingList().get(index);
+    }
+
+    @Override
+    public int indexOf(AbstractPosting posting) {
+        return toIntPostingList().indexOf(posting);
+    }
+
+    /**
+     * 按docId查找，用迭代器跳块，不解码整个PostingList
+     * @param docId ：文档id
+     * @return ：Posting的下标；没有找到返回-1
+     */
+    @Override
+    public int indexOf(int docId) {
+        if (copy != null) {
+            return copy.indexOf(docId);
+        }
+        BlockIterator it = new BlockIterator();
+        return it.advance(docId) == docId ? it.ordinal() : -1;
+    }
+
+    @Override
+    public boolean contains(AbstractPosting posting) {
+        return indexOf(posting) >= 0;
+    }
+
+    @Override
+    public void remove(int index) {
+        throw new UnsupportedOperationException("MappedPostingList是只读的");
+    }
+
+    @Override
+    public void remove(AbstractPosting posting) {
+        throw new UnsupportedOperationException("MappedPostingList是只读的");
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("MappedPostingList是只读的");
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 编码时已经按docId排好序，不需要排序
+     */
+    @Override
+    public void sort() {
+    }
+
+    /**
+     * 返回按块解码、advance时跳块的迭代器
+     * @return ：迭代器
+     */
+    @Override
+    public AbstractPostingsIterator iterator() {
+        return new BlockIterator();
+    }
+
+    /**
+     * 写到二进制文件，与解码出的IntPostingList相同
+     * @param out :输出流对象
+     */
+    @Override
+    public void writeObject(ObjectOutputStream out) {
+        toIntPostingList().writeObject(out);
+    }
+
+    /**
+     * 只读的PostingList不能从文件读入
+     * @param in ：输入流对象
+     */
+    @Override
+    public void readObject(ObjectInputStream in) {
+        throw new UnsupportedOperationException("MappedPostingList是只读的");
+    }
+
+    private Object writeReplace() {
+        return toIntPostingList();
+    }
+
+    /**
+     * 按块遍历映射的编码，advance只读块头跳过整块
+     */
+    private final class BlockIterator extends AbstractPostingsIterator {
+        private final PostingsCodec.BlockReader reader = new PostingsCodec.BlockReader(blocks.duplicate(), size);
+
+        /**
+         * 当前块之前的Posting个数
+         */
+        private int blockStart = 0;
+
+        /**
+         * 当前Posting在块内的下标
+         */
+        private int index = -1;
+        private int doc = -1;
+
+        @Override
+        public int docId() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() {
+            if (doc == NO_MORE_DOCS) {
+                return doc;
+            }
+            if (++index >= reader.count()) {
+                if (!nextBlock()) {
+                    return doc;
+                }
+                reader.decode();
+            }
+            doc = reader.docId(index);
+            return doc;
+        }
+
+        @Override
+        public int advance(int target) {
+            if (doc >= target) {
+                return doc;
+            }
+            if (doc < 0 || reader.lastDocId() < target) {
+                // 块头里的最后一个docId小于目标的块不解码
+                do {
+                    if (!nextBlock()) {
+                        return doc;
+                    }
+                } while (reader.lastDocId() < target);
+                reader.decode();
+            }
+            int last = reader.count() - 1;
+            while (index < last && reader.docId(index) < target) {
+                index++;
+            }
+            doc = reader.docId(index);
+            return doc;
+        }
+
+        /**
+         * 读下一块的块头，不解码块的内容；没有下一块时遍历结束
+         * @return ：没有下一块返回false
+         */
+        private boolean nextBlock() {
+            blockStart += reader.count();
+            if (!reader.nextBlock()) {
+                doc = NO_MORE_DOCS;
+                return false;
+            }
+            index = 0;
+            return true;
+        }
+
+        /**
+         * 当前Posting在整个PostingList里的下标
+         * @return ：下标
+         */
+        int ordinal() {
+            return blockStart + index;
+        }
+
+        @Override
+        public int freq() {
+            return reader.freq(index);
+        }
+
+        @Override
+        public List<Integer> positions() {
+            return new IntPostingList.Positions(reader.positions(), reader.positionStart(index),
+                    reader.positionCount(index));
+        }
+
+        @Override
+        public AbstractPosting posting() {
+            return new Posting(doc, freq(), positions());
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
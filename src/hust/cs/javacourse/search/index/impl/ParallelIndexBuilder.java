@@ -0,0 +1,118 @@
+package hust.cs.javacourse.search.index.impl;
+
+import hust.cs.javacourse.search.index.*;
+import hust.cs.javacourse.search.util.Config;
+import hust.cs.javacourse.search.util.FileUtil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * <pre>
+ * ParallelIndexBuilder是多线程并行构建索引的索引构造器.
+ *      先把按路径排好序的文件列表切分成若干连续的片段, 每个工作线程解析一个片段里的文档，
+ *      构建出该片段的部分索引; 最后按片段顺序把所有部分索引合并成一个索引.
+ *      由于片段是连续的, 每个文档的docId与串行构建(IndexBuilder)时完全相同.
+ * </pre>
+ */
+public class ParallelIndexBuilder extends AbstractIndexBuilder {
+    /**
+     * 每个工作线程平均分到的片段数，片段多于线程数可以让各线程的负载更均衡
+     */
+    private static final int SLICES_PER_THREAD = 4;
+
+    /**
+     * 工作线程数
+     */
+    private final int threads;
+
+    /**
+     * 构造函数，工作线程数由Config.BUILD_THREADS指定
+     * @param docBuilder ：Document构造器，必须可以被多个线程同时使用
+     */
+    public ParallelIndexBuilder(AbstractDocumentBuilder docBuilder) {
+        this(docBuilder, Config.BUILD_THREADS);
+    }
+
+    /**
+     * 构造函数
+     * @param docBuilder ：Document构造器，必须可以被多个线程同时使用
+     * @param threads ：工作线程数
+     */
+    public ParallelIndexBuilder(AbstractDocumentBuilder docBuilder, int threads) {
+        super(docBuilder);
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * <pre>
+     * 构建指定目录下的所有文本文件的倒排索引.
+     * 各工作线程并行解析文档、构建部分索引，再按docId顺序合并.
+     * @param rootDirectory ：指定目录
+     * @return ：构建好的索引
+     * </pre>
+     */
+    @Override
+    public AbstractIndex buildIndex(String rootDirectory) {
+        List<String> filePaths = FileUtil.list(rootDirectory);
+        filePaths.sort(String::compareTo);
+        int sliceCount = Math.min(filePaths.size(), threads * SLICES_PER_THREAD);
+        Index index = new Index();
+        if (sliceCount == 0) {
+            return index;
+        }
+        // 所有线程共用一个单词字典，部分索引按单词id合并
+        TermDictionary dictionary = new TermDictionary();
+        index.beginBulkLoad(dictionary);
+        int sliceSize = (filePaths.size() + sliceCount - 1) / sliceCount;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Index>> partials = new ArrayList<>();
+            for (int from = 0; from < filePaths.size(); from += sliceSize) {
+                int to = Math.min(from + sliceSize, filePaths.size());
+                partials.add(executor.submit(buildSlice(filePaths, from, to, docId + from, dictionary)));
+            }
+            // 按片段顺序合并, 保证合并后每个PostingList仍按docId有序
+            for (Future<Index> partial : partials) {
+                index.merge(partial.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("并行构建索引被中断", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("并行构建索引失败", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        index.commitBulkLoad();
+        docId += filePaths.size();
+        return index;
+    }
+
+    /**
+     * 构建一个片段的部分索引的任务
+     * @param filePaths ：排好序的全部文件路径
+     * @param from ：片段的起始下标(包含)
+     * @param to ：片段的结束下标(不包含)
+     * @param firstDocId ：片段里第一个文档的docId
+     * @param dictionary ：单词字典
+     * @return ：构建部分索引的任务
+     */
+    private Callable<Index> buildSlice(List<String> filePaths, int from, int to, int firstDocId,
+                                       TermDictionary dictionary) {
+        return () -> {
+            // 部分索引只做追加，排序留到合并后的索引commitBulkLoad时统一进行
+            Index partial = new Index();
+            partial.beginBulkLoad(dictionary);
+            for (int i = from; i < to; i++) {
+                String docPath = filePaths.get(i);
+                partial.addDocument(DocumentBuilder.build(docBuilder, firstDocId + i - from, docPath,
+                        new File(docPath), dictionary));
+            }
+            return partial;
+        };
+    }
+}
@@ -0,0 +1,502 @@
+package hust.cs.javacourse.search.index.impl;
+
+import hust.cs.javacourse.search.index.*;
+import hust.cs.javacourse.search.util.Config;
+import hust.cs.javacourse.search.util.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <pre>
+ * PipelinedIndexBuilder用流水线构建索引，分为三个阶段，相邻阶段之间用有界队列连接:
+ *      读文件阶段：把文件内容整个读入内存;
+ *      分词阶段：对读到的内容分词、过滤，构造Document;
+ *      倒排阶段：把Document加入索引，每个线程构建一个部分索引，最后合并.
+ *      每个阶段的线程数分别由Config.PIPELINE_READER_THREADS、Config.PIPELINE_ANALYZER_THREADS和
+ *      Config.PIPELINE_INVERTER_THREADS指定，这样等待磁盘的时间和分词的计算可以重叠.
+ *      队列容量为Config.PIPELINE_QUEUE_CAPACITY，下游处理不过来时上游阻塞等待(背压)，内存里的文档数有上限.
+ *      每个阶段统计处理的文档数、吞吐量、忙碌时间、等待上游(输入队列空)和被下游阻塞(输出队列满)的时间，
+ *      以及输入队列的平均和最大长度，用getStats()取得: 最慢的阶段忙碌比例最高，它的输入队列经常是满的.
+ *      docId按文件路径排序后的顺序分配，与IndexBuilder完全相同.
+ *      倒排线程交替领取文档，各部分索引的docId互相交错，Index.merge按单词一次归并，不逐个插入Posting.
+ *      Document构造器不是DocumentBuilder时，读文件阶段不读内容，由Document构造器自己读文件.
+ *      设置了近似重复文档检测器(setDuplicateDetector)时，分词和倒排之间多一个单线程的去重阶段:
+ *      分词线程完成的顺序与docId顺序不同，去重阶段先按docId排好序，再依次交给检测器检查(检测器要求按docId顺序)，
+ *      近似重复的文档不交给倒排阶段，结果与IndexBuilder相同.
+ *      设置了文档内容文件(setDocumentStore)时，读文件阶段把读到的内容同时交给DocumentStore.OrderedWriter，
+ *      由它按docId顺序写出，文件仍然只读一次.
+ * </pre>
+ */
+public class PipelinedIndexBuilder extends AbstractIndexBuilder {
+    /**
+     * 队列结束标记
+     */
+    private static final Object END = new Object();
+
+    /**
+     * 各阶段线程数和队列容量
+     */
+    private final int readerThreads;
+    private final int analyzerThreads;
+    private final int inverterThreads;
+    private final int queueCapacity;
+
+    /**
+     * 文档内容文件；为null时不保存文档内容
+     */
+    private File storeFile = null;
+
+    /**
+     * 近似重复文档检测器；为null时不检测
+     */
+    private DuplicateDetector duplicateDetector = null;
+
+    /**
+     * 构建完成后保存近似重复文档的文件；为null时不保存
+     */
+    private File linksFile = null;
+
+    /**
+     * 最近一次buildIndex各阶段的统计
+     */
+    private List<StageStats> stats = Collections.emptyList();
+
+    /**
+     * 构造函数，各阶段线程数和队列容量由Config指定
+     * @param docBuilder ：Document构造器，必须可以被多个线程同时使用
+     */
+    public PipelinedIndexBuilder(AbstractDocumentBuilder docBuilder) {
+        this(docBuilder, Config.PIPELINE_READER_THREADS, Config.PIPELINE_ANALYZER_THREADS,
+                Config.PIPELINE_INVERTER_THREADS, Config.PIPELINE_QUEUE_CAPACITY);
+    }
+
+    /**
+     * 构造函数
+     * @param docBuilder ：Document构造器，必须可以被多个线程同时使用
+     * @param readerThreads ：读文件阶段的线程数
+     * @param analyzerThreads ：分词阶段的线程数
+     * @param inverterThreads ：倒排阶段的线程数
+     * @param queueCapacity ：队列容量
+     */
+    public PipelinedIndexBuilder(AbstractDocumentBuilder docBuilder, int readerThreads, int analyzerThreads,
+                                 int inverterThreads, int queueCapacity) {
+        super(docBuilder);
+        this.readerThreads = Math.max(1, readerThreads);
+        this.analyzerThreads = Math.max(1, analyzerThreads);
+        this.inverterThreads = Math.max(1, inverterThreads);
+        this.queueCapacity = Math.max(1, queueCapacity);
+    }
+
+    /**
+     * <pre>
+     * 设置文档内容文件. 设置后buildIndex同时把每个文档的内容压缩保存到该文件(见DocumentStore).
+     *      通常为DocumentStore.storeFile(索引文件)
+     * @param storeFile ：文档内容文件；为null时不保存文档内容
+     * </pre>
+     */
+    public void setDocumentStore(File storeFile) {
+        this.storeFile = storeFile;
+    }
+
+    /**
+     * <pre>
+     * 设置近似重复文档检测器. 设置后与之前的文档近似重复的文档不加入索引(仍然占用一个docId)，
+     * 它对应的原始文档和节省的Posting数从检测器获得
+     * @param duplicateDetector ：检测器；为null时不检测
+     * </pre>
+     */
+    public void setDuplicateDetector(DuplicateDetector duplicateDetector) {
+        setDuplicateDetector(duplicateDetector, null);
+    }
+
+    /**
+     * <pre>
+     * 设置近似重复文档检测器，buildIndex完成后把检测器的原始文档签名和近似重复的文档保存到指定文件.
+     *      通常为DuplicateDetector.linksFile(索引文件)，与索引一起保存
+     * @param duplicateDetector ：检测器；为null时不检测
+     * @param linksFile ：保存的文件；为null时不保存
+     * </pre>
+     */
+    public void setDuplicateDetector(DuplicateDetector duplicateDetector, File linksFile) {
+        this.duplicateDetector = duplicateDetector;
+        this.linksFile = linksFile;
+    }
+
+    /**
+     * 一个阶段的统计
+     */
+    public static final class StageStats {
+        /**
+         * 阶段名
+         */
+        public final String name;
+
+        /**
+         * 线程数
+         */
+        public final int threads;
+
+        private final AtomicLong items = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+        private final AtomicLong starvedNanos = new AtomicLong();
+        private final AtomicLong blockedNanos = new AtomicLong();
+        private final AtomicLong queueDepthSum = new AtomicLong();
+        private final AtomicLong queueDepthSamples = new AtomicLong();
+        private final AtomicInteger maxQueueDepth = new AtomicInteger();
+        private long wallNanos;
+
+        StageStats(String name, int threads) {
+            this.name = name;
+            this.threads = threads;
+        }
+
+        /**
+         * 处理的文档数
+         * @return ：文档数
+         */
+        public long getItems() {
+            return items.get();
+        }
+
+        /**
+         * 吞吐量
+         * @return ：每秒处理的文档数
+         */
+        public double getThroughput() {
+            return wallNanos == 0 ? 0 : items.get() * 1e9 / wallNanos;
+        }
+
+        /**
+         * 各线程处理文档的时间占整个构建时间的比例
+         * @return ：0到1之间的比例
+         */
+        public double getBusyRatio() {
+            return ratio(busyNanos.get());
+        }
+
+        /**
+         * 各线程等待上游(输入队列空)的时间占整个构建时间的比例
+         * @return ：0到1之间的比例
+         */
+        public double getStarvedRatio() {
+            return ratio(starvedNanos.get());
+        }
+
+        /**
+         * 各线程被下游阻塞(输出队列满)的时间占整个构建时间的比例
+         * @return ：0到1之间的比例
+         */
+        public double getBlockedRatio() {
+            return ratio(blockedNanos.get());
+        }
+
+        /**
+         * 每次取文档时输入队列的平均长度
+         * @return ：平均长度；读文件阶段没有输入队列，返回0
+         */
+        public double getAverageQueueDepth() {
+            long samples = queueDepthSamples.get();
+            return samples == 0 ? 0 : (double) queueDepthSum.get() / samples;
+        }
+
+        /**
+         * 输入队列的最大长度
+         * @return ：最大长度；读文件阶段没有输入队列，返回0
+         */
+        public int getMaxQueueDepth() {
+            return maxQueueDepth.get();
+        }
+
+        private double ratio(long nanos) {
+            return wallNanos == 0 ? 0 : (double) nanos / ((long) threads * wallNanos);
+        }
+
+        void sampleQueue(BlockingQueue<?> queue) {
+            int depth = queue.size();
+            queueDepthSum.addAndGet(depth);
+            queueDepthSamples.incrementAndGet();
+            maxQueueDepth.accumulateAndGet(depth, Math::max);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s\t线程: %d\t文档: %d\t吞吐量: %.1f/s\t忙碌: %.0f%%\t等待上游: %.0f%%\t被下游阻塞: %.0f%%\t输入队列: 平均%.1f 最大%d",
+                    name, threads, getItems(), getThroughput(), 100 * getBusyRatio(), 100 * getStarvedRatio(),
+                    100 * getBlockedRatio(), getAverageQueueDepth(), getMaxQueueDepth());
+        }
+    }
+
+    /**
+     * 读文件阶段读到的文档
+     */
+    private static final class RawDocument {
+        final int docId;
+        final String docPath;
+
+        /**
+         * 文档内容；为null表示由Document构造器自己读文件
+         */
+        final byte[] content;
+
+        RawDocument(int docId, String docPath, byte[] content) {
+            this.docId = docId;
+            this.docPath = docPath;
+            this.content = content;
+        }
+    }
+
+    /**
+     * <pre>
+     * 用流水线构建指定目录下的所有文本文件的倒排索引.
+     * @param rootDirectory ：指定目录
+     * @return ：构建好的索引
+     * </pre>
+     */
+    @Override
+    public AbstractIndex buildIndex(String rootDirectory) {
+        List<String> filePaths = FileUtil.list(rootDirectory);
+        filePaths.sort(String::compareTo);
+        StageStats readStats = new StageStats("读文件", readerThreads);
+        StageStats analyzeStats = new StageStats("分词", analyzerThreads);
+        StageStats invertStats = new StageStats("倒排", inverterThreads);
+        DuplicateDetector detector = duplicateDetector;
+        StageStats dedupStats = detector != null ? new StageStats("去重", 1) : null;
+        BlockingQueue<Object> rawQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Object> docQueue = new ArrayBlockingQueue<>(queueCapacity);
+        // 有去重阶段时分词阶段输出到去重阶段，去重阶段再输出到倒排阶段
+        BlockingQueue<Object> invertQueue = detector != null ? new ArrayBlockingQueue<>(queueCapacity) : docQueue;
+        int dedupThreads = detector != null ? 1 : 0;
+        TermDictionary dictionary = new TermDictionary();
+        AtomicInteger nextFile = new AtomicInteger();
+        AtomicInteger runningReaders = new AtomicInteger(readerThreads);
+        AtomicInteger runningAnalyzers = new AtomicInteger(analyzerThreads);
+        int firstDocId = docId;
+
+        Index index = new Index();
+        index.beginBulkLoad(dictionary);
+        long start = System.nanoTime();
+        int threads = readerThreads + analyzerThreads + dedupThreads + inverterThreads;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (DocumentStore.OrderedWriter store = storeFile == null ? null
+                : new DocumentStore.OrderedWriter(new DocumentStore.Writer(storeFile), firstDocId)) {
+            CompletionService<Index> completion = new ExecutorCompletionService<>(executor);
+            List<Future<Index>> inverters = new ArrayList<>();
+            for (int i = 0; i < readerThreads; i++) {
+                completion.submit(() -> {
+                    read(filePaths, firstDocId, nextFile, rawQueue, store, readStats);
+                    finish(runningReaders, rawQueue, analyzerThreads);
+                    return null;
+                });
+            }
+            for (int i = 0; i < analyzerThreads; i++) {
+                completion.submit(() -> {
+                    analyze(rawQueue, docQueue, dictionary, analyzeStats);
+                    finish(runningAnalyzers, docQueue, detector != null ? 1 : inverterThreads);
+                    return null;
+                });
+            }
+            if (detector != null) {
+                completion.submit(() -> {
+                    deduplicate(docQueue, invertQueue, detector, firstDocId, dedupStats);
+                    finish(new AtomicInteger(1), invertQueue, inverterThreads);
+                    return null;
+                });
+            }
+            for (int i = 0; i < inverterThreads; i++) {
+                inverters.add(completion.submit(() -> invert(invertQueue, dictionary, invertStats)));
+            }
+            // 任何一个阶段失败都立即结束，否则其它阶段会一直阻塞在队列上
+            for (int i = 0; i < threads; i++) {
+                completion.take().get();
+            }
+            for (Future<Index> partial : inverters) {
+                index.merge(partial.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("流水线构建索引被中断", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("流水线构建索引失败", e.getCause());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+        index.commitBulkLoad();
+        long wallNanos = System.nanoTime() - start;
+        stats = detector != null ? List.of(readStats, analyzeStats, dedupStats, invertStats)
+                : List.of(readStats, analyzeStats, invertStats);
+        for (StageStats stage : stats) {
+            stage.wallNanos = wallNanos;
+        }
+        docId += filePaths.size();
+        if (detector != null && linksFile != null) {
+            try {
+                detector.save(linksFile);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * 最近一次buildIndex各阶段的统计，依次为读文件、分词和倒排阶段; 设置了近似重复文档检测器时分词和倒排之间还有去重阶段
+     * @return ：各阶段的统计；还没有调用过buildIndex时返回空列表
+     */
+    public List<StageStats> getStats() {
+        return stats;
+    }
+
+    /**
+     * 读文件阶段：依次领取下一个文件，读入全部内容后放入输出队列; store不为null时同时保存内容
+     */
+    private void read(List<String> filePaths, int firstDocId, AtomicInteger nextFile, BlockingQueue<Object> out,
+                      DocumentStore.OrderedWriter store, StageStats stats) throws InterruptedException, IOException {
+        boolean readContent = docBuilder instanceof DocumentBuilder;
+        int i;
+        while ((i = nextFile.getAndIncrement()) < filePaths.size()) {
+            long t0 = System.nanoTime();
+            String docPath = filePaths.get(i);
+            byte[] content = null;
+            if (readContent) {
+                try {
+                    File file = new File(docPath);
+                    // 超过数组上限的文件交给Document构造器自己读
+                    content = file.length() < Integer.MAX_VALUE - 8 ? Files.readAllBytes(file.toPath()) : null;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    content = new byte[0];
+                }
+            }
+            if (store != null) {
+                if (content != null) {
+                    store.add(firstDocId + i, docPath, content);
+                } else {
+                    store.add(firstDocId + i, docPath, new File(docPath));
+                }
+            }
+            RawDocument raw = new RawDocument(firstDocId + i, docPath, content);
+            long t1 = System.nanoTime();
+            out.put(raw);
+            stats.blockedNanos.addAndGet(System.nanoTime() - t1);
+            stats.busyNanos.addAndGet(t1 - t0);
+            stats.items.incrementAndGet();
+        }
+    }
+
+    /**
+     * 分词阶段：对读到的内容分词、过滤，构造Document后放入输出队列
+     */
+    private void analyze(BlockingQueue<Object> in, BlockingQueue<Object> out, TermDictionary dictionary,
+                         StageStats stats) throws InterruptedException {
+        while (true) {
+            long t0 = System.nanoTime();
+            stats.sampleQueue(in);
+            Object item = in.take();
+            long t1 = System.nanoTime();
+            stats.starvedNanos.addAndGet(t1 - t0);
+            if (item == END) {
+                return;
+            }
+            RawDocument raw = (RawDocument) item;
+            AbstractDocument document = raw.content != null
+                    ? ((DocumentBuilder) docBuilder).build(raw.docId, raw.docPath, ByteBuffer.wrap(raw.content), dictionary)
+                    : DocumentBuilder.build(docBuilder, raw.docId, raw.docPath, new File(raw.docPath), dictionary);
+            long t2 = System.nanoTime();
+            out.put(document);
+            stats.blockedNanos.addAndGet(System.nanoTime() - t2);
+            stats.busyNanos.addAndGet(t2 - t1);
+            stats.items.incrementAndGet();
+        }
+    }
+
+    /**
+     * 去重阶段：把分词阶段输出的Document按docId排好序后依次检查，不是近似重复的放入输出队列
+     * @param firstDocId ：第一个文档的docId，之后的docId是连续的
+     */
+    private static void deduplicate(BlockingQueue<Object> in, BlockingQueue<Object> out, DuplicateDetector detector,
+                                    int firstDocId, StageStats stats) throws InterruptedException {
+        // 已经分词但前面还有docId更小的文档没有到的Document. 分词线程按docId顺序领取文件，最多差几个队列的长度
+        PriorityQueue<AbstractDocument> pending = new PriorityQueue<>(Comparator.comparingInt(AbstractDocument::getDocId));
+        int next = firstDocId;
+        while (true) {
+            long t0 = System.nanoTime();
+            stats.sampleQueue(in);
+            Object item = in.take();
+            long t1 = System.nanoTime();
+            stats.starvedNanos.addAndGet(t1 - t0);
+            if (item == END) {
+                if (!pending.isEmpty()) {
+                    throw new IllegalStateException("去重阶段缺少docId为" + next + "的文档");
+                }
+                return;
+            }
+            pending.add((AbstractDocument) item);
+            long blocked = 0;
+            while (!pending.isEmpty() && pending.peek().getDocId() == next) {
+                AbstractDocument document = pending.poll();
+                next++;
+                if (detector.check(document) < 0) {
+                    long t2 = System.nanoTime();
+                    out.put(document);
+                    blocked += System.nanoTime() - t2;
+                }
+                stats.items.incrementAndGet();
+            }
+            stats.blockedNanos.addAndGet(blocked);
+            stats.busyNanos.addAndGet(System.nanoTime() - t1 - blocked);
+        }
+    }
+
+    /**
+     * 倒排阶段：把Document加入本线程的部分索引
+     * @return ：部分索引
+     */
+    private Index invert(BlockingQueue<Object> in, TermDictionary dictionary, StageStats stats)
+            throws InterruptedException {
+        // 部分索引只做追加，排序留到合并后的索引commitBulkLoad时统一进行
+        Index partial = new Index();
+        partial.beginBulkLoad(dictionary);
+        while (true) {
+            long t0 = System.nanoTime();
+            stats.sampleQueue(in);
+            Object item = in.take();
+            long t1 = System.nanoTime();
+            stats.starvedNanos.addAndGet(t1 - t0);
+            if (item == END) {
+                return partial;
+            }
+            partial.addDocument((AbstractDocument) item);
+            stats.busyNanos.addAndGet(System.nanoTime() - t1);
+            stats.items.incrementAndGet();
+        }
+    }
+
+    /**
+     * 一个阶段的线程结束. 最后一个结束的线程为下游的每个线程放入一个结束标记
+     * @param running ：该阶段还在运行的线程数
+     * @param out ：输出队列
+     * @param consumers ：下游阶段的线程数
+     */
+    private static void finish(AtomicInteger running, BlockingQueue<Object> out, int consumers)
+            throws InterruptedException {
+        if (running.decrementAndGet() == 0) {
+            for (int i = 0; i < consumers; i++) {
+                out.put(END);
+            }
+        }
+    }
+}
@@ -6,28 +6,31 @@ import hust.cs.javacourse.search.index.AbstractPostingList;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 public class PostingList extends AbstractPostingList {
     /**
-     * 添加Posting,要求不能有内容重复的posting
+     * <pre>
+     * 添加Posting,要求不能有内容重复的posting.
+     *      文档按docId从小到大加入时docId总是比最后一个Posting大，只检查末尾就直接追加;
+     *      否则二分查找，docId重复的Posting不加入，不重复的插入到按docId排序的位置
      * @param posting：Posting对象
+     * </pre>
      */
     @Override
     public void add(AbstractPosting posting) {
-        for (AbstractPosting ele : this.list) {
-            if (ele.getDocId() == posting.getDocId()) {
-                return;
-            }
+        int size = list.size();
+        if (size == 0 || list.get(size - 1).getDocId() < posting.getDocId()) {
+            list.add(posting);
+            return;
         }
-        int i;
-        for (i = 0; i < list.size(); i++) {
-            if (list.get(i).getDocId() > posting.getDocId()) {
-                break;
-            }
+        int index = search(posting.getDocId());
+        if (index < 0) {
+            list.add(-index - 1, posting);
         }
-        this.list.add(i, posting);
     }
     /**
      * 获得PosingList的字符串表示
@@ -44,14 +47,46 @@ public class PostingList extends AbstractPostingList {
         return s.toString();
     }
     /**
-     * 添加Posting列表,,要求不能有内容重复的posting
+     * <pre>
+     * 添加Posting列表,,要求不能有内容重复的posting.
+     *      结果与逐个调用add(AbstractPosting)相同：已有的docId不再加入，列表里重复的docId只加入第一个.
+     *      列表按docId递增并且都比最后一个Posting大时逐个追加;
+     *      否则先把列表按docId稳定排序，再与原来的Posting归并一遍，不逐个插入
      * @param postings：Posting列表
+     * </pre>
      */
     @Override
     public void add(List<AbstractPosting> postings) {
+        int last = list.isEmpty() ? Integer.MIN_VALUE : list.get(list.size() - 1).getDocId();
+        boolean ascending = true;
         for (AbstractPosting posting : postings) {
-            this.add(posting);
+            if (posting.getDocId() <= last) {
+                ascending = false;
+                break;
+            }
+            last = posting.getDocId();
+        }
+        if (ascending) {
+            list.addAll(postings);
+            return;
+        }
+        List<AbstractPosting> sorted = new ArrayList<>(postings);
+        sorted.sort(Comparator.comparingInt(AbstractPosting::getDocId));
+        List<AbstractPosting> merged = new ArrayList<>(list.size() + sorted.size());
+        int i = 0;
+        int j = 0;
+        while (i < list.size() || j < sorted.size()) {
+            AbstractPosting next;
+            if (j == sorted.size() || (i < list.size() && list.get(i).getDocId() <= sorted.get(j).getDocId())) {
+                next = list.get(i++);
+            } else {
+                next = sorted.get(j++);
+            }
+            if (merged.isEmpty() || merged.get(merged.size() - 1).getDocId() != next.getDocId()) {
+                merged.add(next);
+            }
         }
+        this.list = merged;
     }
     /**
      * 返回指定下标位置的Posting
@@ -72,26 +107,38 @@ public class PostingList extends AbstractPostingList {
      */
     @Override
     public int indexOf(AbstractPosting posting) {
-        for (int i = 0; i < list.size(); i++) {
-            if (list.get(i).compareTo(posting) == 0) {
-                return  i;
-            }
-        }
-        return -1;
+        return indexOf(posting.getDocId());
     }
     /**
-     * 返回指定文档id的Posting对象的下标
+     * 返回指定文档id的Posting对象的下标. add保证Posting按docId有序，二分查找
      * @param docId ：文档id
      * @return ：如果找到返回对应下标；否则返回-1
      */
     @Override
     public int indexOf(int docId) {
-        for (int i = 0; i < list.size(); i++) {
-            if (list.get(i).getDocId() == docId) {
-                return  i;
+        int index = search(docId);
+        return index >= 0 ? index : -1;
+    }
+    /**
+     * 按docId二分查找
+     * @param docId ：文档id
+     * @return ：找到返回下标；否则返回(-(插入位置) - 1)
+     */
+    private int search(int docId) {
+        int low = 0;
+        int high = list.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midDocId = list.get(mid).getDocId();
+            if (midDocId < docId) {
+                low = mid + 1;
+            } else if (midDocId > docId) {
+                high = mid - 1;
+            } else {
+                return mid;
             }
         }
-        return -1;
+        return -(low + 1);
     }
     /**
      * 是否包含指定Posting对象
@@ -0,0 +1,349 @@
+package hust.cs.javacourse.search.index.impl;
+
+import hust.cs.javacourse.search.index.AbstractPosting;
+import hust.cs.javacourse.search.index.AbstractPostingList;
+import hust.cs.javacourse.search.index.AbstractTerm;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <pre>
+ * PostingRunFile是按单词排序的倒排记录文件，SpimiIndexBuilder用它保存中间结果，
+ * Config.MAPPED_INDEX_FORMAT为false时也用它保存最终索引.
+ * 文件格式(DataOutputStream):
+ *      int     MAGIC
+ *      int     文档数n, 之后n个 (int docId, UTF docPath)
+ *      按单词字典序排列的若干单词记录，每条记录之前有一个boolean true，最后以boolean false结束.
+ *      单词记录为 UTF 单词, int Posting个数m, int 位置总数, 之后m个 (int docId, int freq, freq个int位置)
+ * 整个文件可以顺序地写和读，写入和多路归并时内存占用与文件大小无关.
+ * 位置总数让归并时不用先读完一个单词的所有Posting就能开始写IndexFile(PostingsCodec的编码以位置总数开头).
+ * 没有位置总数的旧格式(文件头是MAGIC_V1)仍然可以读，此时positionCount返回-1.
+ * </pre>
+ */
+final class PostingRunFile {
+    /**
+     * 文件头的魔数，用于和ObjectOutputStream写出的索引文件区分
+     */
+    static final int MAGIC = 0x48525547;
+
+    /**
+     * 单词记录里没有位置总数的旧格式的魔数
+     */
+    static final int MAGIC_V1 = 0x48525546;
+
+    /**
+     * 读写缓冲区大小
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private PostingRunFile() {
+    }
+
+    /**
+     * 判断文件是否为PostingRunFile格式
+     * @param file ：文件
+     * @return ：是返回true，否则返回false
+     */
+    static boolean isRunFile(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (file.length() < 4) {
+                return false;
+            }
+            int magic = in.readInt();
+            return magic == MAGIC || magic == MAGIC_V1;
+        }
+    }
+
+    /**
+     * 把内存中的索引写成一个PostingRunFile
+     * @param index ：已经排好序的索引
+     * @param file ：目标文件
+     */
+    static void write(Index index, File file) throws IOException {
+        try (Writer writer = new Writer(file)) {
+            writer.writeDocs(index.docIdToDocPathMapping);
+            for (Map.Entry<AbstractTerm, AbstractPostingList> entry : index.termToPostingListMapping.entrySet()) {
+                AbstractPostingList list = entry.getValue();
+                int positionCount = 0;
+                for (int i = 0; i < list.size(); i++) {
+                    positionCount += list instanceof IntPostingList ? ((IntPostingList) list).getPositionCount(i)
+                            : list.get(i).getPositions().size();
+                }
+                writer.startTerm(entry.getKey().getContent(), list.size(), positionCount);
+                for (int i = 0; i < list.size(); i++) {
+                    writer.writePosting(list.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * 把PostingRunFile整个读入内存中的索引
+     * @param file ：PostingRunFile文件
+     * @param index ：目标索引
+     */
+    static void load(File file, Index index) throws IOException {
+        try (Reader reader = new Reader(file)) {
+            reader.readDocs(index.docIdToDocPathMapping);
+            while (reader.nextTerm()) {
+                IntPostingList list = new IntPostingList();
+                for (int i = 0; i < reader.postingCount(); i++) {
+                    list.add(reader.readPosting());
+                }
+                index.termToPostingListMapping.put(new Term(reader.term()), list);
+            }
+        }
+    }
+
+    /**
+     * 顺序写PostingRunFile
+     */
+    static class Writer implements Closeable {
+        private final DataOutputStream out;
+
+        /**
+         * 构造函数，写入文件头
+         * @param file ：目标文件
+         */
+        Writer(File file) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+            out.writeInt(MAGIC);
+        }
+
+        /**
+         * 写入文档表，必须在写入单词记录之前调用
+         * @param docs ：docId到docPath的映射
+         */
+        void writeDocs(Map<Integer, String> docs) throws IOException {
+            writeDocCount(docs.size());
+            for (Map.Entry<Integer, String> doc : docs.entrySet()) {
+                writeDoc(doc.getKey(), doc.getValue());
+            }
+        }
+
+        /**
+         * 写入文档表的文档数，之后必须紧接着写入同样个数的文档
+         * @param count ：文档数
+         */
+        void writeDocCount(int count) throws IOException {
+            out.writeInt(count);
+        }
+
+        /**
+         * 写入文档表里的一个文档
+         * @param docId ：文档id
+         * @param docPath ：文档路径
+         */
+        void writeDoc(int docId, String docPath) throws IOException {
+            out.writeInt(docId);
+            out.writeUTF(docPath);
+        }
+
+        /**
+         * 开始一条单词记录，之后必须紧接着写入postingCount个Posting
+         * @param term ：单词
+         * @param postingCount ：Posting个数
+         * @param positionCount ：所有Posting的位置总数
+         */
+        void startTerm(String term, int postingCount, int positionCount) throws IOException {
+            out.writeBoolean(true);
+            out.writeUTF(term);
+            out.writeInt(postingCount);
+            out.writeInt(positionCount);
+        }
+
+        /**
+         * 写入一个Posting
+         * @param posting ：Posting
+         */
+        void writePosting(AbstractPosting posting) throws IOException {
+            List<Integer> positions = posting.getPositions();
+            out.writeInt(posting.getDocId());
+            out.writeInt(positions.size());
+            for (int position : positions) {
+                out.writeInt(position);
+            }
+        }
+
+        /**
+         * 返回底层输出流，用于直接复制Posting
+         * @return ：输出流
+         */
+        DataOutputStream stream() {
+            return out;
+        }
+
+        /**
+         * 写入结束标记并关闭文件
+         */
+        @Override
+        public void close() throws IOException {
+            out.writeBoolean(false);
+            out.close();
+        }
+    }
+
+    /**
+     * 顺序读PostingRunFile
+     */
+    static class Reader implements Closeable {
+        private final DataInputStream in;
+        private final int docCount;
+
+        /**
+         * 单词记录里是否有位置总数(不是旧格式)
+         */
+        private final boolean hasPositionCounts;
+        private String term;
+        private int postingCount;
+        private int positionCount;
+
+        /**
+         * 构造函数，检查文件头并读取文档数
+         * @param file ：PostingRunFile文件
+         */
+        Reader(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+            int magic = in.readInt();
+            if (magic != MAGIC && magic != MAGIC_V1) {
+                in.close();
+                throw new IOException("不是PostingRunFile格式的文件: " + file);
+            }
+            hasPositionCounts = magic == MAGIC;
+            docCount = in.readInt();
+        }
+
+        /**
+         * 文档表的文档数
+         * @return ：文档数
+         */
+        int docCount() {
+            return docCount;
+        }
+
+        /**
+         * 读取文档表，必须在读取单词记录之前调用
+         * @param docs ：读到的文档表放入该映射
+         */
+        void readDocs(Map<Integer, String> docs) throws IOException {
+            for (int i = 0; i < docCount; i++) {
+                int docId = in.readInt();
+                docs.put(docId, in.readUTF());
+            }
+        }
+
+        /**
+         * 读取文档表并直接写到另一个文件，必须在读取单词记录之前调用
+         * @param writer ：目标文件
+         */
+        void copyDocsTo(Writer writer) throws IOException {
+            for (int i = 0; i < docCount; i++) {
+                int docId = in.readInt();
+                writer.writeDoc(docId, in.readUTF());
+            }
+        }
+
+        /**
+         * 读取文档表并直接写到IndexFile，必须在读取单词记录之前调用
+         * @param writer ：目标文件，已经startDocs
+         */
+        void copyDocsTo(IndexFile.Writer writer) throws IOException {
+            for (int i = 0; i < docCount; i++) {
+                int docId = in.readInt();
+                writer.writeDoc(docId, in.readUTF());
+            }
+        }
+
+        /**
+         * 读取下一条单词记录的单词和Posting个数
+         * @return ：还有单词记录返回true；到了文件末尾返回false
+         */
+        boolean nextTerm() throws IOException {
+            if (!in.readBoolean()) {
+                term = null;
+                return false;
+            }
+            term = in.readUTF();
+            postingCount = in.readInt();
+            positionCount = hasPositionCounts ? in.readInt() : -1;
+            return true;
+        }
+
+        /**
+         * 当前单词
+         * @return ：单词；到了文件末尾返回null
+         */
+        String term() {
+            return term;
+        }
+
+        /**
+         * 当前单词的Posting个数
+         * @return ：Posting个数
+         */
+        int postingCount() {
+            return postingCount;
+        }
+
+        /**
+         * 当前单词所有Posting的位置总数
+         * @return ：位置总数；旧格式的文件没有记录时返回-1
+         */
+        int positionCount() {
+            return positionCount;
+        }
+
+        /**
+         * 读取当前单词的下一个Posting
+         * @return ：Posting
+         */
+        Posting readPosting() throws IOException {
+            int docId = in.readInt();
+            int freq = in.readInt();
+            List<Integer> positions = new ArrayList<>(freq);
+            for (int i = 0; i < freq; i++) {
+                positions.add(in.readInt());
+            }
+            return new Posting(docId, freq, positions);
+        }
+
+        /**
+         * 读取当前单词的全部Posting，逐个写到IndexFile的当前单词
+         * @param writer ：目标文件，已经startTerm
+         */
+        void copyPostingsTo(IndexFile.Writer writer) throws IOException {
+            for (int i = 0; i < postingCount; i++) {
+                int docId = in.readInt();
+                int freq = in.readInt();
+                writer.writePosting(docId, freq, freq);
+                for (int j = 0; j < freq; j++) {
+                    writer.writePosition(in.readInt());
+                }
+            }
+        }
+
+        /**
+         * 把当前单词的全部Posting原样复制到另一个文件
+         * @param writer ：目标文件
+         */
+        void copyPostingsTo(Writer writer) throws IOException {
+            DataOutputStream out = writer.stream();
+            for (int i = 0; i < postingCount; i++) {
+                out.writeInt(in.readInt());
+                int freq = in.readInt();
+                out.writeInt(freq);
+                for (int j = 0; j < freq; j++) {
+                    out.writeInt(in.readInt());
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
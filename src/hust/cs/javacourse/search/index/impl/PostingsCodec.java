@@ -0,0 +1,639 @@
+package hust.cs.javacourse.search.index.impl;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <pre>
+ * PostingsCodec把IntPostingList压缩编码成字节序列，以及从字节序列解码.
+ *      docId按从小到大的顺序保存相邻的差值，每个Posting的位置同样保存差值(第一个位置保存原值)，
+ *      差值都是较小的非负整数，再用两种方式压缩:
+ *          每满128个的一组用PFor(Patched Frame of Reference)按位打包: 选一个位宽b，大部分值只保存低b位，
+ *          放不下的少数值(例外)另外保存下标和高位，不会因为个别很大的值让整组都用很大的位宽;
+ *          不满128个的剩余部分用VByte，每个字节保存7位.
+ *      Posting按每128个分块，块头保存块内最后一个docId和块的字节数，不解码块的内容就可以跳过整块
+ *      (见BlockReader，MappedPostingList的迭代器用它直接在映射的文件上跳块).
+ *      编码也按块进行(见Encoder)，SpimiIndexBuilder归并时不需要把整个PostingList读进内存.
+ * 格式(vint表示VByte编码的int):
+ *      vint    Posting个数n
+ *      vint    位置总数
+ *      每块(最多128个Posting)：
+ *          vint    块内最后一个docId
+ *          vint    块内容的字节数
+ *          块内容：docId差值(与前一个Posting的docId之差，第一个Posting与上一块的最后一个docId之差)，
+ *                 freq，标志(位0表示位置个数与freq不同，此时接着保存位置个数)，块内所有位置的差值
+ * 每组数值的编码：依次每满128个一组用PFor，剩余的用VByte
+ *      PFor组：byte 位宽b，byte 例外个数e，16*b字节 每个值的低b位，e个(byte 下标，vint 高位)
+ * </pre>
+ */
+public final class PostingsCodec {
+    /**
+     * 每块的Posting个数，也是PFor每组的值个数
+     */
+    public static final int BLOCK_SIZE = 128;
+
+    /**
+     * 块的标志：位置个数与freq不同
+     */
+    private static final int FLAG_COUNTS = 1;
+
+    private PostingsCodec() {
+    }
+
+    /**
+     * 编码PostingList
+     * @param list ：PostingList，每个Posting的位置必须已经从小到大排序
+     * @return ：编码后的字节
+     */
+    public static byte[] encode(IntPostingList list) {
+        int size = list.size();
+        ByteSink out = new ByteSink(64 + size * 4);
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            total += list.getPositionCount(i);
+        }
+        Encoder encoder = new Encoder(out);
+        encoder.start(size, total);
+        for (int i = 0; i < size; i++) {
+            int count = list.getPositionCount(i);
+            encoder.add(list.getDocId(i), list.getFreq(i), count);
+            for (int j = 0; j < count; j++) {
+                encoder.addPosition(list.getPosition(i, j));
+            }
+        }
+        encoder.finish();
+        return out.toByteArray();
+    }
+
+    /**
+     * <pre>
+     * Encoder逐个Posting地编码PostingList，每攒满一块(BLOCK_SIZE个Posting)就编码追加到输出，
+     *      内存里只有当前块的Posting，不需要先把整个PostingList读进内存.
+     *      Posting个数和位置总数在编码的开头，start时必须给出，finish时检查与实际加入的相同.
+     *      每个PostingList依次调用start、若干次add(每次之后紧接着count次addPosition)、finish，
+     *      之后可以用同一个Encoder编码下一个PostingList. 编码结果与encode(IntPostingList)相同
+     * </pre>
+     */
+    static final class Encoder {
+        private final ByteSink out;
+        private final ByteSink block = new ByteSink(1024);
+        private final int[] docIds = new int[BLOCK_SIZE];
+        private final int[] freqs = new int[BLOCK_SIZE];
+        private final int[] counts = new int[BLOCK_SIZE];
+        private final int[] values = new int[BLOCK_SIZE];
+        private int[] positionGaps = new int[BLOCK_SIZE];
+
+        /**
+         * start时给出的Posting个数和位置总数，已经加入的Posting个数和位置个数
+         */
+        private int size = 0;
+        private int totalPositions = 0;
+        private int addedPostings = 0;
+        private int addedPositions = 0;
+
+        /**
+         * 当前块的Posting个数和位置个数
+         */
+        private int blockPostings = 0;
+        private int blockPositions = 0;
+
+        /**
+         * 当前Posting还要加入的位置个数和上一个位置
+         */
+        private int pendingPositions = 0;
+        private int previousPosition = 0;
+
+        /**
+         * 上一块的最后一个docId
+         */
+        private int previousDocId = 0;
+
+        /**
+         * 构造函数
+         * @param out ：编码追加到的输出，调用者可以随时取走已经写入的内容
+         */
+        Encoder(ByteSink out) {
+            this.out = out;
+        }
+
+        /**
+         * 开始编码一个PostingList
+         * @param size ：Posting个数
+         * @param totalPositions ：所有Posting的位置总数
+         */
+        void start(int size, int totalPositions) {
+            if (size < 0 || totalPositions < 0) {
+                throw new IllegalArgumentException("Posting个数和位置总数不能为负数");
+            }
+            this.size = size;
+            this.totalPositions = totalPositions;
+            addedPostings = 0;
+            addedPositions = 0;
+            blockPostings = 0;
+            blockPositions = 0;
+            pendingPositions = 0;
+            previousDocId = 0;
+            out.writeVInt(size);
+            out.writeVInt(totalPositions);
+        }
+
+        /**
+         * 加入下一个Posting，之后必须紧接着用addPosition加入它的count个位置. 当前块已满时先写出当前块
+         * @param docId ：文档id，比上一个Posting大
+         * @param freq ：出现次数
+         * @param count ：位置个数
+         */
+        void add(int docId, int freq, int count) {
+            if (pendingPositions != 0 || addedPostings == size || count < 0) {
+                throw new IllegalStateException("Posting个数或位置个数与start时给出的不同");
+            }
+            if (blockPostings == BLOCK_SIZE) {
+                writeBlock();
+            }
+            docIds[blockPostings] = docId;
+            freqs[blockPostings] = freq;
+            counts[blockPostings] = count;
+            blockPostings++;
+            addedPostings++;
+            pendingPositions = count;
+            previousPosition = 0;
+        }
+
+        /**
+         * 加入当前Posting的下一个位置
+         * @param position ：位置，不小于上一个位置
+         */
+        void addPosition(int position) {
+            if (pendingPositions == 0) {
+                throw new IllegalStateException("Posting个数或位置个数与start时给出的不同");
+            }
+            if (position < previousPosition) {
+                throw new IllegalStateException("Posting的位置没有排序: docId " + docIds[blockPostings - 1]);
+            }
+            if (blockPositions == positionGaps.length) {
+                positionGaps = Arrays.copyOf(positionGaps, blockPositions * 2);
+            }
+            positionGaps[blockPositions++] = position - previousPosition;
+            previousPosition = position;
+            pendingPositions--;
+            addedPositions++;
+        }
+
+        /**
+         * 写出最后一块，结束当前PostingList
+         */
+        void finish() {
+            if (pendingPositions != 0 || addedPostings != size || addedPositions != totalPositions) {
+                throw new IllegalStateException("Posting个数或位置个数与start时给出的不同");
+            }
+            if (blockPostings > 0) {
+                writeBlock();
+            }
+        }
+
+        /**
+         * 编码当前块，连同块头追加到输出
+         */
+        private void writeBlock() {
+            block.reset();
+            for (int i = 0; i < blockPostings; i++) {
+                values[i] = docIds[i] - previousDocId;
+                previousDocId = docIds[i];
+            }
+            writeInts(block, values, blockPostings);
+            writeInts(block, freqs, blockPostings);
+            int flags = 0;
+            for (int i = 0; i < blockPostings; i++) {
+                if (freqs[i] != counts[i]) {
+                    flags |= FLAG_COUNTS;
+                }
+            }
+            block.writeVInt(flags);
+            if ((flags & FLAG_COUNTS) != 0) {
+                writeInts(block, counts, blockPostings);
+            }
+            writeInts(block, positionGaps, blockPositions);
+            out.writeVInt(previousDocId);
+            out.writeVInt(block.size());
+            out.write(block.array(), 0, block.size());
+            blockPostings = 0;
+            blockPositions = 0;
+        }
+    }
+
+    /**
+     * 从缓冲区的当前位置解码PostingList，解码后缓冲区位置移到编码的末尾
+     * @param in ：缓冲区
+     * @return ：PostingList
+     */
+    public static IntPostingList decode(ByteBuffer in) {
+        int size = readVInt(in);
+        int total = readVInt(in);
+        if (size < 0 || total < 0) {
+            throw new IllegalStateException("PostingList编码已损坏");
+        }
+        int[] docIds = new int[size];
+        int[] freqs = new int[size];
+        int[] offsets = new int[size + 1];
+        int[] positions = new int[total];
+        int[] counts = new int[BLOCK_SIZE];
+        int previousDocId = 0;
+        for (int start = 0; start < size; start += BLOCK_SIZE) {
+            int n = Math.min(BLOCK_SIZE, size - start);
+            readVInt(in);
+            readVInt(in);
+            readInts(in, docIds, start, n);
+            for (int i = start; i < start + n; i++) {
+                previousDocId += docIds[i];
+                docIds[i] = previousDocId;
+            }
+            readInts(in, freqs, start, n);
+            int flags = readVInt(in);
+            if ((flags & FLAG_COUNTS) != 0) {
+                readInts(in, counts, 0, n);
+            } else {
+                System.arraycopy(freqs, start, counts, 0, n);
+            }
+            int blockPositions = 0;
+            for (int i = 0; i < n; i++) {
+                offsets[start + i + 1] = offsets[start + i] + counts[i];
+                blockPositions += counts[i];
+            }
+            int first = offsets[start];
+            if (first + blockPositions > total) {
+                throw new IllegalStateException("PostingList编码已损坏");
+            }
+            readInts(in, positions, first, blockPositions);
+            for (int i = start; i < start + n; i++) {
+                int position = 0;
+                for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+                    position += positions[j];
+                    positions[j] = position;
+                }
+            }
+        }
+        return new IntPostingList(size, docIds, freqs, offsets, positions);
+    }
+
+    /**
+     * <pre>
+     * BlockReader按块读取编码的PostingList.
+     *      nextBlock只读块头(块内最后一个docId和块的字节数)，移到下一块，不解码块的内容;
+     *      decode解码当前块的docId和freq，位置到第一次调用positions时才解码.
+     *      读的是构造时传入的缓冲区，调用者不能再改变它的位置
+     * </pre>
+     */
+    static final class BlockReader {
+        private final ByteBuffer in;
+        private final int size;
+
+        /**
+         * 下一块的第一个Posting的下标
+         */
+        private int next = 0;
+
+        /**
+         * 当前块的Posting个数和最后一个docId，上一块的最后一个docId
+         */
+        private int count = 0;
+        private int lastDocId = 0;
+        private int previousLastDocId = 0;
+
+        /**
+         * 当前块内容的开头、位置差值的开头和下一块的开头在缓冲区里的位置
+         */
+        private int contentPosition;
+        private int positionsPosition;
+        private int nextPosition;
+
+        private boolean decoded = false;
+        private final int[] docIds = new int[BLOCK_SIZE];
+        private final int[] freqs = new int[BLOCK_SIZE];
+        private final int[] counts = new int[BLOCK_SIZE];
+        private final int[] offsets = new int[BLOCK_SIZE + 1];
+
+        /**
+         * 当前块解码出的位置，每块新建一个数组，之前返回的位置列表不受影响；还没有解码时为null
+         */
+        private int[] positions = null;
+
+        /**
+         * 构造函数
+         * @param in ：缓冲区，位置在第一块的块头，即Posting个数和位置总数之后
+         * @param size ：Posting个数
+         */
+        BlockReader(ByteBuffer in, int size) {
+            this.in = in;
+            this.size = size;
+            this.nextPosition = in.position();
+        }
+
+        /**
+         * 读下一块的块头，不解码块的内容
+         * @return ：没有下一块时返回false
+         */
+        boolean nextBlock() {
+            if (next >= size) {
+                count = 0;
+                return false;
+            }
+            in.position(nextPosition);
+            previousLastDocId = lastDocId;
+            lastDocId = readVInt(in);
+            int length = readVInt(in);
+            if (length < 0 || length > in.remaining()) {
+                throw new IllegalStateException("PostingList编码已损坏");
+            }
+            contentPosition = in.position();
+            nextPosition = contentPosition + length;
+            count = Math.min(BLOCK_SIZE, size - next);
+            next += count;
+            decoded = false;
+            positions = null;
+            return true;
+        }
+
+        /**
+         * 解码当前块的docId和freq，已经解码过时不做任何事
+         */
+        void decode() {
+            if (decoded) {
+                return;
+            }
+            in.position(contentPosition);
+            readInts(in, docIds, 0, count);
+            int docId = previousLastDocId;
+            for (int i = 0; i < count; i++) {
+                docId += docIds[i];
+                docIds[i] = docId;
+            }
+            readInts(in, freqs, 0, count);
+            int flags = readVInt(in);
+            if ((flags & FLAG_COUNTS) != 0) {
+                readInts(in, counts, 0, count);
+            } else {
+                System.arraycopy(freqs, 0, counts, 0, count);
+            }
+            for (int i = 0; i < count; i++) {
+                offsets[i + 1] = offsets[i] + counts[i];
+            }
+            positionsPosition = in.position();
+            if (positionsPosition > nextPosition) {
+                throw new IllegalStateException("PostingList编码已损坏");
+            }
+            decoded = true;
+        }
+
+        /**
+         * 当前块的Posting个数；还没有读块头或已经读完时为0
+         */
+        int count() {
+            return count;
+        }
+
+        /**
+         * 当前块的最后一个docId(来自块头，不需要解码)
+         */
+        int lastDocId() {
+            return lastDocId;
+        }
+
+        /**
+         * 当前块第i个Posting的docId，调用前必须decode
+         */
+        int docId(int i) {
+            return docIds[i];
+        }
+
+        /**
+         * 当前块第i个Posting的freq，调用前必须decode
+         */
+        int freq(int i) {
+            return freqs[i];
+        }
+
+        /**
+         * 当前块第i个Posting的位置在positions()里的起始下标和个数，调用前必须decode
+         */
+        int positionStart(int i) {
+            return offsets[i];
+        }
+
+        int positionCount(int i) {
+            return counts[i];
+        }
+
+        /**
+         * 当前块所有Posting的位置，第一次调用时解码. 调用前必须decode
+         * @return ：位置数组，第i个Posting的位置从positionStart(i)开始
+         */
+        int[] positions() {
+            if (positions == null) {
+                int[] result = new int[offsets[count]];
+                in.position(positionsPosition);
+                readInts(in, result, 0, result.length);
+                if (in.position() > nextPosition) {
+                    throw new IllegalStateException("PostingList编码已损坏");
+                }
+                for (int i = 0; i < count; i++) {
+                    int position = 0;
+                    for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+                        position += result[j];
+                        result[j] = position;
+                    }
+                }
+                positions = result;
+            }
+            return positions;
+        }
+    }
+
+    /**
+     * 编码一组非负整数：每满128个用PFor，剩余的用VByte
+     * @param out ：输出
+     * @param values ：数值
+     * @param count ：个数
+     */
+    static void writeInts(ByteSink out, int[] values, int count) {
+        int i = 0;
+        for (; i + BLOCK_SIZE <= count; i += BLOCK_SIZE) {
+            writePFor(out, values, i);
+        }
+        for (; i < count; i++) {
+            out.writeVInt(values[i]);
+        }
+    }
+
+    /**
+     * 解码writeInts编码的一组整数
+     * @param in ：输入
+     * @param values ：存放解码结果
+     * @param offset ：存放的起始下标
+     * @param count ：个数
+     */
+    static void readInts(ByteBuffer in, int[] values, int offset, int count) {
+        int i = 0;
+        for (; i + BLOCK_SIZE <= count; i += BLOCK_SIZE) {
+            readPFor(in, values, offset + i);
+        }
+        for (; i < count; i++) {
+            values[offset + i] = readVInt(in);
+        }
+    }
+
+    /**
+     * 用PFor编码128个值. 选使总字节数最少的位宽，超出位宽的值作为例外单独保存高位
+     * @param out ：输出
+     * @param values ：数值
+     * @param offset ：起始下标
+     */
+    private static void writePFor(ByteSink out, int[] values, int offset) {
+        int[] histogram = new int[33];
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            histogram[32 - Integer.numberOfLeadingZeros(values[offset + i])]++;
+        }
+        // 位宽为b时的例外个数是位数大于b的值的个数，每个例外约占3字节
+        int bits = 32;
+        int bestCost = Integer.MAX_VALUE;
+        int exceptions = 0;
+        for (int b = 32; b >= 0; b--) {
+            int cost = BLOCK_SIZE / 8 * b + exceptions * 3;
+            if (cost < bestCost) {
+                bestCost = cost;
+                bits = b;
+            }
+            exceptions += histogram[b];
+        }
+        int exceptionCount = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            if (bits < 32 && values[offset + i] >>> bits != 0) {
+                exceptionCount++;
+            }
+        }
+        out.write(bits);
+        out.write(exceptionCount);
+        long mask = bits == 32 ? 0xFFFFFFFFL : (1L << bits) - 1;
+        long buffer = 0;
+        int buffered = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            buffer |= (values[offset + i] & mask) << buffered;
+            buffered += bits;
+            while (buffered >= 8) {
+                out.write((int) buffer);
+                buffer >>>= 8;
+                buffered -= 8;
+            }
+        }
+        for (int i = 0; i < BLOCK_SIZE && exceptionCount > 0; i++) {
+            if (bits < 32 && values[offset + i] >>> bits != 0) {
+                out.write(i);
+                out.writeVInt(values[offset + i] >>> bits);
+            }
+        }
+    }
+
+    /**
+     * 解码writePFor编码的128个值
+     * @param in ：输入
+     * @param values ：存放解码结果
+     * @param offset ：存放的起始下标
+     */
+    private static void readPFor(ByteBuffer in, int[] values, int offset) {
+        int bits = in.get() & 0xFF;
+        int exceptionCount = in.get() & 0xFF;
+        if (bits > 32 || exceptionCount > BLOCK_SIZE) {
+            throw new IllegalStateException("PostingList编码已损坏");
+        }
+        long mask = bits == 32 ? 0xFFFFFFFFL : (1L << bits) - 1;
+        long buffer = 0;
+        int buffered = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            while (buffered < bits) {
+                buffer |= (long) (in.get() & 0xFF) << buffered;
+                buffered += 8;
+            }
+            values[offset + i] = (int) (buffer & mask);
+            buffer >>>= bits;
+            buffered -= bits;
+        }
+        for (int e = 0; e < exceptionCount; e++) {
+            int i = in.get() & 0xFF;
+            if (i >= BLOCK_SIZE) {
+                throw new IllegalStateException("PostingList编码已损坏");
+            }
+            values[offset + i] |= readVInt(in) << bits;
+        }
+    }
+
+    /**
+     * 读取一个VByte编码的int
+     * @param in ：输入
+     * @return ：数值
+     */
+    static int readVInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("VByte编码已损坏");
+    }
+
+    /**
+     * 可以扩容的字节数组输出，不加锁
+     */
+    static final class ByteSink {
+        private byte[] bytes;
+        private int size = 0;
+
+        ByteSink(int capacity) {
+            bytes = new byte[Math.max(16, capacity)];
+        }
+
+        void write(int b) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, size * 2);
+            }
+            bytes[size++] = (byte) b;
+        }
+
+        void write(byte[] source, int offset, int length) {
+            if (size + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(size + length, bytes.length * 2));
+            }
+            System.arraycopy(source, offset, bytes, size, length);
+            size += length;
+        }
+
+        /**
+         * 写一个VByte编码的int，每个字节保存7位，最高位为1表示后面还有字节
+         * @param value ：数值，按无符号数处理
+         */
+        void writeVInt(int value) {
+            while ((value & ~0x7F) != 0) {
+                write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+
+        void reset() {
+            size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        byte[] array() {
+            return bytes;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+}
@@ -0,0 +1,495 @@
+package hust.cs.javacourse.search.index.impl;
+
+import hust.cs.javacourse.search.index.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * <pre>
+ * SegmentedIndex是由一个基础索引和若干增量索引组成的索引.
+ *      基础索引保存在索引文件里，第n个增量索引保存在同目录下的"索引文件名.n"里(n从1开始).
+ *      各个文件通过IndexCommit一起提交，提交文件里记录有效的增量索引个数.
+ *      后面的段里的docId都大于前面的段，查询时按段的顺序拼接各段的PostingList(见SegmentedPostingList)，
+ *      不复制Posting，结果仍按docId有序.
+ *      被删除或被修改的文档不从段里删除，只记录为已删除(墓碑)，保存在"索引文件名.del"里，查询时用BitSet过滤掉;
+ *      合并增量索引时才真正去掉它们.
+ *      docIdToDocPathMapping是所有段的并集; termToPostingListMapping不使用，单词都保存在各个段里.
+ * </pre>
+ */
+public class SegmentedIndex extends AbstractIndex {
+    /**
+     * 按docId从小到大排列的各个段，第一个是基础索引
+     */
+    private final List<Index> segments = new ArrayList<>();
+
+    /**
+     * 已删除的docId
+     */
+    private final BitSet deletedDocs = new BitSet();
+
+    /**
+     * 下一个可用的docId. 删除文档后docId也不会重复使用
+     */
+    private int nextDocId = 0;
+
+    public SegmentedIndex() {
+    }
+
+    /**
+     * 返回第n个增量索引的文件
+     * @param indexFile ：基础索引文件
+     * @param n ：增量索引序号，从1开始
+     * @return ：增量索引文件
+     */
+    public static File deltaFile(File indexFile, int n) {
+        return new File(indexFile.getPath() + "." + n);
+    }
+
+    /**
+     * 返回保存已删除docId的文件
+     * @param indexFile ：基础索引文件
+     * @return ：已删除docId的文件
+     */
+    public static File deletionFile(File indexFile) {
+        return new File(indexFile.getPath() + ".del");
+    }
+
+    /**
+     * <pre>
+     * 判断索引文件是否只有基础索引，没有增量索引和已删除的文档，可以直接用MappedIndex打开.
+     *      先完成上一次没有做完的提交
+     * @param indexFile ：基础索引文件
+     * @return ：只有基础索引返回true
+     * </pre>
+     */
+    public static boolean isSingleSegment(File indexFile) throws IOException {
+        int deltaCount = IndexCommit.recover(indexFile);
+        boolean noDeltas = deltaCount < 0 ? !deltaFile(indexFile, 1).isFile() : deltaCount == 0;
+        return noDeltas && !deletionFile(indexFile).isFile();
+    }
+
+    /**
+     * <pre>
+     * 在最后追加一个段.
+     *      要求segment里的docId都大于已有各段的docId
+     * @param segment ：追加的段
+     * </pre>
+     */
+    public void addSegment(Index segment) {
+        segments.add(segment);
+        docIdToDocPathMapping.putAll(segment.docIdToDocPathMapping);
+        if (!segment.docIdToDocPathMapping.isEmpty()) {
+            int last = ((TreeMap<Integer, String>) segment.docIdToDocPathMapping).lastKey();
+            nextDocId = Math.max(nextDocId, last + 1);
+        }
+    }
+
+    /**
+     * <pre>
+     * 删除指定路径的文档. 文档仍然留在段里，只是查询时不再返回
+     * @param docPaths ：要删除的文档路径
+     * @return ：删除的文档数
+     * </pre>
+     */
+    public int deleteDocuments(Collection<String> docPaths) {
+        Set<String> paths = new HashSet<>(docPaths);
+        int count = 0;
+        Iterator<Map.Entry<Integer, String>> it = docIdToDocPathMapping.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, String> entry = it.next();
+            if (paths.contains(entry.getValue())) {
+                deletedDocs.set(entry.getKey());
+                it.remove();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 已删除的文档数
+     * @return ：已删除的文档数
+     */
+    public int deletedCount() {
+        return deletedDocs.cardinality();
+    }
+
+    /**
+     * 段的个数
+     * @return ：段的个数，包括基础索引
+     */
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * 返回第i个段
+     * @param i ：段的下标，0是基础索引
+     * @return ：段
+     */
+    Index segment(int i) {
+        return segments.get(i);
+    }
+
+    /**
+     * 下一个可用的docId，即已有的最大docId加1
+     * @return ：下一个可用的docId；空索引返回0
+     */
+    public int nextDocId() {
+        return nextDocId;
+    }
+
+    /**
+     * <pre>
+     * 复制一个新的SegmentedIndex，与当前索引共用各个段.
+     *      在副本上删除文档、追加段不影响当前索引，可以在后台准备好新的索引后再整体替换给检索器;
+     *      追加到副本的段和共用的段都不应该再被修改
+     * @return ：副本
+     * </pre>
+     */
+    public SegmentedIndex snapshot() {
+        SegmentedIndex copy = new SegmentedIndex();
+        copy.segments.addAll(segments);
+        copy.deletedDocs.or(deletedDocs);
+        copy.docIdToDocPathMapping.putAll(docIdToDocPathMapping);
+        copy.nextDocId = nextDocId;
+        return copy;
+    }
+
+    /**
+     * <pre>
+     * 返回一个新的SegmentedIndex，所有增量索引合并成一个段，其中不再包含已删除的文档.
+     *      基础索引里有已删除的文档时也重新生成一个去掉它们的基础索引，否则基础索引不变(用baseChanged判断).
+     *      合并后的索引里已经没有已删除的文档，只保留最大的已删除docId(如果它比所有文档的docId都大)，
+     *      这样重新加载后docId仍然不会重复使用. 当前索引不受影响
+     * @return ：合并增量后的索引
+     * </pre>
+     */
+    public SegmentedIndex mergeDeltas() {
+        SegmentedIndex merged = new SegmentedIndex();
+        if (segments.isEmpty()) {
+            return merged;
+        }
+        Index base = segments.get(0);
+        merged.segments.add(containsDeleted(base) ? mergeSegments(segments.subList(0, 1)) : base);
+        if (segments.size() > 1) {
+            merged.segments.add(mergeSegments(segments.subList(1, segments.size())));
+        }
+        int lastDeleted = deletedDocs.length() - 1;
+        if (lastDeleted >= 0 && lastDeleted == nextDocId - 1) {
+            merged.deletedDocs.set(lastDeleted);
+        }
+        merged.docIdToDocPathMapping.putAll(docIdToDocPathMapping);
+        merged.nextDocId = nextDocId;
+        return merged;
+    }
+
+    /**
+     * mergeDeltas是否重新生成了基础索引
+     * @param previous ：调用mergeDeltas的索引
+     * @return ：基础索引与previous的不同返回true
+     */
+    public boolean baseChanged(SegmentedIndex previous) {
+        return !segments.isEmpty() && (previous.segments.isEmpty() || segments.get(0) != previous.segments.get(0));
+    }
+
+    /**
+     * 段里是否有已删除的文档
+     * @param segment ：段
+     * @return ：有返回true
+     */
+    private boolean containsDeleted(Index segment) {
+        for (Integer docId : segment.docIdToDocPathMapping.keySet()) {
+            if (deletedDocs.get(docId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 把若干个段合并成一个新的Index，跳过已删除的文档
+     * @param parts ：按docId顺序排列的段
+     * @return ：合并后的段
+     */
+    private Index mergeSegments(List<Index> parts) {
+        Index merged = new Index();
+        for (Index part : parts) {
+            for (Map.Entry<Integer, String> doc : part.docIdToDocPathMapping.entrySet()) {
+                if (!deletedDocs.get(doc.getKey())) {
+                    merged.docIdToDocPathMapping.put(doc.getKey(), doc.getValue());
+                }
+            }
+            for (Map.Entry<AbstractTerm, AbstractPostingList> entry : part.termToPostingListMapping.entrySet()) {
+                AbstractPostingList list = entry.getValue();
+                AbstractPostingList target = null;
+                for (int i = 0; i < list.size(); i++) {
+                    AbstractPosting posting = list.get(i);
+                    if (deletedDocs.get(posting.getDocId())) {
+                        continue;
+                    }
+                    if (target == null) {
+                        target = merged.termToPostingListMapping.get(entry.getKey());
+                        if (target == null) {
+                            target = new IntPostingList();
+                            merged.termToPostingListMapping.put(entry.getKey(), target);
+                        }
+                    }
+                    target.add(posting);
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * <pre>
+     * 把所有段合并成一个Index，已删除的文档不再包含在内.
+     *      只在一个段出现并且没有已删除文档的单词与该段共用PostingList，合并后的索引只应该用于读取和保存
+     * @return ：合并后的索引
+     * </pre>
+     */
+    public Index compact() {
+        Index merged = new Index();
+        merged.docIdToDocPathMapping.putAll(docIdToDocPathMapping);
+        for (AbstractTerm term : getDictionary()) {
+            AbstractPostingList list = search(term);
+            if (list instanceof SegmentedPostingList) {
+                list = ((SegmentedPostingList) list).toIntPostingList();
+            }
+            if (list != null) {
+                merged.termToPostingListMapping.put(term, list);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * 返回索引的字符串表示，与合并成一个Index后的字符串表示相同
+     * @return 索引的字符串表示
+     */
+    @Override
+    public String toString() {
+        return compact().toString();
+    }
+
+    /**
+     * 添加文档到最后一个段，最后一个段已经封存时新建一个段. 文档的docId必须大于已有的docId
+     * @param document ：文档的AbstractDocument子类型表示
+     */
+    @Override
+    public void addDocument(AbstractDocument document) {
+        if (segments.isEmpty() || segments.get(segments.size() - 1).isSealed()) {
+            segments.add(new Index());
+        }
+        segments.get(segments.size() - 1).addDocument(document);
+        docIdToDocPathMapping.put(document.getDocId(), document.getDocPath());
+        nextDocId = Math.max(nextDocId, document.getDocId() + 1);
+    }
+
+    /**
+     * <pre>
+     * 加载基础索引文件及其后依次编号的增量索引文件，遇到第一个不存在的编号为止，
+     * 然后加载已删除的docId
+     * @param file ：基础索引文件
+     * </pre>
+     */
+    @Override
+    public void load(File file) throws IOException {
+        clear();
+        int deltaCount = IndexCommit.recover(file);
+        Index base = new Index();
+        base.load(file);
+        addSegment(base);
+        // 没有提交文件的旧索引加载到第一个不存在的编号为止
+        for (int n = 1; deltaCount < 0 ? deltaFile(file, n).isFile() : n <= deltaCount; n++) {
+            Index delta = new Index();
+            delta.load(deltaFile(file, n));
+            addSegment(delta);
+        }
+        File deletions = deletionFile(file);
+        if (deletions.isFile()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(deletions)))) {
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    int docId = in.readInt();
+                    deletedDocs.set(docId);
+                    docIdToDocPathMapping.remove(docId);
+                    nextDocId = Math.max(nextDocId, docId + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * 保存已删除的docId，与基础索引文件放在一起
+     * @param file ：基础索引文件
+     */
+    public void saveDeletions(File file) throws IOException {
+        writeDeletions(deletionFile(file));
+    }
+
+    /**
+     * 把已删除docId的文件登记到提交里：有已删除的文档时写出，没有时删除原来的文件
+     * @param commit ：提交
+     * @param file ：基础索引文件
+     */
+    void stageDeletions(IndexCommit commit, File file) throws IOException {
+        if (deletedDocs.isEmpty()) {
+            commit.delete(deletionFile(file));
+        } else {
+            writeDeletions(commit.stage(deletionFile(file)));
+        }
+    }
+
+    /**
+     * 把已删除的docId写到指定文件
+     * @param target ：目标文件
+     */
+    private void writeDeletions(File target) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(target)))) {
+            out.writeInt(deletedDocs.cardinality());
+            for (int docId = deletedDocs.nextSetBit(0); docId >= 0; docId = deletedDocs.nextSetBit(docId + 1)) {
+                out.writeInt(docId);
+            }
+        }
+    }
+
+    /**
+     * 清空所有段和已删除的docId
+     */
+    private void clear() {
+        segments.clear();
+        deletedDocs.clear();
+        docIdToDocPathMapping.clear();
+        nextDocId = 0;
+    }
+
+    /**
+     * <pre>
+     * 把所有段合并后写成一个基础索引文件，并删除该文件原有的增量索引文件和已删除docId的文件.
+     *      这些操作作为一次提交完成(见IndexCommit)
+     * @param file ：写入的目标索引文件
+     * </pre>
+     */
+    @Override
+    public void save(File file) throws IOException {
+        int deltaCount = IndexCommit.recover(file);
+        IndexCommit commit = new IndexCommit(file);
+        compact().save(commit.stage(file));
+        for (int n = 1; n <= deltaCount || deltaFile(file, n).isFile(); n++) {
+            commit.delete(deltaFile(file, n));
+        }
+        commit.delete(deletionFile(file));
+        commit.commit(0);
+    }
+
+    /**
+     * <pre>
+     * 返回指定单词的PostingList.
+     *      只有一个段包含该单词并且其中没有已删除的文档时直接返回该段的PostingList，
+     *      否则返回按段的顺序拼接、过滤掉已删除文档的只读视图(SegmentedPostingList)，不复制Posting
+     * @param term : 指定的单词
+     * @return ：指定单词的PostingList;如果索引字典没有该单词或者只在已删除的文档里出现，则返回null
+     * </pre>
+     */
+    @Override
+    public AbstractPostingList search(AbstractTerm term) {
+        List<AbstractPostingList> parts = new ArrayList<>(2);
+        boolean filter = false;
+        for (Index segment : segments) {
+            AbstractPostingList list = segment.search(term);
+            if (list == null || list.isEmpty()) {
+                continue;
+            }
+            parts.add(list);
+            filter |= containsDeleted(list);
+        }
+        if (parts.isEmpty()) {
+            return null;
+        }
+        if (parts.size() == 1 && !filter) {
+            return parts.get(0);
+        }
+        AbstractPostingList result = new SegmentedPostingList(parts, filter ? deletedDocs : null);
+        return result.isEmpty() ? null : result;
+    }
+
+    /**
+     * PostingList的docId范围里是否有已删除的文档
+     * @param list ：按docId排好序的非空PostingList
+     * @return ：有返回true
+     */
+    private boolean containsDeleted(AbstractPostingList list) {
+        int first = list.get(0).getDocId();
+        int next = deletedDocs.nextSetBit(first);
+        return next >= 0 && next <= list.get(list.size() - 1).getDocId();
+    }
+
+    /**
+     * 返回索引的字典.字典为所有段的单词的并集，不包括只在已删除文档里出现的单词
+     * @return ：索引中Term列表
+     */
+    @Override
+    public Set<AbstractTerm> getDictionary() {
+        Set<AbstractTerm> set = new HashSet<>();
+        for (Index segment : segments) {
+            set.addAll(segment.termToPostingListMapping.keySet());
+        }
+        if (!deletedDocs.isEmpty()) {
+            set.removeIf(term -> search(term) == null);
+        }
+        return set;
+    }
+
+    /**
+     * 封存每个段(见Index.seal)，之后添加的文档放在新的段里
+     */
+    public void seal() {
+        for (Index segment : segments) {
+            segment.seal();
+        }
+    }
+
+    /**
+     * 对每个段分别优化
+     */
+    @Override
+    public void optimize() {
+        for (Index segment : segments) {
+            segment.optimize();
+        }
+    }
+
+    /**
+     * 根据docId获得对应文档的完全路径名
+     * @param docId ：文档id
+     * @return : 对应文档的完全路径名
+     */
+    @Override
+    public String getDocName(int docId) {
+        return docIdToDocPathMapping.get(docId);
+    }
+
+    /**
+     * 把所有段合并后写到二进制文件
+     * @param out :输出流对象
+     */
+    @Override
+    public void writeObject(ObjectOutputStream out) {
+        compact().writeObject(out);
+    }
+
+    /**
+     * 从二进制文件读入，作为唯一的段
+     * @param in ：输入流对象
+     */
+    @Override
+    public void readObject(ObjectInputStream in) {
+        Index base = new Index();
+        base.readObject(in);
+        clear();
+        addSegment(base);
+    }
+}
@@ -0,0 +1,283 @@
+package hust.cs.javacourse.search.index.impl;
+
+import hust.cs.javacourse.search.index.AbstractPosting;
+import hust.cs.javacourse.search.index.AbstractPostingList;
+import hust.cs.javacourse.search.index.AbstractPostingsIterator;
+
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <pre>
+ * SegmentedPostingList是SegmentedIndex查询结果的只读PostingList，按段的顺序拼接各段的PostingList，不复制Posting.
+ *      已删除的文档记录在BitSet里，遍历时跳过.
+ *      iterator依次遍历各段的迭代器，advance直接调用所在段的迭代器的advance，各段的跳块能力不受影响;
+ *      get、indexOf等按下标访问的方法第一次调用时才把过滤后的Posting复制成一个IntPostingList.
+ *      add、remove等修改操作抛出UnsupportedOperationException; Posting已经按docId排好序，sort不做任何事.
+ *      序列化时替换成复制出的IntPostingList
+ * </pre>
+ */
+final class SegmentedPostingList extends AbstractPostingList {
+    /**
+     * 按docId从小到大排列的各段的PostingList
+     */
+    private final transient AbstractPostingList[] parts;
+
+    /**
+     * 已删除的docId；为null时不过滤
+     */
+    private final transient BitSet deleted;
+
+    /**
+     * 过滤后的Posting个数，还没有统计时为-1
+     */
+    private transient int size = -1;
+
+    /**
+     * 按下标访问时复制出的PostingList
+     */
+    private transient IntPostingList copy = null;
+
+    /**
+     * 构造函数
+     * @param parts ：各段的PostingList，后面的段的docId都大于前面的段
+     * @param deleted ：已删除的docId，遍历期间不能修改；为null时不过滤
+     */
+    SegmentedPostingList(List<AbstractPostingList> parts, BitSet deleted) {
+        // 不使用父类的list
+        this.list = Collections.emptyList();
+        this.parts = parts.toArray(new AbstractPostingList[0]);
+        this.deleted = deleted;
+    }
+
+    /**
+     * 把过滤后的Posting复制成IntPostingList
+     * @return ：复制出的PostingList
+     */
+    IntPostingList toIntPostingList() {
+        if (copy == null) {
+            IntPostingList result = new IntPostingList();
+            AbstractPostingsIterator it = iterator();
+            while (it.nextDoc() != AbstractPostingsIterator.NO_MORE_DOCS) {
+                result.add(it.posting());
+            }
+            copy = result;
+        }
+        return copy;
+    }
+
+    /**
+     * 获得PosingList的字符串表示，与复制出的IntPostingList相同
+     * @return ： PosingList的字符串表示
+     */
+    @Override
+    public String toString() {
+        return toIntPostingList().toString();
+    }
+
+    @Override
+    public void add(AbstractPosting posting) {
+        throw new UnsupportedOperationException("SegmentedPostingList是只读的");
+    }
+
+    @Override
+    public void add(List<AbstractPosting> postings) {
+        throw new UnsupportedOperationException("SegmentedPostingList是只读的");
+    }
+
+    @Override
+    public AbstractPosting get(int index) {
+        return toIntPostingList().get(index);
+    }
+
+    @Override
+    public int indexOf(AbstractPosting posting) {
+        return toIntPostingList().indexOf(posting);
+    }
+
+    @Override
+    public int indexOf(int docId) {
+        return toIntPostingList().indexOf(docId);
+    }
+
+    @Override
+    public boolean contains(AbstractPosting posting) {
+        return indexOf(posting) >= 0;
+    }
+
+    @Override
+    public void remove(int index) {
+        throw new UnsupportedOperationException("SegmentedPostingList是只读的");
+    }
+
+    @Override
+    public void remove(AbstractPosting posting) {
+        throw new UnsupportedOperationException("SegmentedPostingList是只读的");
+    }
+
+    /**
+     * 返回过滤后的Posting个数. 有已删除的文档时第一次调用要遍历一遍
+     * @return ：Posting个数
+     */
+    @Override
+    public int size() {
+        if (size < 0) {
+            int count = 0;
+            if (deleted == null) {
+                for (AbstractPostingList part : parts) {
+                    count += part.size();
+                }
+            } else {
+                AbstractPostingsIterator it = iterator();
+                while (it.nextDoc() != AbstractPostingsIterator.NO_MORE_DOCS) {
+                    count++;
+                }
+            }
+            size = count;
+        }
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("SegmentedPostingList是只读的");
+    }
+
+    /**
+     * 是否没有未删除的Posting，找到第一个未删除的Posting就返回
+     * @return 为空返回true;否则返回false
+     */
+    @Override
+    public boolean isEmpty() {
+        return size == 0 || iterator().nextDoc() == AbstractPostingsIterator.NO_MORE_DOCS;
+    }
+
+    /**
+     * 各段的PostingList已经排好序，不需要排序
+     */
+    @Override
+    public void sort() {
+    }
+
+    /**
+     * 返回依次遍历各段、跳过已删除文档的迭代器
+     * @return ：迭代器
+     */
+    @Override
+    public AbstractPostingsIterator iterator() {
+        return new SegmentedIterator();
+    }
+
+    /**
+     * 写到二进制文件，与复制出的IntPostingList相同
+     * @param out :输出流对象
+     */
+    @Override
+    public void writeObject(ObjectOutputStream out) {
+        toIntPostingList().writeObject(out);
+    }
+
+    /**
+     * 只读的PostingList不能从文件读入
+     * @param in ：输入流对象
+     */
+    @Override
+    public void readObject(ObjectInputStream in) {
+        throw new UnsupportedOperationException("SegmentedPostingList是只读的");
+    }
+
+    private Object writeReplace() {
+        return toIntPostingList();
+    }
+
+    /**
+     * 依次遍历各段的迭代器，跳过已删除的文档
+     */
+    private final class SegmentedIterator extends AbstractPostingsIterator {
+        private final AbstractPostingsIterator[] iterators = new AbstractPostingsIterator[parts.length];
+        private int part = 0;
+        private int doc = -1;
+
+        SegmentedIterator() {
+            for (int i = 0; i < parts.length; i++) {
+                iterators[i] = parts[i].iterator();
+            }
+        }
+
+        @Override
+        public int docId() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() {
+            return skipDeleted(next());
+        }
+
+        @Override
+        public int advance(int target) {
+            if (doc >= target) {
+                return doc;
+            }
+            int next = NO_MORE_DOCS;
+            while (part < iterators.length && (next = iterators[part].advance(target)) == NO_MORE_DOCS) {
+                part++;
+            }
+            return skipDeleted(next);
+        }
+
+        /**
+         * 当前段的下一个Posting，当前段遍历完了转到下一段
+         * @return ：docId；所有段都遍历完了返回NO_MORE_DOCS
+         */
+        private int next() {
+            while (part < iterators.length) {
+                int next = iterators[part].nextDoc();
+                if (next != NO_MORE_DOCS) {
+                    return next;
+                }
+                part++;
+            }
+            return NO_MORE_DOCS;
+        }
+
+        private int skipDeleted(int next) {
+            while (deleted != null && next != NO_MORE_DOCS && deleted.get(next)) {
+                next = next();
+            }
+            doc = next;
+            return doc;
+        }
+
+        @Override
+        public int freq() {
+            return iterators[part].freq();
+        }
+
+        @Override
+        public List<Integer> positions() {
+            return iterators[part].positions();
+        }
+
+        @Override
+        public AbstractPosting posting() {
+            return iterators[part].posting();
+        }
+
+        /**
+         * 各段Posting个数之和，不扣除已删除的文档，只用于选择由哪个迭代器驱动求交集
+         * @return ：Posting个数
+         */
+        @Override
+        public int size() {
+            int count = 0;
+            for (AbstractPostingList part : parts) {
+                count += part.size();
+            }
+            return count;
+        }
+    }
+}
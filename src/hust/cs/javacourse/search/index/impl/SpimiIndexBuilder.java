@@ -0,0 +1,354 @@
+package hust.cs.javacourse.search.index.impl;
+
+import hust.cs.javacourse.search.index.*;
+import hust.cs.javacourse.search.util.Config;
+import hust.cs.javacourse.search.util.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * <pre>
+ * SpimiIndexBuilder是单遍内存索引(SPIMI, Single-Pass In-Memory Indexing)构造器，用于构建大于堆内存的索引.
+ *      文档依次加入内存中的部分索引，估算的内存占用达到预算后，把部分索引按单词排序写成一个磁盘上的有序段(run)，
+ *      然后清空内存继续; 全部文档处理完后，对所有有序段做多路归并，顺序写出最终的索引文件.
+ *      Config.MAPPED_INDEX_FORMAT为true时最终索引文件是IndexFile格式，IndexSearcher可以用MappedIndex直接映射，
+ *      归并时内存里只有单词字典和当前一块Posting; 为false时是PostingRunFile格式.
+ *      两种格式Index.load都可以直接加载.
+ *      每个部分索引有自己的单词字典，写出有序段时与部分索引一起丢弃，单词字典的大小也计入内存预算.
+ * </pre>
+ */
+public class SpimiIndexBuilder extends AbstractIndexBuilder {
+    /**
+     * 估算内存占用时，一个新单词(Term、String、TreeMap节点和PostingList)的字节数，不含单词内容
+     */
+    private static final int TERM_BYTES = 160;
+
+    /**
+     * 估算内存占用时，单词字典里一个单词(HashMap结点、Integer、id数组和线程缓存的槽位)的字节数，
+     * 不含线程缓存里单词字符的副本
+     */
+    private static final int DICTIONARY_BYTES = 112;
+
+    /**
+     * 估算内存占用时，部分索引的IntPostingList里一个Posting的字节数，不含位置:
+     * docId、freq、位置起始下标三个int，数组按两倍扩容，最多有一半空闲
+     */
+    private static final int POSTING_BYTES = 24;
+
+    /**
+     * 估算内存占用时，IntPostingList里一个位置的字节数：一个int，数组最多有一半空闲
+     */
+    private static final int POSITION_BYTES = 8;
+
+    /**
+     * 内存预算(字节)
+     */
+    private final long memoryBudget;
+
+    /**
+     * 文档内容文件；为null时不保存文档内容
+     */
+    private File storeFile = null;
+
+    /**
+     * 构造函数，内存预算由Config.SPIMI_MEMORY_BUDGET指定
+     * @param docBuilder ：Document构造器
+     */
+    public SpimiIndexBuilder(AbstractDocumentBuilder docBuilder) {
+        this(docBuilder, Config.SPIMI_MEMORY_BUDGET);
+    }
+
+    /**
+     * 构造函数
+     * @param docBuilder ：Document构造器
+     * @param memoryBudget ：内存中部分索引的预算(字节)
+     */
+    public SpimiIndexBuilder(AbstractDocumentBuilder docBuilder, long memoryBudget) {
+        super(docBuilder);
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * <pre>
+     * 设置文档内容文件. 设置后buildIndex同时把每个文档的内容压缩保存到该文件(见DocumentStore)，
+     *      每个文件只读一次. 通常为DocumentStore.storeFile(索引文件)
+     * @param storeFile ：文档内容文件；为null时不保存文档内容
+     * </pre>
+     */
+    public void setDocumentStore(File storeFile) {
+        this.storeFile = storeFile;
+    }
+
+    /**
+     * <pre>
+     * 构建指定目录下的所有文本文件的倒排索引，并加载到内存返回.
+     *      构建时内存占用受预算限制，但返回的索引仍然整个在内存中;
+     *      索引大于堆内存时应该使用buildIndex(String, File)只生成索引文件.
+     * @param rootDirectory ：指定目录
+     * @return ：构建好的索引
+     * </pre>
+     */
+    @Override
+    public AbstractIndex buildIndex(String rootDirectory) {
+        Index index = new Index();
+        try {
+            File indexFile = File.createTempFile("spimi", ".dat");
+            try {
+                buildIndex(rootDirectory, indexFile);
+                index.load(indexFile);
+            } finally {
+                indexFile.delete();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return index;
+    }
+
+    /**
+     * <pre>
+     * 构建指定目录下的所有文本文件的倒排索引，直接写到索引文件.
+     *      有序段写在索引文件所在目录，归并完成后删除.
+     * @param rootDirectory ：指定目录
+     * @param indexFile ：目标索引文件
+     * </pre>
+     */
+    public void buildIndex(String rootDirectory, File indexFile) throws IOException {
+        List<String> filePaths = FileUtil.list(rootDirectory);
+        filePaths.sort(String::compareTo);
+        File runDir = indexFile.getAbsoluteFile().getParentFile();
+        List<File> runs = new ArrayList<>();
+        try (DocumentStore.OrderedWriter store = storeFile == null ? null
+                : new DocumentStore.OrderedWriter(new DocumentStore.Writer(storeFile), docId)) {
+            // 每个部分索引用自己的单词字典，写出有序段后一起丢弃，不在整个构建过程中累积所有单词
+            TermDictionary dictionary = new TermDictionary();
+            Index block = newBlock(dictionary);
+            long blockBytes = 0;
+            for (String docPath : filePaths) {
+                AbstractDocument document = DocumentBuilder.build(docBuilder, docId, docPath, new File(docPath),
+                        dictionary, store);
+                Document doc = document instanceof Document ? (Document) document
+                        : new Document(docId, docPath, document.getTuples());
+                blockBytes += estimateBytes(block, doc);
+                block.addDocument(doc);
+                docId++;
+                if (blockBytes >= memoryBudget) {
+                    runs.add(flush(block, runDir));
+                    dictionary = new TermDictionary();
+                    block = newBlock(dictionary);
+                    blockBytes = 0;
+                }
+            }
+            if (runs.isEmpty() || !block.docIdToDocPathMapping.isEmpty()) {
+                runs.add(flush(block, runDir));
+            }
+            merge(runs, indexFile);
+        } finally {
+            for (File run : runs) {
+                run.delete();
+            }
+        }
+    }
+
+    /**
+     * 新建一个批量加载模式的部分索引
+     * @param dictionary ：单词字典
+     * @return ：部分索引
+     */
+    private static Index newBlock(TermDictionary dictionary) {
+        Index block = new Index();
+        block.beginBulkLoad(dictionary);
+        return block;
+    }
+
+    /**
+     * 估算文档加入部分索引后增加的内存占用. 部分索引里的新单词也是它的单词字典里的新单词
+     * @param block ：部分索引
+     * @param doc ：即将加入的文档
+     * @return ：增加的字节数
+     */
+    private static long estimateBytes(Index block, Document doc) {
+        long bytes = 0;
+        for (int slot = 0; slot < doc.getTermCount(); slot++) {
+            bytes += POSTING_BYTES + (long) POSITION_BYTES * doc.getPositions(slot).size();
+            if (!block.containsTerm(doc, slot)) {
+                // 单词内容在Term里和线程缓存里各有一份
+                bytes += TERM_BYTES + DICTIONARY_BYTES + 4L * doc.getTerm(slot).getContent().length();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 把部分索引排序后写成一个有序段
+     * @param block ：部分索引
+     * @param runDir ：有序段所在目录
+     * @return ：有序段文件
+     */
+    private static File flush(Index block, File runDir) throws IOException {
+        block.commitBulkLoad();
+        File run = File.createTempFile("spimi", ".run", runDir);
+        run.deleteOnExit();
+        PostingRunFile.write(block, run);
+        return run;
+    }
+
+    /**
+     * <pre>
+     * 多路归并所有有序段，写出最终索引文件，格式由Config.MAPPED_INDEX_FORMAT决定.
+     *      各有序段的docId区间依次递增，同一个单词在多个有序段里出现时，按有序段的顺序依次复制Posting，
+     *      归并后每个单词的Posting仍按docId有序.
+     * @param runs ：按文档顺序排列的有序段
+     * @param indexFile ：目标索引文件
+     * </pre>
+     */
+    private static void merge(List<File> runs, File indexFile) throws IOException {
+        List<PostingRunFile.Reader> readers = new ArrayList<>();
+        try {
+            for (File run : runs) {
+                readers.add(new PostingRunFile.Reader(run));
+            }
+            if (Config.MAPPED_INDEX_FORMAT) {
+                mergeToIndexFile(readers, indexFile);
+            } else {
+                mergeToRunFile(readers, indexFile);
+            }
+        } finally {
+            for (PostingRunFile.Reader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * 归并成PostingRunFile格式，Posting原样复制
+     * @param readers ：各有序段
+     * @param indexFile ：目标索引文件
+     */
+    private static void mergeToRunFile(List<PostingRunFile.Reader> readers, File indexFile) throws IOException {
+        try (PostingRunFile.Writer writer = new PostingRunFile.Writer(indexFile)) {
+            int docCount = 0;
+            for (PostingRunFile.Reader reader : readers) {
+                docCount += reader.docCount();
+            }
+            writer.writeDocCount(docCount);
+            for (PostingRunFile.Reader reader : readers) {
+                reader.copyDocsTo(writer);
+            }
+            PriorityQueue<Integer> queue = newTermQueue(readers);
+            List<Integer> sameTerm = new ArrayList<>();
+            while (pollSameTerm(queue, readers, sameTerm)) {
+                int postingCount = 0;
+                int positionCount = 0;
+                for (int i : sameTerm) {
+                    postingCount += readers.get(i).postingCount();
+                    positionCount += readers.get(i).positionCount();
+                }
+                writer.startTerm(readers.get(sameTerm.get(0)).term(), postingCount, positionCount);
+                for (int i : sameTerm) {
+                    readers.get(i).copyPostingsTo(writer);
+                }
+                requeue(queue, readers, sameTerm);
+            }
+        }
+    }
+
+    /**
+     * <pre>
+     * 归并成IndexFile格式. 各有序段的文档表依次直接复制到IndexFile的文档表(docId已经递增);
+     *      每个单词的Posting逐个从有序段读出，交给IndexFile.Writer按块编码写出，
+     *      内存里只有单词字典和当前一块Posting，与文档数和PostingList的长度无关
+     * @param readers ：各有序段
+     * @param indexFile ：目标索引文件
+     * </pre>
+     */
+    private static void mergeToIndexFile(List<PostingRunFile.Reader> readers, File indexFile) throws IOException {
+        try (IndexFile.Writer writer = new IndexFile.Writer(indexFile)) {
+            int docCount = 0;
+            for (PostingRunFile.Reader reader : readers) {
+                docCount += reader.docCount();
+            }
+            writer.startDocs(docCount);
+            for (PostingRunFile.Reader reader : readers) {
+                reader.copyDocsTo(writer);
+            }
+            writer.finishDocs();
+            PriorityQueue<Integer> queue = newTermQueue(readers);
+            List<Integer> sameTerm = new ArrayList<>();
+            while (pollSameTerm(queue, readers, sameTerm)) {
+                int postingCount = 0;
+                int positionCount = 0;
+                for (int i : sameTerm) {
+                    postingCount += readers.get(i).postingCount();
+                    positionCount += readers.get(i).positionCount();
+                }
+                writer.startTerm(readers.get(sameTerm.get(0)).term(), postingCount, positionCount);
+                for (int i : sameTerm) {
+                    readers.get(i).copyPostingsTo(writer);
+                }
+                writer.finishTerm();
+                requeue(queue, readers, sameTerm);
+            }
+            writer.commit();
+        }
+    }
+
+    /**
+     * 新建按当前单词排序的有序段优先队列，单词相同时按有序段的顺序，放入所有还有单词的有序段
+     * @param readers ：各有序段
+     * @return ：有序段下标的优先队列
+     */
+    private static PriorityQueue<Integer> newTermQueue(List<PostingRunFile.Reader> readers) throws IOException {
+        PriorityQueue<Integer> queue = new PriorityQueue<>((a, b) -> {
+            int c = readers.get(a).term().compareTo(readers.get(b).term());
+            return c != 0 ? c : Integer.compare(a, b);
+        });
+        for (int i = 0; i < readers.size(); i++) {
+            if (readers.get(i).nextTerm()) {
+                queue.add(i);
+            }
+        }
+        return queue;
+    }
+
+    /**
+     * 取出当前单词最小的所有有序段
+     * @param queue ：有序段优先队列
+     * @param readers ：各有序段
+     * @param sameTerm ：放入取出的有序段下标，按有序段的顺序
+     * @return ：队列已经空了返回false
+     */
+    private static boolean pollSameTerm(PriorityQueue<Integer> queue, List<PostingRunFile.Reader> readers,
+                                        List<Integer> sameTerm) {
+        sameTerm.clear();
+        if (queue.isEmpty()) {
+            return false;
+        }
+        sameTerm.add(queue.poll());
+        String term = readers.get(sameTerm.get(0)).term();
+        while (!queue.isEmpty() && readers.get(queue.peek()).term().equals(term)) {
+            sameTerm.add(queue.poll());
+        }
+        return true;
+    }
+
+    /**
+     * 当前单词的Posting都读完后，把还有单词的有序段放回队列
+     * @param queue ：有序段优先队列
+     * @param readers ：各有序段
+     * @param sameTerm ：取出的有序段下标
+     */
+    private static void requeue(PriorityQueue<Integer> queue, List<PostingRunFile.Reader> readers,
+                                List<Integer> sameTerm) throws IOException {
+        for (int i : sameTerm) {
+            if (readers.get(i).nextTerm()) {
+                queue.add(i);
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package hust.cs.javacourse.search.index.impl;
+
+import hust.cs.javacourse.search.index.AbstractTerm;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <pre>
+ * TermDictionary是构建索引时使用的单词字典，给每个不同的单词分配一个从0开始连续编号的int类型单词id.
+ *      同一个单词在整个构建过程中只有一个Term对象，分词得到的三元组共用它，不再为每次出现创建新的String和Term;
+ *      Document和Index在构建时按单词id聚合和查找PostingList，不需要比较字符串.
+ *      字典可以被多个线程同时使用: 每个线程有自己的缓存，直接用char数组里的一段字符查找单词id，
+ *      只有缓存里没有的单词才创建String并加锁查找全局字典.
+ * </pre>
+ */
+public class TermDictionary {
+    /**
+     * 每个线程的缓存. 一个线程同一时间只缓存一个字典，换用另一个字典时清空
+     */
+    private static final ThreadLocal<Cache> CACHES = ThreadLocal.withInitial(Cache::new);
+
+    /**
+     * 单词内容到单词id的映射
+     */
+    private final Map<String, Integer> ids = new HashMap<>();
+
+    /**
+     * 单词id到Term的映射，只有前size个元素有效.
+     * 扩容时先复制再整体替换，读取不需要加锁
+     */
+    private volatile AbstractTerm[] terms = new AbstractTerm[1024];
+
+    /**
+     * 单词数
+     */
+    private int size = 0;
+
+    public TermDictionary() {
+    }
+
+    /**
+     * 返回单词的id，单词不在字典里时加入字典
+     * @param content ：单词内容
+     * @return ：单词id
+     */
+    public synchronized int intern(String content) {
+        Integer id = ids.get(content);
+        if (id == null) {
+            id = size;
+            AbstractTerm[] array = terms;
+            if (id == array.length) {
+                array = Arrays.copyOf(array, id * 2);
+            }
+            array[id] = new Term(content);
+            terms = array;
+            ids.put(content, id);
+            size++;
+        }
+        return id;
+    }
+
+    /**
+     * 返回单词的id，单词不在字典里时加入字典. 使用当前线程的缓存，缓存命中时不创建String也不加锁
+     * @param buf ：字符数组
+     * @param offset ：单词的起始下标
+     * @param length ：单词的长度
+     * @return ：单词id
+     */
+    public int intern(char[] buf, int offset, int length) {
+        return cache().intern(buf, offset, length);
+    }
+
+    /**
+     * 查找单词的id，不加入字典
+     * @param content ：单词内容
+     * @return ：单词id；不在字典里返回-1
+     */
+    public synchronized int find(String content) {
+        Integer id = ids.get(content);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * 返回单词id对应的Term. 不加锁，单词id必须是本线程从intern得到或者经由线程安全的方式传递过来的
+     * @param id ：单词id
+     * @return ：Term，所有使用者共用同一个对象，不能修改
+     */
+    public AbstractTerm term(int id) {
+        return terms[id];
+    }
+
+    /**
+     * 判断单词id和Term是否来自本字典
+     * @param id ：单词id
+     * @param term ：Term
+     * @return ：term就是本字典里单词id对应的Term对象返回true，否则返回false
+     */
+    public boolean owns(int id, AbstractTerm term) {
+        AbstractTerm[] array = terms;
+        return id >= 0 && id < array.length && array[id] == term;
+    }
+
+    /**
+     * 字典里的单词数，也就是下一个要分配的单词id
+     * @return ：单词数
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * 返回当前线程对本字典的缓存
+     * @return ：缓存
+     */
+    private Cache cache() {
+        Cache cache = CACHES.get();
+        if (cache.owner.get() != this) {
+            cache.reset(this);
+        }
+        return cache;
+    }
+
+    /**
+     * <pre>
+     * 一个线程的单词缓存，开放寻址(线性探测)的哈希表，key为单词的字符，value为单词id.
+     *      只被一个线程使用，不需要加锁; 只保存弱引用，不会因为缓存而让用完的字典无法回收
+     * </pre>
+     */
+    private static class Cache {
+        private static final int INITIAL_CAPACITY = 1 << 10;
+
+        private WeakReference<TermDictionary> owner = new WeakReference<>(null);
+        private char[][] keys;
+        private int[] hashes;
+        private int[] values;
+        private int size;
+
+        void reset(TermDictionary dictionary) {
+            owner = new WeakReference<>(dictionary);
+            keys = new char[INITIAL_CAPACITY][];
+            hashes = new int[INITIAL_CAPACITY];
+            values = new int[INITIAL_CAPACITY];
+            size = 0;
+        }
+
+        int intern(char[] buf, int offset, int length) {
+            int h = 0;
+            for (int i = offset, end = offset + length; i < end; i++) {
+                h = 31 * h + buf[i];
+            }
+            int hash = h ^ (h >>> 16);
+            int mask = keys.length - 1;
+            int slot = hash & mask;
+            while (keys[slot] != null) {
+                if (hashes[slot] == hash && equals(keys[slot], buf, offset, length)) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            char[] key = Arrays.copyOfRange(buf, offset, offset + length);
+            int id = owner.get().intern(new String(key));
+            keys[slot] = key;
+            hashes[slot] = hash;
+            values[slot] = id;
+            if (++size * 2 > keys.length) {
+                grow();
+            }
+            return id;
+        }
+
+        private void grow() {
+            char[][] oldKeys = keys;
+            int[] oldHashes = hashes;
+            int[] oldValues = values;
+            keys = new char[oldKeys.length * 2][];
+            hashes = new int[keys.length];
+            values = new int[keys.length];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    int slot = oldHashes[i] & mask;
+                    while (keys[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    hashes[slot] = oldHashes[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+
+        private static boolean equals(char[] key, char[] buf, int offset, int length) {
+            if (key.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (key[i] != buf[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
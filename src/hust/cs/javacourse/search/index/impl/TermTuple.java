@@ -4,6 +4,11 @@ import hust.cs.javacourse.search.index.AbstractTerm;
 import hust.cs.javacourse.search.index.AbstractTermTuple;
 
 public class TermTuple extends AbstractTermTuple {
+    /**
+     * 单词在TermDictionary里的id；没有使用单词字典时为-1
+     */
+    public int termId = -1;
+
     public TermTuple() {
     }
 
@@ -17,6 +22,18 @@ public class TermTuple extends AbstractTermTuple {
         this.curPos = curPos;
     }
 
+    /**
+     * 使用单词字典里的Term和单词id来构造TermTuple
+     * @param term ：单词字典里的Term
+     * @param termId ：单词id
+     * @param curPos ：位置
+     */
+    public TermTuple(AbstractTerm term, int termId, int curPos){
+        this.term = term;
+        this.termId = termId;
+        this.curPos = curPos;
+    }
+
     /**
      * 使用String类型代替Term，更便于使用
      * @param content ：单词内容
@@ -0,0 +1,191 @@
+package hust.cs.javacourse.search.index.impl;
+
+import hust.cs.javacourse.search.index.*;
+import hust.cs.javacourse.search.util.Config;
+import hust.cs.javacourse.search.util.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * <pre>
+ * TinyFileIndexBuilder是为大量小文件(例如聊天消息、工单，每个不到1KB)设计的索引构造器.
+ *      小文件的耗时主要是打开和读取文件的等待，而不是分词，所以每个文件一个任务，
+ *      让成千上万个阻塞的读操作同时进行:
+ *      运行在支持虚拟线程的JDK(21及以上)上时每个任务一个虚拟线程，
+ *      否则退回到Config.TINY_FILE_FALLBACK_THREADS个平台线程的线程池.
+ *      同时打开的文件数由信号量限制为Config.TINY_FILE_MAX_OPEN_FILES，不会用完文件句柄;
+ *      使用平台线程池时信号量的许可数与线程数相同，线程数也不超过这个上限.
+ *      超过2GB的文件边读边分词，不占用信号量，而是由另一个只有一个许可的信号量限制为同时只读一个.
+ *      任务读完文件后直接分词，分词时不查单词字典(每个虚拟线程只处理一个文件，线程的字典缓存用不上，
+ *      每个新单词都要争用字典的全局锁); 得到的Document由调用线程按docId顺序取出，
+ *      查字典分配单词id(调用线程的缓存一直有效，不争用锁)后加入索引.
+ *      最多有Config.TINY_FILE_WINDOW个文档已经提交但还没有加入索引，内存占用不随文件数增长.
+ *      docId按文件路径排序后的顺序分配，与IndexBuilder完全相同.
+ * </pre>
+ */
+public class TinyFileIndexBuilder extends AbstractIndexBuilder {
+    /**
+     * 同时打开的文件数上限
+     */
+    private final int maxOpenFiles;
+
+    /**
+     * 最近一次buildIndex的同时打开的小文件数的信号量，许可数与使用的线程池相适应
+     */
+    private Semaphore openFiles;
+
+    /**
+     * 同时读取的超过2GB的文件数的信号量
+     */
+    private final Semaphore largeFiles = new Semaphore(1);
+
+    /**
+     * 已经提交但还没有加入索引的文档数上限
+     */
+    private final int window;
+
+    /**
+     * 最近一次buildIndex是否使用了虚拟线程
+     */
+    private boolean virtualThreads;
+
+    /**
+     * 构造函数，同时打开的文件数和提交窗口由Config指定
+     * @param docBuilder ：Document构造器，必须可以被多个线程同时使用
+     */
+    public TinyFileIndexBuilder(AbstractDocumentBuilder docBuilder) {
+        this(docBuilder, Config.TINY_FILE_MAX_OPEN_FILES, Config.TINY_FILE_WINDOW);
+    }
+
+    /**
+     * 构造函数
+     * @param docBuilder ：Document构造器，必须可以被多个线程同时使用
+     * @param maxOpenFiles ：同时打开的文件数上限
+     * @param window ：已经提交但还没有加入索引的文档数上限
+     */
+    public TinyFileIndexBuilder(AbstractDocumentBuilder docBuilder, int maxOpenFiles, int window) {
+        super(docBuilder);
+        this.maxOpenFiles = Math.max(1, maxOpenFiles);
+        this.window = Math.max(1, window);
+    }
+
+    /**
+     * <pre>
+     * 构建指定目录下的所有文本文件的倒排索引.
+     * @param rootDirectory ：指定目录
+     * @return ：构建好的索引
+     * </pre>
+     */
+    @Override
+    public AbstractIndex buildIndex(String rootDirectory) {
+        List<String> filePaths = FileUtil.list(rootDirectory);
+        filePaths.sort(String::compareTo);
+        TermDictionary dictionary = new TermDictionary();
+        Index index = new Index();
+        index.beginBulkLoad(dictionary);
+        ExecutorService executor = newExecutor();
+        try {
+            ArrayDeque<Future<AbstractDocument>> pending = new ArrayDeque<>();
+            int next = 0;
+            while (next < filePaths.size() || !pending.isEmpty()) {
+                while (next < filePaths.size() && pending.size() < window) {
+                    String docPath = filePaths.get(next);
+                    int id = docId + next;
+                    pending.add(executor.submit(() -> build(id, docPath)));
+                    next++;
+                }
+                // 按提交顺序取结果，保证文档按docId顺序加入索引
+                AbstractDocument document = pending.poll().get();
+                if (document instanceof Document) {
+                    ((Document) document).internTerms(dictionary);
+                }
+                index.addDocument(document);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("构建索引被中断", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("构建索引失败", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        index.commitBulkLoad();
+        docId += filePaths.size();
+        return index;
+    }
+
+    /**
+     * 最近一次buildIndex是否使用了虚拟线程
+     * @return ：使用了虚拟线程返回true；使用的是平台线程池返回false
+     */
+    public boolean usedVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * 读取并解析一个文件，不使用单词字典. 只有读文件期间占用信号量，分词不占用;
+     * 超过2GB的文件不能一次读入，边读边分词，期间只占用大文件的信号量
+     * @param docId ：文档id
+     * @param docPath ：文件路径
+     * @return ：Document对象
+     */
+    private AbstractDocument build(int docId, String docPath) throws InterruptedException {
+        File file = new File(docPath);
+        if (!(docBuilder instanceof DocumentBuilder)) {
+            openFiles.acquire();
+            try {
+                return docBuilder.build(docId, docPath, file);
+            } finally {
+                openFiles.release();
+            }
+        }
+        if (file.length() >= Integer.MAX_VALUE - 8) {
+            largeFiles.acquire();
+            try {
+                return DocumentBuilder.build(docBuilder, docId, docPath, file, null);
+            } finally {
+                largeFiles.release();
+            }
+        }
+        byte[] content;
+        openFiles.acquire();
+        try {
+            content = Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+            content = new byte[0];
+        } finally {
+            openFiles.release();
+        }
+        return ((DocumentBuilder) docBuilder).build(docId, docPath, ByteBuffer.wrap(content), null);
+    }
+
+    /**
+     * 新建执行任务的线程池，并按线程池新建同时打开的文件数的信号量.
+     * JDK有Executors.newVirtualThreadPerTaskExecutor时每个任务一个虚拟线程，信号量有maxOpenFiles个许可;
+     * 否则使用固定大小的平台线程池，线程数和信号量的许可数都是Config.TINY_FILE_FALLBACK_THREADS与maxOpenFiles中较小的一个
+     * @return ：线程池
+     */
+    private ExecutorService newExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            ExecutorService executor = (ExecutorService) factory.invoke(null);
+            virtualThreads = true;
+            openFiles = new Semaphore(maxOpenFiles);
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            // 当前JDK没有虚拟线程
+            virtualThreads = false;
+            int threads = Math.max(1, Math.min(Config.TINY_FILE_FALLBACK_THREADS, maxOpenFiles));
+            openFiles = new Semaphore(threads);
+            return Executors.newFixedThreadPool(threads);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package hust.cs.javacourse.search.parse.impl;
+
+import hust.cs.javacourse.search.index.AbstractTermTuple;
+import hust.cs.javacourse.search.parse.AbstractTermTupleFilter;
+import hust.cs.javacourse.search.parse.AbstractTermTupleStream;
+import hust.cs.javacourse.search.util.CharArraySet;
+import hust.cs.javacourse.search.util.CharClass;
+import hust.cs.javacourse.search.util.CharTokenizer;
+import hust.cs.javacourse.search.util.Config;
+import hust.cs.javacourse.search.util.StopWords;
+
+import java.nio.CharBuffer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <pre>
+ *     FusedTermTupleFilter把LengthTermTupleFilter、PatternTermTupleFilter和StopWordTermTupleFilter
+ *     合并成一个过滤器，过滤结果与三者串联相同.
+ *          先判断长度(Config.TERM_FILTER_MINLENGTH、Config.TERM_FILTER_MAXLENGTH)，代价最小;
+ *          再判断Config.TERM_FILTER_PATTERN，"单个字符类+"形式的正则表达式预先编译成字符分类表逐字符查表，
+ *          其它形式的正则表达式使用预先编译好的Pattern;
+ *          最后在开放寻址的停用词哈希表里查找.
+ *     如果输入是TermTupleScanner，过滤直接下推到分词阶段，被过滤的单词不会被转换成String.
+ * </pre>
+ */
+public class FusedTermTupleFilter extends AbstractTermTupleFilter implements CharTokenizer.TokenFilter {
+    /**
+     * 停用词哈希表，所有过滤器共用
+     */
+    private static final CharArraySet STOP_WORDS = new CharArraySet(StopWords.STOP_WORDS);
+
+    /**
+     * 单词的最小长度和最大长度
+     */
+    private final int minLength;
+    private final int maxLength;
+
+    /**
+     * 单词字符类；为null表示Config.TERM_FILTER_PATTERN不是"单个字符类+"的形式，需要用matcher判断
+     */
+    private final CharClass termChars;
+    private final Matcher matcher;
+
+    /**
+     * 过滤是否已经下推到TermTupleScanner
+     */
+    private final boolean pushedDown;
+
+    /**
+     * 构造函数
+     *
+     * @param input : 输入流
+     */
+    public FusedTermTupleFilter(AbstractTermTupleStream input) {
+        super(input);
+        this.minLength = Config.TERM_FILTER_MINLENGTH;
+        this.maxLength = Config.TERM_FILTER_MAXLENGTH;
+        String pattern = Config.TERM_FILTER_PATTERN;
+        if (CharClass.isSimpleClassRepetition(pattern)) {
+            this.termChars = CharClass.of(pattern.substring(0, pattern.length() - 1));
+            this.matcher = null;
+        } else {
+            this.termChars = null;
+            this.matcher = Pattern.compile(pattern).matcher("");
+        }
+        this.pushedDown = input instanceof TermTupleScanner;
+        if (pushedDown) {
+            ((TermTupleScanner) input).addTokenFilter(this);
+        }
+    }
+
+    /**
+     * 判断单词是否需要保留
+     * @param token ：单词所在的字符数组
+     * @param offset ：单词的起始下标
+     * @param length ：单词的长度
+     * @return ：长度合适、匹配单词模式且不是停用词返回true，否则返回false
+     */
+    @Override
+    public boolean accept(char[] token, int offset, int length) {
+        if (length < minLength || length > maxLength) {
+            return false;
+        }
+        if (termChars != null ? !termChars.containsAll(token, offset, length)
+                : !matcher.reset(CharBuffer.wrap(token, offset, length)).matches()) {
+            return false;
+        }
+        return !STOP_WORDS.contains(token, offset, length);
+    }
+
+    /**
+     * 判断单词是否需要保留
+     * @param content ：单词内容
+     * @return ：长度合适、匹配单词模式且不是停用词返回true，否则返回false
+     */
+    public boolean accept(String content) {
+        int length = content.length();
+        if (length < minLength || length > maxLength) {
+            return false;
+        }
+        if (termChars != null ? !termChars.containsAll(content) : !matcher.reset(content).matches()) {
+            return false;
+        }
+        return !STOP_WORDS.contains(content);
+    }
+
+    /**
+     * 获得下一个三元组
+     * 过滤长度不符合、不匹配单词模式的单词和停用词
+     * return: 下一个三元组；如果到了流的末尾，返回null
+     */
+    @Override
+    public AbstractTermTuple next() {
+        AbstractTermTuple tuple = input.next();
+        while (tuple != null && !pushedDown && !accept(tuple.term.getContent())) {
+            tuple = input.next();
+        }
+        return tuple;
+    }
+}
@@ -13,6 +13,11 @@ public class LengthTermTupleFilter extends AbstractTermTupleFilter {
      */
     public LengthTermTupleFilter(AbstractTermTupleStream input) {
         super(input);
+        if (input instanceof TermTupleScanner) {
+            // 直接作用在分词阶段，长度不符合的单词不会被转换成String
+            ((TermTupleScanner) input).addTokenFilter((token, offset, length) ->
+                    length >= Config.TERM_FILTER_MINLENGTH && length <= Config.TERM_FILTER_MAXLENGTH);
+        }
     }
     /**
      * 获得下一个三元组
@@ -0,0 +1,77 @@
+package hust.cs.javacourse.search.parse.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <pre>
+ * MappedTermTupleScanner直接从内存映射的UTF-8字节读取文本的TermTupleScanner.
+ *      ASCII字节直接扩展成char，不经过字符集解码;
+ *      只有遇到非ASCII字节时才用UTF-8解码器解码，非法字节序列替换为U+FFFD.
+ *      分词、转换小写、单词过滤与TermTupleScanner完全相同.
+ * </pre>
+ */
+public class MappedTermTupleScanner extends TermTupleScanner {
+    /**
+     * 文本内容，通常是FileChannel.map得到的MappedByteBuffer
+     */
+    private final ByteBuffer bytes;
+
+    /**
+     * 非ASCII内容的UTF-8解码器
+     */
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /**
+     * 构造函数
+     * @param bytes ：UTF-8编码的文本内容，从其当前位置读到limit
+     */
+    public MappedTermTupleScanner(ByteBuffer bytes) {
+        super(null);
+        this.bytes = bytes;
+    }
+
+    /**
+     * 从字节缓冲区读取字符，连续的ASCII字节直接转换，其余部分交给UTF-8解码器
+     * @param cbuf ：目标字符数组
+     * @param off ：写入的起始下标
+     * @param len ：最多读取的字符数
+     * @return ：读到的字符数；如果已到末尾，返回-1
+     */
+    @Override
+    protected int read(char[] cbuf, int off, int len) {
+        int p = bytes.position();
+        int limit = bytes.limit();
+        if (p == limit) {
+            return -1;
+        }
+        int n = 0;
+        while (n < len && p < limit) {
+            byte b = bytes.get(p);
+            if (b < 0) {
+                break;
+            }
+            cbuf[off + n++] = (char) b;
+            p++;
+        }
+        bytes.position(p);
+        if (n < len && p < limit) {
+            CharBuffer out = CharBuffer.wrap(cbuf, off + n, len - n);
+            decoder.decode(bytes, out, true);
+            n = out.position() - off;
+        }
+        return n;
+    }
+
+    /**
+     * 内存映射的缓冲区不需要关闭，由垃圾回收释放
+     */
+    @Override
+    public void close() {
+    }
+}
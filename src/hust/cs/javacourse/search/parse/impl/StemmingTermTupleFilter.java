@@ -0,0 +1,134 @@
+package hust.cs.javacourse.search.parse.impl;
+
+import hust.cs.javacourse.search.index.AbstractTermTuple;
+import hust.cs.javacourse.search.index.impl.Term;
+import hust.cs.javacourse.search.index.impl.TermDictionary;
+import hust.cs.javacourse.search.index.impl.TermTuple;
+import hust.cs.javacourse.search.parse.AbstractTermTupleFilter;
+import hust.cs.javacourse.search.parse.AbstractTermTupleStream;
+import hust.cs.javacourse.search.util.Config;
+import hust.cs.javacourse.search.util.PorterStemmer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <pre>
+ *     StemmingTermTupleFilter用Porter算法把单词还原成词干，同一个词的不同屈折形式共用一个PostingList.
+ *          应该放在其它过滤器之后，只对保留下来的单词提取词干.
+ *          输入是FusedTermTupleFilter时，与单词不同的词干再用它判断一次，
+ *          变短的词干或者恰好是停用词的词干同样被过滤掉，过滤结果与先提取词干再过滤相同.
+ *          提取过的单词和词干保存在每个线程自己的LRU缓存里，缓存的单词数由Config.STEM_CACHE_SIZE指定，
+ *          常见单词不需要重复执行算法，多个线程同时构建索引时也不需要加锁.
+ *          有单词字典时，词干同样转换为字典里的单词id，三元组共用字典里的Term.
+ * </pre>
+ */
+public class StemmingTermTupleFilter extends AbstractTermTupleFilter {
+    /**
+     * 每个线程的词干提取器和缓存
+     */
+    private static final ThreadLocal<Cache> CACHES = ThreadLocal.withInitial(Cache::new);
+
+    /**
+     * 单词字典，为null表示每个词干都创建新的Term
+     */
+    private final TermDictionary dictionary;
+
+    /**
+     * 判断词干是否保留的过滤器；输入不是FusedTermTupleFilter时为null，词干都保留
+     */
+    private final FusedTermTupleFilter filter;
+
+    /**
+     * 把词干复制到这里再在字典里查找，重复使用
+     */
+    private char[] chars = new char[64];
+
+    /**
+     * 构造函数，不使用单词字典
+     *
+     * @param input : 输入流
+     */
+    public StemmingTermTupleFilter(AbstractTermTupleStream input) {
+        this(input, null);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param input : 输入流
+     * @param dictionary : 单词字典，为null时不使用
+     */
+    public StemmingTermTupleFilter(AbstractTermTupleStream input, TermDictionary dictionary) {
+        super(input);
+        this.dictionary = dictionary;
+        this.filter = input instanceof FusedTermTupleFilter ? (FusedTermTupleFilter) input : null;
+    }
+
+    /**
+     * 提取单词的词干，使用当前线程的缓存
+     * @param content ：小写的单词
+     * @return ：词干
+     */
+    public static String stem(String content) {
+        return CACHES.get().stem(content);
+    }
+
+    /**
+     * 获得下一个三元组
+     * 单词替换为词干，词干与单词相同时三元组不变; 词干不能通过过滤器时跳过这个三元组
+     * return: 下一个三元组；如果到了流的末尾，返回null
+     */
+    @Override
+    public AbstractTermTuple next() {
+        AbstractTermTuple tuple;
+        String content;
+        String stem;
+        do {
+            tuple = input.next();
+            if (tuple == null) {
+                return null;
+            }
+            content = tuple.term.getContent();
+            stem = stem(content);
+            if (stem.equals(content)) {
+                return tuple;
+            }
+        } while (filter != null && !filter.accept(stem));
+        if (dictionary == null) {
+            return new TermTuple(new Term(stem), tuple.curPos);
+        }
+        int length = stem.length();
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+        stem.getChars(0, length, chars, 0);
+        int termId = dictionary.intern(chars, 0, length);
+        return new TermTuple(dictionary.term(termId), termId, tuple.curPos);
+    }
+
+    /**
+     * 一个线程的词干提取器和LRU缓存，只被一个线程使用，不需要加锁
+     */
+    private static class Cache {
+        private final PorterStemmer stemmer = new PorterStemmer();
+
+        private final int capacity = Math.max(1, Config.STEM_CACHE_SIZE);
+
+        private final Map<String, String> stems = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > capacity;
+            }
+        };
+
+        String stem(String content) {
+            String stem = stems.get(content);
+            if (stem == null) {
+                stem = stemmer.stem(content);
+                stems.put(content, stem);
+            }
+            return stem;
+        }
+    }
+}
@@ -2,84 +2,274 @@ package hust.cs.javacourse.search.parse.impl;
 
 import hust.cs.javacourse.search.index.AbstractTermTuple;
 import hust.cs.javacourse.search.index.impl.Term;
+import hust.cs.javacourse.search.index.impl.TermDictionary;
 import hust.cs.javacourse.search.index.impl.TermTuple;
 import hust.cs.javacourse.search.parse.AbstractTermTupleScanner;
+import hust.cs.javacourse.search.util.CharTokenizer;
 import hust.cs.javacourse.search.util.Config;
-import hust.cs.javacourse.search.util.StringSplitter;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Locale;
 /**
  * <pre>
  *     一个具体的TermTupleScanner对象就是
  *     一个AbstractTermTupleStream流对象，它利用java.io.BufferedReader去读取文本文件得到一个个三元组TermTuple
  *     其具体子类需要重新实现next方法获得文本文件里的三元组
+ *     长度超过Config.TERM_FILTER_MAXLENGTH的单词(之后的长度过滤器也会去掉它)不产生三元组，只占用一个位置;
+ *     这样的单词延续到读缓冲区之外时不扩大缓冲区，直接丢弃已读的部分，一块块读下去直到单词结束，
+ *     没有分隔符的超长内容(例如base64数据)不会让缓冲区无限增长.
  * </pre>
  */
 public class TermTupleScanner extends AbstractTermTupleScanner {
+    /**
+     * 读缓冲区的初始大小
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * 每次从输入读取时缓冲区至少要空出的字符数
+     */
+    private static final int MIN_READ = 2;
+
+    /**
+     * 缺省Locale下String.toLowerCase与逐个字符转换小写的结果是否可能不同
+     */
+    private static final boolean LOCALE_SENSITIVE_LOWER_CASE =
+            "tr".equals(Locale.getDefault().getLanguage()) || "az".equals(Locale.getDefault().getLanguage())
+                    || "lt".equals(Locale.getDefault().getLanguage());
+
+    /**
+     * 保留的单词的最大长度，更长的单词直接跳过
+     */
+    private final int maxLength = Math.max(1, Config.TERM_FILTER_MAXLENGTH);
+
     /**
      * 记录位置
      */
     private int curPos = 0;
 
     /**
-     * TermTuple的集合
+     * 分词器，由Config.STRING_SPLITTER_REGEX编译得到
      */
-    private List<TermTuple> tuples = new ArrayList<TermTuple>();
+    private final CharTokenizer tokenizer = CharTokenizer.of(Config.STRING_SPLITTER_REGEX);
 
     /**
-     * 获取Terms
-     * @return TermTuples
+     * 读缓冲区，[pos, limit)是还未处理的字符
      */
-    public List<TermTuple> getTerms() {
-        return tuples;
-    }
+    private char[] buf = new char[BUFFER_SIZE];
+    private int pos = 0;
+    private int limit = 0;
+
+    /**
+     * 是否已读到输入流末尾
+     */
+    private boolean eof = false;
+
+    /**
+     * 存放转换成小写的单词内容，重复使用
+     */
+    private char[] lowerCase = new char[64];
+
+    /**
+     * 在单词转换成String之前进行判断的过滤器，为null表示不过滤
+     */
+    private CharTokenizer.TokenFilter tokenFilter = null;
+
+    /**
+     * 单词字典，为null表示每个单词都创建新的Term
+     */
+    private TermDictionary dictionary = null;
 
     /**
      * 构造函数
+     * 不会预先读取文本内容，每次调用next时才按需分块读取和切分
      * @param input BufferedReader对象
      */
     public TermTupleScanner(BufferedReader input) {
         super(input);
-        try {
-            String str = input.readLine();
-            while (str != null) {
-                StringSplitter splitter = new StringSplitter();
-                splitter.setSplitRegex(Config.STRING_SPLITTER_REGEX);
-                List<String> parts = splitter.splitByRegex(str);
-                int i;
-                for (i = 0; i < parts.size(); i++) {
-                    if (!parts.get(i).equals("")){
-                        this.tuples.add(new TermTuple(new Term(parts.get(i).toLowerCase()), this.curPos++));
-                    }
+    }
+
+    /**
+     * <pre>
+     * 添加一个单词过滤器.
+     *      被过滤掉的单词仍然占用一个位置，但不会被转换成String，也不会产生三元组.
+     *      多次添加时，单词必须通过所有过滤器才会保留.
+     * @param filter ：单词过滤器
+     * </pre>
+     */
+    public void addTokenFilter(CharTokenizer.TokenFilter filter) {
+        CharTokenizer.TokenFilter previous = this.tokenFilter;
+        this.tokenFilter = previous == null ? filter
+                : (token, offset, length) -> previous.accept(token, offset, length) && filter.accept(token, offset, length);
+    }
+
+    /**
+     * <pre>
+     * 设置单词字典.
+     *      设置后直接用读缓冲区里的字符在字典里查找单词，三元组共用字典里的Term并带有单词id，
+     *      重复出现的单词不再创建String和Term
+     * @param dictionary ：单词字典
+     * </pre>
+     */
+    public void setTermDictionary(TermDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * 返回单词字典
+     * @return ：单词字典；没有设置时返回null
+     */
+    public TermDictionary getTermDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * 获得下一个三元组
+     * 每次只处理读缓冲区里的一个单词，内存占用与文档大小无关
+     * return: 下一个三元组；如果到了流的末尾，返回null
+     */
+    @Override
+    public AbstractTermTuple next() {
+        while (true) {
+            pos = tokenizer.tokenStart(buf, pos, limit);
+            if (pos == limit) {
+                if (!fill()) {
+                    return null;
+                }
+                continue;
+            }
+            int end = tokenizer.tokenEnd(buf, pos, limit);
+            if (end - pos > maxLength) {
+                // 单词已经超过最大长度，不论多长都不会保留
+                skipToken(end);
+                this.curPos++;
+                continue;
+            }
+            if (end == limit) {
+                if (fill()) {
+                    // 单词可能延续到下一块，读入更多内容后重新查找单词结尾
+                    continue;
                 }
+                // 已到流的末尾，fill可能移动了缓冲区内容，单词一直延续到末尾
+                end = limit;
+            }
+            AbstractTermTuple tuple = toTuple(pos, end, this.curPos++);
+            pos = end;
+            if (tuple != null) {
+                return tuple;
+            }
+        }
+    }
 
-                str = input.readLine();
+    /**
+     * 跳过一个超过最大长度的单词. 单词延续到缓冲区末尾时丢弃缓冲区里的内容再读入，直到找到单词结尾或者流的末尾
+     * @param end ：单词在缓冲区里的结束下标
+     */
+    private void skipToken(int end) {
+        while (end == limit) {
+            pos = limit;
+            if (!fill()) {
+                return;
             }
+            end = tokenizer.tokenEnd(buf, pos, limit);
+        }
+        pos = end;
+    }
 
+    /**
+     * 把未处理的字符移到缓冲区开头，再从输入流读入更多字符，缓冲区已满时扩容
+     * @return ：读入了新的字符返回true；已到流的末尾返回false
+     */
+    private boolean fill() {
+        if (eof) {
+            return false;
+        }
+        int remaining = limit - pos;
+        if (buf.length - remaining < MIN_READ) {
+            char[] bigger = new char[buf.length * 2];
+            System.arraycopy(buf, pos, bigger, 0, remaining);
+            buf = bigger;
+        } else if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, remaining);
+        }
+        pos = 0;
+        limit = remaining;
+        try {
+            int n = read(buf, limit, buf.length - limit);
+            if (n > 0) {
+                limit += n;
+                return true;
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
+        eof = true;
+        return false;
+    }
 
+    /**
+     * <pre>
+     * 从输入读取字符到读缓冲区.
+     *      子类可以覆盖该方法从其它数据来源(例如内存映射的文件)读取字符.
+     *      调用时保证len不小于2，足够放下一个增补字符的代理对
+     * @param cbuf ：目标字符数组
+     * @param off ：写入的起始下标
+     * @param len ：最多读取的字符数
+     * @return ：读到的字符数；如果已到流的末尾，返回-1
+     * </pre>
+     */
+    protected int read(char[] cbuf, int off, int len) throws IOException {
+        return input.read(cbuf, off, len);
     }
+
     /**
-     * 获得下一个三元组
-     * return: 下一个三元组；如果到了流的末尾，返回null
+     * 把缓冲区里的单词转换成小写，经过单词过滤器判断后产生三元组
+     * @param start ：单词的起始下标
+     * @param end ：单词的结束下标(不包含)
+     * @param position ：单词的位置
+     * @return ：三元组；如果被过滤掉，返回null
      */
-    @Override
-    public AbstractTermTuple next() {
-        if (this.tuples.size()!=0){
-            return tuples.remove(0);
-        } else {
+    private AbstractTermTuple toTuple(int start, int end, int position) {
+        int length = end - start;
+        if (lowerCase.length < length) {
+            lowerCase = new char[Math.max(length, lowerCase.length * 2)];
+        }
+        boolean simple = !LOCALE_SENSITIVE_LOWER_CASE;
+        for (int i = 0; i < length && simple; i++) {
+            char c = buf[start + i];
+            if (c < 128) {
+                lowerCase[i] = c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+            } else if (Character.isSurrogate(c) || c == '\u0130' || c == '\u03A3') {
+                // 这些字符转换小写时与上下文有关，交给String.toLowerCase处理
+                simple = false;
+            } else {
+                lowerCase[i] = Character.toLowerCase(c);
+            }
+        }
+        if (simple) {
+            if (tokenFilter != null && !tokenFilter.accept(lowerCase, 0, length)) {
+                return null;
+            }
+            if (dictionary != null) {
+                int termId = dictionary.intern(lowerCase, 0, length);
+                return new TermTuple(dictionary.term(termId), termId, position);
+            }
+            return new TermTuple(new Term(new String(lowerCase, 0, length)), position);
+        }
+        String content = new String(buf, start, length).toLowerCase();
+        if (tokenFilter != null && !tokenFilter.accept(content.toCharArray(), 0, content.length())) {
             return null;
         }
+        if (dictionary != null) {
+            int termId = dictionary.intern(content);
+            return new TermTuple(dictionary.term(termId), termId, position);
+        }
+        return new TermTuple(new Term(content), position);
     }
 
     @Override
     public void close() {
         super.close();
     }
-}
\ No newline at end of file
+}
@@ -15,7 +15,8 @@ public abstract class AbstractIndexSearcher {
      */
     //Index是AbstractIndex的具体实现类，在hust.cs.javacourse.search.index.impl里定义，但没有实现任何覆盖方法，需要学生实现
     //如果学生AbstractIndex的具体实现类类名不是Index，这里需要相应修改
-    protected AbstractIndex index = new Index();
+    //volatile保证后台线程替换索引(见IndexSearcher.setIndex)后，查询线程能立即看到新的索引
+    protected volatile AbstractIndex index = new Index();
     /**
      * 多个检索词的逻辑组合
      */
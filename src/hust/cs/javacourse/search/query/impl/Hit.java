@@ -34,6 +34,19 @@ public class Hit extends AbstractHit {
         super(docId, docPath, termPostingMapping);
     }
 
+    /**
+     * 构造函数，文档内容由调用者给出，不再读取文档文件
+     *
+     * @param docId   : 文档id
+     * @param docPath : 文档绝对路径
+     * @param content : 文档内容
+     */
+    public Hit(int docId, String docPath, String content) {
+        this.docId = docId;
+        this.docPath = docPath;
+        this.content = content;
+    }
+
     /**
      * 获得文档id
      *
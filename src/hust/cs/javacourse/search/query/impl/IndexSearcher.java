@@ -1,40 +1,149 @@
 package hust.cs.javacourse.search.query.impl;
 
 
-import hust.cs.javacourse.search.index.AbstractPosting;
+import hust.cs.javacourse.search.index.AbstractIndex;
 import hust.cs.javacourse.search.index.AbstractPostingList;
+import hust.cs.javacourse.search.index.AbstractPostingsIterator;
 import hust.cs.javacourse.search.index.AbstractTerm;
-import hust.cs.javacourse.search.index.impl.Index;
 
+import hust.cs.javacourse.search.index.impl.ContainerDocumentBuilder;
+import hust.cs.javacourse.search.index.impl.DocumentStore;
+import hust.cs.javacourse.search.index.impl.MappedIndex;
 import hust.cs.javacourse.search.index.impl.Posting;
+import hust.cs.javacourse.search.index.impl.SegmentedIndex;
 import hust.cs.javacourse.search.index.impl.Term;
+import hust.cs.javacourse.search.parse.impl.StemmingTermTupleFilter;
 import hust.cs.javacourse.search.query.AbstractHit;
 import hust.cs.javacourse.search.query.AbstractIndexSearcher;
 import hust.cs.javacourse.search.query.Sort;
 import hust.cs.javacourse.search.util.Config;
+import hust.cs.javacourse.search.util.FileUtil;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 
 public class IndexSearcher extends AbstractIndexSearcher {
+    /**
+     * 文档内容文件；为null时命中结果的内容从原始文档读取
+     */
+    private volatile DocumentStore store = null;
+
     /**
      * 从指定索引文件打开索引，加载到index对象里.先打开索引再执行search方法
+     * 索引文件的增量索引(见SegmentedIndex)一起加载，查询时与基础索引合并.
+     * 有对应的文档内容文件(见DocumentStore)时一起打开，命中结果的内容从中读取.
+     * 索引文件是IndexFile格式并且没有增量索引和已删除的文档时用MappedIndex直接映射，不读入整个索引;
+     * 否则加载到内存，Config.SEAL_SEARCH_INDEX为true时加载后封存各个段，单词字典换成CompactTermDictionary
      * @param indexFile ：指定索引文件
      */
     @Override
     public void open(String indexFile) {
-        this.index = new Index();
+        File file = new File(indexFile);
+        try {
+            if (SegmentedIndex.isSingleSegment(file) && MappedIndex.canOpen(file)) {
+                MappedIndex mapped = new MappedIndex();
+                mapped.load(file);
+                this.index = mapped;
+                openDocumentStore(DocumentStore.storeFile(file));
+                return;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        SegmentedIndex index = new SegmentedIndex();
         try {
-            index.load(new File(indexFile));
+            index.load(file);
         } catch (IOException e) {
             e.printStackTrace();
         }
+        if (Config.SEAL_SEARCH_INDEX) {
+            index.seal();
+        }
+        this.index = index;
+        openDocumentStore(DocumentStore.storeFile(new File(indexFile)));
+    }
+
+    /**
+     * 打开文档内容文件，替换之前打开的文档内容文件. 文件不存在时命中结果的内容从原始文档读取
+     * @param storeFile ：文档内容文件
+     */
+    public void openDocumentStore(File storeFile) {
+        DocumentStore previous = this.store;
+        DocumentStore next = null;
+        if (storeFile.isFile()) {
+            try {
+                next = new DocumentStore(storeFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        this.store = next;
+        if (previous != null) {
+            try {
+                previous.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 新建命中结果. 文档内容优先从文档内容文件读取，不在其中的文档(例如之后增量加入的)读取原始文档，
+     * 容器文件里的记录按逻辑路径从容器文件读取
+     * @param index ：索引
+     * @param docId ：文档id
+     * @return ：命中结果
+     */
+    private AbstractHit newHit(AbstractIndex index, int docId) {
+        String docPath = index.getDocName(docId);
+        DocumentStore store = this.store;
+        String content = null;
+        if (store != null) {
+            try {
+                content = store.get(docId, docPath);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (content == null) {
+            content = ContainerDocumentBuilder.isRecordPath(docPath)
+                    ? ContainerDocumentBuilder.readContent(docPath) : FileUtil.read(docPath);
+        }
+        return new Hit(docId, docPath, content);
+    }
+
+    /**
+     * <pre>
+     * 替换检索使用的索引，例如IndexWatcher更新索引后发布的新索引.
+     *      每次查询开始时读取一次当前索引，整个查询都使用同一个索引，
+     *      替换不会阻塞正在进行的查询，也不会让一次查询看到两个不同的索引
+     * @param index ：新的索引
+     * </pre>
+     */
+    public void setIndex(AbstractIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * <pre>
+     * 对检索词做与构建索引时相同的处理.
+     *      Config.IGNORE_CASE打开时转换成小写，Config.STEMMING打开时还原成词干
+     * @param queryTerm ：检索词
+     * </pre>
+     */
+    private static void analyze(AbstractTerm queryTerm) {
+        String content = queryTerm.getContent();
+        if (Config.IGNORE_CASE) {
+            content = content.toLowerCase();
+        }
+        if (Config.STEMMING) {
+            content = StemmingTermTupleFilter.stem(content);
+        }
+        queryTerm.setContent(content);
     }
 
     /**
@@ -45,20 +154,17 @@ public class IndexSearcher extends AbstractIndexSearcher {
      */
     @Override
     public AbstractHit[] search(AbstractTerm queryTerm, Sort sorter) {
-        // 忽略大小写
-        if (Config.IGNORE_CASE) {
-            queryTerm.setContent(queryTerm.getContent().toLowerCase());
-        }
+        analyze(queryTerm);
+        AbstractIndex index = this.index;
         AbstractPostingList indexSearchResult = index.search(queryTerm);
         if (indexSearchResult == null) {
             return new Hit[0];
         }
         List<AbstractHit> result = new ArrayList<>();
-        for (int i = 0; i < indexSearchResult.size(); i++) {
-            AbstractPosting posting = indexSearchResult.get(i);
-
-            AbstractHit hit = new Hit(posting.getDocId(), index.getDocName(posting.getDocId()));
-            hit.getTermPostingMapping().put(queryTerm, posting);
+        AbstractPostingsIterator it = indexSearchResult.iterator();
+        for (int docId = it.nextDoc(); docId != AbstractPostingsIterator.NO_MORE_DOCS; docId = it.nextDoc()) {
+            AbstractHit hit = newHit(index, docId);
+            hit.getTermPostingMapping().put(queryTerm, it.posting());
             hit.setScore(sorter.score(hit));
             result.add(hit);
         }
@@ -79,6 +185,9 @@ public class IndexSearcher extends AbstractIndexSearcher {
      */
     @Override
     public AbstractHit[] search(AbstractTerm queryTerm1, AbstractTerm queryTerm2, Sort sorter, LogicalCombination combine) {
+        analyze(queryTerm1);
+        analyze(queryTerm2);
+        AbstractIndex index = this.index;
         AbstractPostingList indexSearchResult1 = index.search(queryTerm1);
         AbstractPostingList indexSearchResult2 = index.search(queryTerm2);
         // 如果两个都没找到直接就是空的数组
@@ -91,17 +200,23 @@ public class IndexSearcher extends AbstractIndexSearcher {
             if (indexSearchResult1 == null || indexSearchResult2 == null) {
                 return new Hit[0];
             }
-            // 求交集
-            for (int i = 0; i < indexSearchResult1.size(); i++) {
-                // 获取docId
-                int docId = indexSearchResult1.get(i).getDocId();
-                int sub_index = indexSearchResult2.indexOf(docId);
-                if (sub_index != -1) {
-                    AbstractHit hit = new Hit(docId, index.getDocName(docId));
-                    hit.getTermPostingMapping().put(queryTerm1, indexSearchResult1.get(i));
-                    hit.getTermPostingMapping().put(queryTerm2, indexSearchResult2.get(sub_index));
+            // 求交集: 较短的PostingList驱动，较长的PostingList用advance跳过不需要的Posting
+            AbstractPostingsIterator it1 = indexSearchResult1.iterator();
+            AbstractPostingsIterator it2 = indexSearchResult2.iterator();
+            AbstractPostingsIterator lead = it1.size() <= it2.size() ? it1 : it2;
+            AbstractPostingsIterator other = lead == it1 ? it2 : it1;
+            int docId = lead.nextDoc();
+            while (docId != AbstractPostingsIterator.NO_MORE_DOCS) {
+                int otherDocId = other.advance(docId);
+                if (otherDocId == docId) {
+                    AbstractHit hit = newHit(index, docId);
+                    hit.getTermPostingMapping().put(queryTerm1, it1.posting());
+                    hit.getTermPostingMapping().put(queryTerm2, it2.posting());
                     hit.setScore(sorter.score(hit));
                     result.add(hit);
+                    docId = lead.nextDoc();
+                } else {
+                    docId = lead.advance(otherDocId);
                 }
             }
         } else if (combine == LogicalCombination.OR) {
@@ -113,32 +228,25 @@ public class IndexSearcher extends AbstractIndexSearcher {
                 return search(queryTerm1, sorter);
             }
 
-            for (int i = 0; i < indexSearchResult1.size(); i++) {
-                // 首先添加
-                int docId = indexSearchResult1.get(i).getDocId();
-                int sub_index = indexSearchResult2.indexOf(docId);
-                if (sub_index == -1) {
-                    // 如果在另外一个词语中没有,那就正常添加
-                    AbstractHit hit = new Hit(docId, index.getDocName(docId));
-                    hit.getTermPostingMapping().put(queryTerm1, indexSearchResult1.get(i));
-                    hit.setScore(sorter.score(hit));
-                    result.add(hit);
-                } else {
-                    // 如果在另外一个中有, 那就要做一些修改
-                    AbstractHit hit = new Hit(docId, index.getDocName(docId));
-                    hit.getTermPostingMapping().put(queryTerm1, indexSearchResult1.get(i));
-                    hit.getTermPostingMapping().put(queryTerm2, indexSearchResult2.get(sub_index));
-                    hit.setScore(sorter.score(hit));
-                    result.add(hit);
+            // 先添加包含第1个词语的文档，同时包含第2个词语的一起记录
+            AbstractPostingsIterator it1 = indexSearchResult1.iterator();
+            AbstractPostingsIterator it2 = indexSearchResult2.iterator();
+            for (int docId = it1.nextDoc(); docId != AbstractPostingsIterator.NO_MORE_DOCS; docId = it1.nextDoc()) {
+                AbstractHit hit = newHit(index, docId);
+                hit.getTermPostingMapping().put(queryTerm1, it1.posting());
+                if (it2.advance(docId) == docId) {
+                    hit.getTermPostingMapping().put(queryTerm2, it2.posting());
                 }
+                hit.setScore(sorter.score(hit));
+                result.add(hit);
             }
-            for (int i = 0; i < indexSearchResult2.size(); i++) {
-                int docId = indexSearchResult2.get(i).getDocId();
-                int sub_index = indexSearchResult1.indexOf(docId);
-                if (sub_index == -1) {
-                    // 只有当1中不存在的时候才添加
-                    AbstractHit hit = new Hit(docId, index.getDocName(docId));
-                    hit.getTermPostingMapping().put(queryTerm2, indexSearchResult2.get(i));
+            // 再添加只包含第2个词语的文档
+            it1 = indexSearchResult1.iterator();
+            it2 = indexSearchResult2.iterator();
+            for (int docId = it2.nextDoc(); docId != AbstractPostingsIterator.NO_MORE_DOCS; docId = it2.nextDoc()) {
+                if (it1.advance(docId) != docId) {
+                    AbstractHit hit = newHit(index, docId);
+                    hit.getTermPostingMapping().put(queryTerm2, it2.posting());
                     hit.setScore(sorter.score(hit));
                     result.add(hit);
                 }
@@ -157,18 +265,22 @@ public class IndexSearcher extends AbstractIndexSearcher {
      * @return ：查询结果数组
      */
     public AbstractHit[] search(AbstractTerm queryTerm1, AbstractTerm queryTerm2, Sort sorter) {
+        analyze(queryTerm1);
+        analyze(queryTerm2);
+        AbstractIndex index = this.index;
         AbstractPostingList postList1 = index.search(queryTerm1);
         AbstractPostingList postList2 = index.search(queryTerm2);
         if(postList1 == null || postList2 == null) return null;
         List<AbstractHit> hitArray = new ArrayList<AbstractHit>();
-        int i=0, j=0;
-        while(i < postList1.size() && j < postList2.size()) {
-            AbstractPosting post1 = postList1.get(i);
-            AbstractPosting post2 = postList2.get(j);
-            // 这里默认索引中的数据都是按文档ID从小到大排序了
-            if (post1.getDocId() == post2.getDocId()) {
-                List<Integer> pos1 = post1.getPositions();
-                List<Integer> pos2 = post2.getPositions();
+        // 这里默认索引中的数据都是按文档ID从小到大排序了，两个迭代器交替用advance跳到对方的docId
+        AbstractPostingsIterator it1 = postList1.iterator();
+        AbstractPostingsIterator it2 = postList2.iterator();
+        int doc1 = it1.nextDoc();
+        int doc2 = it2.nextDoc();
+        while (doc1 != AbstractPostingsIterator.NO_MORE_DOCS && doc2 != AbstractPostingsIterator.NO_MORE_DOCS) {
+            if (doc1 == doc2) {
+                List<Integer> pos1 = it1.positions();
+                List<Integer> pos2 = it2.positions();
                 int a = 0, b = 0;
                 List<Integer> positions = new ArrayList<Integer>();     // 存放连续两个单词出现的位置
                 while(a < pos1.size() && b < pos2.size()){
@@ -184,20 +296,18 @@ public class IndexSearcher extends AbstractIndexSearcher {
                     }
                 }
                 if(positions.size() > 0) {      // 否则会出现score = 0.0的情况
-                    String path = index.getDocName(post1.getDocId());
-                    Map<AbstractTerm, AbstractPosting> mp =
-                            new HashMap<AbstractTerm, AbstractPosting>();
-                    mp.put(new Term(queryTerm1.getContent() + " " + queryTerm2.getContent()),
-                            new Posting(post1.getDocId(), positions.size(), positions));
-                    AbstractHit h = new Hit(post1.getDocId(), path, mp);
+                    AbstractHit h = newHit(index, doc1);
+                    h.getTermPostingMapping().put(new Term(queryTerm1.getContent() + " " + queryTerm2.getContent()),
+                            new Posting(doc1, positions.size(), positions));
                     h.setScore(sorter.score(h));        // 先设置分数
                     hitArray.add(h);
                 }
-                i++;    j++;
-            } else if (post1.getDocId() < post2.getDocId()) {
-                i++;
-            } else {        // post1 > post2
-                j++;
+                doc1 = it1.nextDoc();
+                doc2 = it2.nextDoc();
+            } else if (doc1 < doc2) {
+                doc1 = it1.advance(doc2);
+            } else {
+                doc2 = it2.advance(doc1);
             }
         }
         if(hitArray.size() < 1) return null;
@@ -0,0 +1,162 @@
+package hust.cs.javacourse.search.run;
+
+import hust.cs.javacourse.search.index.AbstractIndex;
+import hust.cs.javacourse.search.index.AbstractPosting;
+import hust.cs.javacourse.search.index.AbstractPostingList;
+import hust.cs.javacourse.search.index.AbstractTerm;
+import hust.cs.javacourse.search.index.impl.Index;
+import hust.cs.javacourse.search.index.impl.IntPostingList;
+import hust.cs.javacourse.search.index.impl.Term;
+import hust.cs.javacourse.search.util.IntArrayList;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * <pre>
+ * 性能测试程序共用的工具方法：生成测试数据、统计内存、删除生成的文档集，
+ * 以及检查被测的实现与参照实现的结果相同(不同时抛出IllegalStateException，测试程序以异常结束).
+ * </pre>
+ */
+final class PerformanceUtil {
+    private PerformanceUtil() {
+    }
+
+    /**
+     * 垃圾回收后当前使用的堆内存
+     * @return ：字节数
+     */
+    static long usedMemory() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * 删除生成的文档集
+     * @param dir ：文档集目录
+     */
+    static void deleteCorpus(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * 生成随机词表，单词由3到10个小写字母组成
+     * @param random ：随机数发生器
+     * @param size ：单词数
+     * @return ：随机词表
+     */
+    static String[] randomVocabulary(Random random, int size) {
+        String[] vocabulary = new String[size];
+        for (int i = 0; i < vocabulary.length; i++) {
+            char[] chars = new char[3 + random.nextInt(8)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = (char) ('a' + random.nextInt(26));
+            }
+            vocabulary[i] = new String(chars);
+        }
+        return vocabulary;
+    }
+
+    /**
+     * 统计索引里的Posting总数
+     * @param index ：索引
+     * @return ：Posting总数
+     */
+    static long countPostings(AbstractIndex index) {
+        long count = 0;
+        for (Map.Entry<AbstractTerm, AbstractPostingList> entry : index.termToPostingListMapping.entrySet()) {
+            count += entry.getValue().size();
+        }
+        return count;
+    }
+
+    /**
+     * 生成单词出现的文档数按Zipf分布的索引，第term个单词("t" + term)出现在约docCount/(term+1)个文档里，
+     * 每次出现有1到3个位置
+     * @param random ：随机数发生器
+     * @param termCount ：单词数
+     * @param docCount ：文档数
+     * @return ：索引
+     */
+    static Index zipfIndex(Random random, int termCount, int docCount) {
+        Index index = new Index();
+        for (int docId = 0; docId < docCount; docId++) {
+            index.docIdToDocPathMapping.put(docId, "/corpus/doc" + docId + ".txt");
+        }
+        for (int term = 0; term < termCount; term++) {
+            IntPostingList list = new IntPostingList();
+            double probability = 1.0 / (term + 1);
+            for (int docId = 0; docId < docCount; docId++) {
+                if (docId != term % docCount && random.nextDouble() >= probability) {
+                    continue;
+                }
+                IntArrayList positions = new IntArrayList(4);
+                int position = 0;
+                for (int i = 1 + random.nextInt(3); i > 0; i--) {
+                    position += 1 + random.nextInt(100);
+                    positions.add(position);
+                }
+                list.add(docId, positions);
+            }
+            list.trimToSize();
+            index.termToPostingListMapping.put(new Term("t" + term), list);
+        }
+        return index;
+    }
+
+    /**
+     * 检查条件成立，不成立时抛出IllegalStateException
+     * @param condition ：条件
+     * @param message ：不成立时的错误信息
+     */
+    static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    /**
+     * 检查两个PostingList的每个Posting的docId、freq和位置都相同
+     * @param name ：PostingList的名称，用于错误信息
+     * @param expected ：参照的PostingList
+     * @param actual ：被检查的PostingList
+     */
+    static void checkSamePostings(String name, AbstractPostingList expected, AbstractPostingList actual) {
+        check(actual != null && expected.size() == actual.size(), name + "的Posting个数不同");
+        for (int i = 0; i < expected.size(); i++) {
+            AbstractPosting e = expected.get(i);
+            AbstractPosting a = actual.get(i);
+            check(e.getDocId() == a.getDocId() && e.getFreq() == a.getFreq()
+                    && e.getPositions().equals(a.getPositions()), name + "的第" + i + "个Posting不同");
+        }
+    }
+
+    /**
+     * 检查两个索引的文档表、单词和每个单词的PostingList都相同
+     * @param expected ：参照的索引
+     * @param actual ：被检查的索引
+     */
+    static void checkSameIndex(AbstractIndex expected, AbstractIndex actual) {
+        check(expected.docIdToDocPathMapping.equals(actual.docIdToDocPathMapping), "文档表不同");
+        check(expected.termToPostingListMapping.size() == actual.termToPostingListMapping.size(), "单词数不同");
+        Iterator<Map.Entry<AbstractTerm, AbstractPostingList>> it =
+                actual.termToPostingListMapping.entrySet().iterator();
+        for (Map.Entry<AbstractTerm, AbstractPostingList> entry : expected.termToPostingListMapping.entrySet()) {
+            Map.Entry<AbstractTerm, AbstractPostingList> other = it.next();
+            String term = entry.getKey().getContent();
+            check(term.equals(other.getKey().getContent()), "单词不同: " + term);
+            checkSamePostings(term, entry.getValue(), other.getValue());
+        }
+    }
+}
@@ -2,9 +2,16 @@ package hust.cs.javacourse.search.run;
 
 import hust.cs.javacourse.search.index.AbstractIndex;
 import hust.cs.javacourse.search.index.AbstractIndexBuilder;
+import hust.cs.javacourse.search.index.impl.ContainerDocumentBuilder;
+import hust.cs.javacourse.search.index.impl.ContainerIndexBuilder;
 import hust.cs.javacourse.search.index.impl.DocumentBuilder;
+import hust.cs.javacourse.search.index.impl.DocumentStore;
+import hust.cs.javacourse.search.index.impl.IncrementalIndexBuilder;
 import hust.cs.javacourse.search.index.impl.Index;
 import hust.cs.javacourse.search.index.impl.IndexBuilder;
+import hust.cs.javacourse.search.index.impl.ParallelIndexBuilder;
+import hust.cs.javacourse.search.index.impl.PipelinedIndexBuilder;
+import hust.cs.javacourse.search.index.impl.SpimiIndexBuilder;
 import hust.cs.javacourse.search.util.Config;
 
 import java.io.File;
@@ -23,13 +30,28 @@ public class TestBuildIndex {
         System.out.println("创建倒排索引，创建模式：");
         System.out.println("1. 从文本文档目录读取文档内容进行创建");
         System.out.println("2. 从已有的序列化索引文件反序列化进行创建");
+        System.out.println("3. 从文本文档目录多线程并行读取文档内容进行创建");
+        System.out.println("4. 从文本文档目录分段构建并归并，直接写出索引文件");
+        System.out.println("5. 递归遍历文本文档目录，只把新增、修改和删除的文档增量更新到已有的索引文件");
+        System.out.println("6. 从文本文档目录用读文件、分词、倒排三个阶段的流水线进行创建，输出各阶段统计");
+        System.out.println("7. 从包含JSONL、TREC容器文件的目录创建，容器文件里的每个记录是一个文档");
         System.out.print("请输入数字：");
         Scanner scan = new Scanner(System.in);
         int opt = scan.nextInt();
         AbstractIndex index;
         switch (opt) {
             case 1:
-                AbstractIndexBuilder indexBuilder = new IndexBuilder(new DocumentBuilder());
+            case 3:
+                String indexFile = Config.INDEX_DIR + "index.dat";
+                AbstractIndexBuilder indexBuilder;
+                if (opt == 1) {
+                    // 同时保存文档内容，查询结果直接从文档内容文件读取内容
+                    IndexBuilder serialBuilder = new IndexBuilder(new DocumentBuilder());
+                    serialBuilder.setDocumentStore(DocumentStore.storeFile(new File(indexFile)));
+                    indexBuilder = serialBuilder;
+                } else {
+                    indexBuilder = new ParallelIndexBuilder(new DocumentBuilder());
+                }
                 index = indexBuilder.buildIndex(Config.DOC_DIR);
                 if (index.getDictionary().isEmpty()){
                     System.out.println("Warning: 索引表为空！");
@@ -38,7 +60,6 @@ public class TestBuildIndex {
                 System.out.println(Config.DOC_DIR);
                 System.out.println("倒排索引内容：");
                 System.out.println(index);
-                String indexFile = Config.INDEX_DIR + "index.dat";
                 try {
                     index.save(new File(indexFile)); //索引保存到文件
                 } catch (IOException e) {
@@ -55,6 +76,50 @@ public class TestBuildIndex {
                 System.out.println("倒排索引内容：");
                 System.out.println(index);
                 break;
+            case 4:
+                try {
+                    SpimiIndexBuilder spimiBuilder = new SpimiIndexBuilder(new DocumentBuilder());
+                    spimiBuilder.setDocumentStore(DocumentStore.storeFile(new File(Config.INDEX_DIR + "index.dat")));
+                    spimiBuilder.buildIndex(Config.DOC_DIR, new File(Config.INDEX_DIR + "index.dat"));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                System.out.println("索引文件：");
+                System.out.println(Config.INDEX_DIR + "index.dat");
+                break;
+            case 5:
+                IncrementalIndexBuilder incrementalBuilder =
+                        new IncrementalIndexBuilder(new DocumentBuilder(), new File(Config.INDEX_DIR + "index.dat"));
+                index = incrementalBuilder.buildIndex(Config.DOC_DIR);
+                System.out.println("文档变化：" + incrementalBuilder.getLastChanges());
+                System.out.println("文档数：" + index.docIdToDocPathMapping.size());
+                break;
+            case 6:
+                PipelinedIndexBuilder pipelinedBuilder = new PipelinedIndexBuilder(new DocumentBuilder());
+                pipelinedBuilder.setDocumentStore(DocumentStore.storeFile(new File(Config.INDEX_DIR + "index.dat")));
+                index = pipelinedBuilder.buildIndex(Config.DOC_DIR);
+                for (PipelinedIndexBuilder.StageStats stage : pipelinedBuilder.getStats()) {
+                    System.out.println(stage);
+                }
+                try {
+                    index.save(new File(Config.INDEX_DIR + "index.dat"));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                System.out.println("索引文件：");
+                System.out.println(Config.INDEX_DIR + "index.dat");
+                break;
+            case 7:
+                index = new ContainerIndexBuilder(new ContainerDocumentBuilder()).buildIndex(Config.DOC_DIR);
+                System.out.println("文档数：" + index.docIdToDocPathMapping.size());
+                try {
+                    index.save(new File(Config.INDEX_DIR + "index.dat"));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                System.out.println("索引文件：");
+                System.out.println(Config.INDEX_DIR + "index.dat");
+                break;
             default:
                 System.out.println("输入格式错误!");
                 break;
@@ -0,0 +1,116 @@
+package hust.cs.javacourse.search.run;
+
+import hust.cs.javacourse.search.index.AbstractDocumentBuilder;
+import hust.cs.javacourse.search.index.impl.DocumentBuilder;
+import hust.cs.javacourse.search.index.impl.Index;
+import hust.cs.javacourse.search.index.impl.IndexBuilder;
+import hust.cs.javacourse.search.index.impl.PipelinedIndexBuilder;
+import hust.cs.javacourse.search.util.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <pre>
+ * 测试索引构建时间随文档集规模的增长情况.
+ *      在临时目录里生成规模依次翻倍的随机文档集，分别用批量加载模式(IndexBuilder)和
+ *      每添加一个文档就optimize一次的逐个添加模式构建索引，输出构建时间和平均每个文档的耗时.
+ *      批量加载模式下平均每个文档的耗时应该基本不随规模变化.
+ *      同时输出流水线构建(PipelinedIndexBuilder)的时间，最后输出最大文档集上流水线各阶段的统计.
+ * </pre>
+ */
+public class TestBuildPerformance {
+    /**
+     * 最小文档集的文档数
+     */
+    private static final int BASE_DOC_COUNT = 250;
+
+    /**
+     * 文档集规模翻倍的次数
+     */
+    private static final int ROUNDS = 4;
+
+    /**
+     * 每个文档包含的单词数
+     */
+    private static final int WORDS_PER_DOC = 300;
+
+    /**
+     * 随机词表的大小
+     */
+    private static final int VOCABULARY_SIZE = 20000;
+
+    /**
+     * 性能测试程序入口
+     * @param args : 命令行参数
+     */
+    public static void main(String[] args) throws IOException {
+        Random random = new Random(42);
+        String[] vocabulary = PerformanceUtil.randomVocabulary(random, VOCABULARY_SIZE);
+        System.out.println("文档数\t批量加载(ms)\t每文档(ms)\t逐个添加(ms)\t每文档(ms)\t流水线(ms)\t每文档(ms)");
+        PipelinedIndexBuilder pipelinedBuilder = null;
+        for (int round = 0, docCount = BASE_DOC_COUNT; round < ROUNDS; round++, docCount *= 2) {
+            File dir = Files.createTempDirectory("corpus").toFile();
+            try {
+                writeCorpus(dir, docCount, vocabulary, random);
+                long start = System.nanoTime();
+                new IndexBuilder(new DocumentBuilder()).buildIndex(dir.getPath());
+                double bulkMillis = (System.nanoTime() - start) / 1e6;
+
+                start = System.nanoTime();
+                buildWithOptimizePerDocument(dir.getPath(), new DocumentBuilder());
+                double perDocMillis = (System.nanoTime() - start) / 1e6;
+
+                start = System.nanoTime();
+                pipelinedBuilder = new PipelinedIndexBuilder(new DocumentBuilder());
+                pipelinedBuilder.buildIndex(dir.getPath());
+                double pipelinedMillis = (System.nanoTime() - start) / 1e6;
+
+                System.out.printf("%d\t%.1f\t%.3f\t%.1f\t%.3f\t%.1f\t%.3f%n", docCount,
+                        bulkMillis, bulkMillis / docCount, perDocMillis, perDocMillis / docCount,
+                        pipelinedMillis, pipelinedMillis / docCount);
+            } finally {
+                PerformanceUtil.deleteCorpus(dir);
+            }
+        }
+        for (PipelinedIndexBuilder.StageStats stage : pipelinedBuilder.getStats()) {
+            System.out.println(stage);
+        }
+    }
+
+    /**
+     * 不使用批量加载模式，每添加一个文档都会执行一次optimize
+     * @param rootDirectory ：文档目录
+     * @param docBuilder ：Document构造器
+     */
+    private static void buildWithOptimizePerDocument(String rootDirectory, AbstractDocumentBuilder docBuilder) {
+        Index index = new Index();
+        List<String> filePaths = FileUtil.list(rootDirectory);
+        filePaths.sort(String::compareTo);
+        int docId = 0;
+        for (String docPath : filePaths) {
+            index.addDocument(docBuilder.build(docId++, docPath, new File(docPath)));
+        }
+    }
+
+    /**
+     * 在指定目录下生成随机文档集
+     * @param dir ：目标目录
+     * @param docCount ：文档数
+     * @param vocabulary ：词表
+     * @param random ：随机数发生器
+     */
+    private static void writeCorpus(File dir, int docCount, String[] vocabulary, Random random) {
+        for (int i = 0; i < docCount; i++) {
+            StringBuilder content = new StringBuilder();
+            for (int j = 0; j < WORDS_PER_DOC; j++) {
+                content.append(vocabulary[random.nextInt(vocabulary.length)]);
+                content.append(j % 15 == 14 ? ".\n" : " ");
+            }
+            FileUtil.write(content.toString(), new File(dir, String.format("%06d.txt", i)).getPath());
+        }
+    }
+}
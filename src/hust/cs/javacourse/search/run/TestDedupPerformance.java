@@ -0,0 +1,147 @@
+package hust.cs.javacourse.search.run;
+
+import hust.cs.javacourse.search.index.AbstractIndex;
+import hust.cs.javacourse.search.index.impl.DocumentBuilder;
+import hust.cs.javacourse.search.index.impl.DuplicateDetector;
+import hust.cs.javacourse.search.index.impl.IndexBuilder;
+import hust.cs.javacourse.search.index.impl.PipelinedIndexBuilder;
+import hust.cs.javacourse.search.util.Config;
+import hust.cs.javacourse.search.util.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * <pre>
+ * 测试构建索引时检测近似重复文档的效果和代价.
+ *      在临时目录里生成随机文档集，其中一部分文档是其它文档的副本，只改动了少量单词;
+ *      分别不检测和检测近似重复文档构建索引，输出构建时间、Posting总数，以及检测器的统计.
+ *      检测器保存的近似重复文档读回后与构建时的相同.
+ *      再用PipelinedIndexBuilder检测近似重复文档构建一次，找出的近似重复文档和索引与IndexBuilder相同.
+ * </pre>
+ */
+public class TestDedupPerformance {
+    /**
+     * 原始文档数
+     */
+    private static final int ORIGINAL_DOC_COUNT = 2000;
+
+    /**
+     * 近似重复的副本数
+     */
+    private static final int COPY_COUNT = 1000;
+
+    /**
+     * 每个文档包含的单词数
+     */
+    private static final int WORDS_PER_DOC = 300;
+
+    /**
+     * 副本里改动的单词数
+     */
+    private static final int EDITS_PER_COPY = 3;
+
+    /**
+     * 随机词表的大小
+     */
+    private static final int VOCABULARY_SIZE = 20000;
+
+    /**
+     * 性能测试程序入口
+     * @param args : 命令行参数
+     */
+    public static void main(String[] args) throws IOException {
+        Random random = new Random(42);
+        File dir = Files.createTempDirectory("dedup").toFile();
+        File linksFile = File.createTempFile("dedup", ".dup");
+        try {
+            int copies = writeCorpus(dir, random);
+            System.out.println("文档数：" + (ORIGINAL_DOC_COUNT + COPY_COUNT) + "，其中近似重复的副本：" + copies);
+
+            // 预热，避免第一次构建包含JIT编译的时间
+            new IndexBuilder(new DocumentBuilder()).buildIndex(dir.getPath());
+            long start = System.nanoTime();
+            AbstractIndex plain = new IndexBuilder(new DocumentBuilder()).buildIndex(dir.getPath());
+            double plainMillis = (System.nanoTime() - start) / 1e6;
+
+            IndexBuilder builder = new IndexBuilder(new DocumentBuilder());
+            DuplicateDetector detector = new DuplicateDetector();
+            builder.setDuplicateDetector(detector, linksFile);
+            start = System.nanoTime();
+            AbstractIndex deduped = builder.buildIndex(dir.getPath());
+            double dedupMillis = (System.nanoTime() - start) / 1e6;
+
+            long plainPostings = PerformanceUtil.countPostings(plain);
+            long dedupPostings = PerformanceUtil.countPostings(deduped);
+            System.out.printf("不检测：%.1f ms，Posting：%d%n", plainMillis, plainPostings);
+            System.out.printf("检测：  %.1f ms，Posting：%d，减少 %.1f%%%n", dedupMillis, dedupPostings,
+                    100.0 * (plainPostings - dedupPostings) / plainPostings);
+            System.out.println("检测器：" + detector);
+            checkLinks(detector, DuplicateDetector.load(linksFile, Config.DEDUP_MAX_HAMMING));
+
+            PipelinedIndexBuilder pipelined = new PipelinedIndexBuilder(new DocumentBuilder());
+            DuplicateDetector pipelinedDetector = new DuplicateDetector();
+            pipelined.setDuplicateDetector(pipelinedDetector);
+            start = System.nanoTime();
+            AbstractIndex pipelinedIndex = pipelined.buildIndex(dir.getPath());
+            System.out.printf("流水线检测：%.1f ms，Posting：%d%n", (System.nanoTime() - start) / 1e6,
+                    PerformanceUtil.countPostings(pipelinedIndex));
+            for (PipelinedIndexBuilder.StageStats stage : pipelined.getStats()) {
+                System.out.println(stage);
+            }
+            if (!pipelinedDetector.getDuplicates().equals(detector.getDuplicates())
+                    || !pipelinedIndex.docIdToDocPathMapping.equals(deduped.docIdToDocPathMapping)
+                    || PerformanceUtil.countPostings(pipelinedIndex) != dedupPostings) {
+                throw new IllegalStateException("流水线构建找出的近似重复文档与IndexBuilder不同");
+            }
+        } finally {
+            PerformanceUtil.deleteCorpus(dir);
+            linksFile.delete();
+        }
+    }
+
+    /**
+     * 检查读回的近似重复文档和路径与构建时的相同，不同时抛出IllegalStateException
+     * @param expected ：构建时的检测器
+     * @param loaded ：读回的检测器
+     */
+    private static void checkLinks(DuplicateDetector expected, DuplicateDetector loaded) {
+        if (!expected.getDuplicates().equals(loaded.getDuplicates())) {
+            throw new IllegalStateException("读回的近似重复文档不同");
+        }
+        for (int docId : expected.getDuplicates().keySet()) {
+            String path = expected.getDuplicatePath(docId);
+            if (path == null || !path.equals(loaded.getDuplicatePath(docId))) {
+                throw new IllegalStateException("读回的近似重复文档路径不同: " + docId);
+            }
+        }
+    }
+
+    /**
+     * 在指定目录下生成随机文档和它们的近似重复副本
+     * @param dir ：目标目录
+     * @param random ：随机数发生器
+     * @return ：副本数
+     */
+    private static int writeCorpus(File dir, Random random) {
+        String[] vocabulary = PerformanceUtil.randomVocabulary(random, VOCABULARY_SIZE);
+        String[][] originals = new String[ORIGINAL_DOC_COUNT][WORDS_PER_DOC];
+        for (int i = 0; i < ORIGINAL_DOC_COUNT; i++) {
+            for (int j = 0; j < WORDS_PER_DOC; j++) {
+                originals[i][j] = vocabulary[random.nextInt(vocabulary.length)];
+            }
+            FileUtil.write(String.join(" ", originals[i]), new File(dir, String.format("%06d.txt", i)).getPath());
+        }
+        for (int i = 0; i < COPY_COUNT; i++) {
+            String[] copy = originals[random.nextInt(ORIGINAL_DOC_COUNT)].clone();
+            for (int j = 0; j < EDITS_PER_COPY; j++) {
+                copy[random.nextInt(copy.length)] = vocabulary[random.nextInt(vocabulary.length)];
+            }
+            FileUtil.write(String.join(" ", copy),
+                    new File(dir, String.format("%06d.txt", ORIGINAL_DOC_COUNT + i)).getPath());
+        }
+        return COPY_COUNT;
+    }
+}
@@ -0,0 +1,141 @@
+package hust.cs.javacourse.search.run;
+
+import hust.cs.javacourse.search.index.impl.Index;
+import hust.cs.javacourse.search.index.impl.MappedIndex;
+import hust.cs.javacourse.search.util.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+/**
+ * <pre>
+ * 比较Java对象序列化格式和IndexFile格式的索引文件的保存、读入速度.
+ *      生成一个单词出现的文档数按Zipf分布的索引，用Index.save分别保存成两种格式，
+ *      再用Index.load把整个索引读入内存(IndexFile格式读入前检查整个文件的CRC32)，
+ *      以及用MappedIndex检查整个文件的CRC32后映射. 每项重复几次取最快的一次，输出时间和每秒处理的MB数.
+ *      最后检查三种方式读入的索引都与保存前的相同，并且改动IndexFile格式文件头、文档表、PostingList段
+ *      或单词字典里的任意一个字节后，检查CRC32的Index.load都会失败.
+ * </pre>
+ */
+public class TestIndexFormatPerformance {
+    /**
+     * 单词数
+     */
+    private static final int TERM_COUNT = 50000;
+
+    /**
+     * 文档数
+     */
+    private static final int DOC_COUNT = 20000;
+
+    /**
+     * 每项测试的重复次数
+     */
+    private static final int ROUNDS = 3;
+
+    /**
+     * 性能测试程序入口
+     * @param args : 命令行参数，第一个参数为临时文件的目录，缺省为系统临时目录
+     */
+    public static void main(String[] args) throws IOException {
+        File dir = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"));
+        File legacyFile = new File(dir, "format-test-legacy.dat");
+        File indexFile = new File(dir, "format-test-index.dat");
+        Index index = PerformanceUtil.zipfIndex(new Random(42), TERM_COUNT, DOC_COUNT);
+        System.out.printf("单词数：%d，文档数：%d%n", TERM_COUNT, DOC_COUNT);
+
+        long legacySave = Long.MAX_VALUE;
+        long indexFileSave = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            Config.MAPPED_INDEX_FORMAT = false;
+            long start = System.nanoTime();
+            index.save(legacyFile);
+            legacySave = Math.min(legacySave, System.nanoTime() - start);
+            Config.MAPPED_INDEX_FORMAT = true;
+            start = System.nanoTime();
+            index.save(indexFile);
+            indexFileSave = Math.min(indexFileSave, System.nanoTime() - start);
+        }
+        index = null;
+        report("对象序列化格式 保存", legacySave, legacyFile.length());
+        report("IndexFile格式  保存", indexFileSave, indexFile.length());
+
+        long legacyLoad = Long.MAX_VALUE;
+        long indexFileLoad = Long.MAX_VALUE;
+        long mappedOpen = Long.MAX_VALUE;
+        boolean verify = Config.VERIFY_INDEX_CHECKSUMS;
+        Config.VERIFY_INDEX_CHECKSUMS = true;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            new Index().load(legacyFile);
+            legacyLoad = Math.min(legacyLoad, System.nanoTime() - start);
+            start = System.nanoTime();
+            new Index().load(indexFile);
+            indexFileLoad = Math.min(indexFileLoad, System.nanoTime() - start);
+            start = System.nanoTime();
+            new MappedIndex().load(indexFile);
+            mappedOpen = Math.min(mappedOpen, System.nanoTime() - start);
+        }
+        report("对象序列化格式 Index.load", legacyLoad, legacyFile.length());
+        report("IndexFile格式  Index.load", indexFileLoad, indexFile.length());
+        report("IndexFile格式  MappedIndex(检查CRC32)", mappedOpen, indexFile.length());
+
+        // 用同样的种子重新生成保存前的索引
+        index = PerformanceUtil.zipfIndex(new Random(42), TERM_COUNT, DOC_COUNT);
+        Index loaded = new Index();
+        loaded.load(legacyFile);
+        PerformanceUtil.checkSameIndex(index, loaded);
+        loaded = new Index();
+        loaded.load(indexFile);
+        PerformanceUtil.checkSameIndex(index, loaded);
+        MappedIndex mapped = new MappedIndex();
+        mapped.load(indexFile);
+        PerformanceUtil.checkSameIndex(index, mapped);
+        checkCorruptionDetected(indexFile);
+        Config.VERIFY_INDEX_CHECKSUMS = verify;
+        System.out.println("读入的索引与保存前的相同，损坏的文件都被发现");
+
+        legacyFile.delete();
+        indexFile.delete();
+    }
+
+    /**
+     * 依次改动文件头、文档表、文件中间(PostingList段)和最后一个字节(单词字典)，检查Index.load都抛出IOException.
+     * 每次检查后恢复原来的字节
+     * @param indexFile ：IndexFile格式的索引文件
+     */
+    private static void checkCorruptionDetected(File indexFile) throws IOException {
+        long length = indexFile.length();
+        long[] positions = {20, 100, length / 2, length - 1};
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "rw")) {
+            for (long position : positions) {
+                file.seek(position);
+                int original = file.read();
+                file.seek(position);
+                file.write(original ^ 0x10);
+                try {
+                    new Index().load(indexFile);
+                    throw new IllegalStateException("第" + position + "个字节损坏的索引文件读入成功");
+                } catch (IOException e) {
+                    // 预期的结果
+                } finally {
+                    file.seek(position);
+                    file.write(original);
+                }
+            }
+        }
+    }
+
+    /**
+     * 输出时间和吞吐量
+     * @param name ：测试的名称
+     * @param nanos ：纳秒数
+     * @param bytes ：文件字节数
+     */
+    private static void report(String name, long nanos, long bytes) {
+        System.out.printf("%s：%.1f ms，%.1f MB，%.1f MB/s%n", name, nanos / 1e6, bytes / 1048576.0,
+                bytes / 1048576.0 / (nanos / 1e9));
+    }
+}
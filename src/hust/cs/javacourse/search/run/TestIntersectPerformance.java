@@ -0,0 +1,120 @@
+package hust.cs.javacourse.search.run;
+
+import hust.cs.javacourse.search.index.AbstractPostingList;
+import hust.cs.javacourse.search.index.AbstractPostingsIterator;
+import hust.cs.javacourse.search.index.impl.IntPostingList;
+import hust.cs.javacourse.search.index.impl.Posting;
+
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * <pre>
+ * 测试一个罕见单词和一个常见单词求交集(AND查询)的速度.
+ *      原来的做法对较短PostingList的每个Posting在另一个PostingList里逐个比较查找docId，花费与两个长度的乘积成正比;
+ *      迭代器的做法由较短的PostingList驱动，对较长的PostingList调用advance按块跳过，
+ *      花费大致与较短的PostingList成正比.
+ * </pre>
+ */
+public class TestIntersectPerformance {
+    /**
+     * 常见单词出现的文档数
+     */
+    private static final int COMMON_DOCS = 500000;
+
+    /**
+     * 罕见单词出现的文档数
+     */
+    private static final int RARE_DOCS = 200;
+
+    /**
+     * 查询的轮数
+     */
+    private static final int ROUNDS = 20;
+
+    /**
+     * 性能测试程序入口
+     * @param args : 命令行参数
+     */
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        IntPostingList common = new IntPostingList();
+        for (int docId = 0; docId < COMMON_DOCS * 2; docId += 1 + random.nextInt(3)) {
+            common.add(new Posting(docId, 1, Collections.singletonList(0)));
+        }
+        IntPostingList rare = new IntPostingList();
+        while (rare.size() < RARE_DOCS) {
+            rare.add(new Posting(random.nextInt(COMMON_DOCS * 2), 1, Collections.singletonList(0)));
+        }
+        System.out.println("常见单词：" + common.size() + " 个文档，罕见单词：" + rare.size() + " 个文档");
+
+        for (int warmup = 0; warmup < 3; warmup++) {
+            scan(rare, common);
+            intersect(rare, common);
+        }
+        long start = System.nanoTime();
+        int matches = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            matches = scan(rare, common);
+        }
+        report("逐个比较", System.nanoTime() - start, matches);
+        start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            matches = intersect(rare, common);
+        }
+        report("迭代器advance", System.nanoTime() - start, matches);
+    }
+
+    /**
+     * 原来的做法：对第一个PostingList的每个Posting在第二个PostingList里从头逐个比较
+     * @param list1 ：第一个PostingList
+     * @param list2 ：第二个PostingList
+     * @return ：交集的大小
+     */
+    private static int scan(AbstractPostingList list1, IntPostingList list2) {
+        int matches = 0;
+        for (int i = 0; i < list1.size(); i++) {
+            int docId = list1.get(i).getDocId();
+            for (int j = 0; j < list2.size(); j++) {
+                if (list2.getDocId(j) == docId) {
+                    matches++;
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * 用迭代器求交集，较短的PostingList驱动
+     * @param list1 ：第一个PostingList
+     * @param list2 ：第二个PostingList
+     * @return ：交集的大小
+     */
+    private static int intersect(AbstractPostingList list1, AbstractPostingList list2) {
+        AbstractPostingsIterator lead = list1.size() <= list2.size() ? list1.iterator() : list2.iterator();
+        AbstractPostingsIterator other = list1.size() <= list2.size() ? list2.iterator() : list1.iterator();
+        int matches = 0;
+        int docId = lead.nextDoc();
+        while (docId != AbstractPostingsIterator.NO_MORE_DOCS) {
+            int otherDocId = other.advance(docId);
+            if (otherDocId == docId) {
+                matches++;
+                docId = lead.nextDoc();
+            } else {
+                docId = lead.advance(otherDocId);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * 输出每次查询的时间
+     * @param name ：做法的名称
+     * @param nanos ：纳秒数
+     * @param matches ：交集的大小
+     */
+    private static void report(String name, long nanos, int matches) {
+        System.out.printf("%s：每次 %.3f ms，交集 %d 个文档%n", name, nanos / 1e6 / ROUNDS, matches);
+    }
+}
@@ -0,0 +1,206 @@
+package hust.cs.javacourse.search.run;
+
+import hust.cs.javacourse.search.index.AbstractIndex;
+import hust.cs.javacourse.search.index.AbstractPostingList;
+import hust.cs.javacourse.search.index.AbstractPostingsIterator;
+import hust.cs.javacourse.search.index.impl.Index;
+import hust.cs.javacourse.search.index.impl.MappedIndex;
+import hust.cs.javacourse.search.index.impl.Term;
+import hust.cs.javacourse.search.util.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.util.Random;
+
+/**
+ * <pre>
+ * 比较用Index.load反序列化整个索引和用MappedIndex映射索引文件的打开时间、堆内存占用和查询时间.
+ *      生成一个单词出现的文档数按Zipf分布的索引，分别保存成Java对象序列化格式和IndexFile格式，
+ *      输出打开索引的时间、打开后占用的堆内存，查询一批单词并遍历查到的Posting的时间，
+ *      以及一批少见单词与常见单词求交集的时间(MappedPostingList的advance跳过常见单词的大部分块，不解码).
+ *      最后检查MappedIndex的迭代器遍历、advance和按docId查找的结果都与Index.load读入的索引相同.
+ * </pre>
+ */
+public class TestMappedIndexPerformance {
+    /**
+     * 单词数
+     */
+    private static final int TERM_COUNT = 50000;
+
+    /**
+     * 文档数
+     */
+    private static final int DOC_COUNT = 20000;
+
+    /**
+     * 查询的单词数
+     */
+    private static final int QUERIES = 10000;
+
+    /**
+     * 求交集时用到的常见单词数：t0、t1……
+     */
+    private static final int COMMON_TERMS = 10;
+
+    /**
+     * 性能测试程序入口
+     * @param args : 命令行参数，第一个参数为临时文件的目录，缺省为系统临时目录
+     */
+    public static void main(String[] args) throws IOException {
+        File dir = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"));
+        File legacyFile = new File(dir, "mapped-test-legacy.dat");
+        File mappedFile = new File(dir, "mapped-test-index.dat");
+        Random random = new Random(42);
+        Index index = PerformanceUtil.zipfIndex(random, TERM_COUNT, DOC_COUNT);
+        Config.MAPPED_INDEX_FORMAT = false;
+        index.save(legacyFile);
+        Config.MAPPED_INDEX_FORMAT = true;
+        index.save(mappedFile);
+        index = null;
+        System.out.printf("单词数：%d，文档数：%d，对象序列化格式 %.1f MB，IndexFile格式 %.1f MB%n", TERM_COUNT, DOC_COUNT,
+                legacyFile.length() / 1048576.0, mappedFile.length() / 1048576.0);
+
+        String[] queries = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = "t" + random.nextInt(TERM_COUNT);
+        }
+
+        long before = PerformanceUtil.usedMemory();
+        long start = System.nanoTime();
+        Index loaded = new Index();
+        loaded.load(legacyFile);
+        long openNanos = System.nanoTime() - start;
+        long heap = PerformanceUtil.usedMemory() - before;
+        report("Index.load", openNanos, heap);
+        query(loaded, queries);
+        long expected = intersect(loaded, queries);
+        Reference.reachabilityFence(loaded);
+        loaded = null;
+
+        before = PerformanceUtil.usedMemory();
+        start = System.nanoTime();
+        MappedIndex mapped = new MappedIndex();
+        mapped.load(mappedFile);
+        openNanos = System.nanoTime() - start;
+        heap = PerformanceUtil.usedMemory() - before;
+        report("MappedIndex", openNanos, heap);
+        query(mapped, queries);
+        PerformanceUtil.check(intersect(mapped, queries) == expected, "求交集的结果不同");
+        Reference.reachabilityFence(mapped);
+
+        loaded = new Index();
+        loaded.load(legacyFile);
+        checkIterators(loaded, mapped, queries, new Random(7));
+        System.out.println("MappedIndex的遍历、advance和查找结果与Index.load读入的索引相同");
+
+        legacyFile.delete();
+        mappedFile.delete();
+    }
+
+    /**
+     * 查询一批单词并遍历查到的每个Posting，输出每次查询的平均时间
+     * @param index ：索引
+     * @param queries ：查询的单词
+     */
+    private static void query(AbstractIndex index, String[] queries) {
+        long start = System.nanoTime();
+        long postings = 0;
+        for (String query : queries) {
+            AbstractPostingList list = index.search(new Term(query));
+            if (list != null) {
+                AbstractPostingsIterator it = list.iterator();
+                while (it.nextDoc() != AbstractPostingsIterator.NO_MORE_DOCS) {
+                    postings += it.freq() > 0 ? 1 : 0;
+                }
+            }
+        }
+        System.out.printf("  查询：每次 %.1f us (查到 %d 个Posting)%n",
+                (System.nanoTime() - start) / 1e3 / queries.length, postings);
+    }
+
+    /**
+     * 每个查询的单词依次与常见单词求交集：由较短的PostingList驱动，对较长的调用advance. 输出每次求交集的平均时间
+     * @param index ：索引
+     * @param queries ：查询的单词
+     * @return ：所有交集的docId之和，用于比较结果
+     */
+    private static long intersect(AbstractIndex index, String[] queries) {
+        long start = System.nanoTime();
+        long checksum = 0;
+        int matches = 0;
+        for (int i = 0; i < queries.length; i++) {
+            AbstractPostingList rare = index.search(new Term(queries[i]));
+            AbstractPostingList common = index.search(new Term("t" + i % COMMON_TERMS));
+            if (rare == null || common == null) {
+                continue;
+            }
+            AbstractPostingsIterator lead = rare.iterator();
+            AbstractPostingsIterator other = common.iterator();
+            if (rare.size() > common.size()) {
+                AbstractPostingsIterator t = lead;
+                lead = other;
+                other = t;
+            }
+            for (int doc = lead.nextDoc(); doc != AbstractPostingsIterator.NO_MORE_DOCS; doc = lead.nextDoc()) {
+                if (other.advance(doc) == doc) {
+                    checksum += doc + other.positions().get(0);
+                    matches++;
+                }
+            }
+        }
+        System.out.printf("  求交集：每次 %.1f us (%d 个文档)%n",
+                (System.nanoTime() - start) / 1e3 / queries.length, matches);
+        return checksum;
+    }
+
+    /**
+     * 检查MappedIndex的迭代器与Index.load读入的索引逐个Posting相同，advance到随机的docId、
+     * 按docId查找的结果也相同，不同时抛出IllegalStateException
+     * @param expected ：Index.load读入的索引
+     * @param mapped ：映射的索引
+     * @param queries ：检查的单词
+     * @param random ：随机数发生器
+     */
+    private static void checkIterators(AbstractIndex expected, MappedIndex mapped, String[] queries,
+                                       Random random) {
+        for (int i = 0; i < queries.length; i++) {
+            String term = i < COMMON_TERMS ? "t" + i : queries[i];
+            AbstractPostingList e = expected.search(new Term(term));
+            AbstractPostingList a = mapped.search(new Term(term));
+            PerformanceUtil.check(e.size() == a.size(), term + "的Posting个数不同");
+            AbstractPostingsIterator ei = e.iterator();
+            AbstractPostingsIterator ai = a.iterator();
+            int doc;
+            do {
+                doc = ei.nextDoc();
+                PerformanceUtil.check(ai.nextDoc() == doc, term + "遍历的docId不同");
+                PerformanceUtil.check(doc == AbstractPostingsIterator.NO_MORE_DOCS
+                        || ei.freq() == ai.freq() && ei.positions().equals(ai.positions()), term + "遍历的Posting不同");
+            } while (doc != AbstractPostingsIterator.NO_MORE_DOCS);
+
+            ei = e.iterator();
+            ai = a.iterator();
+            for (int target = random.nextInt(50); ; target += 1 + random.nextInt(DOC_COUNT / 20)) {
+                doc = ei.advance(target);
+                PerformanceUtil.check(ai.advance(target) == doc, term + " advance到" + target + "的结果不同");
+                if (doc == AbstractPostingsIterator.NO_MORE_DOCS) {
+                    break;
+                }
+                PerformanceUtil.check(ei.positions().equals(ai.positions()), term + " advance后的位置不同");
+                int docId = random.nextInt(DOC_COUNT);
+                PerformanceUtil.check(e.indexOf(docId) == a.indexOf(docId), term + "查找" + docId + "的结果不同");
+            }
+        }
+    }
+
+    /**
+     * 输出打开时间和堆内存
+     * @param name ：打开方式
+     * @param nanos ：打开时间(纳秒)
+     * @param heap ：打开后增加的堆内存(字节)
+     */
+    private static void report(String name, long nanos, long heap) {
+        System.out.printf("%s：打开 %.1f ms，堆内存 %.1f MB%n", name, nanos / 1e6, heap / 1048576.0);
+    }
+}
@@ -0,0 +1,118 @@
+package hust.cs.javacourse.search.run;
+
+import hust.cs.javacourse.search.index.AbstractPosting;
+import hust.cs.javacourse.search.index.impl.Posting;
+import hust.cs.javacourse.search.index.impl.PostingList;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <pre>
+ * 测试为一个在每个文档里都出现的单词构建PostingList的速度.
+ *      原来的add先从头扫描查重，再从头扫描找插入位置，构建n个Posting的花费与n的平方成正比;
+ *      现在按docId递增加入时只检查末尾直接追加，乱序的一批Posting用add(List)排序后归并，花费都接近线性.
+ * </pre>
+ */
+public class TestPostingListBuildPerformance {
+    /**
+     * 文档数
+     */
+    private static final int DOC_COUNT = 50000;
+
+    /**
+     * 性能测试程序入口
+     * @param args : 命令行参数
+     */
+    public static void main(String[] args) {
+        List<AbstractPosting> postings = new ArrayList<>(DOC_COUNT);
+        for (int docId = 0; docId < DOC_COUNT; docId++) {
+            postings.add(new Posting(docId, 1, Collections.singletonList(0)));
+        }
+        List<AbstractPosting> shuffled = new ArrayList<>(postings);
+        Collections.shuffle(shuffled, new Random(42));
+
+        for (int warmup = 0; warmup < 3; warmup++) {
+            scanAdd(postings.subList(0, DOC_COUNT / 10));
+            append(postings);
+            merge(shuffled);
+        }
+        long start = System.nanoTime();
+        int size = scanAdd(postings);
+        report("逐个扫描插入", System.nanoTime() - start, size);
+        start = System.nanoTime();
+        size = append(postings);
+        report("按docId递增追加", System.nanoTime() - start, size);
+        start = System.nanoTime();
+        size = merge(shuffled);
+        report("乱序批量归并", System.nanoTime() - start, size);
+    }
+
+    /**
+     * 原来的做法：每次加入先扫描查重，再扫描找插入位置
+     * @param postings ：要加入的Posting
+     * @return ：PostingList的大小
+     */
+    private static int scanAdd(List<AbstractPosting> postings) {
+        List<AbstractPosting> list = new ArrayList<>();
+        for (AbstractPosting posting : postings) {
+            boolean duplicate = false;
+            for (AbstractPosting ele : list) {
+                if (ele.getDocId() == posting.getDocId()) {
+                    duplicate = true;
+                    break;
+                }
+            }
+            if (duplicate) {
+                continue;
+            }
+            int i;
+            for (i = 0; i < list.size(); i++) {
+                if (list.get(i).getDocId() > posting.getDocId()) {
+                    break;
+                }
+            }
+            list.add(i, posting);
+        }
+        return list.size();
+    }
+
+    /**
+     * 按docId递增逐个调用add
+     * @param postings ：要加入的Posting
+     * @return ：PostingList的大小
+     */
+    private static int append(List<AbstractPosting> postings) {
+        PostingList list = new PostingList();
+        for (AbstractPosting posting : postings) {
+            list.add(posting);
+        }
+        return list.size();
+    }
+
+    /**
+     * 把乱序的Posting分成10批调用add(List)
+     * @param postings ：要加入的Posting
+     * @return ：PostingList的大小
+     */
+    private static int merge(List<AbstractPosting> postings) {
+        PostingList list = new PostingList();
+        int batch = postings.size() / 10;
+        for (int i = 0; i < postings.size(); i += batch) {
+            list.add(postings.subList(i, Math.min(postings.size(), i + batch)));
+        }
+        return list.size();
+    }
+
+    /**
+     * 输出构建时间
+     * @param name ：做法的名称
+     * @param nanos ：纳秒数
+     * @param size ：PostingList的大小
+     */
+    private static void report(String name, long nanos, int size) {
+        System.out.printf("%s：%.2f ms，%d 个Posting%n", name, nanos / 1e6, size);
+    }
+}
@@ -0,0 +1,185 @@
+package hust.cs.javacourse.search.run;
+
+import hust.cs.javacourse.search.index.AbstractPosting;
+import hust.cs.javacourse.search.index.AbstractPostingList;
+import hust.cs.javacourse.search.index.impl.IntPostingList;
+import hust.cs.javacourse.search.index.impl.Posting;
+import hust.cs.javacourse.search.index.impl.PostingList;
+import hust.cs.javacourse.search.util.IntArrayList;
+
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <pre>
+ * 比较PostingList和IntPostingList的内存占用和遍历速度.
+ *      生成一组在大量文档里出现的单词，分别用两种PostingList保存它们的全部Posting，
+ *      输出占用的堆内存，以及计分时遍历全部Posting和位置的时间.
+ * </pre>
+ */
+public class TestPostingListPerformance {
+    /**
+     * 单词数
+     */
+    private static final int TERM_COUNT = 1000;
+
+    /**
+     * 每个单词出现的文档数
+     */
+    private static final int DOCS_PER_TERM = 300;
+
+    /**
+     * 每个文档里单词平均出现的次数
+     */
+    private static final int AVERAGE_FREQ = 5;
+
+    /**
+     * 遍历的轮数
+     */
+    private static final int ROUNDS = 10;
+
+    /**
+     * 性能测试程序入口
+     * @param args : 命令行参数
+     */
+    public static void main(String[] args) {
+        int[][][] positions = generate(new Random(42));
+        long occurrences = 0;
+        for (int[][] termPositions : positions) {
+            for (int[] docPositions : termPositions) {
+                occurrences += docPositions.length;
+            }
+        }
+        System.out.println("单词数：" + TERM_COUNT + "，Posting数：" + TERM_COUNT * DOCS_PER_TERM
+                + "，出现次数：" + occurrences);
+
+        long before = PerformanceUtil.usedMemory();
+        AbstractPostingList[] boxed = new AbstractPostingList[TERM_COUNT];
+        for (int term = 0; term < TERM_COUNT; term++) {
+            boxed[term] = new PostingList();
+            for (int docId = 0; docId < DOCS_PER_TERM; docId++) {
+                List<Integer> list = new ArrayList<>(positions[term][docId].length);
+                for (int position : positions[term][docId]) {
+                    list.add(position);
+                }
+                boxed[term].add(new Posting(docId, list.size(), list));
+            }
+        }
+        long boxedBytes = PerformanceUtil.usedMemory() - before;
+
+        before = PerformanceUtil.usedMemory();
+        IntPostingList[] primitive = new IntPostingList[TERM_COUNT];
+        for (int term = 0; term < TERM_COUNT; term++) {
+            primitive[term] = new IntPostingList();
+            for (int docId = 0; docId < DOCS_PER_TERM; docId++) {
+                IntArrayList docPositions = new IntArrayList(positions[term][docId].length);
+                for (int position : positions[term][docId]) {
+                    docPositions.add(position);
+                }
+                primitive[term].add(docId, docPositions);
+            }
+            // 与Index.commitBulkLoad相同，构建完后去掉未使用的容量
+            primitive[term].trimToSize();
+        }
+        long primitiveBytes = PerformanceUtil.usedMemory() - before;
+        // 生成的位置在测量期间必须一直可达，否则被提前回收会让测量结果偏小
+        Reference.reachabilityFence(positions);
+        System.out.printf("PostingList：   %.1f MB%n", boxedBytes / 1048576.0);
+        System.out.printf("IntPostingList：%.1f MB，是PostingList的 1/%.1f%n",
+                primitiveBytes / 1048576.0, (double) boxedBytes / primitiveBytes);
+
+        for (int warmup = 0; warmup < 3; warmup++) {
+            score(boxed);
+            score(primitive);
+            scorePrimitive(primitive);
+        }
+        long start = System.nanoTime();
+        long checksum = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            checksum += score(boxed);
+        }
+        report("PostingList", System.nanoTime() - start, checksum);
+        start = System.nanoTime();
+        checksum = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            checksum += score(primitive);
+        }
+        report("IntPostingList视图", System.nanoTime() - start, checksum);
+        start = System.nanoTime();
+        checksum = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            checksum += scorePrimitive(primitive);
+        }
+        report("IntPostingList", System.nanoTime() - start, checksum);
+    }
+
+    /**
+     * 生成每个单词在每个文档里出现的位置，位置从小到大
+     * @param random ：随机数发生器
+     * @return ：第一维下标为单词，第二维下标为docId
+     */
+    private static int[][][] generate(Random random) {
+        int[][][] positions = new int[TERM_COUNT][DOCS_PER_TERM][];
+        for (int term = 0; term < TERM_COUNT; term++) {
+            for (int docId = 0; docId < DOCS_PER_TERM; docId++) {
+                int[] docPositions = new int[1 + random.nextInt(AVERAGE_FREQ * 2 - 1)];
+                int position = 0;
+                for (int i = 0; i < docPositions.length; i++) {
+                    position += 1 + random.nextInt(100);
+                    docPositions[i] = position;
+                }
+                positions[term][docId] = docPositions;
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * 通过AbstractPostingList接口遍历全部Posting和位置，模拟计分
+     * @param lists ：每个单词的PostingList
+     * @return ：校验和
+     */
+    private static long score(AbstractPostingList[] lists) {
+        long sum = 0;
+        for (AbstractPostingList list : lists) {
+            for (int i = 0; i < list.size(); i++) {
+                AbstractPosting posting = list.get(i);
+                List<Integer> positions = posting.getPositions();
+                sum += posting.getFreq();
+                for (int j = 0; j < positions.size(); j++) {
+                    sum += positions.get(j);
+                }
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * 通过IntPostingList的下标方法遍历全部Posting和位置，不创建视图
+     * @param lists ：每个单词的PostingList
+     * @return ：校验和
+     */
+    private static long scorePrimitive(IntPostingList[] lists) {
+        long sum = 0;
+        for (IntPostingList list : lists) {
+            for (int i = 0; i < list.size(); i++) {
+                sum += list.getFreq(i);
+                for (int j = 0; j < list.getPositionCount(i); j++) {
+                    sum += list.getPosition(i, j);
+                }
+            }
+        }
+        return sum;
+    }
+    /**
+     * 输出遍历时间
+     * @param name ：PostingList的名称
+     * @param nanos ：纳秒数
+     * @param checksum ：校验和
+     */
+    private static void report(String name, long nanos, long checksum) {
+        System.out.printf("%s：每轮 %.2f ms (校验和 %d)%n", name, nanos / 1e6 / ROUNDS, checksum);
+    }
+}
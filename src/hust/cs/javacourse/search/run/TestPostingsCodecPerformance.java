@@ -0,0 +1,221 @@
+package hust.cs.javacourse.search.run;
+
+import hust.cs.javacourse.search.index.AbstractPostingList;
+import hust.cs.javacourse.search.index.AbstractTerm;
+import hust.cs.javacourse.search.index.impl.IntPostingList;
+import hust.cs.javacourse.search.index.impl.Posting;
+import hust.cs.javacourse.search.index.impl.PostingList;
+import hust.cs.javacourse.search.index.impl.PostingsCodec;
+import hust.cs.javacourse.search.index.impl.Term;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * <pre>
+ * 比较原来的PostingList序列化格式和PostingsCodec压缩格式的大小和读取速度.
+ *      生成一组单词的PostingList，出现的文档数按Zipf分布，少数常见单词出现在大部分文档里;
+ *      分别把单词到PostingList的映射(与索引文件里的相同)序列化，输出字节数，
+ *      以及反序列化、单独用PostingsCodec解码的时间.
+ *      开始前先检查空列表(trimToSize后的和解码得到的)还能继续添加Posting;
+ *      计时前检查解码和反序列化得到的每个PostingList的docId、freq和位置都与原来的相同.
+ * </pre>
+ */
+public class TestPostingsCodecPerformance {
+    /**
+     * 单词数
+     */
+    private static final int TERM_COUNT = 2000;
+
+    /**
+     * 文档数
+     */
+    private static final int DOC_COUNT = 5000;
+
+    /**
+     * 每个文档的单词数
+     */
+    private static final int DOC_LENGTH = 1000;
+
+    /**
+     * 读取的轮数
+     */
+    private static final int ROUNDS = 5;
+
+    /**
+     * 性能测试程序入口
+     * @param args : 命令行参数
+     */
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+        checkEmptyListGrowth();
+        Random random = new Random(42);
+        TreeMap<AbstractTerm, AbstractPostingList> boxed = new TreeMap<>();
+        TreeMap<AbstractTerm, AbstractPostingList> compressed = new TreeMap<>();
+        long postings = 0;
+        long occurrences = 0;
+        for (int term = 0; term < TERM_COUNT; term++) {
+            // 第term个单词出现在约DOC_COUNT/(term+1)个文档里
+            double probability = 1.0 / (term + 1);
+            PostingList boxedList = new PostingList();
+            IntPostingList intList = new IntPostingList();
+            for (int docId = 0; docId < DOC_COUNT; docId++) {
+                if (random.nextDouble() >= probability) {
+                    continue;
+                }
+                int freq = 1 + random.nextInt(term < 10 ? 20 : 3);
+                List<Integer> positions = new ArrayList<>(freq);
+                int position = 0;
+                for (int i = 0; i < freq; i++) {
+                    position += 1 + random.nextInt(DOC_LENGTH / freq);
+                    positions.add(position);
+                }
+                boxedList.add(new Posting(docId, freq, positions));
+                intList.add(new Posting(docId, freq, positions));
+                postings++;
+                occurrences += freq;
+            }
+            if (!intList.isEmpty()) {
+                boxed.put(new Term("t" + term), boxedList);
+                compressed.put(new Term("t" + term), intList);
+            }
+        }
+        System.out.println("单词数：" + boxed.size() + "，Posting数：" + postings + "，出现次数：" + occurrences);
+
+        byte[] boxedBytes = serialize(boxed);
+        byte[] compressedBytes = serialize(compressed);
+        System.out.printf("原来的格式：%.2f MB%n", boxedBytes.length / 1048576.0);
+        System.out.printf("压缩格式：  %.2f MB，是原来的 1/%.1f%n", compressedBytes.length / 1048576.0,
+                (double) boxedBytes.length / compressedBytes.length);
+
+        List<byte[]> encoded = new ArrayList<>();
+        long encodedLength = 0;
+        for (AbstractPostingList list : compressed.values()) {
+            byte[] bytes = PostingsCodec.encode((IntPostingList) list);
+            encoded.add(bytes);
+            encodedLength += bytes.length;
+        }
+        System.out.printf("PostingList编码：%.2f MB，每个整数(docId、freq、位置) %.2f 字节%n",
+                encodedLength / 1048576.0, (double) encodedLength / (2 * postings + occurrences));
+        checkRoundTrip(boxed, encoded, compressedBytes);
+
+        for (int warmup = 0; warmup < 2; warmup++) {
+            deserialize(boxedBytes);
+            deserialize(compressedBytes);
+            decode(encoded);
+        }
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            deserialize(boxedBytes);
+        }
+        report("原来的格式反序列化", System.nanoTime() - start);
+        start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            deserialize(compressedBytes);
+        }
+        report("压缩格式反序列化", System.nanoTime() - start);
+        start = System.nanoTime();
+        long checksum = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            checksum += decode(encoded);
+        }
+        report("PostingsCodec解码", System.nanoTime() - start);
+        System.out.println("校验和：" + checksum);
+    }
+
+    /**
+     * 检查数组长度为0的IntPostingList还能添加Posting：清空后trimToSize的列表和从空列表的编码解码出的列表
+     */
+    private static void checkEmptyListGrowth() {
+        IntPostingList trimmed = new IntPostingList();
+        trimmed.add(new Posting(1, 1, new ArrayList<>(List.of(3))));
+        trimmed.remove(0);
+        trimmed.trimToSize();
+        IntPostingList decoded = PostingsCodec.decode(ByteBuffer.wrap(PostingsCodec.encode(new IntPostingList())));
+        for (IntPostingList list : List.of(trimmed, decoded)) {
+            for (int docId = 0; docId < 10; docId++) {
+                list.add(new Posting(docId, 1, new ArrayList<>(List.of(docId))));
+            }
+            if (list.size() != 10 || list.get(9).getDocId() != 9) {
+                throw new IllegalStateException("空列表添加Posting的结果不对：" + list);
+            }
+        }
+    }
+
+    /**
+     * 检查每个PostingList解码后、以及压缩格式反序列化后都与原来的相同
+     * @param boxed ：原来的单词到PostingList的映射
+     * @param encoded ：按单词顺序的每个PostingList的编码
+     * @param compressedBytes ：压缩格式序列化后的字节
+     */
+    @SuppressWarnings("unchecked")
+    private static void checkRoundTrip(TreeMap<AbstractTerm, AbstractPostingList> boxed, List<byte[]> encoded,
+                                       byte[] compressedBytes) throws IOException, ClassNotFoundException {
+        TreeMap<AbstractTerm, AbstractPostingList> deserialized;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(compressedBytes))) {
+            deserialized = (TreeMap<AbstractTerm, AbstractPostingList>) in.readObject();
+        }
+        PerformanceUtil.check(deserialized.size() == boxed.size(), "反序列化后的单词数不同");
+        int i = 0;
+        for (Map.Entry<AbstractTerm, AbstractPostingList> entry : boxed.entrySet()) {
+            String term = entry.getKey().getContent();
+            PerformanceUtil.checkSamePostings(term + "解码",
+                    entry.getValue(), PostingsCodec.decode(ByteBuffer.wrap(encoded.get(i++))));
+            PerformanceUtil.checkSamePostings(term + "反序列化", entry.getValue(), deserialized.get(entry.getKey()));
+        }
+    }
+
+    /**
+     * 与索引文件一样用ObjectOutputStream序列化单词到PostingList的映射
+     * @param map ：单词到PostingList的映射
+     * @return ：序列化后的字节
+     */
+    private static byte[] serialize(TreeMap<AbstractTerm, AbstractPostingList> map) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(map);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 反序列化单词到PostingList的映射
+     * @param bytes ：序列化后的字节
+     * @return ：单词数
+     */
+    private static int deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return ((TreeMap<?, ?>) in.readObject()).size();
+        }
+    }
+
+    /**
+     * 解码全部PostingList
+     * @param encoded ：每个PostingList的编码
+     * @return ：Posting总数
+     */
+    private static long decode(List<byte[]> encoded) {
+        long count = 0;
+        for (byte[] bytes : encoded) {
+            count += PostingsCodec.decode(ByteBuffer.wrap(bytes)).size();
+        }
+        return count;
+    }
+
+    /**
+     * 输出每轮的时间
+     * @param name ：测试的名称
+     * @param nanos ：纳秒数
+     */
+    private static void report(String name, long nanos) {
+        System.out.printf("%s：每轮 %.1f ms%n", name, nanos / 1e6 / ROUNDS);
+    }
+}
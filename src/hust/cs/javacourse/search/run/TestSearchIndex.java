@@ -1,5 +1,8 @@
 package hust.cs.javacourse.search.run;
 
+import hust.cs.javacourse.search.index.impl.DocumentBuilder;
+import hust.cs.javacourse.search.index.impl.DocumentStore;
+import hust.cs.javacourse.search.index.impl.IndexWatcher;
 import hust.cs.javacourse.search.index.impl.Term;
 import hust.cs.javacourse.search.query.AbstractHit;
 import hust.cs.javacourse.search.query.AbstractIndexSearcher;
@@ -9,6 +12,7 @@ import hust.cs.javacourse.search.util.Config;
 import hust.cs.javacourse.search.util.StopWords;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
@@ -21,11 +25,23 @@ import java.util.List;
 public class TestSearchIndex {
     /**
      *  搜索程序入口
-     * @param args ：命令行参数
+     * @param args ：命令行参数. 第一个参数为watch时监视文档目录，新文档近实时地加入索引
      */
     public static void main(String[] args) throws IOException {
         IndexSearcher searcher = new IndexSearcher();
-        searcher.open(Config.INDEX_DIR + "index.dat");
+        IndexWatcher watcher = null;
+        if (args.length > 0 && args[0].equals("watch")) {
+            File indexFile = new File(Config.INDEX_DIR + "index.dat");
+            // 每批更新后文档内容文件也被替换，重新打开
+            watcher = new IndexWatcher(new DocumentBuilder(), indexFile, Config.DOC_DIR, index -> {
+                searcher.setIndex(index);
+                searcher.openDocumentStore(DocumentStore.storeFile(indexFile));
+            });
+            watcher.start();
+            System.out.println("正在监视文档目录：" + Config.DOC_DIR);
+        } else {
+            searcher.open(Config.INDEX_DIR + "index.dat");
+        }
         SimpleSorter freqSorter = new SimpleSorter();
         // 查询一个单词
         String req;
@@ -90,5 +106,8 @@ public class TestSearchIndex {
                 System.out.print("请输入需要查询的单词: ");
             }
         }
+        if (watcher != null) {
+            watcher.close();
+        }
     }
 }
\ No newline at end of file
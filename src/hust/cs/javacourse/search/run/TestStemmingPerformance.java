@@ -0,0 +1,168 @@
+package hust.cs.javacourse.search.run;
+
+import hust.cs.javacourse.search.index.AbstractIndex;
+import hust.cs.javacourse.search.index.AbstractTerm;
+import hust.cs.javacourse.search.index.impl.DocumentBuilder;
+import hust.cs.javacourse.search.index.impl.Index;
+import hust.cs.javacourse.search.index.impl.IndexBuilder;
+import hust.cs.javacourse.search.util.Config;
+import hust.cs.javacourse.search.util.FileUtil;
+import hust.cs.javacourse.search.util.StopWords;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * <pre>
+ * 测试还原词干(Config.STEMMING)对单词字典大小的影响.
+ *      分别不还原和还原词干构建同一个文档集的索引，输出单词数、Posting总数、IndexFile格式的文件大小和构建时间.
+ *      文档集缺省在临时目录里生成：随机词根加上常见的屈折后缀(-s、-ed、-ing等)组成单词;
+ *      也可以由第一个命令行参数指定一个文本文件目录.
+ *      同时检查还原词干后的索引里没有过短的单词和停用词，
+ *      以及还原词干保存的索引在不还原词干的设置下打开会失败.
+ * </pre>
+ */
+public class TestStemmingPerformance {
+    /**
+     * 生成的文档数
+     */
+    private static final int DOC_COUNT = 2000;
+
+    /**
+     * 每个文档包含的单词数
+     */
+    private static final int WORDS_PER_DOC = 300;
+
+    /**
+     * 词根数
+     */
+    private static final int ROOT_COUNT = 4000;
+
+    /**
+     * 加在词根后面的屈折后缀
+     */
+    private static final String[] SUFFIXES = {"", "", "s", "ed", "ing", "er", "ers", "ly", "ness"};
+
+    /**
+     * 性能测试程序入口
+     * @param args : 命令行参数，第一个参数为文本文件目录，缺省为生成的文档集
+     */
+    public static void main(String[] args) throws IOException {
+        File dir = args.length > 0 ? new File(args[0]) : Files.createTempDirectory("stemming").toFile();
+        File indexFile = File.createTempFile("stemming", ".dat");
+        boolean stemming = Config.STEMMING;
+        boolean mapped = Config.MAPPED_INDEX_FORMAT;
+        try {
+            if (args.length == 0) {
+                writeCorpus(dir, new Random(42));
+            }
+            Config.MAPPED_INDEX_FORMAT = true;
+            // 预热，避免第一次构建包含JIT编译的时间
+            Config.STEMMING = true;
+            new IndexBuilder(new DocumentBuilder()).buildIndex(dir.getPath());
+
+            Config.STEMMING = false;
+            long start = System.nanoTime();
+            AbstractIndex plain = new IndexBuilder(new DocumentBuilder()).buildIndex(dir.getPath());
+            double plainMillis = (System.nanoTime() - start) / 1e6;
+            plain.save(indexFile);
+            long plainBytes = indexFile.length();
+
+            Config.STEMMING = true;
+            start = System.nanoTime();
+            AbstractIndex stemmed = new IndexBuilder(new DocumentBuilder()).buildIndex(dir.getPath());
+            double stemmedMillis = (System.nanoTime() - start) / 1e6;
+            stemmed.save(indexFile);
+            long stemmedBytes = indexFile.length();
+
+            int plainTerms = plain.termToPostingListMapping.size();
+            int stemmedTerms = stemmed.termToPostingListMapping.size();
+            long plainPostings = PerformanceUtil.countPostings(plain);
+            long stemmedPostings = PerformanceUtil.countPostings(stemmed);
+            System.out.printf("不还原词干：单词 %d，Posting %d，文件 %.1f MB，构建 %.1f ms%n",
+                    plainTerms, plainPostings, plainBytes / 1048576.0, plainMillis);
+            System.out.printf("还原词干：  单词 %d，Posting %d，文件 %.1f MB，构建 %.1f ms%n",
+                    stemmedTerms, stemmedPostings, stemmedBytes / 1048576.0, stemmedMillis);
+            System.out.printf("单词减少 %.1f%%，Posting减少 %.1f%%，文件减小 %.1f%%%n",
+                    100.0 * (plainTerms - stemmedTerms) / plainTerms,
+                    100.0 * (plainPostings - stemmedPostings) / plainPostings,
+                    100.0 * (plainBytes - stemmedBytes) / plainBytes);
+
+            checkFiltered(stemmed);
+            checkAnalyzerRecorded(indexFile);
+        } finally {
+            Config.STEMMING = stemming;
+            Config.MAPPED_INDEX_FORMAT = mapped;
+            if (args.length == 0) {
+                PerformanceUtil.deleteCorpus(dir);
+            }
+            indexFile.delete();
+        }
+    }
+
+    /**
+     * 检查索引里没有长度不符合Config.TERM_FILTER_MINLENGTH、Config.TERM_FILTER_MAXLENGTH的单词和停用词，
+     * 有则抛出IllegalStateException
+     * @param index ：索引
+     */
+    private static void checkFiltered(AbstractIndex index) {
+        Set<String> stopWords = new HashSet<>(Arrays.asList(StopWords.STOP_WORDS));
+        for (AbstractTerm term : index.termToPostingListMapping.keySet()) {
+            String content = term.getContent();
+            if (content.length() < Config.TERM_FILTER_MINLENGTH || content.length() > Config.TERM_FILTER_MAXLENGTH
+                    || stopWords.contains(content)) {
+                throw new IllegalStateException("还原词干后的索引里有应该过滤掉的单词: " + content);
+            }
+        }
+    }
+
+    /**
+     * 检查还原词干保存的索引文件在不还原词干时打开失败，在还原词干时可以打开，否则抛出IllegalStateException
+     * @param indexFile ：还原词干时保存的索引文件
+     */
+    private static void checkAnalyzerRecorded(File indexFile) throws IOException {
+        Config.STEMMING = false;
+        try {
+            new Index().load(indexFile);
+            throw new IllegalStateException("分词设置不同的索引文件打开成功");
+        } catch (IOException e) {
+            // 预期的结果
+        }
+        Config.STEMMING = true;
+        new Index().load(indexFile);
+    }
+
+    /**
+     * 在指定目录下生成文档集，单词由随机词根和随机的屈折后缀组成
+     * @param dir ：目标目录
+     * @param random ：随机数发生器
+     */
+    private static void writeCorpus(File dir, Random random) {
+        String consonants = "bcdfghjklmnprstvwz";
+        String vowels = "aeiou";
+        String[] roots = new String[ROOT_COUNT];
+        for (int i = 0; i < roots.length; i++) {
+            StringBuilder root = new StringBuilder();
+            for (int j = 1 + random.nextInt(3); j > 0; j--) {
+                root.append(consonants.charAt(random.nextInt(consonants.length())));
+                root.append(vowels.charAt(random.nextInt(vowels.length())));
+            }
+            root.append(consonants.charAt(random.nextInt(consonants.length())));
+            roots[i] = root.toString();
+        }
+        for (int i = 0; i < DOC_COUNT; i++) {
+            StringBuilder content = new StringBuilder();
+            for (int j = 0; j < WORDS_PER_DOC; j++) {
+                content.append(roots[random.nextInt(roots.length)]);
+                content.append(SUFFIXES[random.nextInt(SUFFIXES.length)]);
+                content.append(j % 15 == 14 ? ".\n" : " ");
+            }
+            FileUtil.write(content.toString(), new File(dir, String.format("%06d.txt", i)).getPath());
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package hust.cs.javacourse.search.run;
+
+import hust.cs.javacourse.search.index.AbstractPostingList;
+import hust.cs.javacourse.search.index.AbstractTerm;
+import hust.cs.javacourse.search.index.impl.CompactTermDictionary;
+import hust.cs.javacourse.search.index.impl.IntPostingList;
+import hust.cs.javacourse.search.index.impl.Term;
+
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * <pre>
+ * 比较TreeMap单词字典和CompactTermDictionary的内存占用、精确查找和前缀查找的速度.
+ *      生成一组随机的单词，分别放入TreeMap(与Index.termToPostingListMapping相同)和CompactTermDictionary，
+ *      输出占用的堆内存(TreeMap只计算结点、Term和String，所有单词共用一个PostingList)，
+ *      以及查找已有和不存在的单词、按前缀查找单词的时间.
+ *      计时前检查CompactTermDictionary每个单词的序号、单词和df，以及精确查找和前缀查找的结果都与TreeMap相同.
+ * </pre>
+ */
+public class TestTermDictionaryPerformance {
+    /**
+     * 单词数
+     */
+    private static final int TERM_COUNT = 300000;
+
+    /**
+     * 精确查找的次数
+     */
+    private static final int LOOKUPS = 1000000;
+
+    /**
+     * 前缀查找的次数
+     */
+    private static final int PREFIX_LOOKUPS = 100000;
+
+    /**
+     * 性能测试程序入口
+     * @param args : 命令行参数
+     */
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        TreeSet<String> unique = new TreeSet<>();
+        while (unique.size() < TERM_COUNT) {
+            unique.add(word(random));
+        }
+        List<String> words = new ArrayList<>(unique);
+        unique = null;
+        AbstractPostingList shared = new IntPostingList();
+
+        long before = PerformanceUtil.usedMemory();
+        TreeMap<AbstractTerm, AbstractPostingList> tree = new TreeMap<>();
+        for (String word : words) {
+            // 与反序列化的索引一样，每个单词有自己的String
+            tree.put(new Term(new String(word.toCharArray())), shared);
+        }
+        long treeBytes = PerformanceUtil.usedMemory() - before;
+
+        before = PerformanceUtil.usedMemory();
+        CompactTermDictionary.Builder builder = new CompactTermDictionary.Builder();
+        for (int i = 0; i < words.size(); i++) {
+            builder.add(words.get(i), i, 1);
+        }
+        CompactTermDictionary dictionary = builder.build();
+        builder = null;
+        long compactBytes = PerformanceUtil.usedMemory() - before;
+        System.out.printf("单词数：%d%n", words.size());
+        System.out.printf("TreeMap：               %.1f MB，每个单词 %.1f 字节%n",
+                treeBytes / 1048576.0, (double) treeBytes / words.size());
+        System.out.printf("CompactTermDictionary： %.1f MB，每个单词 %.1f 字节，是TreeMap的 1/%.1f%n",
+                compactBytes / 1048576.0, (double) compactBytes / words.size(), (double) treeBytes / compactBytes);
+
+        // 80%的查找是已有的单词
+        String[] queries = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            queries[i] = random.nextInt(5) == 0 ? word(random) : words.get(random.nextInt(words.size()));
+        }
+        String[] prefixes = new String[PREFIX_LOOKUPS];
+        for (int i = 0; i < PREFIX_LOOKUPS; i++) {
+            String word = words.get(random.nextInt(words.size()));
+            prefixes[i] = word.substring(0, Math.min(word.length(), 3));
+        }
+        checkDictionary(words, tree, dictionary, queries, prefixes);
+        for (int warmup = 0; warmup < 3; warmup++) {
+            lookupTree(tree, queries);
+            lookupCompact(dictionary, queries);
+            prefixTree(tree, prefixes);
+            prefixCompact(dictionary, prefixes);
+        }
+        long start = System.nanoTime();
+        long found = lookupTree(tree, queries);
+        report("TreeMap精确查找", System.nanoTime() - start, LOOKUPS, found);
+        start = System.nanoTime();
+        found = lookupCompact(dictionary, queries);
+        report("CompactTermDictionary精确查找", System.nanoTime() - start, LOOKUPS, found);
+        start = System.nanoTime();
+        found = prefixTree(tree, prefixes);
+        report("TreeMap前缀查找", System.nanoTime() - start, PREFIX_LOOKUPS, found);
+        start = System.nanoTime();
+        found = prefixCompact(dictionary, prefixes);
+        report("CompactTermDictionary前缀查找", System.nanoTime() - start, PREFIX_LOOKUPS, found);
+        Reference.reachabilityFence(tree);
+        Reference.reachabilityFence(dictionary);
+    }
+
+    /**
+     * 生成一个随机单词，长度3到12，字母按英文里的大致频率选取
+     * @param random ：随机数发生器
+     * @return ：单词
+     */
+    private static String word(Random random) {
+        String letters = "eeeeeeetttttaaaaooooiiiinnnnsssshhhrrrdddllcuummwffggyypbvk";
+        int length = 3 + random.nextInt(10);
+        StringBuilder s = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            s.append(letters.charAt(random.nextInt(letters.length())));
+        }
+        return s.toString();
+    }
+
+    /**
+     * 检查CompactTermDictionary与TreeMap的查找结果相同
+     * @param words ：按字典序排列的全部单词，第i个单词的PostingList偏移为i
+     * @param tree ：TreeMap单词字典
+     * @param dictionary ：CompactTermDictionary
+     * @param queries ：精确查找的单词
+     * @param prefixes ：前缀
+     */
+    private static void checkDictionary(List<String> words, TreeMap<AbstractTerm, AbstractPostingList> tree,
+                                        CompactTermDictionary dictionary, String[] queries, String[] prefixes) {
+        PerformanceUtil.check(dictionary.size() == words.size(), "单词数不同");
+        for (int i = 0; i < words.size(); i++) {
+            String word = words.get(i);
+            PerformanceUtil.check(dictionary.find(word) == i && word.equals(dictionary.term(i))
+                    && dictionary.docFreq(i) == 1 && dictionary.postingsOffset(i) == i, "单词不同: " + word);
+        }
+        for (String query : queries) {
+            int ordinal = dictionary.find(query);
+            PerformanceUtil.check((ordinal >= 0) == tree.containsKey(new Term(query))
+                    && (ordinal < 0 || query.equals(dictionary.term(ordinal))), "精确查找的结果不同: " + query);
+        }
+        List<String> edges = new ArrayList<>(List.of("", "zzzzzzzzzzzzz", words.get(words.size() - 1) + "a"));
+        edges.addAll(List.of(prefixes));
+        for (String prefix : edges) {
+            int[] range = dictionary.prefixRange(prefix);
+            Iterator<String> terms = dictionary.terms(range[0], range[1]);
+            for (AbstractTerm term : tree.subMap(new Term(prefix), true,
+                    new Term(prefix + Character.MAX_VALUE), false).keySet()) {
+                PerformanceUtil.check(terms.hasNext() && term.getContent().equals(terms.next()),
+                        "前缀查找的结果不同: " + prefix);
+            }
+            PerformanceUtil.check(!terms.hasNext(), "前缀查找的结果不同: " + prefix);
+        }
+    }
+
+    private static long lookupTree(TreeMap<AbstractTerm, AbstractPostingList> tree, String[] queries) {
+        long found = 0;
+        for (String query : queries) {
+            if (tree.get(new Term(query)) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private static long lookupCompact(CompactTermDictionary dictionary, String[] queries) {
+        long found = 0;
+        for (String query : queries) {
+            if (dictionary.find(query) >= 0) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * 用TreeMap.subMap统计以每个前缀开头的单词数
+     */
+    private static long prefixTree(TreeMap<AbstractTerm, AbstractPostingList> tree, String[] prefixes) {
+        long found = 0;
+        for (String prefix : prefixes) {
+            Map<AbstractTerm, AbstractPostingList> range = tree.subMap(new Term(prefix), true,
+                    new Term(prefix + Character.MAX_VALUE), false);
+            found += range.size();
+        }
+        return found;
+    }
+
+    /**
+     * 用CompactTermDictionary.prefixRange统计以每个前缀开头的单词数
+     */
+    private static long prefixCompact(CompactTermDictionary dictionary, String[] prefixes) {
+        long found = 0;
+        for (String prefix : prefixes) {
+            int[] range = dictionary.prefixRange(prefix);
+            found += range[1] - range[0];
+        }
+        return found;
+    }
+
+    /**
+     * 输出每次查找的时间
+     * @param name ：测试的名称
+     * @param nanos ：纳秒数
+     * @param count ：查找次数
+     * @param found ：找到的单词数
+     */
+    private static void report(String name, long nanos, int count, long found) {
+        System.out.printf("%s：每次 %.0f ns (找到 %d)%n", name, (double) nanos / count, found);
+    }
+}
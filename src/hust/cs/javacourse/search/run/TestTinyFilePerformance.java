@@ -0,0 +1,102 @@
+package hust.cs.javacourse.search.run;
+
+import hust.cs.javacourse.search.index.AbstractIndexBuilder;
+import hust.cs.javacourse.search.index.impl.DocumentBuilder;
+import hust.cs.javacourse.search.index.impl.IndexBuilder;
+import hust.cs.javacourse.search.index.impl.ParallelIndexBuilder;
+import hust.cs.javacourse.search.index.impl.TinyFileIndexBuilder;
+import hust.cs.javacourse.search.util.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * <pre>
+ * 测试大量小文件的索引构建速度.
+ *      在临时目录里生成许多不到1KB的随机文档，分别用IndexBuilder、ParallelIndexBuilder和
+ *      TinyFileIndexBuilder构建索引，输出每秒处理的文件数.
+ *      可以用命令行参数指定文件数，第二个参数指定已有的文档目录时直接使用该目录(例如冷缓存的磁盘)
+ * </pre>
+ */
+public class TestTinyFilePerformance {
+    /**
+     * 缺省的文件数
+     */
+    private static final int DEFAULT_FILE_COUNT = 20000;
+
+    /**
+     * 每个文档包含的最多单词数
+     */
+    private static final int MAX_WORDS_PER_DOC = 60;
+
+    /**
+     * 每种构造器重复测试的次数，取最快的一次
+     */
+    private static final int REPEAT = 3;
+
+    /**
+     * 性能测试程序入口
+     * @param args : 命令行参数，[文件数] [文档目录]
+     */
+    public static void main(String[] args) throws IOException {
+        int fileCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_FILE_COUNT;
+        File dir = args.length > 1 ? new File(args[1]) : Files.createTempDirectory("tiny").toFile();
+        boolean generated = args.length <= 1;
+        try {
+            if (generated) {
+                writeCorpus(dir, fileCount, new Random(42));
+            }
+            fileCount = FileUtil.list(dir.getPath()).size();
+            System.out.println("文件数：" + fileCount);
+            TinyFileIndexBuilder tinyBuilder = new TinyFileIndexBuilder(new DocumentBuilder());
+            report("IndexBuilder", new IndexBuilder(new DocumentBuilder()), dir, fileCount);
+            report("ParallelIndexBuilder", new ParallelIndexBuilder(new DocumentBuilder()), dir, fileCount);
+            report("TinyFileIndexBuilder", tinyBuilder, dir, fileCount);
+            System.out.println("TinyFileIndexBuilder使用虚拟线程：" + tinyBuilder.usedVirtualThreads());
+        } finally {
+            if (generated) {
+                PerformanceUtil.deleteCorpus(dir);
+            }
+        }
+    }
+
+    /**
+     * 用指定的索引构造器构建REPEAT次，输出最快一次每秒处理的文件数
+     * @param name ：构造器名
+     * @param builder ：索引构造器
+     * @param dir ：文档目录
+     * @param fileCount ：文件数
+     */
+    private static void report(String name, AbstractIndexBuilder builder, File dir, int fileCount) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < REPEAT; i++) {
+            long start = System.nanoTime();
+            builder.buildIndex(dir.getPath());
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-24s%10.1f ms%12.0f 文件/秒%n", name, best / 1e6, fileCount * 1e9 / best);
+    }
+
+    /**
+     * 在指定目录下生成随机小文档
+     * @param dir ：目标目录
+     * @param fileCount ：文件数
+     * @param random ：随机数发生器
+     */
+    private static void writeCorpus(File dir, int fileCount, Random random) {
+        for (int i = 0; i < fileCount; i++) {
+            StringBuilder content = new StringBuilder();
+            int words = 1 + random.nextInt(MAX_WORDS_PER_DOC);
+            for (int j = 0; j < words; j++) {
+                int length = 3 + random.nextInt(8);
+                for (int k = 0; k < length; k++) {
+                    content.append((char) ('a' + random.nextInt(26)));
+                }
+                content.append(' ');
+            }
+            FileUtil.write(content.toString(), new File(dir, String.format("%07d.txt", i)).getPath());
+        }
+    }
+}
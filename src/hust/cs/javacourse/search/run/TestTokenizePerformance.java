@@ -0,0 +1,163 @@
+package hust.cs.javacourse.search.run;
+
+import hust.cs.javacourse.search.parse.AbstractTermTupleStream;
+import hust.cs.javacourse.search.parse.impl.FusedTermTupleFilter;
+import hust.cs.javacourse.search.parse.impl.LengthTermTupleFilter;
+import hust.cs.javacourse.search.parse.impl.PatternTermTupleFilter;
+import hust.cs.javacourse.search.parse.impl.StopWordTermTupleFilter;
+import hust.cs.javacourse.search.parse.impl.TermTupleScanner;
+import hust.cs.javacourse.search.util.CharTokenizer;
+import hust.cs.javacourse.search.util.Config;
+import hust.cs.javacourse.search.util.StringSplitter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <pre>
+ * 分词性能测试.
+ *      对同一段随机文本分别用以下方式分词，输出每秒处理的字符数：
+ *          StringSplitter：原来的做法，每行新建StringSplitter并编译正则表达式，再把每个单词转换成小写
+ *          CharTokenizer：只在char数组上查找单词的起止下标
+ *          TermTupleScanner：基于CharTokenizer分块读取并产生三元组，长度过滤下推到分词阶段
+ *      以及在TermTupleScanner之上分别使用原来的三个过滤器串联和FusedTermTupleFilter的处理速度.
+ * </pre>
+ */
+public class TestTokenizePerformance {
+    /**
+     * 测试文本包含的单词数
+     */
+    private static final int WORD_COUNT = 2_000_000;
+
+    /**
+     * 每种方式重复测试的次数，取最快的一次
+     */
+    private static final int REPEAT = 5;
+
+    /**
+     * 性能测试程序入口
+     * @param args : 命令行参数
+     */
+    public static void main(String[] args) throws IOException {
+        String text = randomText(new Random(42));
+        System.out.println("测试文本字符数：" + text.length());
+        for (int round = 0; round < REPEAT; round++) {
+            long start = System.nanoTime();
+            long tokens = splitByRegex(text);
+            report("StringSplitter", tokens, text.length(), System.nanoTime() - start);
+
+            start = System.nanoTime();
+            tokens = splitByTokenizer(text);
+            report("CharTokenizer", tokens, text.length(), System.nanoTime() - start);
+
+            start = System.nanoTime();
+            tokens = scan(text);
+            report("TermTupleScanner", tokens, text.length(), System.nanoTime() - start);
+
+            start = System.nanoTime();
+            tokens = count(new StopWordTermTupleFilter(new PatternTermTupleFilter(new LengthTermTupleFilter(
+                    new TermTupleScanner(new BufferedReader(new StringReader(text)))))));
+            report("三个过滤器串联", tokens, text.length(), System.nanoTime() - start);
+
+            start = System.nanoTime();
+            tokens = count(new FusedTermTupleFilter(new TermTupleScanner(new BufferedReader(new StringReader(text)))));
+            report("FusedTermTupleFilter", tokens, text.length(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 按原来TermTupleScanner的方式逐行分词
+     * @param text ：文本
+     * @return ：单词数
+     */
+    private static long splitByRegex(String text) throws IOException {
+        long tokens = 0;
+        BufferedReader reader = new BufferedReader(new StringReader(text));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            StringSplitter splitter = new StringSplitter();
+            splitter.setSplitRegex(Config.STRING_SPLITTER_REGEX);
+            List<String> parts = splitter.splitByRegex(line);
+            for (String part : parts) {
+                if (!part.toLowerCase().equals("")) {
+                    tokens++;
+                }
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * 只用CharTokenizer查找单词边界，不创建任何String
+     * @param text ：文本
+     * @return ：单词数
+     */
+    private static long splitByTokenizer(String text) {
+        CharTokenizer tokenizer = CharTokenizer.of(Config.STRING_SPLITTER_REGEX);
+        char[] buf = text.toCharArray();
+        long tokens = 0;
+        int start = tokenizer.tokenStart(buf, 0, buf.length);
+        while (start < buf.length) {
+            start = tokenizer.tokenStart(buf, tokenizer.tokenEnd(buf, start, buf.length), buf.length);
+            tokens++;
+        }
+        return tokens;
+    }
+
+    /**
+     * 用TermTupleScanner加长度过滤器产生三元组
+     * @param text ：文本
+     * @return ：产生的三元组数
+     */
+    private static long scan(String text) {
+        return count(new LengthTermTupleFilter(new TermTupleScanner(new BufferedReader(new StringReader(text)))));
+    }
+
+    /**
+     * 读完三元组流并关闭
+     * @param stream ：三元组流
+     * @return ：三元组数
+     */
+    private static long count(AbstractTermTupleStream stream) {
+        long tuples = 0;
+        while (stream.next() != null) {
+            tuples++;
+        }
+        stream.close();
+        return tuples;
+    }
+
+    /**
+     * 输出一种分词方式的测试结果
+     * @param name ：分词方式
+     * @param tokens ：单词数
+     * @param chars ：字符数
+     * @param nanos ：耗时(纳秒)
+     */
+    private static void report(String name, long tokens, int chars, long nanos) {
+        System.out.printf("%-22s单词数：%-10d耗时：%8.1f ms\t%6.1f M字符/秒%n",
+                name, tokens, nanos / 1e6, chars / (nanos / 1e3));
+    }
+
+    /**
+     * 生成中英文标点混合的随机文本
+     * @param random ：随机数发生器
+     * @return ：随机文本
+     */
+    private static String randomText(Random random) {
+        String[] separators = {" ", " ", " ", ", ", ". ", "，", "。", "; ", "\n"};
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < WORD_COUNT; i++) {
+            int length = 1 + random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                char c = (char) ('a' + random.nextInt(26));
+                text.append(random.nextInt(10) == 0 ? Character.toUpperCase(c) : c);
+            }
+            text.append(separators[random.nextInt(separators.length)]);
+        }
+        return text.toString();
+    }
+}
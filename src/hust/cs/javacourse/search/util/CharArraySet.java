@@ -0,0 +1,124 @@
+package hust.cs.javacourse.search.util;
+
+/**
+ * <pre>
+ * 开放寻址(线性探测)的不可变字符串集合.
+ *      可以直接用char数组里的一段字符查找，不需要先创建String，适合在分词阶段查停用词表.
+ *      哈希表容量为2的幂且装填因子不超过0.25，查找平均只需探测一次.
+ * </pre>
+ */
+public class CharArraySet {
+    /**
+     * 哈希表，空位为null
+     */
+    private final char[][] table;
+
+    /**
+     * 每个位置上字符串的哈希值，探测时先比较哈希值
+     */
+    private final int[] hashes;
+
+    /**
+     * 容量减1，用于取模
+     */
+    private final int mask;
+
+    /**
+     * 集合中不同字符串的个数
+     */
+    private int size = 0;
+
+    /**
+     * 构造函数
+     * @param words ：集合中的字符串，可以有重复
+     */
+    public CharArraySet(String[] words) {
+        int capacity = Integer.highestOneBit(Math.max(4, words.length * 4 - 1)) << 1;
+        table = new char[capacity][];
+        hashes = new int[capacity];
+        mask = capacity - 1;
+        for (String word : words) {
+            add(word.toCharArray());
+        }
+    }
+
+    /**
+     * 添加字符串
+     * @param word ：字符串的字符数组
+     */
+    private void add(char[] word) {
+        int hash = hash(word, 0, word.length);
+        int slot = hash & mask;
+        while (table[slot] != null) {
+            if (hashes[slot] == hash && equals(table[slot], word, 0, word.length)) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = word;
+        hashes[slot] = hash;
+        size++;
+    }
+
+    /**
+     * 判断char数组里的一段字符是否在集合中
+     * @param buf ：字符数组
+     * @param offset ：起始下标
+     * @param length ：长度
+     * @return ：在集合中返回true，否则返回false
+     */
+    public boolean contains(char[] buf, int offset, int length) {
+        int hash = hash(buf, offset, length);
+        int slot = hash & mask;
+        while (table[slot] != null) {
+            if (hashes[slot] == hash && equals(table[slot], buf, offset, length)) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * 判断字符串是否在集合中
+     * @param s ：字符串
+     * @return ：在集合中返回true，否则返回false
+     */
+    public boolean contains(String s) {
+        return contains(s.toCharArray(), 0, s.length());
+    }
+
+    /**
+     * 返回集合中不同字符串的个数
+     * @return ：集合大小
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 计算一段字符的哈希值，在String.hashCode的基础上再打散高位
+     */
+    private static int hash(char[] buf, int offset, int length) {
+        int h = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            h = 31 * h + buf[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * 比较字符数组与另一段字符是否相同
+     */
+    private static boolean equals(char[] word, char[] buf, int offset, int length) {
+        if (word.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (word[i] != buf[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,106 @@
+package hust.cs.javacourse.search.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <pre>
+ * 由"单个字符类+"形式的正则表达式(如"[a-zA-Z]+")编译得到的字符分类表.
+ *      构造时对全部65536个char各测试一次正则表达式，得到一张位图，
+ *      之后判断一个字符是否属于该字符类只需一次查表，不再需要正则匹配.
+ * </pre>
+ */
+public class CharClass {
+    /**
+     * 已编译的字符分类表，key为正则表达式
+     */
+    private static final Map<String, CharClass> CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * 字符分类位图，第c位为1表示字符c属于该字符类
+     */
+    private final long[] bits = new long[(Character.MAX_VALUE + 1) >>> 6];
+
+    /**
+     * 构造函数
+     * @param regex ：正则表达式，字符c属于字符类当且仅当regex能完整匹配只含c的字符串
+     */
+    public CharClass(String regex) {
+        Matcher matcher = Pattern.compile(regex).matcher("");
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            if (matcher.reset(String.valueOf((char) c)).matches()) {
+                bits[c >>> 6] |= 1L << c;
+            }
+        }
+    }
+
+    /**
+     * 获得正则表达式对应的字符分类表，同一个正则表达式只编译一次
+     * @param regex ：正则表达式
+     * @return ：字符分类表
+     */
+    public static CharClass of(String regex) {
+        return CACHE.computeIfAbsent(regex, CharClass::new);
+    }
+
+    /**
+     * <pre>
+     * 判断正则表达式是否为"单个字符类+"的形式，例如"[a-zA-Z]+".
+     *      只有这种形式的正则表达式，匹配一个字符串才等价于字符串的每个字符都属于该字符类
+     * @param regex ：正则表达式
+     * @return ：是返回true，否则返回false
+     * </pre>
+     */
+    public static boolean isSimpleClassRepetition(String regex) {
+        return regex.length() > 3 && regex.startsWith("[") && regex.endsWith("]+") && !regex.startsWith("[^")
+                && regex.indexOf('[', 1) < 0 && regex.indexOf(']') == regex.length() - 2
+                && !regex.contains("&&") && !regex.contains("\\");
+    }
+
+    /**
+     * 判断字符是否属于该字符类
+     * @param c ：字符
+     * @return ：属于返回true，否则返回false
+     */
+    public boolean contains(char c) {
+        return (bits[c >>> 6] & (1L << c)) != 0;
+    }
+
+    /**
+     * 判断一段字符是否全部属于该字符类
+     * @param buf ：字符数组
+     * @param offset ：起始下标
+     * @param length ：长度
+     * @return ：全部属于且长度大于0返回true，否则返回false
+     */
+    public boolean containsAll(char[] buf, int offset, int length) {
+        if (length == 0) {
+            return false;
+        }
+        for (int i = offset, end = offset + length; i < end; i++) {
+            if (!contains(buf[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 判断字符串是否全部由该字符类的字符组成
+     * @param s ：字符串
+     * @return ：全部属于且不为空串返回true，否则返回false
+     */
+    public boolean containsAll(String s) {
+        if (s.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (!contains(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,104 @@
+package hust.cs.javacourse.search.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <pre>
+ * 基于字符分类表的分词器，是StringSplitter的无正则、无临时字符串版本.
+ *      分词正则表达式(如Config.STRING_SPLITTER_REGEX)必须是"单个字符类+"的形式，
+ *      它被预先编译成覆盖全部65536个char的分隔符表(CharClass)，之后每个字符是否为分隔符只需一次查表.
+ *      分词时直接在char数组上找出每个单词的起止下标，不会为单词创建String.
+ * </pre>
+ */
+public class CharTokenizer {
+    /**
+     * 单词过滤器，在单词被转换成String之前对其内容进行判断
+     */
+    public interface TokenFilter {
+        /**
+         * 判断单词是否需要保留
+         * @param token ：单词所在的字符数组(已转换为小写)
+         * @param offset ：单词的起始下标
+         * @param length ：单词的长度
+         * @return ：需要保留返回true，否则返回false
+         */
+        boolean accept(char[] token, int offset, int length);
+    }
+
+    /**
+     * 分隔符字符类
+     */
+    private final CharClass delimiters;
+
+    /**
+     * 构造函数
+     * @param splitRegex ：分词用的正则表达式，必须是"单个字符类+"的形式，例如"[,;\\s]+"
+     */
+    public CharTokenizer(String splitRegex) {
+        this.delimiters = CharClass.of(splitRegex);
+    }
+
+    /**
+     * 获得指定正则表达式对应的分词器，分隔符表只编译一次
+     * @param splitRegex ：分词用的正则表达式
+     * @return ：分词器
+     */
+    public static CharTokenizer of(String splitRegex) {
+        return new CharTokenizer(splitRegex);
+    }
+
+    /**
+     * 判断字符是否为分隔符
+     * @param c ：字符
+     * @return ：是分隔符返回true，否则返回false
+     */
+    public boolean isDelimiter(char c) {
+        return delimiters.contains(c);
+    }
+
+    /**
+     * 从from开始跳过分隔符，返回下一个单词的起始下标
+     * @param buf ：字符数组
+     * @param from ：开始查找的下标
+     * @param to ：查找范围的结束下标(不包含)
+     * @return ：下一个单词的起始下标；如果范围内没有单词，返回to
+     */
+    public int tokenStart(char[] buf, int from, int to) {
+        while (from < to && isDelimiter(buf[from])) {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * 从单词的起始下标开始查找，返回单词的结束下标
+     * @param buf ：字符数组
+     * @param start ：单词的起始下标
+     * @param to ：查找范围的结束下标(不包含)
+     * @return ：单词之后第一个分隔符的下标；如果单词一直延续到范围末尾，返回to
+     */
+    public int tokenEnd(char[] buf, int start, int to) {
+        while (start < to && !isDelimiter(buf[start])) {
+            start++;
+        }
+        return start;
+    }
+
+    /**
+     * 将字符串分割成单词列表，结果与StringSplitter.splitByRegex相同
+     * @param input ：输入字符串
+     * @return ：单词列表
+     */
+    public List<String> split(String input) {
+        List<String> list = new ArrayList<>();
+        char[] buf = input.toCharArray();
+        int start = tokenStart(buf, 0, buf.length);
+        while (start < buf.length) {
+            int end = tokenEnd(buf, start, buf.length);
+            list.add(new String(buf, start, end - start));
+            start = tokenStart(buf, end, buf.length);
+        }
+        return list;
+    }
+}
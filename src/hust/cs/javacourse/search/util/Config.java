@@ -73,4 +73,191 @@ public class Config {
      * </pre>
      */
     public static int TERM_FILTER_MAXLENGTH = 20;
+
+    /**
+     * <pre>
+     * 构建索引和检索时是否把单词还原成词干(见StemmingTermTupleFilter).
+     * 打开后同一个词的不同屈折形式合并到一个PostingList，检索词也同样还原成词干;
+     * 构建索引和检索时必须使用相同的设置. IndexFile格式的索引文件在文件头里记录保存时的设置，
+     * 与当前设置不同时加载失败
+     * </pre>
+     */
+    public static boolean STEMMING = false;
+
+    /**
+     * <pre>
+     * 还原词干时每个线程缓存的单词数.
+     * 缓存满时淘汰最久没有用到的单词
+     * </pre>
+     */
+    public static int STEM_CACHE_SIZE = 8192;
+
+    /**
+     * <pre>
+     * 并行构建索引时使用的工作线程数.
+     * 缺省为当前机器的CPU核数
+     * </pre>
+     */
+    public static int BUILD_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * <pre>
+     * SpimiIndexBuilder内存中部分索引的预算(字节).
+     * 估算的内存占用达到预算后，部分索引写成磁盘上的有序段
+     * </pre>
+     */
+    public static long SPIMI_MEMORY_BUDGET = 256L << 20;
+
+    /**
+     * <pre>
+     * IndexWatcher收集文件系统事件的时间窗口(毫秒).
+     * 第一个事件到达后再等待这么长时间，把期间的所有事件合并成一批建索引
+     * </pre>
+     */
+    public static long WATCH_BATCH_MILLIS = 200;
+
+    /**
+     * <pre>
+     * IndexWatcher处理一批变化失败后，等待多长时间(毫秒)重试.
+     * 失败的一批不会丢失，重试时与期间新到的事件合成一批
+     * </pre>
+     */
+    public static long WATCH_RETRY_MILLIS = 5000;
+
+    /**
+     * <pre>
+     * IndexWatcher允许的增量索引个数.
+     * 超过后把所有增量索引合并成一个，避免查询时拼接过多的段
+     * </pre>
+     */
+    public static int WATCH_MAX_DELTAS = 8;
+
+    /**
+     * <pre>
+     * PipelinedIndexBuilder读文件阶段的线程数.
+     * 读文件主要是等待磁盘，线程数多于CPU核数也不会占用更多的CPU
+     * </pre>
+     */
+    public static int PIPELINE_READER_THREADS = 2;
+
+    /**
+     * <pre>
+     * PipelinedIndexBuilder分词阶段(分词和单词过滤)的线程数.
+     * 分词是CPU密集的，缺省为当前机器的CPU核数
+     * </pre>
+     */
+    public static int PIPELINE_ANALYZER_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * <pre>
+     * PipelinedIndexBuilder倒排阶段(把Document加入索引)的线程数.
+     * 每个线程构建一个部分索引，最后合并
+     * </pre>
+     */
+    public static int PIPELINE_INVERTER_THREADS = 1;
+
+    /**
+     * <pre>
+     * PipelinedIndexBuilder相邻两个阶段之间队列的容量(文档数).
+     * 队列满时上游阶段阻塞等待，同时在内存里的文档内容不会超过这个数量
+     * </pre>
+     */
+    public static int PIPELINE_QUEUE_CAPACITY = 64;
+
+    /**
+     * <pre>
+     * TinyFileIndexBuilder同时打开的文件数上限.
+     * 同时进行的读操作越多，等待磁盘的时间重叠得越多，但不能超过进程的文件句柄上限
+     * </pre>
+     */
+    public static int TINY_FILE_MAX_OPEN_FILES = 256;
+
+    /**
+     * <pre>
+     * TinyFileIndexBuilder已经提交但还没有按docId顺序加入索引的文档数上限.
+     * 限制了在内存里等待的Document数
+     * </pre>
+     */
+    public static int TINY_FILE_WINDOW = 4096;
+
+    /**
+     * <pre>
+     * TinyFileIndexBuilder在不支持虚拟线程的JDK上使用的平台线程数.
+     * 超过TINY_FILE_MAX_OPEN_FILES时按TINY_FILE_MAX_OPEN_FILES
+     * </pre>
+     */
+    public static int TINY_FILE_FALLBACK_THREADS = 64;
+
+    /**
+     * <pre>
+     * 文档内容文件(DocumentStore)每个压缩块的原始大小(字节).
+     * 块越大压缩率越高，但读一个文档时要解压的内容越多
+     * </pre>
+     */
+    public static int DOC_STORE_BLOCK_SIZE = 16 << 10;
+
+    /**
+     * <pre>
+     * 文档内容文件读取时缓存的解压后的块数
+     * </pre>
+     */
+    public static int DOC_STORE_CACHE_BLOCKS = 64;
+
+    /**
+     * <pre>
+     * DuplicateDetector判为近似重复的SimHash签名最大海明距离，取值0到3.
+     * 越大越多的文档被判为近似重复，0表示只去掉单词和词频完全相同的文档
+     * </pre>
+     */
+    public static int DEDUP_MAX_HAMMING = 3;
+
+    /**
+     * <pre>
+     * ContainerDocumentBuilder从JSONL记录里取作文档内容的顶层字符串字段，多个字段用逗号分隔.
+     * 记录里有多个这样的字段时按出现顺序用换行连接
+     * </pre>
+     */
+    public static String CONTAINER_JSON_FIELDS = "title,text";
+
+    /**
+     * <pre>
+     * ContainerDocumentBuilder读一个TREC记录最多读入的字节数.
+     * 缺少&lt;/DOC&gt;而后面又没有&lt;DOC&gt;的记录读到这个大小时抛出IOException，不会把文件剩下的部分都读进一个记录
+     * </pre>
+     */
+    public static int CONTAINER_MAX_RECORD_BYTES = 16 << 20;
+
+    /**
+     * <pre>
+     * IndexSearcher打开索引后是否封存(见Index.seal).
+     * 封存后单词字典用CompactTermDictionary前缀压缩保存，占用的内存少得多，但不能再向加载的段添加文档
+     * </pre>
+     */
+    public static boolean SEAL_SEARCH_INDEX = true;
+
+    /**
+     * <pre>
+     * Index.save和SpimiIndexBuilder是否写成可以直接内存映射的IndexFile格式.
+     * IndexSearcher打开这种格式且没有增量索引的索引文件时用MappedIndex映射，不反序列化整个索引;
+     * false时Index.save仍用Java对象序列化写出，SpimiIndexBuilder写成PostingRunFile格式
+     * </pre>
+     */
+    public static boolean MAPPED_INDEX_FORMAT = true;
+
+    /**
+     * <pre>
+     * MappedIndex打开IndexFile格式的索引文件时是否检查整个文件的CRC32.
+     * 检查要把文档表和所有PostingList读一遍，打开时间和文件大小成正比;
+     * false时只检查文件头和单词字典. Index.load把索引整个读入内存时总是检查整个文件
+     * </pre>
+     */
+    public static boolean VERIFY_INDEX_CHECKSUMS = false;
+
+    /**
+     * <pre>
+     * MappedIndex映射PostingList段时每个区域的最大字节数，不能超过2GB(一个MappedByteBuffer的上限).
+     * PostingList段按单词的边界分成多个区域分别映射，超过2GB的索引文件也可以映射
+     * </pre>
+     */
+    public static long MAPPED_REGION_BYTES = Integer.MAX_VALUE;
 }
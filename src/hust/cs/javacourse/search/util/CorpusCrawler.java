@@ -0,0 +1,158 @@
+package hust.cs.javacourse.search.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * <pre>
+ * CorpusCrawler是并行递归遍历文档目录的爬虫.
+ *      每个子目录是一个ForkJoin任务，子目录之间并行遍历，只读取文件的大小和修改时间，不读文件内容.
+ *      不跟随符号链接，也不进入挂载在其他文件系统上的子目录，遍历范围不会超出根目录所在的文件系统.
+ *      得到的路径与FileUtil.list一样是绝对路径.
+ * </pre>
+ */
+public class CorpusCrawler {
+    /**
+     * 遍历使用的线程数
+     */
+    private final int threads;
+
+    /**
+     * 构造函数，线程数由Config.BUILD_THREADS指定
+     */
+    public CorpusCrawler() {
+        this(Config.BUILD_THREADS);
+    }
+
+    /**
+     * 构造函数
+     * @param threads ：遍历使用的线程数
+     */
+    public CorpusCrawler(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * 文件的路径、大小、修改时间和内容哈希值
+     */
+    public static final class FileEntry {
+        /**
+         * 文件绝对路径
+         */
+        public final String path;
+
+        /**
+         * 文件大小(字节)
+         */
+        public final long size;
+
+        /**
+         * 最后修改时间(毫秒)
+         */
+        public final long lastModified;
+
+        /**
+         * 文件内容的哈希值，由CorpusManifest计算
+         */
+        long hash;
+
+        public FileEntry(String path, long size, long lastModified, long hash) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+
+        /**
+         * 文件内容的哈希值
+         * @return ：哈希值
+         */
+        public long getHash() {
+            return hash;
+        }
+    }
+
+    /**
+     * <pre>
+     * 递归遍历指定目录下的所有普通文件.
+     * @param rootDirectory ：指定目录
+     * @return ：按路径排序的文件列表；目录不存在时返回空列表
+     * </pre>
+     */
+    public List<FileEntry> crawl(String rootDirectory) {
+        List<FileEntry> files;
+        try {
+            Path root = new File(rootDirectory).getCanonicalFile().toPath();
+            if (!Files.isDirectory(root)) {
+                return new ArrayList<>();
+            }
+            FileStore store = Files.getFileStore(root);
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                files = pool.invoke(new DirectoryTask(root, store));
+            } finally {
+                pool.shutdown();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        files.sort((a, b) -> a.path.compareTo(b.path));
+        return files;
+    }
+
+    /**
+     * 遍历一个目录的任务，子目录分别交给新的任务并行遍历
+     */
+    private static class DirectoryTask extends RecursiveTask<List<FileEntry>> {
+        private final Path dir;
+        private final FileStore store;
+
+        DirectoryTask(Path dir, FileStore store) {
+            this.dir = dir;
+            this.store = store;
+        }
+
+        @Override
+        protected List<FileEntry> compute() {
+            List<FileEntry> files = new ArrayList<>();
+            List<DirectoryTask> subTasks = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    try {
+                        BasicFileAttributes attrs = Files.readAttributes(entry, BasicFileAttributes.class,
+                                LinkOption.NOFOLLOW_LINKS);
+                        if (attrs.isRegularFile()) {
+                            files.add(new FileEntry(entry.toString(), attrs.size(),
+                                    attrs.lastModifiedTime().toMillis(), 0));
+                        } else if (attrs.isDirectory() && store.equals(Files.getFileStore(entry))) {
+                            DirectoryTask task = new DirectoryTask(entry, store);
+                            task.fork();
+                            subTasks.add(task);
+                        }
+                    } catch (IOException e) {
+                        // 遍历过程中文件被删除时跳过该文件
+                        e.printStackTrace();
+                    }
+                }
+            } catch (IOException e) {
+                // 遍历过程中目录被删除或没有权限时跳过该目录
+                e.printStackTrace();
+            }
+            for (DirectoryTask task : subTasks) {
+                files.addAll(task.join());
+            }
+            return files;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package hust.cs.javacourse.search.util;
+
+import hust.cs.javacourse.search.util.CorpusCrawler.FileEntry;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.zip.CRC32C;
+
+/**
+ * <pre>
+ * CorpusManifest是文档集合的清单，记录每个文件的路径、大小、修改时间和内容哈希值.
+ *      重新遍历文档目录后，与清单比较得到新增、修改和删除的文件.
+ *      只有新文件和大小或修改时间变化了的文件才读取内容计算哈希值，
+ *      所以除了遍历目录本身，比较的代价只与变化的文件数有关.
+ *      大小和修改时间变化但内容哈希值不变的文件(例如只是touch了一下)不算修改.
+ *      update比较后立即更新清单; diff只比较不修改清单，变化处理成功后再用accept更新，
+ *      处理失败时清单保持原样，下次比较还能得到同样的变化.
+ * </pre>
+ */
+public class CorpusManifest {
+    /**
+     * 清单文件的魔数
+     */
+    private static final int MAGIC = 0x4D414E46;
+
+    /**
+     * 计算哈希值时读文件的缓冲区大小
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * 路径到文件信息的映射
+     */
+    private final Map<String, FileEntry> entries = new TreeMap<>();
+
+    public CorpusManifest() {
+    }
+
+    /**
+     * 一次比较得到的变化
+     */
+    public static final class ChangeSet {
+        /**
+         * 新增的文件路径，按路径排序
+         */
+        public final List<String> added = new ArrayList<>();
+
+        /**
+         * 内容修改了的文件路径，按路径排序
+         */
+        public final List<String> modified = new ArrayList<>();
+
+        /**
+         * 删除了的文件路径，按路径排序
+         */
+        public final List<String> deleted = new ArrayList<>();
+
+        /**
+         * 比较范围内现在存在的文件，accept时写入清单
+         */
+        private final Map<String, FileEntry> current;
+
+        private ChangeSet(Map<String, FileEntry> current) {
+            this.current = current;
+        }
+
+        /**
+         * 是否没有任何变化
+         * @return ：没有变化返回true
+         */
+        public boolean isEmpty() {
+            return added.isEmpty() && modified.isEmpty() && deleted.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "新增: " + added.size() + ", 修改: " + modified.size() + ", 删除: " + deleted.size();
+        }
+    }
+
+    /**
+     * 清单里的文件数
+     * @return ：文件数
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * 返回指定文件的信息
+     * @param path ：文件绝对路径
+     * @return ：文件信息；清单里没有该文件返回null
+     */
+    public FileEntry get(String path) {
+        return entries.get(path);
+    }
+
+    /**
+     * 复制清单，副本的修改不影响本清单
+     * @return ：副本
+     */
+    public CorpusManifest copy() {
+        CorpusManifest copy = new CorpusManifest();
+        copy.entries.putAll(entries);
+        return copy;
+    }
+
+    /**
+     * 把diff得到的变化写入清单
+     * @param changes ：本清单diff得到的变化
+     */
+    public void accept(ChangeSet changes) {
+        for (String path : changes.deleted) {
+            entries.remove(path);
+        }
+        entries.putAll(changes.current);
+    }
+
+    /**
+     * <pre>
+     * 用重新遍历得到的文件列表更新清单，返回与更新前相比的变化.
+     *      需要计算哈希值的文件并行读取
+     * @param crawled ：CorpusCrawler遍历得到的文件列表
+     * @return ：变化
+     * </pre>
+     */
+    public ChangeSet update(List<FileEntry> crawled) {
+        ChangeSet changes = diff(crawled);
+        accept(changes);
+        return changes;
+    }
+
+    /**
+     * 与update(List)相同，但不修改清单
+     * @param crawled ：CorpusCrawler遍历得到的文件列表
+     * @return ：变化
+     */
+    public ChangeSet diff(List<FileEntry> crawled) {
+        Map<String, FileEntry> current = new TreeMap<>();
+        for (FileEntry entry : crawled) {
+            current.put(entry.path, entry);
+        }
+        Set<String> scope = new TreeSet<>(entries.keySet());
+        scope.addAll(current.keySet());
+        return diff(scope, current);
+    }
+
+    /**
+     * <pre>
+     * 只重新检查指定的路径，更新清单并返回这些路径上的变化.
+     *      路径可以是文件，也可以是目录：现在是目录的递归遍历其中的文件，
+     *      原来是目录的(清单里有以它为前缀的文件)一起检查，已经不存在的算作删除.
+     *      用于文件系统事件通知了哪些路径发生变化的场合，代价只与这些路径有关
+     * @param paths ：发生变化的文件或目录的绝对路径
+     * @return ：变化
+     * </pre>
+     */
+    public ChangeSet update(Collection<String> paths) {
+        ChangeSet changes = diff(paths);
+        accept(changes);
+        return changes;
+    }
+
+    /**
+     * 与update(Collection)相同，但不修改清单
+     * @param paths ：发生变化的文件或目录的绝对路径
+     * @return ：变化
+     */
+    public ChangeSet diff(Collection<String> paths) {
+        Map<String, FileEntry> current = new TreeMap<>();
+        Set<String> scope = new TreeSet<>();
+        CorpusCrawler crawler = null;
+        for (String path : paths) {
+            BasicFileAttributes attrs = null;
+            try {
+                attrs = Files.readAttributes(Paths.get(path), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (IOException e) {
+                // 文件已经被删除
+            }
+            if (attrs != null && attrs.isRegularFile()) {
+                current.put(path, new FileEntry(path, attrs.size(), attrs.lastModifiedTime().toMillis(), 0));
+            } else if (attrs != null && attrs.isDirectory()) {
+                if (crawler == null) {
+                    crawler = new CorpusCrawler();
+                }
+                for (FileEntry entry : crawler.crawl(path)) {
+                    current.put(entry.path, entry);
+                }
+            }
+            scope.add(path);
+            String prefix = path + File.separator;
+            scope.addAll(((TreeMap<String, FileEntry>) entries).subMap(prefix, prefix + Character.MAX_VALUE).keySet());
+        }
+        scope.addAll(current.keySet());
+        return diff(scope, current);
+    }
+
+    /**
+     * 比较指定范围内的路径更新前后的状态，得到变化，不修改清单
+     * @param scope ：比较的路径范围
+     * @param current ：范围内现在存在的文件
+     * @return ：变化
+     */
+    private ChangeSet diff(Set<String> scope, Map<String, FileEntry> current) {
+        List<FileEntry> toHash = new ArrayList<>();
+        for (FileEntry entry : current.values()) {
+            FileEntry old = entries.get(entry.path);
+            if (old != null && old.size == entry.size && old.lastModified == entry.lastModified) {
+                entry.hash = old.hash;
+            } else {
+                toHash.add(entry);
+            }
+        }
+        toHash.parallelStream().forEach(entry -> entry.hash = hash(entry.path));
+
+        ChangeSet changes = new ChangeSet(current);
+        for (String path : scope) {
+            FileEntry old = entries.get(path);
+            FileEntry now = current.get(path);
+            if (old == null && now == null) {
+                continue;
+            }
+            if (old == null) {
+                changes.added.add(path);
+            } else if (now == null) {
+                changes.deleted.add(path);
+            } else if (old.hash != now.hash || old.size != now.size) {
+                changes.modified.add(path);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * 计算文件内容的CRC32C哈希值，高32位是文件长度
+     * @param path ：文件绝对路径
+     * @return ：哈希值；文件无法读取时返回-1
+     */
+    static long hash(String path) {
+        CRC32C crc = new CRC32C();
+        byte[] buf = new byte[BUFFER_SIZE];
+        long length = 0;
+        try (InputStream in = new FileInputStream(path)) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                crc.update(buf, 0, n);
+                length += n;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return -1;
+        }
+        return (length << 32) | crc.getValue();
+    }
+
+    /**
+     * 从文件加载清单
+     * @param file ：清单文件
+     */
+    public void load(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("不是清单文件: " + file);
+            }
+            entries.clear();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                long hash = in.readLong();
+                entries.put(path, new FileEntry(path, size, lastModified, hash));
+            }
+        }
+    }
+
+    /**
+     * 把清单保存到文件
+     * @param file ：清单文件
+     */
+    public void save(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(entries.size());
+            for (FileEntry entry : entries.values()) {
+                out.writeUTF(entry.path);
+                out.writeLong(entry.size);
+                out.writeLong(entry.lastModified);
+                out.writeLong(entry.hash);
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package hust.cs.javacourse.search.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 元素为int的可变长数组，避免List&lt;Integer&gt;的装箱开销
+ */
+public class IntArrayList {
+    /**
+     * 元素数组，只有前size个元素有效
+     */
+    private int[] elements;
+
+    /**
+     * 元素个数
+     */
+    private int size = 0;
+
+    /**
+     * 缺省构造函数
+     */
+    public IntArrayList() {
+        this(4);
+    }
+
+    /**
+     * 构造函数
+     * @param capacity ：初始容量
+     */
+    public IntArrayList(int capacity) {
+        this.elements = new int[Math.max(1, capacity)];
+    }
+
+    /**
+     * 在末尾添加元素
+     * @param value ：要添加的元素
+     */
+    public void add(int value) {
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, size * 2);
+        }
+        elements[size++] = value;
+    }
+
+    /**
+     * 返回指定下标的元素
+     * @param index ：下标
+     * @return ：元素
+     */
+    public int get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return elements[index];
+    }
+
+    /**
+     * 替换指定下标的元素
+     * @param index ：下标
+     * @param value ：新的元素
+     */
+    public void set(int index, int value) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        elements[index] = value;
+    }
+
+    /**
+     * 是否包含指定元素
+     * @param value ：元素
+     * @return ：包含返回true，否则返回false
+     */
+    public boolean contains(int value) {
+        for (int i = 0; i < size; i++) {
+            if (elements[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 返回元素个数
+     * @return ：元素个数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 是否为空
+     * @return ：为空返回true，否则返回false
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 返回包含全部元素的新数组
+     * @return ：int数组
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(elements, size);
+    }
+
+    /**
+     * 返回包含全部元素的List&lt;Integer&gt;
+     * @return ：装箱后的列表
+     */
+    public List<Integer> toList() {
+        List<Integer> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(elements[i]);
+        }
+        return list;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
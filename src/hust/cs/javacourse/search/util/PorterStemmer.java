@@ -0,0 +1,478 @@
+package hust.cs.javacourse.search.util;
+
+/**
+ * <pre>
+ * PorterStemmer实现Porter词干提取算法(M.F. Porter, 1980)，把英文单词的屈折变化形式还原成词干，
+ * 例如connected、connecting、connection都还原成connect.
+ *      单词必须已经是小写的; 长度不超过2的单词不处理.
+ *      对象内部有可重复使用的字符缓冲区，不是线程安全的，每个线程应该使用自己的对象.
+ * </pre>
+ */
+public class PorterStemmer {
+    /**
+     * 字符缓冲区，[0, k]是当前的单词
+     */
+    private char[] b = new char[64];
+
+    /**
+     * 单词最后一个字符的下标
+     */
+    private int k;
+
+    /**
+     * 当前考察的后缀之前的词干最后一个字符的下标
+     */
+    private int j;
+
+    public PorterStemmer() {
+    }
+
+    /**
+     * 提取单词的词干
+     * @param word ：小写的单词
+     * @return ：词干；与单词相同时返回原来的String对象
+     */
+    public String stem(String word) {
+        int length = word.length();
+        if (length <= 2) {
+            return word;
+        }
+        if (b.length < length) {
+            b = new char[Math.max(length, b.length * 2)];
+        }
+        word.getChars(0, length, b, 0);
+        int stemLength = stem(length);
+        return unchanged(word, stemLength) ? word : new String(b, 0, stemLength);
+    }
+
+    /**
+     * 判断缓冲区里的词干是否与单词相同. 例如happy -> happi长度不变但内容变了
+     * @param word ：单词
+     * @param stemLength ：词干长度
+     * @return ：相同返回true
+     */
+    private boolean unchanged(String word, int stemLength) {
+        if (stemLength != word.length()) {
+            return false;
+        }
+        for (int i = 0; i < stemLength; i++) {
+            if (b[i] != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 对缓冲区里的单词依次执行算法的各个步骤
+     * @param length ：单词长度
+     * @return ：词干长度
+     */
+    private int stem(int length) {
+        k = length - 1;
+        step1ab();
+        step1c();
+        step2();
+        step3();
+        step4();
+        step5();
+        return k + 1;
+    }
+
+    /**
+     * 下标i处的字符是否是辅音. y在辅音之后时是元音
+     */
+    private boolean cons(int i) {
+        switch (b[i]) {
+            case 'a':
+            case 'e':
+            case 'i':
+            case 'o':
+            case 'u':
+                return false;
+            case 'y':
+                return i == 0 || !cons(i - 1);
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * <pre>
+     * 计算[0, j]之间(元音序列,辅音序列)对的个数m，单词的形式为 [C](VC){m}[V]
+     * </pre>
+     */
+    private int m() {
+        int n = 0;
+        int i = 0;
+        while (true) {
+            if (i > j) {
+                return n;
+            }
+            if (!cons(i)) {
+                break;
+            }
+            i++;
+        }
+        i++;
+        while (true) {
+            while (true) {
+                if (i > j) {
+                    return n;
+                }
+                if (cons(i)) {
+                    break;
+                }
+                i++;
+            }
+            i++;
+            n++;
+            while (true) {
+                if (i > j) {
+                    return n;
+                }
+                if (!cons(i)) {
+                    break;
+                }
+                i++;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * [0, j]里是否含有元音
+     */
+    private boolean vowelInStem() {
+        for (int i = 0; i <= j; i++) {
+            if (!cons(i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * j和j-1处是否是相同的辅音
+     */
+    private boolean doublec(int j) {
+        return j >= 1 && b[j] == b[j - 1] && cons(j);
+    }
+
+    /**
+     * <pre>
+     * i-2、i-1、i处是否是 辅音-元音-辅音，且最后的辅音不是w、x、y.
+     * 用于在去掉后缀后补上e，例如 cav(e)、lov(e)、hop(e)，但不处理snow、box、tray
+     * </pre>
+     */
+    private boolean cvc(int i) {
+        if (i < 2 || !cons(i) || cons(i - 1) || !cons(i - 2)) {
+            return false;
+        }
+        char ch = b[i];
+        return ch != 'w' && ch != 'x' && ch != 'y';
+    }
+
+    /**
+     * 单词是否以s结尾，是的话把j设为后缀之前的位置
+     */
+    private boolean ends(String s) {
+        int l = s.length();
+        int o = k - l + 1;
+        if (o < 0) {
+            return false;
+        }
+        for (int i = 0; i < l; i++) {
+            if (b[o + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        j = k - l;
+        return true;
+    }
+
+    /**
+     * 把[j+1, k]替换成s
+     */
+    private void setto(String s) {
+        int l = s.length();
+        int o = j + 1;
+        if (o + l > b.length) {
+            char[] bigger = new char[o + l];
+            System.arraycopy(b, 0, bigger, 0, o);
+            b = bigger;
+        }
+        s.getChars(0, l, b, o);
+        k = j + l;
+    }
+
+    /**
+     * m()大于0时把[j+1, k]替换成s
+     */
+    private void r(String s) {
+        if (m() > 0) {
+            setto(s);
+        }
+    }
+
+    /**
+     * <pre>
+     * 去掉复数和-ed、-ing. 例如
+     *      caresses -> caress, ponies -> poni, cats -> cat,
+     *      feed -> feed, agreed -> agree, plastered -> plaster,
+     *      motoring -> motor, sing -> sing, hopping -> hop, filing -> file
+     * </pre>
+     */
+    private void step1ab() {
+        if (b[k] == 's') {
+            if (ends("sses")) {
+                k -= 2;
+            } else if (ends("ies")) {
+                setto("i");
+            } else if (b[k - 1] != 's') {
+                k--;
+            }
+        }
+        if (ends("eed")) {
+            if (m() > 0) {
+                k--;
+            }
+        } else if ((ends("ed") || ends("ing")) && vowelInStem()) {
+            k = j;
+            if (ends("at")) {
+                setto("ate");
+            } else if (ends("bl")) {
+                setto("ble");
+            } else if (ends("iz")) {
+                setto("ize");
+            } else if (doublec(k)) {
+                k--;
+                char ch = b[k];
+                if (ch == 'l' || ch == 's' || ch == 'z') {
+                    k++;
+                }
+            } else if (m() == 1 && cvc(k)) {
+                setto("e");
+            }
+        }
+    }
+
+    /**
+     * 词干中有元音时把结尾的y换成i
+     */
+    private void step1c() {
+        if (ends("y") && vowelInStem()) {
+            b[k] = 'i';
+        }
+    }
+
+    /**
+     * 把双后缀换成单后缀，例如 -ization(= -ize + -ation) 换成 -ize. 要求m()大于0
+     */
+    private void step2() {
+        if (k == 0) {
+            return;
+        }
+        switch (b[k - 1]) {
+            case 'a':
+                if (ends("ational")) {
+                    r("ate");
+                } else if (ends("tional")) {
+                    r("tion");
+                }
+                break;
+            case 'c':
+                if (ends("enci")) {
+                    r("ence");
+                } else if (ends("anci")) {
+                    r("ance");
+                }
+                break;
+            case 'e':
+                if (ends("izer")) {
+                    r("ize");
+                }
+                break;
+            case 'l':
+                if (ends("bli")) {
+                    r("ble");
+                } else if (ends("alli")) {
+                    r("al");
+                } else if (ends("entli")) {
+                    r("ent");
+                } else if (ends("eli")) {
+                    r("e");
+                } else if (ends("ousli")) {
+                    r("ous");
+                }
+                break;
+            case 'o':
+                if (ends("ization")) {
+                    r("ize");
+                } else if (ends("ation")) {
+                    r("ate");
+                } else if (ends("ator")) {
+                    r("ate");
+                }
+                break;
+            case 's':
+                if (ends("alism")) {
+                    r("al");
+                } else if (ends("iveness")) {
+                    r("ive");
+                } else if (ends("fulness")) {
+                    r("ful");
+                } else if (ends("ousness")) {
+                    r("ous");
+                }
+                break;
+            case 't':
+                if (ends("aliti")) {
+                    r("al");
+                } else if (ends("iviti")) {
+                    r("ive");
+                } else if (ends("biliti")) {
+                    r("ble");
+                }
+                break;
+            case 'g':
+                if (ends("logi")) {
+                    r("log");
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 处理 -ic-、-full、-ness 等，与step2类似
+     */
+    private void step3() {
+        switch (b[k]) {
+            case 'e':
+                if (ends("icate")) {
+                    r("ic");
+                } else if (ends("ative")) {
+                    r("");
+                } else if (ends("alize")) {
+                    r("al");
+                }
+                break;
+            case 'i':
+                if (ends("iciti")) {
+                    r("ic");
+                }
+                break;
+            case 'l':
+                if (ends("ical")) {
+                    r("ic");
+                } else if (ends("ful")) {
+                    r("");
+                }
+                break;
+            case 's':
+                if (ends("ness")) {
+                    r("");
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 在m()大于1时去掉 -ant、-ence 等后缀
+     */
+    private void step4() {
+        if (k == 0) {
+            return;
+        }
+        switch (b[k - 1]) {
+            case 'a':
+                if (ends("al")) {
+                    break;
+                }
+                return;
+            case 'c':
+                if (ends("ance") || ends("ence")) {
+                    break;
+                }
+                return;
+            case 'e':
+                if (ends("er")) {
+                    break;
+                }
+                return;
+            case 'i':
+                if (ends("ic")) {
+                    break;
+                }
+                return;
+            case 'l':
+                if (ends("able") || ends("ible")) {
+                    break;
+                }
+                return;
+            case 'n':
+                if (ends("ant") || ends("ement") || ends("ment") || ends("ent")) {
+                    break;
+                }
+                return;
+            case 'o':
+                if (ends("ion") && j >= 0 && (b[j] == 's' || b[j] == 't')) {
+                    break;
+                }
+                if (ends("ou")) {
+                    break;
+                }
+                return;
+            case 's':
+                if (ends("ism")) {
+                    break;
+                }
+                return;
+            case 't':
+                if (ends("ate") || ends("iti")) {
+                    break;
+                }
+                return;
+            case 'u':
+                if (ends("ous")) {
+                    break;
+                }
+                return;
+            case 'v':
+                if (ends("ive")) {
+                    break;
+                }
+                return;
+            case 'z':
+                if (ends("ize")) {
+                    break;
+                }
+                return;
+            default:
+                return;
+        }
+        if (m() > 1) {
+            k = j;
+        }
+    }
+
+    /**
+     * m()大于1时去掉结尾的e，m()大于1时把结尾的-ll变成-l
+     */
+    private void step5() {
+        j = k;
+        if (b[k] == 'e') {
+            int a = m();
+            if (a > 1 || a == 1 && !cvc(k - 1)) {
+                k--;
+            }
+        }
+        if (b[k] == 'l' && doublec(k) && m() > 1) {
+            k--;
+        }
+    }
+}
@@ -36,10 +36,10 @@ public class StringSplitter {
         int lastEnd = 0;
         while(match.find()){
             part = input.substring(lastEnd, match.start(0));
+            lastEnd = match.end(0); //开头的分隔符也要跳过，否则会被并入第一个单词
             if( (part != null && part.equals("")) || part == null)
                 continue;
             list.add(part);
-            lastEnd = match.end(0);
         }
         //取得最后一部分
         if(lastEnd < input.length()){